@@ -0,0 +1,367 @@
+package com.samsungxr.assettests;
+
+import android.os.Debug;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.IAssetEvents;
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRImportSettings;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRTexture;
+import com.samsungxr.unittestutils.SXRModelCorpus;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.utility.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measures how long SXRAssetLoader.loadModel takes for every model in the
+ * jassimp/ and x3d/ trees at the top of the repository, the corpus
+ * AssetImportTests loads by URL.
+ * <p>
+ * The models are enumerated from the {@link SXRModelCorpus} manifest, which
+ * also lists the files each model reads. The size of a model, which the
+ * throughput is computed from, is the sum of all of them, gltf buffers and
+ * textures included. Models are loaded from the copy runtest pushes to the
+ * device, without it from GitHub, then the times include the download.
+ * <p>
+ * Each model is loaded once cold, the first time it is seen in the process, and
+ * then WARM_RUNS times warm. A load is split into two phases at the asset events:
+ * import, from calling loadModel until onModelLoaded, and textures, from there
+ * until onAssetLoaded, which is dominated by texture decoding. While a model loads
+ * the Java and native heap are sampled to find the high water mark above the
+ * heap size before the load.
+ * <p>
+ * Every model gets a performance result. A table with the import throughput
+ * per format is written to "&lt;corpus&gt;_import_formats.csv" in the results directory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AssetImportPerfTests
+{
+    private static final String TAG = AssetImportPerfTests.class.getSimpleName();
+    private static final int WARM_RUNS = 3;
+    private static final long LOAD_TIMEOUT_MS = 120000;
+    private static final long HEAP_SAMPLE_MS = 2;
+
+    private SXRTestUtils mTestUtils;
+    private Waiter mWaiter;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @Before
+    public void setUp() throws TimeoutException
+    {
+        mTestUtils = new SXRTestUtils(ActivityRule.getActivity());
+        mTestUtils.waitForOnInit();
+        mWaiter = new Waiter();
+    }
+
+    @Test
+    public void importJassimpCorpus() throws Exception
+    {
+        importCorpus("jassimp");
+    }
+
+    @Test
+    public void importX3dCorpus() throws Exception
+    {
+        importCorpus("x3d");
+    }
+
+    /*
+     * Timing of one loadModel call.
+     */
+    private static final class Load
+    {
+        long importNanos;
+        long textureNanos;
+        long peakJavaBytes;
+        long peakNativeBytes;
+        int textures;
+        int textureErrors;
+        int errors;
+
+        long getTotalNanos() { return importNanos + textureNanos; }
+    }
+
+    /*
+     * Accumulated results of all models of a format.
+     */
+    private static final class FormatStats
+    {
+        int models;
+        long bytes;
+        long coldImportNanos;
+        long warmImportNanos;
+        long textureNanos;
+        long peakJavaBytes;
+        long peakNativeBytes;
+    }
+
+    private void importCorpus(String corpus) throws Exception
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+        SXRModelCorpus modelCorpus = SXRModelCorpus.load();
+        List<SXRModelCorpus.Model> models = modelCorpus.getModels(corpus);
+        Map<String, FormatStats> formats = new TreeMap<String, FormatStats>();
+
+        mWaiter.assertFalse(models.isEmpty());
+        for (SXRModelCorpus.Model model : models)
+        {
+            String path = modelCorpus.getLoadPath(model);
+            String format = model.getFormat();
+            long bytes = model.getBytes();
+            Load cold = load(ctx, path);
+            long[] warmImport = new long[WARM_RUNS];
+            long[] warmTextures = new long[WARM_RUNS];
+            long peakJava = cold.peakJavaBytes;
+            long peakNative = cold.peakNativeBytes;
+
+            for (int i = 0; i < WARM_RUNS; ++i)
+            {
+                Load warm = load(ctx, path);
+                warmImport[i] = warm.importNanos;
+                warmTextures[i] = warm.textureNanos;
+                peakJava = Math.max(peakJava, warm.peakJavaBytes);
+                peakNative = Math.max(peakNative, warm.peakNativeBytes);
+            }
+            long warmImportNanos = median(warmImport);
+            long warmTextureNanos = median(warmTextures);
+
+            Log.e("PERFORMANCE", "%s %d KB in %d files: cold %.1f + %.1f ms, warm %.1f + %.1f ms, %d textures (%d errors), peak heap %d KB java %d KB native",
+                  model.path, bytes / 1024, model.files.size(), cold.importNanos / 1e6, cold.textureNanos / 1e6,
+                  warmImportNanos / 1e6, warmTextureNanos / 1e6, cold.textures, cold.textureErrors,
+                  peakJava / 1024, peakNative / 1024);
+            mWaiter.assertEquals(0, cold.errors);
+            writeResult(model, modelCorpus.isLocal(), cold, warmImportNanos, warmTextureNanos, peakJava, peakNative);
+
+            FormatStats stats = formats.get(format);
+            if (stats == null)
+            {
+                stats = new FormatStats();
+                formats.put(format, stats);
+            }
+            stats.models++;
+            stats.bytes += bytes;
+            stats.coldImportNanos += cold.importNanos;
+            stats.warmImportNanos += warmImportNanos;
+            stats.textureNanos += warmTextureNanos;
+            stats.peakJavaBytes = Math.max(stats.peakJavaBytes, peakJava);
+            stats.peakNativeBytes = Math.max(stats.peakNativeBytes, peakNative);
+        }
+        writeFormatTable(corpus, formats);
+    }
+
+    /*
+     * Loads a model, not adding it to the scene, and measures the phases.
+     */
+    private Load load(SXRContext ctx, String path) throws Exception
+    {
+        final Load result = new Load();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long[] modelLoaded = { 0 };
+        final HeapSampler sampler = new HeapSampler();
+        IAssetEvents listener = new IAssetEvents()
+        {
+            public void onAssetLoaded(SXRContext context, SXRNode model, String filePath, String errors)
+            {
+                if (model == null)
+                {
+                    result.errors++;
+                }
+                done.countDown();
+            }
+            public void onModelLoaded(SXRContext context, SXRNode model, String filePath)
+            {
+                modelLoaded[0] = System.nanoTime();
+            }
+            public void onTextureLoaded(SXRContext context, SXRTexture texture, String filePath)
+            {
+                result.textures++;
+            }
+            public void onModelError(SXRContext context, String error, String filePath)
+            {
+                result.errors++;
+            }
+            public void onTextureError(SXRContext context, String error, String filePath)
+            {
+                result.textureErrors++;
+            }
+        };
+        EnumSet<SXRImportSettings> settings = SXRImportSettings.getRecommendedSettings();
+
+        Runtime.getRuntime().gc();
+        ctx.getEventReceiver().addListener(listener);
+        sampler.start();
+        long start = System.nanoTime();
+        try
+        {
+            ctx.getAssetLoader().loadModel(path, settings, true, null);
+            if (!done.await(LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+            {
+                throw new TimeoutException(path + " not loaded after " + LOAD_TIMEOUT_MS + " ms");
+            }
+        }
+        finally
+        {
+            sampler.finish();
+            ctx.getEventReceiver().removeListener(listener);
+        }
+        long end = System.nanoTime();
+        long split = (modelLoaded[0] != 0) ? modelLoaded[0] : end;
+        result.importNanos = split - start;
+        result.textureNanos = end - split;
+        result.peakJavaBytes = sampler.getPeakJavaBytes();
+        result.peakNativeBytes = sampler.getPeakNativeBytes();
+        return result;
+    }
+
+    /*
+     * Samples the heap sizes on a separate thread and keeps the
+     * largest growth over the sizes when sampling started.
+     */
+    private static final class HeapSampler extends Thread
+    {
+        private final long mJavaBase;
+        private final long mNativeBase;
+        private volatile boolean mRunning = true;
+        private long mPeakJava = 0;
+        private long mPeakNative = 0;
+
+        HeapSampler()
+        {
+            super(TAG + "-heap");
+            mJavaBase = getJavaHeap();
+            mNativeBase = Debug.getNativeHeapAllocatedSize();
+        }
+
+        private static long getJavaHeap()
+        {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+
+        @Override
+        public void run()
+        {
+            while (mRunning)
+            {
+                sample();
+                try
+                {
+                    Thread.sleep(HEAP_SAMPLE_MS);
+                }
+                catch (InterruptedException ex)
+                {
+                    return;
+                }
+            }
+        }
+
+        private synchronized void sample()
+        {
+            mPeakJava = Math.max(mPeakJava, getJavaHeap() - mJavaBase);
+            mPeakNative = Math.max(mPeakNative, Debug.getNativeHeapAllocatedSize() - mNativeBase);
+        }
+
+        void finish() throws InterruptedException
+        {
+            mRunning = false;
+            join();
+            sample();
+        }
+
+        synchronized long getPeakJavaBytes() { return mPeakJava; }
+        synchronized long getPeakNativeBytes() { return mPeakNative; }
+    }
+
+    private static long median(long[] values)
+    {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private void writeResult(SXRModelCorpus.Model model, boolean local, Load cold,
+                             long warmImportNanos, long warmTextureNanos, long peakJava, long peakNative)
+    {
+        try
+        {
+            new SXRPerfResult(getClass().getSimpleName(), model.path.replace('/', '_').replace(' ', '_'))
+                    .setParameter("model", model.path)
+                    .setParameter("format", model.getFormat())
+                    .setParameter("bytes", model.getBytes())
+                    .setParameter("files", model.files.size())
+                    .setParameter("source", local ? "sdcard" : "url")
+                    .setParameter("warm_runs", WARM_RUNS)
+                    .setMetric("cold_import_ms", cold.importNanos / 1e6)
+                    .setMetric("cold_texture_ms", cold.textureNanos / 1e6)
+                    .setMetric("warm_import_ms", warmImportNanos / 1e6)
+                    .setMetric("warm_texture_ms", warmTextureNanos / 1e6)
+                    .setMetric("peak_java_kb", peakJava / 1024.0)
+                    .setMetric("peak_native_kb", peakNative / 1024.0)
+                    .write();
+        }
+        catch (IOException ex)
+        {
+            Log.e(TAG, "Cannot write results of %s: %s", model.path, ex.getMessage());
+        }
+    }
+
+    private void writeFormatTable(String corpus, Map<String, FormatStats> formats) throws IOException
+    {
+        File file = new File(SXRTestUtils.getResultsDir(getClass().getSimpleName()), corpus + "_import_formats.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+        try
+        {
+            writer.write("format,models,kbytes,cold_import_ms,warm_import_ms,warm_texture_ms,"
+                         + "cold_mb_per_s,warm_mb_per_s,peak_java_kb,peak_native_kb\n");
+            for (Map.Entry<String, FormatStats> e : formats.entrySet())
+            {
+                FormatStats s = e.getValue();
+                String row = String.format(Locale.US, "%s,%d,%d,%.2f,%.2f,%.2f,%.3f,%.3f,%d,%d\n",
+                                           e.getKey(), s.models, s.bytes / 1024,
+                                           s.coldImportNanos / 1e6, s.warmImportNanos / 1e6, s.textureNanos / 1e6,
+                                           throughput(s.bytes, s.coldImportNanos),
+                                           throughput(s.bytes, s.warmImportNanos),
+                                           s.peakJavaBytes / 1024, s.peakNativeBytes / 1024);
+                writer.write(row);
+                Log.e("PERFORMANCE", "%s %s", corpus, row.trim());
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    private static double throughput(long bytes, long nanos)
+    {
+        return (nanos > 0) ? (bytes * 1000.0) / nanos : 0.0;
+    }
+}
@@ -0,0 +1,243 @@
+package com.samsungxr.assettests;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.SXRContext;
+import com.samsungxr.unittestutils.SXRAssetLoadTracker;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.utility.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Loads many models of mixed formats at the same time, the way an
+ * application loads its assets at scene start.
+ * <p>
+ * For N = 1, 2, 4 ... 64 concurrent loads the models are issued back to back
+ * without waiting, each with its own {@link SXRAssetLoadTracker.Request} as
+ * handler, and the test waits for all of them. Every request must complete
+ * exactly once without a model error. The aggregate throughput and the request
+ * latencies are reported for each N.
+ * <p>
+ * Before the rounds every model is loaded alone to get its solo latency.
+ * Contention is the mean over the requests of a round of the latency of each
+ * request divided by the solo latency of its model, so the rounds with more
+ * and more expensive models mixed in are not penalized for the model cost.
+ * 1 means the loads do not slow each other down at all, N means they are
+ * effectively serialized.
+ * <p>
+ * A table with all N is written to "load_stress.csv" in the results directory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AssetLoadStressTests
+{
+    private static final String TAG = AssetLoadStressTests.class.getSimpleName();
+    private static final int MAX_CONCURRENT = 64;
+    private static final long LOAD_TIMEOUT_MS = 300000;
+    private static final List<String> MODELS = Arrays.asList(
+            "jassimp/astro_boy.dae",
+            "x3d/teapotandtorus.x3d",
+            "jassimp/maleOutfitJ.glb",
+            "jassimp/faceBlendShapes.fbx",
+            "x3d/teapottorusdirlights.x3d",
+            "jassimp/bench.dae",
+            "x3d/spotlighttestThirteen.x3d",
+            "jassimp/faceBlendShapes_center.fbx");
+
+    private SXRTestUtils mTestUtils;
+    private Waiter mWaiter;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @Before
+    public void setUp() throws TimeoutException
+    {
+        mTestUtils = new SXRTestUtils(ActivityRule.getActivity());
+        mTestUtils.waitForOnInit();
+        mWaiter = new Waiter();
+    }
+
+    /*
+     * Results of loading N models at once.
+     */
+    private static final class Round
+    {
+        int concurrent;
+        long wallNanos;
+        long meanLatencyNanos;
+        long medianLatencyNanos;
+        long maxLatencyNanos;
+        double contention;
+        int textures;
+        int textureErrors;
+
+        double getModelsPerSecond()
+        {
+            return (wallNanos > 0) ? concurrent * 1e9 / wallNanos : 0.0;
+        }
+    }
+
+    @Test
+    public void loadModelsConcurrently() throws Exception
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+        Round[] rounds = new Round[7];
+        long[] solo = new long[MODELS.size()];
+        int n = 0;
+
+        // load every model once so the first round does not pay for class loading
+        load(ctx, MODELS, null);
+        for (int m = 0; m < MODELS.size(); ++m)
+        {
+            solo[m] = load(ctx, MODELS.subList(m, m + 1), null).meanLatencyNanos;
+            Log.e(TAG, "%s alone: %.1f ms", MODELS.get(m), solo[m] / 1e6);
+        }
+        for (int concurrent = 1; concurrent <= MAX_CONCURRENT; concurrent *= 2)
+        {
+            List<String> paths = new ArrayList<String>(concurrent);
+
+            for (int i = 0; i < concurrent; ++i)
+            {
+                paths.add(MODELS.get(i % MODELS.size()));
+            }
+            Round round = load(ctx, paths, solo);
+            rounds[n++] = round;
+            writeResult(round);
+        }
+        writeTable(rounds, n);
+    }
+
+    /*
+     * Loads all paths at once. With the solo latencies of the models the
+     * contention of the round is computed as well.
+     */
+    private Round load(SXRContext ctx, List<String> paths, long[] solo) throws Exception
+    {
+        SXRAssetLoadTracker tracker = new SXRAssetLoadTracker();
+        Round round = new Round();
+        final int concurrent = paths.size();
+
+        Runtime.getRuntime().gc();
+        long start = System.nanoTime();
+        for (String path : paths)
+        {
+            SXRAssetLoadTracker.Request request = tracker.newRequest(path);
+            try
+            {
+                ctx.getAssetLoader().loadModel(path, request);
+            }
+            catch (IOException ex)
+            {
+                mWaiter.fail(ex);
+            }
+        }
+        if (!tracker.await(LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+        {
+            throw new TimeoutException(tracker.getPending() + " of " + concurrent
+                                       + " models not loaded after " + LOAD_TIMEOUT_MS + " ms");
+        }
+        round.wallNanos = System.nanoTime() - start;
+        round.concurrent = concurrent;
+
+        List<SXRAssetLoadTracker.Request> requests = tracker.getRequests();
+        long[] latencies = new long[requests.size()];
+        long total = 0;
+        double slowdown = 0;
+        int i = 0;
+
+        mWaiter.assertEquals(concurrent, requests.size());
+        for (SXRAssetLoadTracker.Request r : requests)
+        {
+            mWaiter.assertEquals(i, r.getId());
+            mWaiter.assertEquals(1, r.getCompletions());
+            if ((r.getModel() == null) || (r.getErrors() != null))
+            {
+                Log.e(TAG, "%s", r.toString());
+            }
+            mWaiter.assertNotNull(r.getModel());
+            latencies[i++] = r.getLatencyNanos();
+            total += r.getLatencyNanos();
+            if (solo != null)
+            {
+                slowdown += (double) r.getLatencyNanos() / solo[MODELS.indexOf(r.getFilePath())];
+            }
+            round.textures += r.getTextures();
+            round.textureErrors += r.getTextureErrors();
+        }
+        Arrays.sort(latencies);
+        round.meanLatencyNanos = total / latencies.length;
+        round.medianLatencyNanos = latencies[latencies.length / 2];
+        round.maxLatencyNanos = latencies[latencies.length - 1];
+        round.contention = slowdown / latencies.length;
+        return round;
+    }
+
+    private void writeResult(Round round)
+    {
+        Log.e("PERFORMANCE", "%d concurrent loads: %.1f ms, %.2f models/s, latency mean %.1f median %.1f max %.1f ms, contention %.2f, %d textures (%d errors)",
+              round.concurrent, round.wallNanos / 1e6, round.getModelsPerSecond(),
+              round.meanLatencyNanos / 1e6, round.medianLatencyNanos / 1e6, round.maxLatencyNanos / 1e6,
+              round.contention, round.textures, round.textureErrors);
+        try
+        {
+            // ms per model rather than models per second so that smaller is better
+            new SXRPerfResult(getClass().getSimpleName(), "concurrent_" + round.concurrent)
+                    .setParameter("concurrent", round.concurrent)
+                    .setParameter("models", MODELS.size())
+                    .setMetric("wall_ms", round.wallNanos / 1e6)
+                    .setMetric("ms_per_model", round.wallNanos / (1e6 * round.concurrent))
+                    .setMetric("mean_latency_ms", round.meanLatencyNanos / 1e6)
+                    .setMetric("max_latency_ms", round.maxLatencyNanos / 1e6)
+                    .setMetric("contention", round.contention)
+                    .write();
+        }
+        catch (IOException ex)
+        {
+            Log.e(TAG, "Cannot write results of %d concurrent loads: %s", round.concurrent, ex.getMessage());
+        }
+    }
+
+    private void writeTable(Round[] rounds, int n) throws IOException
+    {
+        File file = new File(SXRTestUtils.getResultsDir(getClass().getSimpleName()), "load_stress.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+        try
+        {
+            writer.write("concurrent,wall_ms,models_per_s,mean_latency_ms,median_latency_ms,max_latency_ms,contention\n");
+            for (int i = 0; i < n; ++i)
+            {
+                Round r = rounds[i];
+                writer.write(String.format(Locale.US, "%d,%.2f,%.3f,%.2f,%.2f,%.2f,%.3f\n",
+                                           r.concurrent, r.wallNanos / 1e6, r.getModelsPerSecond(),
+                                           r.meanLatencyNanos / 1e6, r.medianLatencyNanos / 1e6,
+                                           r.maxLatencyNanos / 1e6, r.contention));
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.samsungxr.assettests;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.IAssetEvents;
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRImage;
+import com.samsungxr.SXRIndexBuffer;
+import com.samsungxr.SXRMaterial;
+import com.samsungxr.SXRMesh;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRRenderData;
+import com.samsungxr.SXRTexture;
+import com.samsungxr.SXRTextureParameters;
+import com.samsungxr.SXRVertexBuffer;
+import com.samsungxr.unittestutils.SXRModelCache;
+import com.samsungxr.unittestutils.SXRModelCorpus;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.utility.Log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Checks that models loaded from the {@link SXRModelCache} match a fresh
+ * import: hierarchy and transforms, vertex and index data, render state,
+ * materials with their uniforms and texture bindings, and the asset events.
+ * It also measures how much faster the mapped read is than the import,
+ * which includes writing the cache entry.
+ * <p>
+ * The models are read through a fresh cache directory, so the results do not
+ * depend on what earlier runs left in /sdcard/SXRModelCache. Models the cache
+ * cannot represent, like animated or lit ones, are only logged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AssetModelCacheTests
+{
+    private static final String TAG = AssetModelCacheTests.class.getSimpleName();
+    private static final long LOAD_TIMEOUT_MS = 120000;
+    private static final int CACHED_RUNS = 3;
+    private static final List<String> MODELS = Arrays.asList(
+            "jassimp/astroboy/astro_boy.dae",
+            "jassimp/bench/bench.dae",
+            "jassimp/hippo/hippo.obj",
+            "jassimp/gltf/WaterBottle/WaterBottle.gltf",
+            "x3d/general/twoplanesobjects.x3d",
+            "x3d/general/opacitytest01.x3d");
+
+    private SXRTestUtils mTestUtils;
+    private Waiter mWaiter;
+    private SXRModelCorpus mCorpus;
+    private SXRModelCache mCache;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @Before
+    public void setUp() throws TimeoutException, IOException
+    {
+        mTestUtils = new SXRTestUtils(ActivityRule.getActivity());
+        mTestUtils.waitForOnInit();
+        mWaiter = new Waiter();
+        mCorpus = SXRModelCorpus.load();
+
+        File dir = new File(SXRTestUtils.getResultsDir(TAG), "cache");
+        mCache = new SXRModelCache(dir);
+        for (File f : dir.listFiles())
+        {
+            f.delete();
+        }
+    }
+
+    /*
+     * Counts the asset events of one load.
+     */
+    private static final class EventCounter implements IAssetEvents
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        int models = 0;
+        int textures = 0;
+        int textureErrors = 0;
+        int modelErrors = 0;
+
+        public void onAssetLoaded(SXRContext context, SXRNode model, String filePath, String errors)
+        {
+            done.countDown();
+        }
+        public synchronized void onModelLoaded(SXRContext context, SXRNode model, String filePath) { ++models; }
+        public synchronized void onTextureLoaded(SXRContext context, SXRTexture texture, String filePath) { ++textures; }
+        public synchronized void onModelError(SXRContext context, String error, String filePath) { ++modelErrors; }
+        public synchronized void onTextureError(SXRContext context, String error, String filePath) { ++textureErrors; }
+    }
+
+    private SXRModelCorpus.Model getModel(String path)
+    {
+        SXRModelCorpus.Model model = mCorpus.getModel(path);
+
+        mWaiter.assertNotNull(model);
+        return model;
+    }
+
+    @Test
+    public void cachedModelsMatchImportedModels() throws Exception
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+        int converted = 0;
+
+        for (String path : MODELS)
+        {
+            SXRModelCorpus.Model model = getModel(path);
+            String key = mCache.getKey(ctx, model);
+            long start = System.nanoTime();
+            SXRNode imported = mCache.loadModel(ctx, mCorpus, model, LOAD_TIMEOUT_MS);
+            long importNanos = System.nanoTime() - start;
+
+            if (!mCache.getFile(key).isFile())
+            {
+                Log.e("PERFORMANCE", "%s: %.1f ms import, not cacheable", path, importNanos / 1e6);
+                continue;
+            }
+            ++converted;
+            long[] cachedNanos = new long[CACHED_RUNS];
+            SXRNode cached = null;
+            for (int i = 0; i < CACHED_RUNS; ++i)
+            {
+                start = System.nanoTime();
+                cached = mCache.load(ctx, key);
+                cachedNanos[i] = System.nanoTime() - start;
+                mWaiter.assertNotNull(cached);
+            }
+            Arrays.sort(cachedNanos);
+            long cachedMedian = cachedNanos[CACHED_RUNS / 2];
+
+            Log.e("PERFORMANCE", "%s: %.1f ms import and convert, %.1f ms cached, %d KB",
+                  path, importNanos / 1e6, cachedMedian / 1e6, mCache.getFile(key).length() / 1024);
+            compareNodes(path, imported, cached);
+            writeResult(path, mCache.getFile(key).length(), importNanos, cachedMedian);
+        }
+        Log.d(TAG, "%s", mCache.getStatistics());
+        mWaiter.assertTrue(converted > 0);
+    }
+
+    @Test
+    public void cacheHitsReplayImportEvents() throws Exception
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+        SXRModelCorpus.Model model = getModel("jassimp/hippo/hippo.obj");
+        String path = mCorpus.getLoadPath(model);
+        EventCounter imported = new EventCounter();
+        EventCounter cached = new EventCounter();
+
+        mCache.loadModel(ctx, mCorpus, path, imported);
+        mWaiter.assertTrue(imported.done.await(LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        mWaiter.assertEquals(0, mCache.getHits());
+        mWaiter.assertEquals(1, mCache.getStored());
+
+        mCache.loadModel(ctx, mCorpus, path, cached);
+        mWaiter.assertTrue(cached.done.await(LOAD_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        mWaiter.assertEquals(1, mCache.getHits());
+        mWaiter.assertEquals(imported.models, cached.models);
+        mWaiter.assertEquals(imported.textures, cached.textures);
+        mWaiter.assertEquals(imported.textureErrors, cached.textureErrors);
+        mWaiter.assertEquals(0, cached.modelErrors);
+    }
+
+    private void compareNodes(String where, SXRNode expected, SXRNode actual)
+    {
+        where += "/" + expected.getName();
+        mWaiter.assertEquals(expected.getName(), actual.getName());
+        mWaiter.assertTrue(Arrays.equals(expected.getTransform().getLocalModelMatrix(),
+                                         actual.getTransform().getLocalModelMatrix()));
+        mWaiter.assertEquals(expected.getChildrenCount(), actual.getChildrenCount());
+
+        SXRRenderData expectedData = expected.getRenderData();
+        SXRRenderData actualData = actual.getRenderData();
+        if ((expectedData != null) && (expectedData.getMesh() != null))
+        {
+            mWaiter.assertNotNull(actualData);
+            compareMeshes(where, expectedData.getMesh(), actualData.getMesh());
+            mWaiter.assertEquals(expectedData.getRenderingOrder(), actualData.getRenderingOrder());
+            mWaiter.assertEquals(expectedData.getDrawMode(), actualData.getDrawMode());
+            mWaiter.assertEquals(expectedData.getAlphaBlend(), actualData.getAlphaBlend());
+            mWaiter.assertEquals(expectedData.getDepthTest(), actualData.getDepthTest());
+            mWaiter.assertEquals(expectedData.getPassCount(), actualData.getPassCount());
+            for (int p = 0; p < expectedData.getPassCount(); ++p)
+            {
+                mWaiter.assertEquals(expectedData.getPass(p).getCullFace(), actualData.getPass(p).getCullFace());
+                compareMaterials(where, expectedData.getPass(p).getMaterial(), actualData.getPass(p).getMaterial());
+            }
+        }
+        for (int i = 0; i < expected.getChildrenCount(); ++i)
+        {
+            compareNodes(where, expected.getChildByIndex(i), actual.getChildByIndex(i));
+        }
+    }
+
+    private void compareMeshes(String where, SXRMesh expected, SXRMesh actual)
+    {
+        SXRVertexBuffer expectedVerts = expected.getVertexBuffer();
+        SXRVertexBuffer actualVerts = actual.getVertexBuffer();
+        SXRIndexBuffer expectedIndices = expected.getIndexBuffer();
+        SXRIndexBuffer actualIndices = actual.getIndexBuffer();
+        String[] tokens = expectedVerts.getDescriptor().trim().split("[\\s,]+");
+
+        mWaiter.assertEquals(expectedVerts.getDescriptor(), actualVerts.getDescriptor());
+        mWaiter.assertEquals(expectedVerts.getVertexCount(), actualVerts.getVertexCount());
+        for (int i = 0; i + 1 < tokens.length; i += 2)
+        {
+            String name = tokens[i + 1];
+
+            mWaiter.assertEquals(expectedVerts.hasAttribute(name), actualVerts.hasAttribute(name));
+            if (!expectedVerts.hasAttribute(name))
+            {
+                continue;
+            }
+            if (tokens[i].startsWith("int"))
+            {
+                mWaiter.assertTrue(expectedVerts.getIntVec(name).equals(actualVerts.getIntVec(name)));
+            }
+            else if (!expectedVerts.getFloatVec(name).equals(actualVerts.getFloatVec(name)))
+            {
+                mWaiter.fail(where + ": " + name + " differs");
+            }
+        }
+        mWaiter.assertEquals(expectedIndices == null, actualIndices == null);
+        if (expectedIndices != null)
+        {
+            mWaiter.assertEquals(expectedIndices.getIndexSize(), actualIndices.getIndexSize());
+            mWaiter.assertEquals(expectedIndices.getIndexCount(), actualIndices.getIndexCount());
+            if (expectedIndices.getIndexSize() == 2)
+            {
+                mWaiter.assertTrue(expectedIndices.asCharBuffer().equals(actualIndices.asCharBuffer()));
+            }
+            else
+            {
+                mWaiter.assertTrue(expectedIndices.asIntBuffer().equals(actualIndices.asIntBuffer()));
+            }
+        }
+    }
+
+    private void compareMaterials(String where, SXRMaterial expected, SXRMaterial actual)
+    {
+        mWaiter.assertEquals(expected == null, actual == null);
+        if (expected == null)
+        {
+            return;
+        }
+        mWaiter.assertTrue(expected.getShaderType() == actual.getShaderType());
+        mWaiter.assertEquals(expected.getOpacity(), actual.getOpacity());
+        mWaiter.assertEquals(new HashSet<String>(expected.getTextureNames()),
+                             new HashSet<String>(actual.getTextureNames()));
+        for (String key : expected.getTextureNames())
+        {
+            SXRTexture expectedTex = expected.getTexture(key);
+            SXRTexture actualTex = actual.getTexture(key);
+            SXRImage expectedImage = expectedTex.getImage();
+            SXRImage actualImage = actualTex.getImage();
+
+            mWaiter.assertEquals(String.valueOf(expectedTex.getTexCoordAttr()), String.valueOf(actualTex.getTexCoordAttr()));
+            mWaiter.assertEquals(String.valueOf(expectedTex.getTexCoordShaderVar()),
+                                 String.valueOf(actualTex.getTexCoordShaderVar()));
+            mWaiter.assertEquals(getSamplerState(expectedTex), getSamplerState(actualTex));
+            mWaiter.assertEquals(expectedImage == null, actualImage == null);
+            if (expectedImage != null)
+            {
+                mWaiter.assertEquals(expectedImage.getFileName(), actualImage.getFileName());
+                mWaiter.assertEquals(expectedImage.getWidth(), actualImage.getWidth());
+                mWaiter.assertEquals(expectedImage.getHeight(), actualImage.getHeight());
+            }
+        }
+        String[] tokens = expected.getUniformDescriptor().trim().split("[\\s,;]+");
+        for (int i = 0; i + 1 < tokens.length; i += 2)
+        {
+            String name = tokens[i + 1];
+
+            if (!expected.hasUniform(name))
+            {
+                continue;
+            }
+            boolean same = tokens[i].startsWith("int")
+                    ? Arrays.equals(expected.getIntVec(name), actual.getIntVec(name))
+                    : Arrays.equals(expected.getFloatVec(name), actual.getFloatVec(name));
+            if (!same)
+            {
+                mWaiter.fail(where + ": uniform " + name + " differs");
+            }
+        }
+    }
+
+    private static String getSamplerState(SXRTexture texture)
+    {
+        SXRTextureParameters params = texture.getTextureParameters();
+
+        if (params == null)
+        {
+            return "default";
+        }
+        return params.getMinFilterType() + " " + params.getMagFilterType() + " "
+               + params.getWrapSType() + " " + params.getWrapTType();
+    }
+
+    private void writeResult(String path, long bytes, long importNanos, long cachedNanos)
+    {
+        try
+        {
+            new SXRPerfResult(TAG, path.replace('/', '_'))
+                    .setParameter("model", path)
+                    .setParameter("cached_runs", CACHED_RUNS)
+                    .setMetric("import_convert_ms", importNanos / 1e6)
+                    .setMetric("cached_ms", cachedNanos / 1e6)
+                    .setMetric("cache_kb", bytes / 1024.0)
+                    .write();
+        }
+        catch (IOException ex)
+        {
+            Log.e(TAG, "Cannot write results of %s: %s", path, ex.getMessage());
+        }
+    }
+}
@@ -9,6 +9,8 @@ import com.samsungxr.SXRContext;
 import com.samsungxr.SXRImage;
 import com.samsungxr.SXRRenderData;
 import com.samsungxr.SXRScene;
+import com.samsungxr.unittestutils.SXRFrameStats;
+import com.samsungxr.unittestutils.SXRPerfResult;
 import com.samsungxr.unittestutils.SXRTestUtils;
 import com.samsungxr.unittestutils.SXRTestableActivity;
 import com.samsungxr.utility.Log;
@@ -19,6 +21,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeoutException;
@@ -28,6 +31,11 @@ import java.util.concurrent.TimeoutException;
 
 public class CylPerfTests
 {
+    /*
+     * The median frame must fit the budget of the expected frame rate,
+     * 99% of the frames must fit this many budgets.
+     */
+    private static final float P99_BUDGET_FACTOR = 3.0f;
     private SXRTestUtils mTestUtils;
     private Waiter mWaiter;
     private SXRScene mScene;
@@ -68,14 +76,24 @@ public class CylPerfTests
         RenderSetup setup = new RenderSetup(mWaiter, mTestUtils);
         int nframes = (Integer) params.get("frames");
         float expectedFPS = (Float) params.get("fps");
+        float frameBudget = 1000.0f / expectedFPS;
         setup.createTestScene(ctx, params);
         mTestUtils.waitForXFrames(2);
-        long startTime = System.currentTimeMillis();
-        mTestUtils.waitForXFrames(nframes);
-        long endTime = System.currentTimeMillis();
-        float fps =  (1000.0f * nframes) / ((float) (endTime - startTime));
-        Log.e("PERFORMANCE", testName + " FPS = %f, expected %f", fps, expectedFPS);
-        mWaiter.assertTrue(fps >= expectedFPS);
+        SXRFrameStats stats = mTestUtils.measureFrames(nframes, SXRFrameStats.REFRESH_PERIOD_60HZ);
+        Log.e("PERFORMANCE", testName + " FPS = %f, expected %f, %s", stats.getFps(), expectedFPS, stats.toString());
+        try
+        {
+            new SXRPerfResult(getClass().getSimpleName(), testName)
+                    .setParameters(params)
+                    .setFrameStats(stats)
+                    .write();
+        }
+        catch (IOException ex)
+        {
+            Log.e("PERFORMANCE", "Cannot write results of %s: %s", testName, ex.getMessage());
+        }
+        mWaiter.assertTrue(stats.getPercentileMs(50) <= frameBudget);
+        mWaiter.assertTrue(stats.getPercentileMs(99) <= P99_BUDGET_FACTOR * frameBudget);
     }
 
     @Test
@@ -0,0 +1,314 @@
+package com.samsungxr.performance;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.unittestutils.SXRImageComparator;
+import com.samsungxr.unittestutils.SXRImageDiff;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRSSIMComparator;
+import com.samsungxr.unittestutils.SXRTileErrorComparator;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.utility.Log;
+import com.samsungxr.utility.Threads;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Benchmarks {@link SXRImageDiff} against the per-row thread / per-pixel lock
+ * comparison the screenshot tests used before, on real golden masters.
+ * Also measures the cost of the other screenshot comparison strategies.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageDiffPerfTests
+{
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int ITERATIONS = 10;
+    private static final String GOLDEN_A = "TextureTests/testRepeatTexture.png";
+    private static final String GOLDEN_B = "TextureTests/testRepeatTextureUnlit.png";
+
+    private static int[] sPixelsA;
+    private static int[] sPixelsB;
+    private static int sWidth;
+    private static int sHeight;
+    private Waiter mWaiter;
+
+    @BeforeClass
+    public static void loadGoldenMasters() throws Exception
+    {
+        Bitmap a = loadGolden(GOLDEN_A);
+        Bitmap b = loadGolden(GOLDEN_B);
+
+        sWidth = a.getWidth();
+        sHeight = a.getHeight();
+        sPixelsA = new int[sWidth * sHeight];
+        sPixelsB = new int[sWidth * sHeight];
+        a.getPixels(sPixelsA, 0, sWidth, 0, 0, sWidth, sHeight);
+        b.getPixels(sPixelsB, 0, sWidth, 0, 0, sWidth, sHeight);
+        a.recycle();
+        b.recycle();
+    }
+
+    @AfterClass
+    public static void releaseGoldenMasters()
+    {
+        sPixelsA = null;
+        sPixelsB = null;
+    }
+
+    @Before
+    public void setUp()
+    {
+        mWaiter = new Waiter();
+    }
+
+    private static Bitmap loadGolden(String name) throws Exception
+    {
+        String path = SXRTestUtils.DEVICE_TYPE + "/" + name;
+        byte[] data = SXRTestUtils.getGoldenMasterStore().read(path);
+
+        if (data == null)
+        {
+            throw new FileNotFoundException("No golden master " + path);
+        }
+        return BitmapFactory.decodeByteArray(data, 0, data.length);
+    }
+
+    @Test
+    public void tiledDiffMatchesLegacyDiff() throws Exception
+    {
+        mWaiter.assertEquals(sWidth, sHeight);  // legacy compare only handles square images
+        float legacy = legacyCompare(sPixelsA.clone(), sPixelsB, sWidth, sHeight);
+        float tiled = SXRImageDiff.getDefault().compare(sPixelsA.clone(), sPixelsB, sWidth, sHeight, null);
+
+        Log.e("PERFORMANCE", "imageDiff legacy = %f tiled = %f", legacy, tiled);
+        mWaiter.assertTrue(tiled > 0.0f);
+        // the legacy sum is accumulated in float, allow for its rounding error
+        mWaiter.assertTrue(Math.abs(legacy - tiled) <= 0.01f * tiled);
+        mWaiter.assertEquals(0.0f, SXRImageDiff.getDefault().compare(sPixelsA, sPixelsA, sWidth, sHeight, null));
+    }
+
+    @Test
+    public void benchmarkLegacyDiff() throws Exception
+    {
+        final int[] scratch = new int[sPixelsA.length];
+
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+        {
+            System.arraycopy(sPixelsA, 0, scratch, 0, scratch.length);
+            legacyCompare(scratch, sPixelsB, sWidth, sHeight);
+        }
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            System.arraycopy(sPixelsA, 0, scratch, 0, scratch.length);
+            long start = System.nanoTime();
+            legacyCompare(scratch, sPixelsB, sWidth, sHeight);
+            total += System.nanoTime() - start;
+        }
+        report("imageDiffLegacy", total);
+    }
+
+    @Test
+    public void benchmarkTiledDiff() throws Exception
+    {
+        final int[] scratch = new int[sPixelsA.length];
+        final SXRImageDiff engine = SXRImageDiff.getDefault();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+        {
+            engine.compare(sPixelsA, sPixelsB, sWidth, sHeight, scratch);
+        }
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            long start = System.nanoTime();
+            engine.compare(sPixelsA, sPixelsB, sWidth, sHeight, scratch);
+            total += System.nanoTime() - start;
+        }
+        report("imageDiffTiled", total);
+    }
+
+    @Test
+    public void benchmarkTiledDiffSingleWorker() throws Exception
+    {
+        final int[] scratch = new int[sPixelsA.length];
+        final SXRImageDiff engine = new SXRImageDiff(1, SXRImageDiff.DEFAULT_TILE_ROWS);
+
+        try
+        {
+            for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+            {
+                engine.compare(sPixelsA, sPixelsB, sWidth, sHeight, scratch);
+            }
+            long total = 0;
+            for (int i = 0; i < ITERATIONS; ++i)
+            {
+                long start = System.nanoTime();
+                engine.compare(sPixelsA, sPixelsB, sWidth, sHeight, scratch);
+                total += System.nanoTime() - start;
+            }
+            report("imageDiffTiledSingleWorker", total);
+        }
+        finally
+        {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void comparatorsAcceptIdenticalImages() throws Exception
+    {
+        SXRImageComparator[] comparators = { new SXRSSIMComparator(), new SXRTileErrorComparator() };
+
+        for (SXRImageComparator comparator : comparators)
+        {
+            SXRImageComparator.Result same = comparator.compare(sPixelsA, sPixelsA, sWidth, sHeight, null);
+            SXRImageComparator.Result different = comparator.compare(sPixelsA, sPixelsB, sWidth, sHeight, null);
+
+            Log.e("PERFORMANCE", "%s same: %s different: %s",
+                  comparator.getClass().getSimpleName(), same, different);
+            mWaiter.assertTrue(same.passed);
+            mWaiter.assertFalse(same.noticeable);
+            mWaiter.assertTrue(same.score != different.score);
+        }
+    }
+
+    @Test
+    public void benchmarkSSIM() throws Exception
+    {
+        benchmarkComparator("imageCompareSSIM", new SXRSSIMComparator());
+    }
+
+    @Test
+    public void benchmarkTileError() throws Exception
+    {
+        benchmarkComparator("imageCompareTileError", new SXRTileErrorComparator());
+    }
+
+    private void benchmarkComparator(String name, SXRImageComparator comparator) throws Exception
+    {
+        final int[] scratch = new int[sPixelsA.length];
+
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+        {
+            comparator.compare(sPixelsA, sPixelsB, sWidth, sHeight, scratch);
+        }
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            long start = System.nanoTime();
+            comparator.compare(sPixelsA, sPixelsB, sWidth, sHeight, scratch);
+            total += System.nanoTime() - start;
+        }
+        report(name, total);
+    }
+
+    private void report(String name, long totalNanos)
+    {
+        float msPerOp = totalNanos / (ITERATIONS * 1000000.0f);
+        float mpixPerSec = (sWidth * sHeight * ITERATIONS) / (totalNanos / 1000.0f);
+        Log.e("PERFORMANCE", "%s %dx%d: %f ms/op, %f Mpixels/s", name, sWidth, sHeight, msPerOp, mpixPerSec);
+        try
+        {
+            new SXRPerfResult(getClass().getSimpleName(), name)
+                    .setParameter("width", sWidth)
+                    .setParameter("height", sHeight)
+                    .setParameter("iterations", ITERATIONS)
+                    .setMetric("ms_per_op", msPerOp)
+                    .write();
+        }
+        catch (IOException ex)
+        {
+            Log.e("PERFORMANCE", "Cannot write results of %s: %s", name, ex.getMessage());
+        }
+    }
+
+    /*
+     * The comparison the screenshot tests used before SXRImageDiff:
+     * one thread per image row and a shared lock taken for every pixel.
+     */
+    private static float legacyCompare(int[] goldenPixels, int[] screenshotPixels, int width, int height)
+            throws InterruptedException
+    {
+        final float[] diff = { 0.0f };
+        final ReentrantLock lockDiff = new ReentrantLock();
+        final CountDownLatch cdl = new CountDownLatch(height);
+
+        for (int y = 0; y < height; y++)
+        {
+            Threads.spawn(new LegacyCompareRunnable(width, y, goldenPixels, lockDiff,
+                                                    diff, screenshotPixels, cdl));
+        }
+        cdl.await();
+        return diff[0];
+    }
+
+    private final static class LegacyCompareRunnable implements Runnable
+    {
+        private final int y;
+        private final int[] goldenPixels;
+        private final ReentrantLock lockDiff;
+        private final float[] diff;
+        private final int[] screenshotPixels;
+        private final CountDownLatch cdl;
+        private final int goldenWidth;
+
+        LegacyCompareRunnable(final int goldenWidth, final int y, final int[] goldenPixels,
+                              final ReentrantLock lockDiff, final float[] diff,
+                              final int[] screenshotPixels, final CountDownLatch cdl)
+        {
+            this.y = y;
+            this.goldenPixels = goldenPixels;
+            this.lockDiff = lockDiff;
+            this.diff = diff;
+            this.screenshotPixels = screenshotPixels;
+            this.cdl = cdl;
+            this.goldenWidth = goldenWidth;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for (int x = 0; x < goldenWidth; x++)
+                {
+                    int p1 = goldenPixels[x * goldenWidth + y];
+                    int p2 = screenshotPixels[x * goldenWidth + y];
+                    int r = Math.abs(Color.red(p1) - Color.red(p2));
+                    int g = Math.abs(Color.green(p1) - Color.green(p2));
+                    int b = Math.abs(Color.blue(p1) - Color.blue(p2));
+                    goldenPixels[x * goldenWidth + y] = Color.argb(255, r, g, b);
+
+                    lockDiff.lock();
+                    try
+                    {
+                        diff[0] += (float) r / 255.0f + g / 255.0f + b / 255.0f;
+                    }
+                    finally
+                    {
+                        lockDiff.unlock();
+                    }
+                }
+            }
+            finally
+            {
+                cdl.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.samsungxr.performance;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRRenderData;
+import com.samsungxr.SXRScene;
+import com.samsungxr.unittestutils.SXRFrameStats;
+import com.samsungxr.unittestutils.SXRGrowthFit;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.utility.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measures how scene construction and rendering scale with the number of nodes.
+ * <p>
+ * The {@link RenderSetup} grid is built at node counts from 100 to 50,000 on a
+ * geometric schedule. At each size the test measures the time to build the
+ * scene graph, the time until the first frame with the new scene is done and
+ * the steady state frame time. A power law is fitted to each series and its
+ * exponent reported, so scene graph traversal, culling or render data sorting
+ * becoming super-linear shows up as a larger exponent.
+ * <p>
+ * Small grids are limited by vsync, not by the node count, so the frame time
+ * exponent only uses sizes whose median frame is longer than a refresh period.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NodeScalingTests
+{
+    private static final int MIN_NODES = 100;
+    private static final int MAX_NODES = 50000;
+    private static final float GROWTH = 2.5f;
+    private static final int SETTLE_FRAMES = 4;
+    private static final int MEASURE_FRAMES = 120;
+    /*
+     * Building the scene graph is linear work, anything close to
+     * quadratic means something walks the graph for every node added.
+     */
+    private static final float MAX_BUILD_EXPONENT = 1.5f;
+
+    private SXRTestUtils mTestUtils;
+    private Waiter mWaiter;
+    private SXRScene mScene;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @After
+    public void tearDown() {
+        SXRScene scene = mTestUtils.getMainScene();
+        if (scene != null) {
+            scene.clear();
+        }
+    }
+
+    @Before
+    public void setUp() throws TimeoutException {
+        SXRTestableActivity activity = ActivityRule.getActivity();
+        mTestUtils = new SXRTestUtils(activity);
+        mTestUtils.waitForOnInit();
+        mWaiter = new Waiter();
+
+        mScene = mTestUtils.getMainScene();
+        mWaiter.assertNotNull(mScene);
+    }
+
+    /**
+     * Node counts from MIN_NODES to MAX_NODES, each GROWTH times the previous.
+     */
+    static List<Integer> nodeCounts()
+    {
+        List<Integer> counts = new ArrayList<Integer>();
+
+        for (float n = MIN_NODES; n < MAX_NODES; n *= GROWTH)
+        {
+            counts.add(Math.round(n));
+        }
+        counts.add(MAX_NODES);
+        return counts;
+    }
+
+    @Test
+    public void quadNodeScaling() throws IOException
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+
+        params.put("quadgeometry", 1);
+        params.put("share_material", 1);
+        params.put("share_geometry", 1);
+        params.put("renderingorder", (int) SXRRenderData.SXRRenderingOrder.GEOMETRY);
+        runScaling("quadNodeScaling", params);
+    }
+
+    @Test
+    public void quadNodeScalingShareGeo() throws IOException
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+
+        params.put("quadgeometry", 1);
+        params.put("share_geometry", 1);
+        params.put("renderingorder", (int) SXRRenderData.SXRRenderingOrder.GEOMETRY);
+        runScaling("quadNodeScalingShareGeo", params);
+    }
+
+    private void runScaling(String testName, Map<String, Object> params) throws IOException
+    {
+        final SXRContext ctx = mTestUtils.getSxrContext();
+        final String category = getClass().getSimpleName();
+        final float refreshMs = SXRFrameStats.REFRESH_PERIOD_60HZ / 1000000.0f;
+        List<Integer> counts = nodeCounts();
+        double[] sizes = new double[counts.size()];
+        double[] buildMs = new double[counts.size()];
+        double[] firstFrameMs = new double[counts.size()];
+        double[] frameMs = new double[counts.size()];
+
+        for (int i = 0; i < counts.size(); ++i)
+        {
+            int n = counts.get(i);
+            int rows = (int) Math.floor(Math.sqrt(n));
+            int columns = (n + rows - 1) / rows;
+            RenderSetup setup = new RenderSetup(mWaiter, mTestUtils);
+
+            params.put("rows", rows);
+            params.put("columns", columns);
+            mScene.clear();
+            mTestUtils.waitForXFrames(SETTLE_FRAMES);
+            System.gc();
+
+            long start = System.nanoTime();
+            setup.createTestScene(ctx, params);
+            long built = System.nanoTime();
+            mTestUtils.waitForXFrames(1);
+            long firstFrame = System.nanoTime();
+            mTestUtils.waitForXFrames(SETTLE_FRAMES);
+            SXRFrameStats stats = mTestUtils.measureFrames(MEASURE_FRAMES, SXRFrameStats.REFRESH_PERIOD_60HZ);
+
+            sizes[i] = rows * columns;
+            buildMs[i] = (built - start) / 1000000.0;
+            firstFrameMs[i] = (firstFrame - built) / 1000000.0;
+            frameMs[i] = (stats.getPercentileMs(50) > refreshMs) ? stats.getPercentileMs(50) : 0;
+            Log.e("PERFORMANCE", "%s nodes = %d build = %f ms, first frame = %f ms, %s", testName,
+                  rows * columns, buildMs[i], firstFrameMs[i], stats.toString());
+            new SXRPerfResult(category, testName + "_" + (rows * columns))
+                    .setParameters(params)
+                    .setParameter("nodes", rows * columns)
+                    .setMetric("build_ms", buildMs[i])
+                    .setMetric("first_frame_ms", firstFrameMs[i])
+                    .setFrameStats(stats)
+                    .write();
+        }
+        mScene.clear();
+
+        SXRGrowthFit build = SXRGrowthFit.fit(sizes, buildMs);
+        SXRGrowthFit first = SXRGrowthFit.fit(sizes, firstFrameMs);
+        SXRGrowthFit frame = SXRGrowthFit.fit(sizes, frameMs);
+
+        Log.e("PERFORMANCE", "%s build %s", testName, build.toString());
+        Log.e("PERFORMANCE", "%s first frame %s", testName, first.toString());
+        Log.e("PERFORMANCE", "%s frame time %s", testName, frame.toString());
+        SXRPerfResult summary = new SXRPerfResult(category, testName)
+                .setParameter("min_nodes", MIN_NODES)
+                .setParameter("max_nodes", MAX_NODES)
+                .setParameter("growth", GROWTH)
+                .setMetric("build_exponent", build.exponent)
+                .setMetric("first_frame_exponent", first.exponent);
+        if (!Float.isNaN(frame.exponent))
+        {
+            summary.setMetric("frame_exponent", frame.exponent);
+        }
+        summary.write();
+        mWaiter.assertTrue(build.exponent <= MAX_BUILD_EXPONENT);
+    }
+}
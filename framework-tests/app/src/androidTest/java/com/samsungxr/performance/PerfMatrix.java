@@ -0,0 +1,191 @@
+package com.samsungxr.performance;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Expands a declarative parameter matrix into the parameter maps
+ * {@link RenderSetup#createTestScene} takes.
+ * <p>
+ * A matrix is a JSON asset with base parameters shared by all cases and a
+ * list of axes. Each axis lists alternative sets of parameters, the cases
+ * are all combinations of one value from each axis:
+ * <pre>
+ * {
+ *   "name": "quad",
+ *   "base": { "quadgeometry": 1, "frames": 300, "renderingorder": 2000 },
+ *   "axes": [
+ *     { "name": "share", "values": [ { "label": "" }, { "label": "ShareAll", "share_material": 1, "share_geometry": 1 } ] },
+ *     { "name": "grid", "values": [ { "label": "5x5", "rows": 5, "columns": 5 }, ... ] }
+ *   ]
+ * }
+ * </pre>
+ * The case name is the matrix name followed by the labels of its values.
+ * Strings starting with '@' name Android resources ("@raw/beach") and are
+ * replaced by the resource id. Integral numbers become Integer, other
+ * numbers Float, like the hand written perf tests use.
+ */
+public class PerfMatrix
+{
+    public static class Case
+    {
+        public final String name;
+        public final Map<String, Object> params;
+
+        Case(String name, Map<String, Object> params)
+        {
+            this.name = name;
+            this.params = params;
+        }
+    }
+
+    private final String mName;
+    private final List<Case> mCases = new ArrayList<Case>();
+
+    /**
+     * Reads a matrix from the assets of the test application.
+     * @param context  Android context to read assets and resolve resources with.
+     * @param fileName asset file name, e.g. "PerfTests/quad_sweep.json".
+     */
+    public PerfMatrix(Context context, String fileName) throws IOException
+    {
+        InputStream stream = context.getAssets().open(fileName);
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+
+            while ((n = stream.read(buffer)) > 0)
+            {
+                bytes.write(buffer, 0, n);
+            }
+            JSONObject json = new JSONObject(bytes.toString("UTF-8"));
+            mName = json.getString("name");
+            expand(context, json);
+        }
+        catch (JSONException ex)
+        {
+            throw new IOException("Invalid perf matrix " + fileName + ": " + ex.getMessage());
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    public String getName()
+    {
+        return mName;
+    }
+
+    public List<Case> getCases()
+    {
+        return mCases;
+    }
+
+    private void expand(Context context, JSONObject json) throws JSONException
+    {
+        Map<String, Object> base = toParams(context, json.getJSONObject("base"));
+        JSONArray axes = json.getJSONArray("axes");
+        int numAxes = axes.length();
+        int[] index = new int[numAxes];
+        List<List<Map<String, Object>>> values = new ArrayList<List<Map<String, Object>>>(numAxes);
+
+        for (int a = 0; a < numAxes; ++a)
+        {
+            JSONArray axisValues = axes.getJSONObject(a).getJSONArray("values");
+            List<Map<String, Object>> axis = new ArrayList<Map<String, Object>>(axisValues.length());
+
+            for (int v = 0; v < axisValues.length(); ++v)
+            {
+                axis.add(toParams(context, axisValues.getJSONObject(v)));
+            }
+            if (axis.isEmpty())
+            {
+                throw new JSONException("axis " + axes.getJSONObject(a).getString("name") + " has no values");
+            }
+            values.add(axis);
+        }
+        while (true)
+        {
+            StringBuilder name = new StringBuilder(mName);
+            Map<String, Object> params = new HashMap<String, Object>(base);
+
+            for (int a = 0; a < numAxes; ++a)
+            {
+                Map<String, Object> value = values.get(a).get(index[a]);
+                Object label = value.get("label");
+
+                if (label != null)
+                {
+                    name.append(label);
+                }
+                params.putAll(value);
+            }
+            params.remove("label");
+            mCases.add(new Case(name.toString(), params));
+
+            int a = numAxes - 1;
+            while ((a >= 0) && (++index[a] >= values.get(a).size()))
+            {
+                index[a] = 0;
+                --a;
+            }
+            if (a < 0)
+            {
+                break;
+            }
+        }
+    }
+
+    private static Map<String, Object> toParams(Context context, JSONObject json) throws JSONException
+    {
+        Map<String, Object> params = new LinkedHashMap<String, Object>();
+        Iterator<String> keys = json.keys();
+
+        while (keys.hasNext())
+        {
+            String key = keys.next();
+            Object value = json.get(key);
+
+            if (value instanceof Number)
+            {
+                Number number = (Number) value;
+                if ((value instanceof Integer) || (value instanceof Long))
+                {
+                    value = number.intValue();
+                }
+                else
+                {
+                    value = number.floatValue();
+                }
+            }
+            else if ((value instanceof String) && ((String) value).startsWith("@") && !key.equals("label"))
+            {
+                String resName = ((String) value).substring(1);
+                int id = context.getResources().getIdentifier(resName, null, context.getPackageName());
+                if (id == 0)
+                {
+                    throw new JSONException("unknown resource " + value);
+                }
+                value = id;
+            }
+            params.put(key, value);
+        }
+        return params;
+    }
+}
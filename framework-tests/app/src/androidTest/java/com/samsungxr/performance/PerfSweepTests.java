@@ -0,0 +1,135 @@
+package com.samsungxr.performance;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRScene;
+import com.samsungxr.unittestutils.SXRFrameStats;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.utility.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs every case of a {@link PerfMatrix} back to back in one activity
+ * and writes a table of frame time against node count.
+ * <p>
+ * Each case also writes its own result for scripts/perf-compare.
+ * Cases with an "fps" parameter fail the sweep if their median frame
+ * misses that frame rate, all cases are run before the sweep fails.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PerfSweepTests
+{
+    private static final int SETTLE_FRAMES = 4;
+    private SXRTestUtils mTestUtils;
+    private Waiter mWaiter;
+    private SXRScene mScene;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @After
+    public void tearDown() {
+        SXRScene scene = mTestUtils.getMainScene();
+        if (scene != null) {
+            scene.clear();
+        }
+    }
+
+    @Before
+    public void setUp() throws TimeoutException {
+        SXRTestableActivity activity = ActivityRule.getActivity();
+        mTestUtils = new SXRTestUtils(activity);
+        mTestUtils.waitForOnInit();
+        mWaiter = new Waiter();
+
+        mScene = mTestUtils.getMainScene();
+        mWaiter.assertNotNull(mScene);
+    }
+
+    @Test
+    public void quadSweep() throws IOException
+    {
+        runSweep("PerfTests/quad_sweep.json");
+    }
+
+    @Test
+    public void cylinderSweep() throws IOException
+    {
+        runSweep("PerfTests/cylinder_sweep.json");
+    }
+
+    private void runSweep(String matrixFile) throws IOException
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+        PerfMatrix matrix = new PerfMatrix(ctx.getContext(), matrixFile);
+        String category = getClass().getSimpleName();
+        StringBuilder table = new StringBuilder("case,nodes,fps,mean_ms,p50_ms,p90_ms,p99_ms,max_ms,jank\n");
+        int failures = 0;
+
+        Log.e("PERFORMANCE", "%s: %d cases", matrix.getName(), matrix.getCases().size());
+        for (PerfMatrix.Case c : matrix.getCases())
+        {
+            int nframes = ((Number) c.params.get("frames")).intValue();
+            int nodes = ((Number) c.params.get("rows")).intValue() * ((Number) c.params.get("columns")).intValue();
+            RenderSetup setup = new RenderSetup(mWaiter, mTestUtils);
+
+            mScene.clear();
+            setup.createTestScene(ctx, c.params);
+            mTestUtils.waitForXFrames(SETTLE_FRAMES);
+            SXRFrameStats stats = mTestUtils.measureFrames(nframes, SXRFrameStats.REFRESH_PERIOD_60HZ);
+
+            Log.e("PERFORMANCE", "%s nodes = %d, %s", c.name, nodes, stats.toString());
+            table.append(String.format("%s,%d,%.2f,%.3f,%.3f,%.3f,%.3f,%.3f,%d\n", c.name, nodes,
+                                       stats.getFps(), stats.getMeanMs(), stats.getPercentileMs(50),
+                                       stats.getPercentileMs(90), stats.getPercentileMs(99),
+                                       stats.getMaxMs(), stats.getJankCount()));
+            new SXRPerfResult(category, c.name)
+                    .setParameters(c.params)
+                    .setParameter("nodes", nodes)
+                    .setFrameStats(stats)
+                    .write();
+            // PerfMatrix gives Integer for integral numbers and Float for the others
+            float fps = c.params.containsKey("fps") ? ((Number) c.params.get("fps")).floatValue() : 0;
+            if ((fps > 0) && (stats.getPercentileMs(50) > 1000.0f / fps))
+            {
+                Log.e("PERFORMANCE", "%s misses %f fps", c.name, fps);
+                ++failures;
+            }
+        }
+        mScene.clear();
+        writeTable(new File(SXRTestUtils.getResultsDir(category), matrix.getName() + "_sweep.csv"),
+                   table.toString());
+        mWaiter.assertEquals(0, failures);
+    }
+
+    private static void writeTable(File file, String table) throws IOException
+    {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try
+        {
+            writer.write(table);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.samsungxr.performance;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRMaterial;
+import com.samsungxr.SXRMesh;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRPicker;
+import com.samsungxr.SXRScene;
+import com.samsungxr.nodes.SXRSphereNode;
+import com.samsungxr.scene.SXRColliderBVH;
+import com.samsungxr.scene.SXRPickResults;
+import com.samsungxr.unittestutils.SXRAllocations;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.utility.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Benchmarks picking the rays of a frame one at a time against picking
+ * them as one batch into reusable {@link SXRPickResults}.
+ * <p>
+ * An app casts a handful of rays per frame, for the controllers, the gaze
+ * and UI probes. Each case picks the rays of {@link #FRAMES} frames per
+ * iteration, in the style of JMH: warmup iterations are discarded and the
+ * time per ray is reported as the mean over the measured iterations with
+ * its 99.9% confidence interval from Student's t distribution. The bytes
+ * allocated per ray while measuring are recorded as well. The cases are
+ * <ul>
+ * <li>pickObjects, {@link SXRPicker#pickObjects} for each ray,</li>
+ * <li>bvhSingle, {@link SXRColliderBVH#pick(float, float, float, float, float, float)}
+ *     for each ray,</li>
+ * <li>bvhBatch, all rays of a frame with
+ *     {@link SXRColliderBVH#pick(float[], int, SXRPickResults)}.</li>
+ * </ul>
+ * The batch does not allocate per ray itself, but the exact test
+ * {@link SXRPicker#pickNode} returns a new SXRPickedObject for every
+ * candidate it hits, in every case. The bytes per ray are not zero for
+ * rays which hit, the results record hits_per_ray and flag this with the
+ * picked_object_per_hit parameter.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PickerBatchPerfTests
+{
+    private static final int COLLIDERS = 1000;
+    private static final int[] RAYS_PER_FRAME = { 4, 16, 64 };
+    private static final int FRAMES = 20;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+    private static final int SETTLE_FRAMES = 4;
+    /*
+     * two-sided 99.9% quantile of Student's t distribution for
+     * ITERATIONS - 1 = 9 degrees of freedom, as JMH reports, change with ITERATIONS
+     */
+    private static final double T_999 = 4.781;
+
+    private SXRTestUtils mTestUtils;
+    private Waiter mWaiter;
+    private SXRScene mScene;
+    private SXRColliderBVH mBVH;
+    private float mWidth;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @After
+    public void tearDown() {
+        SXRScene scene = mTestUtils.getMainScene();
+        if (scene != null) {
+            scene.clear();
+        }
+    }
+
+    @Before
+    public void setUp() throws TimeoutException {
+        SXRTestableActivity activity = ActivityRule.getActivity();
+        mTestUtils = new SXRTestUtils(activity);
+        mTestUtils.waitForOnInit();
+        mWaiter = new Waiter();
+
+        SXRContext ctx = mTestUtils.getSxrContext();
+        SXRMaterial material = new SXRMaterial(ctx, SXRMaterial.SXRShaderType.Phong.ID);
+        SXRMesh mesh = new SXRSphereNode(ctx, true, material).getRenderData().getMesh();
+
+        material.setDiffuseColor(0, 0, 1, 1);
+        mScene = mTestUtils.getMainScene();
+        mScene.clear();
+        mBVH = new SXRColliderBVH();
+        for (SXRNode node : PickerScalingTests.addColliderGrid(ctx, mScene, mesh, material, COLLIDERS))
+        {
+            mBVH.add(node);
+        }
+        mWidth = PickerScalingTests.getGridWidth(COLLIDERS);
+        mTestUtils.waitForXFrames(SETTLE_FRAMES);
+        mBVH.update();
+    }
+
+    /*
+     * One way of picking the rays of a frame.
+     */
+    private interface Case
+    {
+        /**
+         * Picks all rays of the frame and returns how many hit something.
+         */
+        int pickFrame(float[] rays, int count);
+    }
+
+    private final Case mPickObjects = new Case()
+    {
+        @Override
+        public int pickFrame(float[] rays, int count)
+        {
+            int hits = 0;
+
+            for (int r = 0; r < count; ++r)
+            {
+                final int i = 6 * r;
+                SXRPicker.SXRPickedObject[] picked = SXRPicker.pickObjects(mScene, null, rays[i], rays[i + 1], rays[i + 2],
+                                                                           rays[i + 3], rays[i + 4], rays[i + 5]);
+                if ((picked != null) && (picked.length > 0))
+                {
+                    ++hits;
+                }
+            }
+            return hits;
+        }
+    };
+
+    private final Case mBVHSingle = new Case()
+    {
+        @Override
+        public int pickFrame(float[] rays, int count)
+        {
+            int hits = 0;
+
+            for (int r = 0; r < count; ++r)
+            {
+                final int i = 6 * r;
+
+                if (mBVH.pick(rays[i], rays[i + 1], rays[i + 2], rays[i + 3], rays[i + 4], rays[i + 5]) != null)
+                {
+                    ++hits;
+                }
+            }
+            return hits;
+        }
+    };
+
+    private final SXRPickResults mResults = new SXRPickResults(16);
+
+    private final Case mBVHBatch = new Case()
+    {
+        @Override
+        public int pickFrame(float[] rays, int count)
+        {
+            return mBVH.pick(rays, count, mResults);
+        }
+    };
+
+    @Test
+    public void batchMatchesSingleRays()
+    {
+        final int count = RAYS_PER_FRAME[RAYS_PER_FRAME.length - 1];
+        float[] rays = PickerScalingTests.makeRays(new Random(count), mWidth, count);
+        SXRPickResults results = new SXRPickResults(1);
+        float[] xyz = new float[3];
+
+        mWaiter.assertTrue(mBVH.pick(rays, count, results) > 0);
+        mWaiter.assertEquals(count, results.getRayCount());
+        for (int r = 0; r < count; ++r)
+        {
+            final int i = 6 * r;
+            SXRPicker.SXRPickedObject[] picked = SXRPicker.pickObjects(mScene, null, rays[i], rays[i + 1], rays[i + 2],
+                                                                       rays[i + 3], rays[i + 4], rays[i + 5]);
+            if ((picked == null) || (picked.length == 0))
+            {
+                mWaiter.assertFalse(results.isHit(r));
+                continue;
+            }
+            mWaiter.assertTrue(results.getHitObject(r) == picked[0].hitObject);
+            mWaiter.assertTrue(Math.abs(results.getHitDistance(r) - picked[0].getHitDistance()) < 0.001f);
+            results.getHitLocation(r, xyz);
+            for (int k = 0; k < 3; ++k)
+            {
+                mWaiter.assertTrue(Math.abs(xyz[k] - picked[0].hitLocation[k]) < 0.001f);
+            }
+        }
+    }
+
+    @Test
+    public void benchmarkPickObjects()
+    {
+        benchmark("pickObjects", mPickObjects);
+    }
+
+    @Test
+    public void benchmarkBVHSingle()
+    {
+        benchmark("bvhSingle", mBVHSingle);
+    }
+
+    @Test
+    public void benchmarkBVHBatch()
+    {
+        benchmark("bvhBatch", mBVHBatch);
+    }
+
+    private void benchmark(String name, Case pickCase)
+    {
+        for (int count : RAYS_PER_FRAME)
+        {
+            Random random = new Random(count);
+            float[][] frames = new float[FRAMES][];
+            double[] usPerRay = new double[ITERATIONS];
+            int hits = 0;
+
+            for (int f = 0; f < FRAMES; ++f)
+            {
+                frames[f] = PickerScalingTests.makeRays(random, mWidth, count);
+            }
+            for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+            {
+                for (float[] rays : frames)
+                {
+                    pickCase.pickFrame(rays, count);
+                }
+            }
+            final double measuredRays = ITERATIONS * FRAMES * count;
+            long allocStart = SXRAllocations.getAllocatedBytes();
+            for (int i = 0; i < ITERATIONS; ++i)
+            {
+                long start = System.nanoTime();
+                for (float[] rays : frames)
+                {
+                    hits += pickCase.pickFrame(rays, count);
+                }
+                usPerRay[i] = (System.nanoTime() - start) / (1000.0 * FRAMES * count);
+            }
+            double bytesPerRay = (allocStart >= 0)
+                    ? (SXRAllocations.getAllocatedBytes() - allocStart) / measuredRays
+                    : Double.NaN;
+            report(name, count, usPerRay, bytesPerRay, hits / measuredRays);
+            mWaiter.assertTrue(hits > 0);
+        }
+    }
+
+    private void report(String name, int raysPerFrame, double[] usPerRay, double bytesPerRay, double hitsPerRay)
+    {
+        double mean = 0;
+        double variance = 0;
+
+        for (double us : usPerRay)
+        {
+            mean += us / usPerRay.length;
+        }
+        for (double us : usPerRay)
+        {
+            variance += (us - mean) * (us - mean) / (usPerRay.length - 1);
+        }
+        final double error = T_999 * Math.sqrt(variance / usPerRay.length);
+
+        Log.e("PERFORMANCE", "%s %d rays per frame: %.3f +- %.3f us/ray, %.0f rays/s, %.1f bytes/ray"
+              + " with an SXRPickedObject for each of %.2f hits/ray",
+              name, raysPerFrame, mean, error, 1e6 / mean, bytesPerRay, hitsPerRay);
+        try
+        {
+            SXRPerfResult result = new SXRPerfResult(getClass().getSimpleName(), name + "_" + raysPerFrame)
+                    .setParameter("colliders", COLLIDERS)
+                    .setParameter("rays_per_frame", raysPerFrame)
+                    .setParameter("frames", FRAMES)
+                    .setParameter("iterations", ITERATIONS)
+                    .setParameter("picked_object_per_hit", true)
+                    .setMetric("us_per_ray", mean)
+                    .setMetric("us_per_ray_error", error)
+                    .setMetric("rays_per_sec", 1e6 / mean)
+                    .setMetric("hits_per_ray", hitsPerRay);
+
+            if (!Double.isNaN(bytesPerRay))
+            {
+                result.setMetric("alloc_bytes_per_ray", bytesPerRay);
+            }
+            result.write();
+        }
+        catch (IOException ex)
+        {
+            Log.e("PERFORMANCE", "Cannot write results of %s: %s", name, ex.getMessage());
+        }
+    }
+}
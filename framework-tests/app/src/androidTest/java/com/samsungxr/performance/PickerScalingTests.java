@@ -0,0 +1,272 @@
+package com.samsungxr.performance;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRMaterial;
+import com.samsungxr.SXRMesh;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRPicker;
+import com.samsungxr.SXRScene;
+import com.samsungxr.SXRSphereCollider;
+import com.samsungxr.nodes.SXRSphereNode;
+import com.samsungxr.scene.SXRColliderBVH;
+import com.samsungxr.unittestutils.SXRGrowthFit;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.utility.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measures how picking scales with the number of colliders, with
+ * {@link SXRPicker#pickObjects} and with the {@link SXRColliderBVH} broad phase.
+ * <p>
+ * At collider counts from 10 to 10,000 on a geometric schedule spheres with
+ * sphere colliders are laid out in a cubic grid in front of the camera and
+ * the same random rays from the camera are picked both ways. Per size the
+ * test records the rays per second of each, the time to build the BVH,
+ * the time to refit it after 1% of the colliders moved and how many
+ * colliders the BVH hands to the exact test per ray. A power law is fitted
+ * to the time per ray of both, picking the whole scene grows linearly while
+ * the BVH should stay close to flat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PickerScalingTests
+{
+    private static final int MIN_COLLIDERS = 10;
+    private static final int MAX_COLLIDERS = 10000;
+    private static final float GROWTH = 2.5f;
+    private static final float SPACING = 3.0f;
+    private static final int SETTLE_FRAMES = 4;
+    private static final int BVH_RAYS = 2000;
+    /*
+     * Picking the whole scene is slow at the large sizes, it
+     * uses the first rays only, which are also used to check
+     * that both find the same closest collider.
+     */
+    private static final int SCENE_RAYS = 200;
+    private static final float MOVED_FRACTION = 0.01f;
+    private static final float MAX_BVH_EXPONENT = 0.5f;
+
+    private SXRTestUtils mTestUtils;
+    private Waiter mWaiter;
+    private SXRScene mScene;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @After
+    public void tearDown() {
+        SXRScene scene = mTestUtils.getMainScene();
+        if (scene != null) {
+            scene.clear();
+        }
+    }
+
+    @Before
+    public void setUp() throws TimeoutException {
+        SXRTestableActivity activity = ActivityRule.getActivity();
+        mTestUtils = new SXRTestUtils(activity);
+        mTestUtils.waitForOnInit();
+        mWaiter = new Waiter();
+
+        mScene = mTestUtils.getMainScene();
+        mWaiter.assertNotNull(mScene);
+    }
+
+    /**
+     * Collider counts from MIN_COLLIDERS to MAX_COLLIDERS, each GROWTH times the previous.
+     */
+    static List<Integer> colliderCounts()
+    {
+        List<Integer> counts = new ArrayList<Integer>();
+
+        for (float n = MIN_COLLIDERS; n < MAX_COLLIDERS; n *= GROWTH)
+        {
+            counts.add(Math.round(n));
+        }
+        counts.add(MAX_COLLIDERS);
+        return counts;
+    }
+
+    /**
+     * Width of the cubic grid of n colliders.
+     */
+    static float getGridWidth(int n)
+    {
+        return SPACING * (int) Math.ceil(Math.cbrt(n));
+    }
+
+    /**
+     * Adds n spheres with sphere colliders in a cubic grid in front of the
+     * camera, its front face is at z = -9, centered on the z axis.
+     */
+    static SXRNode[] addColliderGrid(SXRContext ctx, SXRScene scene, SXRMesh mesh, SXRMaterial material, int n)
+    {
+        final int side = (int) Math.ceil(Math.cbrt(n));
+        final float width = getGridWidth(n);
+        SXRNode[] nodes = new SXRNode[n];
+
+        for (int j = 0; j < n; ++j)
+        {
+            SXRNode node = new SXRNode(ctx, mesh);
+            SXRSphereCollider collider = new SXRSphereCollider(ctx);
+
+            node.getRenderData().setMaterial(material);
+            node.getTransform().setPosition(SPACING * (j % side) - (width - SPACING) / 2,
+                                            SPACING * ((j / side) % side) - (width - SPACING) / 2,
+                                            -10 - SPACING * (j / (side * side)));
+            collider.setRadius(1.0f);
+            node.attachComponent(collider);
+            scene.addNode(node);
+            nodes[j] = node;
+        }
+        return nodes;
+    }
+
+    /**
+     * Rays from the camera through random points on the front of a grid,
+     * ox, oy, oz, dx, dy, dz for each ray.
+     */
+    static float[] makeRays(Random random, float width, int count)
+    {
+        float[] rays = new float[6 * count];
+
+        for (int r = 0; r < count; ++r)
+        {
+            float x = (random.nextFloat() - 0.5f) * width;
+            float y = (random.nextFloat() - 0.5f) * width;
+            float length = (float) Math.sqrt(x * x + y * y + 100);
+
+            rays[6 * r + 3] = x / length;
+            rays[6 * r + 4] = y / length;
+            rays[6 * r + 5] = -10 / length;
+        }
+        return rays;
+    }
+
+    @Test
+    public void pickerScaling() throws IOException
+    {
+        final SXRContext ctx = mTestUtils.getSxrContext();
+        final String category = getClass().getSimpleName();
+        final String testName = "pickerScaling";
+        SXRMaterial material = new SXRMaterial(ctx, SXRMaterial.SXRShaderType.Phong.ID);
+        SXRMesh mesh = new SXRSphereNode(ctx, true, material).getRenderData().getMesh();
+        List<Integer> counts = colliderCounts();
+        double[] sizes = new double[counts.size()];
+        double[] bvhUs = new double[counts.size()];
+        double[] sceneUs = new double[counts.size()];
+
+        material.setDiffuseColor(0, 0, 1, 1);
+        for (int i = 0; i < counts.size(); ++i)
+        {
+            final int n = counts.get(i);
+            final float width = getGridWidth(n);
+            Random random = new Random(n);
+
+            mScene.clear();
+            SXRNode[] nodes = addColliderGrid(ctx, mScene, mesh, material, n);
+            mTestUtils.waitForXFrames(SETTLE_FRAMES);
+            float[] rays = makeRays(random, width, BVH_RAYS);
+
+            SXRColliderBVH bvh = new SXRColliderBVH();
+            long start = System.nanoTime();
+            for (SXRNode node : nodes)
+            {
+                bvh.add(node);
+            }
+            bvh.update();
+            double buildMs = (System.nanoTime() - start) / 1000000.0;
+
+            long candidates = 0;
+            SXRNode[] closest = new SXRNode[SCENE_RAYS];
+            start = System.nanoTime();
+            for (int r = 0; r < BVH_RAYS; ++r)
+            {
+                SXRPicker.SXRPickedObject hit = bvh.pick(0, 0, 0, rays[6 * r + 3], rays[6 * r + 4], rays[6 * r + 5]);
+
+                candidates += bvh.getCandidateCount();
+                if (r < SCENE_RAYS)
+                {
+                    closest[r] = (hit != null) ? hit.hitObject : null;
+                }
+            }
+            bvhUs[i] = (System.nanoTime() - start) / (1000.0 * BVH_RAYS);
+
+            int mismatches = 0;
+            start = System.nanoTime();
+            for (int r = 0; r < SCENE_RAYS; ++r)
+            {
+                SXRPicker.SXRPickedObject[] hits = SXRPicker.pickObjects(mScene, null, 0, 0, 0,
+                                                                         rays[6 * r + 3], rays[6 * r + 4], rays[6 * r + 5]);
+                SXRNode hit = ((hits != null) && (hits.length > 0)) ? hits[0].hitObject : null;
+
+                if (hit != closest[r])
+                {
+                    ++mismatches;
+                }
+            }
+            sceneUs[i] = (System.nanoTime() - start) / (1000.0 * SCENE_RAYS);
+
+            // move 1% of the colliders and refit
+            final int moved = Math.max(1, (int) (n * MOVED_FRACTION));
+            for (int j = 0; j < moved; ++j)
+            {
+                SXRNode node = nodes[random.nextInt(n)];
+
+                node.getTransform().setPositionX(node.getTransform().getPositionX() + random.nextFloat() - 0.5f);
+                bvh.markDirty(node);
+            }
+            mTestUtils.waitForXFrames(1);
+            start = System.nanoTime();
+            bvh.update();
+            double refitMs = (System.nanoTime() - start) / 1000000.0;
+
+            sizes[i] = n;
+            Log.e("PERFORMANCE", "%s colliders = %d bvh = %.0f rays/s, scene = %.0f rays/s, %.1f candidates per ray,"
+                  + " build = %f ms, refit = %f ms, %d mismatches", testName, n, 1e6 / bvhUs[i], 1e6 / sceneUs[i],
+                  (double) candidates / BVH_RAYS, buildMs, refitMs, mismatches);
+            new SXRPerfResult(category, testName + "_" + n)
+                    .setParameter("colliders", n)
+                    .setParameter("rays", BVH_RAYS)
+                    .setMetric("bvh_rays_per_sec", 1e6 / bvhUs[i])
+                    .setMetric("scene_rays_per_sec", 1e6 / sceneUs[i])
+                    .setMetric("candidates_per_ray", (double) candidates / BVH_RAYS)
+                    .setMetric("build_ms", buildMs)
+                    .setMetric("refit_ms", refitMs)
+                    .write();
+            mWaiter.assertEquals(0, mismatches);
+        }
+        mScene.clear();
+
+        SXRGrowthFit bvh = SXRGrowthFit.fit(sizes, bvhUs);
+        SXRGrowthFit scene = SXRGrowthFit.fit(sizes, sceneUs);
+
+        Log.e("PERFORMANCE", "%s bvh time per ray %s", testName, bvh.toString());
+        Log.e("PERFORMANCE", "%s scene time per ray %s", testName, scene.toString());
+        new SXRPerfResult(category, testName)
+                .setParameter("min_colliders", MIN_COLLIDERS)
+                .setParameter("max_colliders", MAX_COLLIDERS)
+                .setParameter("growth", GROWTH)
+                .setMetric("bvh_exponent", bvh.exponent)
+                .setMetric("scene_exponent", scene.exponent)
+                .write();
+        mWaiter.assertTrue(bvh.exponent <= MAX_BVH_EXPONENT);
+    }
+}
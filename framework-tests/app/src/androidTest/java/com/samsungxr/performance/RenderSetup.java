@@ -383,8 +383,8 @@ public class RenderSetup
 
     public void createTestScene(SXRContext ctx, Map<String, Object> params)
     {
-        int nrows = (Integer) params.get("rows");
-        int ncols = (Integer) params.get("columns");
+        int nrows = ((Number) params.get("rows")).intValue();
+        int ncols = ((Number) params.get("columns")).intValue();
         float zpos = (nrows > ncols) ? (float) nrows : (float) ncols;
         SXRMaterial sourceMtl = createMaterial(ctx, params);
         SXRNode sourceObj = createGeometry(ctx, sourceMtl, params);
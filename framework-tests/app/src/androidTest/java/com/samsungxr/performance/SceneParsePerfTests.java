@@ -0,0 +1,330 @@
+package com.samsungxr.performance;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.SXRMesh;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRScene;
+import com.samsungxr.scene.SXRSceneCache;
+import com.samsungxr.scene.SXRSceneMaker;
+import com.samsungxr.scene.SXRSceneReader;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.utility.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Compares the cost of turning a large polygon scene description into the
+ * tree SXRSceneMaker builds from: org.json, the streaming SXRSceneReader and
+ * the compiled scene cache. The parse benchmarks build no scene, the
+ * makeScene tests build it from the text through SXRSceneMaker.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SceneParsePerfTests
+{
+    private static final int GRID_SIZE = 100;
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int ITERATIONS = 10;
+
+    private SXRTestUtils sxrTestUtils;
+    private SXRSceneMaker mSceneMaker;
+    private Waiter mWaiter;
+    private String mScene;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new
+            ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @Before
+    public void setUp() throws TimeoutException
+    {
+        sxrTestUtils = new SXRTestUtils(ActivityRule.getActivity());
+        mWaiter = new Waiter();
+        mScene = makeGridScene(GRID_SIZE);
+        sxrTestUtils.waitForOnInit();
+        mSceneMaker = new SXRSceneMaker(sxrTestUtils);
+    }
+
+    @After
+    public void tearDown()
+    {
+        SXRScene scene = sxrTestUtils.getMainScene();
+        if (scene != null)
+        {
+            scene.clear();
+        }
+    }
+
+    /*
+     * A scene with one polygon object, a GRID_SIZE x GRID_SIZE grid of vertices.
+     */
+    private static String makeGridScene(int n)
+    {
+        StringBuilder vertices = new StringBuilder();
+        StringBuilder normals = new StringBuilder();
+        StringBuilder texcoords = new StringBuilder();
+        StringBuilder triangles = new StringBuilder();
+
+        for (int y = 0; y < n; ++y)
+        {
+            for (int x = 0; x < n; ++x)
+            {
+                String sep = ((x == 0) && (y == 0)) ? "" : ", ";
+                vertices.append(sep).append(x / (float) n - 0.5f).append(", ")
+                        .append(y / (float) n - 0.5f).append(", 0.0");
+                normals.append(sep).append("0.0, 0.0, 1.0");
+                texcoords.append(sep).append(x / (float) (n - 1)).append(", ").append(y / (float) (n - 1));
+            }
+        }
+        for (int y = 0; y < n - 1; ++y)
+        {
+            for (int x = 0; x < n - 1; ++x)
+            {
+                int i = y * n + x;
+                triangles.append((triangles.length() == 0) ? "" : ", ")
+                         .append(i).append(", ").append(i + n).append(", ").append(i + 1).append(", ")
+                         .append(i + 1).append(", ").append(i + n).append(", ").append(i + n + 1);
+            }
+        }
+        return "{id: grid, objects: [{name: grid, position: {z: -2.0}, "
+               + "material: {shader: phong, color: {r: 1.0, g: 0.0, b: 0.0}}, "
+               + "geometry: {type: polygon, vertices: [" + vertices + "], normals: [" + normals
+               + "], texcoords: [[" + texcoords + "]], triangles: [" + triangles + "]}}]}";
+    }
+
+    private static JSONObject getGeometry(JSONObject scene) throws Exception
+    {
+        return scene.getJSONArray("objects").getJSONObject(0).getJSONObject("geometry");
+    }
+
+    @Test
+    public void readerMatchesOrgJson() throws Exception
+    {
+        JSONObject expected = getGeometry(new JSONObject(mScene));
+        JSONObject actual = getGeometry(SXRSceneReader.parse(mScene));
+        JSONArray vertices = expected.getJSONArray("vertices");
+        JSONArray triangles = expected.getJSONArray("triangles");
+        float[] readVertices = (float[]) actual.get("vertices");
+        int[] readTriangles = (int[]) actual.get("triangles");
+
+        mWaiter.assertEquals(vertices.length(), readVertices.length);
+        for (int i = 0; i < readVertices.length; ++i)
+        {
+            mWaiter.assertEquals((float) vertices.getDouble(i), readVertices[i]);
+        }
+        mWaiter.assertEquals(triangles.length(), readTriangles.length);
+        for (int i = 0; i < readTriangles.length; ++i)
+        {
+            mWaiter.assertEquals(triangles.getInt(i), readTriangles[i]);
+        }
+        mWaiter.assertEquals("polygon", actual.getString("type"));
+    }
+
+    @Test
+    public void compiledSceneMatchesParsedScene() throws Exception
+    {
+        File dir = getCacheDir("compiledSceneMatchesParsedScene");
+        JSONObject parsed = new SXRSceneCache(dir).get(mScene);
+        JSONObject compiled = new SXRSceneCache(dir).get(mScene);
+        JSONObject a = getGeometry(parsed);
+        JSONObject b = getGeometry(compiled);
+
+        mWaiter.assertTrue(parsed != compiled);
+        mWaiter.assertTrue(Arrays.equals((float[]) a.get("vertices"), (float[]) b.get("vertices")));
+        mWaiter.assertTrue(Arrays.equals((int[]) a.get("triangles"), (int[]) b.get("triangles")));
+        mWaiter.assertTrue(Arrays.equals((float[]) a.getJSONArray("texcoords").get(0),
+                                         (float[]) b.getJSONArray("texcoords").get(0)));
+    }
+
+    @Test
+    public void compiledScenesAreCopies() throws Exception
+    {
+        JSONObject first = SXRSceneMaker.compileScene(sxrTestUtils.getSxrContext(), mScene);
+        JSONObject second = SXRSceneMaker.compileScene(sxrTestUtils.getSxrContext(), mScene);
+
+        mWaiter.assertTrue(first != second);
+        getGeometry(first).put("type", "cube");
+        mWaiter.assertEquals("polygon", getGeometry(second).getString("type"));
+        mWaiter.assertEquals("polygon",
+                             getGeometry(SXRSceneMaker.compileScene(sxrTestUtils.getSxrContext(), mScene)).getString("type"));
+    }
+
+    @Test
+    public void makeSceneFromText() throws Exception
+    {
+        SXRNode root = mSceneMaker.makeScene(sxrTestUtils, mScene);
+
+        sxrTestUtils.waitForXFrames(2);
+        mWaiter.assertTrue(sxrTestUtils.getMainScene().getNodeByName("root") == root);
+        checkGrid(root);
+
+        // built again from the cached tree, replaces the first root
+        SXRNode again = mSceneMaker.makeScene(sxrTestUtils, mScene);
+
+        sxrTestUtils.waitForXFrames(2);
+        mWaiter.assertTrue(again != root);
+        mWaiter.assertTrue(sxrTestUtils.getMainScene().getNodeByName("root") == again);
+        checkGrid(again);
+    }
+
+    @Test
+    public void makeSceneFromTextInScene() throws Exception
+    {
+        SXRScene scene = sxrTestUtils.getMainScene();
+
+        mSceneMaker.makeScene(sxrTestUtils.getSxrContext(), scene, mScene);
+        SXRNode root = scene.getNodeByName("root");
+        mWaiter.assertNotNull(root);
+        checkGrid(root);
+    }
+
+    @Test
+    public void benchmarkMakeSceneFromText() throws Exception
+    {
+        SXRScene scene = sxrTestUtils.getMainScene();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+        {
+            mSceneMaker.makeScene(sxrTestUtils.getSxrContext(), scene, mScene);
+            scene.clear();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            mSceneMaker.makeScene(sxrTestUtils.getSxrContext(), scene, mScene);
+            scene.clear();
+        }
+        report("makeSceneFromText", System.nanoTime() - start);
+    }
+
+    private void checkGrid(SXRNode root)
+    {
+        SXRNode grid = root.getChildByIndex(0);
+
+        mWaiter.assertEquals("grid", grid.getName());
+        SXRMesh mesh = grid.getRenderData().getMesh();
+        mWaiter.assertEquals(GRID_SIZE * GRID_SIZE, mesh.getVertexBuffer().getVertexCount());
+        mWaiter.assertEquals(6 * (GRID_SIZE - 1) * (GRID_SIZE - 1), mesh.getIndexBuffer().getIndexCount());
+    }
+
+    @Test
+    public void benchmarkOrgJson() throws Exception
+    {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+        {
+            parseOrgJson();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            parseOrgJson();
+        }
+        report("parseOrgJson", System.nanoTime() - start);
+    }
+
+    @Test
+    public void benchmarkStreamingReader() throws Exception
+    {
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+        {
+            SXRSceneReader.parse(mScene);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            SXRSceneReader.parse(mScene);
+        }
+        report("parseStreaming", System.nanoTime() - start);
+    }
+
+    @Test
+    public void benchmarkCompiledScene() throws Exception
+    {
+        File dir = getCacheDir("benchmarkCompiledScene");
+
+        new SXRSceneCache(dir).get(mScene);
+        for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+        {
+            new SXRSceneCache(dir).get(mScene);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; ++i)
+        {
+            new SXRSceneCache(dir).get(mScene);    // a new cache reads from disk
+        }
+        report("loadCompiled", System.nanoTime() - start);
+    }
+
+    /*
+     * What SXRSceneMaker did for every polygon scene before SXRSceneReader:
+     * build the DOM and convert the arrays element by element.
+     */
+    private void parseOrgJson() throws Exception
+    {
+        JSONObject geometry = getGeometry(new JSONObject(mScene));
+        JSONArray vertices = geometry.getJSONArray("vertices");
+        JSONArray triangles = geometry.getJSONArray("triangles");
+        float[] v = new float[vertices.length()];
+        int[] t = new int[triangles.length()];
+
+        for (int i = 0; i < v.length; ++i)
+        {
+            v[i] = (float) vertices.getDouble(i);
+        }
+        for (int i = 0; i < t.length; ++i)
+        {
+            t[i] = triangles.getInt(i);
+        }
+    }
+
+    private static File getCacheDir(String name)
+    {
+        File dir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "SceneParsePerfTests/" + name);
+        File[] files = dir.listFiles();
+
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                f.delete();
+            }
+        }
+        return dir;
+    }
+
+    private void report(String name, long totalNanos)
+    {
+        float msPerOp = totalNanos / (ITERATIONS * 1000000.0f);
+        Log.e("PERFORMANCE", "%s %d vertices, %d chars: %f ms/op",
+              name, GRID_SIZE * GRID_SIZE, mScene.length(), msPerOp);
+        try
+        {
+            new SXRPerfResult(getClass().getSimpleName(), name)
+                    .setParameter("vertices", GRID_SIZE * GRID_SIZE)
+                    .setParameter("iterations", ITERATIONS)
+                    .setMetric("ms_per_op", msPerOp)
+                    .write();
+        }
+        catch (IOException ex)
+        {
+            Log.e("PERFORMANCE", "Cannot write results of %s: %s", name, ex.getMessage());
+        }
+    }
+}
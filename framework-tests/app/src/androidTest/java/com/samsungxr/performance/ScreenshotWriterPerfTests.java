@@ -0,0 +1,135 @@
+package com.samsungxr.performance;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Environment;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.unittestutils.SXRScreenshotWriter;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.utility.Log;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Measures how fast {@link SXRScreenshotWriter} saves a screenshot in each of
+ * its formats. Every benchmark writes under its own category, the writer
+ * reports the encode time and bytes written as its performance result.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScreenshotWriterPerfTests
+{
+    private static final int ITERATIONS = 10;
+    private static final long TIMEOUT_MS = 60000;
+    private static final String GOLDEN = "TextureTests/testRepeatTexture.png";
+
+    private static Bitmap sBitmap;
+    private static File sRootDir;
+    private Waiter mWaiter;
+
+    @BeforeClass
+    public static void loadGoldenMaster() throws Exception
+    {
+        String path = SXRTestUtils.DEVICE_TYPE + "/" + GOLDEN;
+        byte[] data = SXRTestUtils.getGoldenMasterStore().read(path);
+
+        if (data == null)
+        {
+            throw new FileNotFoundException("No golden master " + path);
+        }
+        sBitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+        sRootDir = new File(Environment.getExternalStorageDirectory(), "GearVRFTests/ScreenshotWriterPerfTests");
+    }
+
+    @AfterClass
+    public static void releaseGoldenMaster()
+    {
+        sBitmap.recycle();
+        sBitmap = null;
+    }
+
+    @Before
+    public void setUp()
+    {
+        mWaiter = new Waiter();
+    }
+
+    @Test
+    public void fastPngIsLossless() throws Exception
+    {
+        SXRScreenshotWriter writer = new SXRScreenshotWriter(sRootDir, SXRScreenshotWriter.Format.PNG,
+                                                             Deflater.BEST_SPEED);
+        try
+        {
+            writer.write("lossless", "fastPng", sBitmap, null);
+            writer.flush(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        finally
+        {
+            writer.shutdown();
+        }
+        Bitmap decoded = BitmapFactory.decodeFile(new File(sRootDir, "lossless/fastPng.png").getPath());
+        mWaiter.assertNotNull(decoded);
+        mWaiter.assertTrue(decoded.sameAs(sBitmap));
+        decoded.recycle();
+    }
+
+    @Test
+    public void benchmarkPlatformPng() throws Exception
+    {
+        benchmark("platformPng", SXRScreenshotWriter.Format.PNG, SXRScreenshotWriter.PLATFORM_COMPRESSION);
+    }
+
+    @Test
+    public void benchmarkFastestPng() throws Exception
+    {
+        benchmark("fastestPng", SXRScreenshotWriter.Format.PNG, Deflater.BEST_SPEED);
+    }
+
+    @Test
+    public void benchmarkDefaultPng() throws Exception
+    {
+        benchmark("defaultPng", SXRScreenshotWriter.Format.PNG, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Test
+    public void benchmarkRawRGBA() throws Exception
+    {
+        benchmark("rawRGBA", SXRScreenshotWriter.Format.RAW_RGBA, SXRScreenshotWriter.PLATFORM_COMPRESSION);
+    }
+
+    private void benchmark(String name, SXRScreenshotWriter.Format format, int level) throws Exception
+    {
+        SXRScreenshotWriter writer = new SXRScreenshotWriter(sRootDir, format, level);
+        String category = getClass().getSimpleName() + "_" + name;
+
+        try
+        {
+            for (int i = 0; i < ITERATIONS; ++i)
+            {
+                writer.write(category, "screenshot" + i, sBitmap, null);
+            }
+            writer.flush(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            writer.writeStatistics();
+        }
+        finally
+        {
+            writer.shutdown();
+        }
+        SXRScreenshotWriter.Statistics stats = writer.getStatistics(category);
+        Log.e("PERFORMANCE", "screenshotWriter %s %dx%d: %s", name, sBitmap.getWidth(), sBitmap.getHeight(), stats);
+        mWaiter.assertEquals(ITERATIONS, stats.screenshots);
+        mWaiter.assertEquals(0, stats.failures);
+    }
+}
@@ -747,4 +747,106 @@ public class PickerTests
         mPickHandler.checkTexCoords("cube", new Vector2f[] { new Vector2f(0.5f, 0.5f) }, null);
         Log.d("PICK", "end canPickAfterCameraMove");
     }
+
+    /*
+     * Adds a grid of spheres with sphere colliders, rows x rows
+     * in the plane z = -10, spaced 3 apart around the z axis.
+     */
+    private SXRNode[] addSphereGrid(SXRColliderBVH bvh, int rows)
+    {
+        SXRContext context = sxrTestUtils.getSxrContext();
+        SXRScene scene = sxrTestUtils.getMainScene();
+        SXRNode[] spheres = new SXRNode[rows * rows];
+
+        for (int i = 0; i < spheres.length; ++i)
+        {
+            SXRNode sphere = new SXRSphereNode(context, true, ((i & 1) == 0) ? mBlue : mRed);
+            SXRSphereCollider collider = new SXRSphereCollider(context);
+
+            sphere.setName("sphere" + i);
+            sphere.getTransform().setPosition(3 * (i % rows) - 1.5f * (rows - 1), 3 * (i / rows) - 1.5f * (rows - 1), -10);
+            collider.setRadius(1.0f);
+            sphere.attachComponent(collider);
+            scene.addNode(sphere);
+            bvh.add(sphere);
+            spheres[i] = sphere;
+        }
+        return spheres;
+    }
+
+    @Test
+    public void canPickManyWithBVH()
+    {
+        Log.d("PICK", "start canPickManyWithBVH");
+        SXRScene scene = sxrTestUtils.getMainScene();
+        SXRColliderBVH bvh = new SXRColliderBVH();
+        SXRNode[] spheres = addSphereGrid(bvh, 8);
+
+        sxrTestUtils.waitForXFrames(NUM_WAIT_FRAMES);
+        bvh.update();
+        for (SXRNode sphere : spheres)
+        {
+            Vector3f dir = new Vector3f(sphere.getTransform().getPositionX(),
+                                        sphere.getTransform().getPositionY(),
+                                        sphere.getTransform().getPositionZ());
+            float distance = dir.length() - 1.0f;
+
+            dir.normalize();
+            SXRPicker.SXRPickedObject hit = bvh.pick(0, 0, 0, dir.x, dir.y, dir.z);
+            SXRPicker.SXRPickedObject[] all = SXRPicker.pickObjects(scene, null, 0, 0, 0, dir.x, dir.y, dir.z);
+
+            mWaiter.assertNotNull(hit);
+            mWaiter.assertEquals(sphere.getName(), hit.hitObject.getName());
+            mWaiter.assertTrue(Math.abs(hit.getHitDistance() - distance) < 0.01f);
+            mWaiter.assertTrue(all.length > 0);
+            mWaiter.assertEquals(all[0].hitObject.getName(), hit.hitObject.getName());
+            mWaiter.assertTrue(bvh.getCandidateCount() < spheres.length / 4);
+
+            // the direction is normalized, hit distances stay in world units
+            SXRPicker.SXRPickedObject scaled = bvh.pick(0, 0, 0, 4 * dir.x, 4 * dir.y, 4 * dir.z);
+            mWaiter.assertNotNull(scaled);
+            mWaiter.assertEquals(sphere.getName(), scaled.hitObject.getName());
+            mWaiter.assertTrue(Math.abs(scaled.getHitDistance() - distance) < 0.01f);
+        }
+        mWaiter.assertNull(bvh.pick(0, 0, 0, 0, 0, 1));
+        mWaiter.assertEquals(0, bvh.getCandidateCount());
+        mWaiter.assertEquals(1, bvh.getBuildCount());
+        Log.d("PICK", "end canPickManyWithBVH");
+    }
+
+    @Test
+    public void canPickMovedWithBVH()
+    {
+        Log.d("PICK", "start canPickMovedWithBVH");
+        SXRColliderBVH bvh = new SXRColliderBVH();
+        SXRNode[] spheres = addSphereGrid(bvh, 4);
+        SXRNode moved = spheres[5];
+        float x = moved.getTransform().getPositionX();
+        float y = moved.getTransform().getPositionY();
+        Vector3f dir = new Vector3f(x, y, -10).normalize();
+
+        sxrTestUtils.waitForXFrames(NUM_WAIT_FRAMES);
+        SXRPicker.SXRPickedObject hit = bvh.pick(0, 0, 0, dir.x, dir.y, dir.z);
+        mWaiter.assertNotNull(hit);
+        mWaiter.assertEquals(moved.getName(), hit.hitObject.getName());
+
+        // move the sphere closer along the ray, then out of it
+        moved.getTransform().setPosition(x / 2, y / 2, -5);
+        sxrTestUtils.waitForXFrames(NUM_WAIT_FRAMES);
+        bvh.markDirty(moved);
+        hit = bvh.pick(0, 0, 0, dir.x, dir.y, dir.z);
+        mWaiter.assertNotNull(hit);
+        mWaiter.assertEquals(moved.getName(), hit.hitObject.getName());
+        mWaiter.assertTrue(Math.abs(hit.getHitDistance() - (dir.length() * 5 / -dir.z - 1.0f)) < 0.01f);
+
+        moved.getTransform().setPosition(-x, -y, 10);
+        sxrTestUtils.waitForXFrames(NUM_WAIT_FRAMES);
+        bvh.markDirty(moved);
+        mWaiter.assertNull(bvh.pick(0, 0, 0, dir.x, dir.y, dir.z));
+        hit = bvh.pick(0, 0, 0, -dir.x, -dir.y, -dir.z);
+        mWaiter.assertNotNull(hit);
+        mWaiter.assertEquals(moved.getName(), hit.hitObject.getName());
+        mWaiter.assertEquals(2, bvh.getRefitCount());
+        Log.d("PICK", "end canPickMovedWithBVH");
+    }
 }
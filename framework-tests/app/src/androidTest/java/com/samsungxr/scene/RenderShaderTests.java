@@ -237,8 +237,8 @@ public class RenderShaderTests
     private List<String> createMaterialWithTextureFormats() {
         List<String> materials = new ArrayList<String>();
         int[] textures = new int[] {R.drawable.checker, R.drawable.rock_normal, R.raw.jpg_opaque};
+        mSceneMaker.preloadTextures(sxrTestUtils.getSxrContext(), textures);
         for (int j = 0; j < textures.length; j++) { // Textures
-            mSceneMaker.loadTexture(sxrTestUtils.getSxrContext(), textures[j]);
             materials.add(createMaterialFormat(SXRMaterial.SXRShaderType.Phong.ID, textures[j]));
             materials.add(createMaterialFormat(SXRMaterial.SXRShaderType.Texture.ID, textures[j]));
         }
@@ -382,10 +382,7 @@ public class RenderShaderTests
         SXRScene scene = sxrTestUtils.getMainScene();
         int[] textures = new int[] {R.drawable.checker, R.drawable.rock_normal, R.raw.jpg_opaque};
 
-        for (int t = 0; t < textures.length; ++t)
-        {
-            mSceneMaker.loadTexture(ctx, textures[t]);
-        }
+        mSceneMaker.preloadTextures(ctx, textures);
         try {
             List<String> materials = new ArrayList<String>();
             materials.add(createMaterialFormat(SXRMaterial.SXRShaderType.Phong.ID));
@@ -0,0 +1,656 @@
+package com.samsungxr.scene;
+
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRPicker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy over collidable nodes, used as the broad phase
+ * for picking with many colliders.
+ * <p>
+ * {@link SXRPicker#pickObjects} tests the ray against every collider in the
+ * scene, so its cost grows linearly with the number of colliders. The BVH
+ * keeps the world space bounding boxes of the nodes in a binary tree, a ray
+ * only visits the boxes it passes through and only the nodes in those are
+ * handed to {@link SXRPicker#pickNode} for the exact test. Candidates are
+ * tested nearest first and the search stops once the next box starts
+ * beyond the closest hit.
+ * <p>
+ * The BVH does not watch transforms. When a node moves the caller must
+ * mark it with {@link #markDirty(SXRNode)}, otherwise the node keeps its
+ * old box until the tree is rebuilt and rays through its new position
+ * miss it. {@link #update()} refits only the boxes above the dirty nodes,
+ * the tree is rebuilt when refitting has made its boxes too large to
+ * prune well, or when nodes were added or removed.
+ * <p>
+ * The bounds of a node are its bounding volume, which is the bounds of its
+ * mesh. Colliders larger than their mesh need a margin. Rays are in world
+ * coordinates, like those of {@link SXRPicker} when the camera is at the
+ * origin, their directions are normalized so hit distances are in world
+ * units. Not thread safe, use it on one thread.
+ */
+public class SXRColliderBVH
+{
+    private static final int LEAF_SIZE = 4;
+    private static final int MAX_DEPTH = 64;
+    /*
+     * Rebuild when the total surface area of the boxes has
+     * grown by this much since the tree was built.
+     */
+    private static final float REBUILD_RATIO = 1.5f;
+
+    private final List<SXRNode> mNodes = new ArrayList<SXRNode>();
+    private final IdentityHashMap<SXRNode, Integer> mIndex = new IdentityHashMap<SXRNode, Integer>();
+    private float mMargin = 0.0f;
+
+    /* bounds of the nodes, min xyz and max xyz */
+    private float[] mBounds = new float[0];
+    private int[] mLeafOf = new int[0];
+    private boolean[] mDirty = new boolean[0];
+    private int[] mDirtyList = new int[0];
+    private int mDirtyCount = 0;
+    private boolean mNeedsBuild = true;
+
+    /* the tree, boxes are min xyz and max xyz, leaves have no children */
+    private float[] mBoxes = new float[0];
+    private int[] mLeft = new int[0];
+    private int[] mRight = new int[0];
+    private int[] mParent = new int[0];
+    private int[] mStart = new int[0];
+    private int[] mCount = new int[0];
+    private int[] mOrder = new int[0];
+    private int mTreeSize = 0;
+    private double mArea = 0.0;
+    private double mBuildArea = 0.0;
+    private int mBuilds = 0;
+    private int mRefits = 0;
+
+    private final int[] mStack = new int[MAX_DEPTH];
+    private int[] mCandidates = new int[64];
+    private float[] mCandidateT = new float[64];
+    private int mCandidateCount = 0;
+    private float[] mCentroids = new float[0];
+
+    /**
+     * Adds a node with a collider, it is included from the next {@link #update()}.
+     */
+    public void add(SXRNode node)
+    {
+        if (!mIndex.containsKey(node))
+        {
+            mIndex.put(node, mNodes.size());
+            mNodes.add(node);
+            mNeedsBuild = true;
+        }
+    }
+
+    public void remove(SXRNode node)
+    {
+        Integer index = mIndex.remove(node);
+
+        if (index != null)
+        {
+            SXRNode last = mNodes.remove(mNodes.size() - 1);
+            if (last != node)
+            {
+                mNodes.set(index, last);
+                mIndex.put(last, index);
+            }
+            mNeedsBuild = true;
+        }
+    }
+
+    public int size()
+    {
+        return mNodes.size();
+    }
+
+    /**
+     * Sets how much the bounds of every node are enlarged on each side.
+     */
+    public void setMargin(float margin)
+    {
+        mMargin = margin;
+        mNeedsBuild = true;
+    }
+
+    /**
+     * Marks a node whose transform changed, its bounds are read again by the next {@link #update()}.
+     * Must be called for every node which moved since the last pick, nothing
+     * else tells the BVH about transform changes.
+     */
+    public void markDirty(SXRNode node)
+    {
+        Integer index = mIndex.get(node);
+
+        if ((index != null) && !mNeedsBuild && !mDirty[index])
+        {
+            mDirty[index] = true;
+            mDirtyList[mDirtyCount++] = index;
+        }
+    }
+
+    /**
+     * Returns how many times the tree was built from scratch.
+     */
+    public int getBuildCount()
+    {
+        return mBuilds;
+    }
+
+    /**
+     * Returns how many updates refitted dirty nodes, including those
+     * after which the tree had degraded enough to be rebuilt.
+     */
+    public int getRefitCount()
+    {
+        return mRefits;
+    }
+
+    /**
+     * Returns the number of nodes handed to the exact test by the last pick,
+     * summed over the rays of a batch.
+     */
+    public int getCandidateCount()
+    {
+        return mCandidateCount;
+    }
+
+    /**
+     * Brings the tree up to date with the nodes added, removed or marked dirty.
+     */
+    public void update()
+    {
+        if (mNeedsBuild)
+        {
+            build();
+            return;
+        }
+        if (mDirtyCount == 0)
+        {
+            return;
+        }
+        for (int i = 0; i < mDirtyCount; ++i)
+        {
+            final int index = mDirtyList[i];
+
+            mDirty[index] = false;
+            readBounds(index);
+            for (int n = mLeafOf[index]; n >= 0; n = mParent[n])
+            {
+                refit(n);
+            }
+        }
+        mDirtyCount = 0;
+        ++mRefits;
+        if (mArea > REBUILD_RATIO * mBuildArea)
+        {
+            build();
+        }
+    }
+
+    /**
+     * Returns the closest hit along a ray or null if the ray hits nothing.
+     * The direction does not have to be unit length.
+     */
+    public SXRPicker.SXRPickedObject pick(float ox, float oy, float oz, float dx, float dy, float dz)
+    {
+        update();
+        return pickClosest(ox, oy, oz, dx, dy, dz);
+    }
+
+    /**
+     * Picks a batch of rays and writes the closest hit of each into results.
+     * <p>
+     * The hits are copied out of the objects {@link SXRPicker#pickNode}
+     * returns, which are dropped at once, the BVH itself allocates nothing
+     * per ray. The results only grow when a batch has more rays than any
+     * before it, so a caller which keeps its rays and results does not
+     * create garbage which outlives the call.
+     * @param rays    origin and direction of each ray, ox, oy, oz, dx, dy, dz,
+     *                the directions do not have to be unit length.
+     * @param count   number of rays in the array.
+     * @param results receives the hits, its previous contents are replaced.
+     * @return the number of rays which hit something.
+     */
+    public int pick(float[] rays, int count, SXRPickResults results)
+    {
+        int candidates = 0;
+
+        update();
+        results.reset(count);
+        for (int r = 0; r < count; ++r)
+        {
+            final int i = 6 * r;
+
+            results.set(r, pickClosest(rays[i], rays[i + 1], rays[i + 2], rays[i + 3], rays[i + 4], rays[i + 5]));
+            candidates += mCandidateCount;
+        }
+        mCandidateCount = candidates;
+        return results.getHitCount();
+    }
+
+    /*
+     * The early out compares box entry distances with hit distances,
+     * both are only in the same units along a unit direction.
+     */
+    private SXRPicker.SXRPickedObject pickClosest(float ox, float oy, float oz, float dx, float dy, float dz)
+    {
+        final float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+        mCandidateCount = 0;
+        if (length == 0.0f)
+        {
+            return null;
+        }
+        dx /= length;
+        dy /= length;
+        dz /= length;
+        collect(ox, oy, oz, dx, dy, dz);
+        sortCandidates();
+
+        SXRPicker.SXRPickedObject closest = null;
+        float closestDistance = Float.MAX_VALUE;
+
+        for (int i = 0; i < mCandidateCount; ++i)
+        {
+            if (mCandidateT[i] > closestDistance)
+            {
+                mCandidateCount = i;
+                break;
+            }
+            SXRPicker.SXRPickedObject hit = SXRPicker.pickNode(mNodes.get(mCandidates[i]), ox, oy, oz, dx, dy, dz);
+            if ((hit != null) && (hit.getHitDistance() < closestDistance))
+            {
+                closest = hit;
+                closestDistance = hit.getHitDistance();
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Returns all hits along a ray, closest first, like {@link SXRPicker#pickObjects}.
+     * The direction does not have to be unit length.
+     */
+    public SXRPicker.SXRPickedObject[] pickAll(float ox, float oy, float oz, float dx, float dy, float dz)
+    {
+        final float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+        update();
+        mCandidateCount = 0;
+        if (length == 0.0f)
+        {
+            return new SXRPicker.SXRPickedObject[0];
+        }
+        dx /= length;
+        dy /= length;
+        dz /= length;
+        collect(ox, oy, oz, dx, dy, dz);
+
+        List<SXRPicker.SXRPickedObject> hits = new ArrayList<SXRPicker.SXRPickedObject>();
+        for (int i = 0; i < mCandidateCount; ++i)
+        {
+            SXRPicker.SXRPickedObject hit = SXRPicker.pickNode(mNodes.get(mCandidates[i]), ox, oy, oz, dx, dy, dz);
+            if (hit != null)
+            {
+                hits.add(hit);
+            }
+        }
+        Collections.sort(hits, new Comparator<SXRPicker.SXRPickedObject>()
+        {
+            @Override
+            public int compare(SXRPicker.SXRPickedObject a, SXRPicker.SXRPickedObject b)
+            {
+                return Float.compare(a.getHitDistance(), b.getHitDistance());
+            }
+        });
+        return hits.toArray(new SXRPicker.SXRPickedObject[hits.size()]);
+    }
+
+    /*
+     * Gathers the nodes whose boxes the ray passes through
+     * with the distance at which it enters them.
+     */
+    private void collect(float ox, float oy, float oz, float dx, float dy, float dz)
+    {
+        final float ix = 1.0f / dx;
+        final float iy = 1.0f / dy;
+        final float iz = 1.0f / dz;
+        int top = 0;
+
+        mCandidateCount = 0;
+        if (mTreeSize == 0)
+        {
+            return;
+        }
+        mStack[top++] = 0;
+        while (top > 0)
+        {
+            final int n = mStack[--top];
+
+            if (Float.isNaN(intersect(mBoxes, n, ox, oy, oz, ix, iy, iz)))
+            {
+                continue;
+            }
+            if (mLeft[n] < 0)
+            {
+                for (int i = mStart[n]; i < mStart[n] + mCount[n]; ++i)
+                {
+                    final int index = mOrder[i];
+                    final float t = intersect(mBounds, index, ox, oy, oz, ix, iy, iz);
+
+                    if (!Float.isNaN(t))
+                    {
+                        addCandidate(index, t);
+                    }
+                }
+            }
+            else
+            {
+                mStack[top++] = mLeft[n];
+                mStack[top++] = mRight[n];
+            }
+        }
+    }
+
+    /*
+     * Slab test of the ray against box i, returns the distance
+     * at which the ray enters it or NaN if it misses.
+     */
+    private static float intersect(float[] boxes, int i, float ox, float oy, float oz, float ix, float iy, float iz)
+    {
+        final int b = 6 * i;
+        float t0 = (boxes[b] - ox) * ix;
+        float t1 = (boxes[b + 3] - ox) * ix;
+        float tmin = Math.min(t0, t1);
+        float tmax = Math.max(t0, t1);
+
+        t0 = (boxes[b + 1] - oy) * iy;
+        t1 = (boxes[b + 4] - oy) * iy;
+        tmin = Math.max(tmin, Math.min(t0, t1));
+        tmax = Math.min(tmax, Math.max(t0, t1));
+        t0 = (boxes[b + 2] - oz) * iz;
+        t1 = (boxes[b + 5] - oz) * iz;
+        tmin = Math.max(tmin, Math.min(t0, t1));
+        tmax = Math.min(tmax, Math.max(t0, t1));
+        if ((tmax < 0) || (tmin > tmax))
+        {
+            return Float.NaN;
+        }
+        return Math.max(tmin, 0.0f);
+    }
+
+    private void addCandidate(int index, float t)
+    {
+        if (mCandidateCount == mCandidates.length)
+        {
+            mCandidates = Arrays.copyOf(mCandidates, 2 * mCandidateCount);
+            mCandidateT = Arrays.copyOf(mCandidateT, 2 * mCandidateCount);
+        }
+        mCandidates[mCandidateCount] = index;
+        mCandidateT[mCandidateCount] = t;
+        ++mCandidateCount;
+    }
+
+    /*
+     * Insertion sort by entry distance, a ray only has a handful of candidates.
+     */
+    private void sortCandidates()
+    {
+        for (int i = 1; i < mCandidateCount; ++i)
+        {
+            final int index = mCandidates[i];
+            final float t = mCandidateT[i];
+            int j = i - 1;
+
+            while ((j >= 0) && (mCandidateT[j] > t))
+            {
+                mCandidates[j + 1] = mCandidates[j];
+                mCandidateT[j + 1] = mCandidateT[j];
+                --j;
+            }
+            mCandidates[j + 1] = index;
+            mCandidateT[j + 1] = t;
+        }
+    }
+
+    private void build()
+    {
+        final int n = mNodes.size();
+
+        if (mBounds.length < 6 * n)
+        {
+            mBounds = new float[6 * n];
+            mCentroids = new float[3 * n];
+            mLeafOf = new int[n];
+            mDirty = new boolean[n];
+            mDirtyList = new int[n];
+            mOrder = new int[n];
+
+            // a binary tree with at most n leaves has fewer than 2n nodes
+            final int maxTree = Math.max(1, 2 * n);
+            mBoxes = new float[6 * maxTree];
+            mLeft = new int[maxTree];
+            mRight = new int[maxTree];
+            mParent = new int[maxTree];
+            mStart = new int[maxTree];
+            mCount = new int[maxTree];
+        }
+        Arrays.fill(mDirty, false);
+        mDirtyCount = 0;
+        for (int i = 0; i < n; ++i)
+        {
+            readBounds(i);
+            mCentroids[3 * i] = (mBounds[6 * i] + mBounds[6 * i + 3]) / 2;
+            mCentroids[3 * i + 1] = (mBounds[6 * i + 1] + mBounds[6 * i + 4]) / 2;
+            mCentroids[3 * i + 2] = (mBounds[6 * i + 2] + mBounds[6 * i + 5]) / 2;
+            mOrder[i] = i;
+        }
+        mTreeSize = 0;
+        if (n > 0)
+        {
+            split(-1, 0, n, 0);
+        }
+        mArea = getArea();
+        mBuildArea = mArea;
+        mNeedsBuild = false;
+        ++mBuilds;
+    }
+
+    /*
+     * Makes a tree node over mOrder[start, start + count), splitting
+     * at the median centroid along the longest axis of the centroids.
+     */
+    private int split(int parent, int start, int count, int depth)
+    {
+        final int n = mTreeSize++;
+
+        mParent[n] = parent;
+        mStart[n] = start;
+        mCount[n] = count;
+        mLeft[n] = -1;
+        mRight[n] = -1;
+        if ((count <= LEAF_SIZE) || (depth >= MAX_DEPTH - 2))
+        {
+            for (int i = start; i < start + count; ++i)
+            {
+                mLeafOf[mOrder[i]] = n;
+            }
+            fit(n);
+            return n;
+        }
+        float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+        float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        for (int i = start; i < start + count; ++i)
+        {
+            for (int k = 0; k < 3; ++k)
+            {
+                final float c = mCentroids[3 * mOrder[i] + k];
+                min[k] = Math.min(min[k], c);
+                max[k] = Math.max(max[k], c);
+            }
+        }
+        int axis = 0;
+        for (int k = 1; k < 3; ++k)
+        {
+            if (max[k] - min[k] > max[axis] - min[axis])
+            {
+                axis = k;
+            }
+        }
+        final int half = count / 2;
+        select(start, start + count - 1, start + half, axis);
+        mLeft[n] = split(n, start, half, depth + 1);
+        mRight[n] = split(n, start + half, count - half, depth + 1);
+        fit(n);
+        return n;
+    }
+
+    /*
+     * Partially sorts mOrder[lo, hi] so the element at k has the
+     * k-th smallest centroid along the axis, as in quickselect.
+     */
+    private void select(int lo, int hi, int k, int axis)
+    {
+        while (hi > lo)
+        {
+            final float pivot = mCentroids[3 * mOrder[(lo + hi) >>> 1] + axis];
+            int i = lo;
+            int j = hi;
+
+            while (i <= j)
+            {
+                while (mCentroids[3 * mOrder[i] + axis] < pivot)
+                {
+                    ++i;
+                }
+                while (mCentroids[3 * mOrder[j] + axis] > pivot)
+                {
+                    --j;
+                }
+                if (i <= j)
+                {
+                    final int t = mOrder[i];
+                    mOrder[i++] = mOrder[j];
+                    mOrder[j--] = t;
+                }
+            }
+            if (k <= j)
+            {
+                hi = j;
+            }
+            else if (k >= i)
+            {
+                lo = i;
+            }
+            else
+            {
+                return;
+            }
+        }
+    }
+
+    /*
+     * Recomputes the box of tree node n from its children or its nodes.
+     */
+    private void fit(int n)
+    {
+        final int b = 6 * n;
+
+        if (mLeft[n] >= 0)
+        {
+            final int l = 6 * mLeft[n];
+            final int r = 6 * mRight[n];
+
+            for (int k = 0; k < 3; ++k)
+            {
+                mBoxes[b + k] = Math.min(mBoxes[l + k], mBoxes[r + k]);
+                mBoxes[b + k + 3] = Math.max(mBoxes[l + k + 3], mBoxes[r + k + 3]);
+            }
+            return;
+        }
+        for (int k = 0; k < 3; ++k)
+        {
+            mBoxes[b + k] = Float.MAX_VALUE;
+            mBoxes[b + k + 3] = -Float.MAX_VALUE;
+        }
+        for (int i = mStart[n]; i < mStart[n] + mCount[n]; ++i)
+        {
+            final int e = 6 * mOrder[i];
+
+            for (int k = 0; k < 3; ++k)
+            {
+                mBoxes[b + k] = Math.min(mBoxes[b + k], mBounds[e + k]);
+                mBoxes[b + k + 3] = Math.max(mBoxes[b + k + 3], mBounds[e + k + 3]);
+            }
+        }
+    }
+
+    /*
+     * Fits tree node n again and keeps the total area up to date,
+     * so a refit costs the depth of the tree and not its size.
+     */
+    private void refit(int n)
+    {
+        if (mLeft[n] < 0)
+        {
+            fit(n);
+            return;
+        }
+        mArea -= getArea(n);
+        fit(n);
+        mArea += getArea(n);
+    }
+
+    private void readBounds(int index)
+    {
+        SXRNode.BoundingVolume bv = mNodes.get(index).getBoundingVolume();
+        final int b = 6 * index;
+
+        mBounds[b] = bv.minCorner.x - mMargin;
+        mBounds[b + 1] = bv.minCorner.y - mMargin;
+        mBounds[b + 2] = bv.minCorner.z - mMargin;
+        mBounds[b + 3] = bv.maxCorner.x + mMargin;
+        mBounds[b + 4] = bv.maxCorner.y + mMargin;
+        mBounds[b + 5] = bv.maxCorner.z + mMargin;
+    }
+
+    /*
+     * Sum of the surface areas of the inner boxes, the expected
+     * number of boxes a random ray visits is proportional to it.
+     * Walks the whole tree, only called by build, refits track it.
+     */
+    private double getArea()
+    {
+        double area = 0.0;
+
+        for (int n = 0; n < mTreeSize; ++n)
+        {
+            if (mLeft[n] >= 0)
+            {
+                area += getArea(n);
+            }
+        }
+        return area;
+    }
+
+    /*
+     * Half the surface area of the box of tree node n.
+     */
+    private double getArea(int n)
+    {
+        final int b = 6 * n;
+        final float x = mBoxes[b + 3] - mBoxes[b];
+        final float y = mBoxes[b + 4] - mBoxes[b + 1];
+        final float z = mBoxes[b + 5] - mBoxes[b + 2];
+
+        return x * y + y * z + z * x;
+    }
+}
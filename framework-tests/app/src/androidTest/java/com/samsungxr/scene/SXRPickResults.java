@@ -0,0 +1,135 @@
+package com.samsungxr.scene;
+
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRPicker;
+
+import java.util.Arrays;
+
+/**
+ * Closest hits of a batch of rays picked with
+ * {@link SXRColliderBVH#pick(float[], int, SXRPickResults)}.
+ * <p>
+ * The hits are kept in parallel arrays indexed by ray instead of an
+ * {@link SXRPicker.SXRPickedObject} per hit, so the same results can be
+ * passed to every batch. The arrays are replaced by the next batch and
+ * only reallocated when it has more rays than they hold. A ray which
+ * missed has no hit object and an infinite distance.
+ */
+public class SXRPickResults
+{
+    private SXRNode[] mHitObjects;
+    private float[] mDistances;
+    private float[] mLocations;
+    private int mRays = 0;
+    private int mHits = 0;
+
+    /**
+     * @param capacity number of rays per batch to allocate room for up front.
+     */
+    public SXRPickResults(int capacity)
+    {
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity)
+    {
+        mHitObjects = new SXRNode[capacity];
+        mDistances = new float[capacity];
+        mLocations = new float[3 * capacity];
+    }
+
+    void reset(int rays)
+    {
+        if (rays > mHitObjects.length)
+        {
+            allocate(rays);
+        }
+        else
+        {
+            Arrays.fill(mHitObjects, 0, mRays, null);
+        }
+        mRays = rays;
+        mHits = 0;
+    }
+
+    void set(int ray, SXRPicker.SXRPickedObject hit)
+    {
+        if (hit == null)
+        {
+            mHitObjects[ray] = null;
+            mDistances[ray] = Float.POSITIVE_INFINITY;
+            return;
+        }
+        mHitObjects[ray] = hit.hitObject;
+        mDistances[ray] = hit.getHitDistance();
+        System.arraycopy(hit.hitLocation, 0, mLocations, 3 * ray, 3);
+        ++mHits;
+    }
+
+    /**
+     * Returns the number of rays in the last batch.
+     */
+    public int getRayCount()
+    {
+        return mRays;
+    }
+
+    /**
+     * Returns the number of rays in the last batch which hit something.
+     */
+    public int getHitCount()
+    {
+        return mHits;
+    }
+
+    public boolean isHit(int ray)
+    {
+        return mHitObjects[ray] != null;
+    }
+
+    /**
+     * Returns the closest node the ray hit or null if it missed.
+     */
+    public SXRNode getHitObject(int ray)
+    {
+        return mHitObjects[ray];
+    }
+
+    public float getHitDistance(int ray)
+    {
+        return mDistances[ray];
+    }
+
+    /**
+     * Copies where the ray hit, in the coordinates of the hit object, into xyz.
+     */
+    public float[] getHitLocation(int ray, float[] xyz)
+    {
+        System.arraycopy(mLocations, 3 * ray, xyz, 0, 3);
+        return xyz;
+    }
+
+    /**
+     * Returns the hit objects of all rays, only valid up to {@link #getRayCount()}.
+     */
+    public SXRNode[] getHitObjects()
+    {
+        return mHitObjects;
+    }
+
+    /**
+     * Returns the hit distances of all rays, only valid up to {@link #getRayCount()}.
+     */
+    public float[] getHitDistances()
+    {
+        return mDistances;
+    }
+
+    /**
+     * Returns the hit locations, x, y, z for each ray, only valid up to {@link #getRayCount()}.
+     */
+    public float[] getHitLocations()
+    {
+        return mLocations;
+    }
+}
@@ -0,0 +1,385 @@
+package com.samsungxr.scene;
+
+import com.samsungxr.unittestutils.SXRDigest;
+import com.samsungxr.utility.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of compiled scene descriptions, keyed by the SHA-256 of the JSON text.
+ * <p>
+ * A scene is parsed with {@link SXRSceneReader} the first time it is seen.
+ * The parsed tree is kept in memory for the rest of the run and written to
+ * a compact binary file in the cache directory, geometry arrays as raw
+ * little endian floats and ints. A scene built again later, in the same
+ * run or the next one, is not parsed at all.
+ * <p>
+ * Every call returns its own copy of the cached tree, primitive arrays
+ * included, callers are free to modify it.
+ */
+public class SXRSceneCache
+{
+    private static final String TAG = "SceneCache";
+    private static final int MAGIC = 0x53585253;    // "SXRS"
+    private static final int VERSION = 1;
+    private static final int MAX_IN_MEMORY = 32;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_OBJECT = 1;
+    private static final byte TAG_ARRAY = 2;
+    private static final byte TAG_STRING = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_INT = 5;
+    private static final byte TAG_LONG = 6;
+    private static final byte TAG_BOOLEAN = 7;
+    private static final byte TAG_FLOATS = 8;
+    private static final byte TAG_INTS = 9;
+
+    private final File mCacheDir;
+    private final Map<String, JSONObject> mScenes = new LinkedHashMap<String, JSONObject>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JSONObject> eldest)
+        {
+            return size() > MAX_IN_MEMORY;
+        }
+    };
+    private int mMemoryHits = 0;
+    private int mDiskHits = 0;
+    private int mParsed = 0;
+
+    /**
+     * @param cacheDir directory for the compiled scenes, null to only cache in memory.
+     */
+    public SXRSceneCache(File cacheDir)
+    {
+        mCacheDir = cacheDir;
+        if (cacheDir != null)
+        {
+            cacheDir.mkdirs();
+        }
+    }
+
+    /**
+     * Returns the parsed form of a scene description.
+     * @param json scene description text.
+     * @return a copy of the cached tree which belongs to the caller.
+     */
+    public synchronized JSONObject get(String json) throws IOException, JSONException
+    {
+        String hash = SXRDigest.sha256(json.getBytes("UTF-8"));
+        JSONObject scene = mScenes.get(hash);
+
+        if (scene != null)
+        {
+            ++mMemoryHits;
+            return (JSONObject) copy(scene);
+        }
+        File file = (mCacheDir != null) ? new File(mCacheDir, hash + ".scene") : null;
+        if ((file != null) && file.isFile())
+        {
+            try
+            {
+                scene = read(file);
+                ++mDiskHits;
+            }
+            catch (IOException ex)
+            {
+                Log.w(TAG, "Discarding compiled scene %s: %s", file.getName(), ex.getMessage());
+                file.delete();
+            }
+        }
+        if (scene == null)
+        {
+            scene = SXRSceneReader.parse(json);
+            ++mParsed;
+            if (file != null)
+            {
+                try
+                {
+                    write(file, scene);
+                }
+                catch (IOException ex)
+                {
+                    Log.w(TAG, "Cannot write compiled scene %s: %s", file.getName(), ex.getMessage());
+                }
+            }
+        }
+        mScenes.put(hash, scene);
+        return (JSONObject) copy(scene);
+    }
+
+    public synchronized String getStatistics()
+    {
+        return String.format("scene cache: %d memory hits, %d disk hits, %d parsed",
+                             mMemoryHits, mDiskHits, mParsed);
+    }
+
+    /*
+     * Deep copy of a value of a cached tree. Strings, numbers and
+     * booleans are immutable and shared.
+     */
+    private static Object copy(Object value) throws JSONException
+    {
+        if (value instanceof JSONObject)
+        {
+            JSONObject object = (JSONObject) value;
+            JSONObject result = new JSONObject();
+            Iterator<String> names = object.keys();
+
+            while (names.hasNext())
+            {
+                String name = names.next();
+                result.put(name, copy(object.get(name)));
+            }
+            return result;
+        }
+        else if (value instanceof JSONArray)
+        {
+            JSONArray array = (JSONArray) value;
+            JSONArray result = new JSONArray();
+
+            for (int i = 0; i < array.length(); ++i)
+            {
+                result.put(copy(array.get(i)));
+            }
+            return result;
+        }
+        else if (value instanceof float[])
+        {
+            return ((float[]) value).clone();
+        }
+        else if (value instanceof int[])
+        {
+            return ((int[]) value).clone();
+        }
+        return value;
+    }
+
+    private static JSONObject read(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try
+        {
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+            {
+                throw new IOException("not a compiled scene of this version");
+            }
+            Object root = readValue(in);
+            if (!(root instanceof JSONObject))
+            {
+                throw new IOException("root is not an object");
+            }
+            return (JSONObject) root;
+        }
+        catch (JSONException ex)
+        {
+            throw new IOException(ex.getMessage());
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static void write(File file, JSONObject scene) throws IOException, JSONException
+    {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeValue(out, scene);
+        }
+        finally
+        {
+            out.close();
+        }
+        if (!temp.renameTo(file))
+        {
+            temp.delete();
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException, JSONException
+    {
+        byte tag = in.readByte();
+
+        switch (tag)
+        {
+            case TAG_NULL:
+                return JSONObject.NULL;
+
+            case TAG_OBJECT:
+            {
+                JSONObject object = new JSONObject();
+                for (int n = in.readInt(); n > 0; --n)
+                {
+                    String name = in.readUTF();
+                    object.put(name, readValue(in));
+                }
+                return object;
+            }
+
+            case TAG_ARRAY:
+            {
+                JSONArray array = new JSONArray();
+                for (int n = in.readInt(); n > 0; --n)
+                {
+                    array.put(readValue(in));
+                }
+                return array;
+            }
+
+            case TAG_STRING:
+                return readString(in);
+
+            case TAG_DOUBLE:
+                return in.readDouble();
+
+            case TAG_INT:
+                return in.readInt();
+
+            case TAG_LONG:
+                return in.readLong();
+
+            case TAG_BOOLEAN:
+                return in.readBoolean();
+
+            case TAG_FLOATS:
+            {
+                float[] values = new float[in.readInt()];
+                readBuffer(in, values.length).asFloatBuffer().get(values);
+                return values;
+            }
+
+            case TAG_INTS:
+            {
+                int[] values = new int[in.readInt()];
+                readBuffer(in, values.length).asIntBuffer().get(values);
+                return values;
+            }
+
+            default:
+                throw new IOException("unknown value tag " + tag);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException, JSONException
+    {
+        if ((value == null) || (value == JSONObject.NULL))
+        {
+            out.writeByte(TAG_NULL);
+        }
+        else if (value instanceof JSONObject)
+        {
+            JSONObject object = (JSONObject) value;
+            Iterator<String> names = object.keys();
+
+            out.writeByte(TAG_OBJECT);
+            out.writeInt(object.length());
+            while (names.hasNext())
+            {
+                String name = names.next();
+                out.writeUTF(name);
+                writeValue(out, object.get(name));
+            }
+        }
+        else if (value instanceof JSONArray)
+        {
+            JSONArray array = (JSONArray) value;
+
+            out.writeByte(TAG_ARRAY);
+            out.writeInt(array.length());
+            for (int i = 0; i < array.length(); ++i)
+            {
+                writeValue(out, array.get(i));
+            }
+        }
+        else if (value instanceof float[])
+        {
+            float[] values = (float[]) value;
+            ByteBuffer buffer = newBuffer(values.length);
+
+            buffer.asFloatBuffer().put(values);
+            out.writeByte(TAG_FLOATS);
+            out.writeInt(values.length);
+            out.write(buffer.array());
+        }
+        else if (value instanceof int[])
+        {
+            int[] values = (int[]) value;
+            ByteBuffer buffer = newBuffer(values.length);
+
+            buffer.asIntBuffer().put(values);
+            out.writeByte(TAG_INTS);
+            out.writeInt(values.length);
+            out.write(buffer.array());
+        }
+        else if (value instanceof Integer)
+        {
+            out.writeByte(TAG_INT);
+            out.writeInt((Integer) value);
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        }
+        else if (value instanceof Number)
+        {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        }
+        else if (value instanceof Boolean)
+        {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        }
+        else
+        {
+            byte[] bytes = value.toString().getBytes("UTF-8");
+            out.writeByte(TAG_STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static ByteBuffer newBuffer(int numValues)
+    {
+        return ByteBuffer.allocate(4 * numValues).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static ByteBuffer readBuffer(DataInputStream in, int numValues) throws IOException
+    {
+        ByteBuffer buffer = newBuffer(numValues);
+        in.readFully(buffer.array());
+        return buffer;
+    }
+}
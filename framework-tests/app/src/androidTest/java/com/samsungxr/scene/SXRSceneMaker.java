@@ -1,5 +1,6 @@
 package com.samsungxr.scene;
 
+import android.graphics.BitmapFactory;
 import android.opengl.GLES30;
 import android.util.ArrayMap;
 
@@ -23,8 +24,11 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 /*
 
@@ -102,7 +106,11 @@ renderconfig:
  */
 public class SXRSceneMaker {
     private static SXRTestUtils Tester = null;
-    private  Map<Integer, SXRTexture> TextureCache = new HashMap<Integer, SXRTexture>();
+    private static SXRSceneCache SceneCache = null;
+    private static final SXRTextureCache TextureCache = new SXRTextureCache();
+    private static final List<SXRNode> AddedRoots = new ArrayList<SXRNode>();
+    private static final long TEXTURE_PRELOAD_TIMEOUT = 30000;
+    private final List<Integer> mSceneTextures = new ArrayList<Integer>();
 
     private static class RGBAColor
     {
@@ -124,7 +132,15 @@ public class SXRSceneMaker {
         Tester = tester;
     }
 
-    private static float[] jsonToFloatArray(JSONArray jsonArray) throws JSONException {
+    /*
+     * Geometry arrays are float[] or int[] when the scene was read by
+     * SXRSceneReader and JSONArrays when the caller built the JSONObject.
+     */
+    private static float[] jsonToFloatArray(Object value) throws JSONException {
+        if (value instanceof float[]) {
+            return (float[]) value;
+        }
+        JSONArray jsonArray = (JSONArray) value;
         float[] array = new float[jsonArray.length()];
 
         for (int i = 0; i < jsonArray.length(); i++) {
@@ -134,7 +150,11 @@ public class SXRSceneMaker {
         return array;
     }
 
-    private static int[] jsonToIntArray(JSONArray jsonArray) throws JSONException {
+    private static int[] jsonToIntArray(Object value) throws JSONException {
+        if (value instanceof int[]) {
+            return (int[]) value;
+        }
+        JSONArray jsonArray = (JSONArray) value;
         int[] array = new int[jsonArray.length()];
 
         for (int i = 0; i < jsonArray.length(); i++) {
@@ -151,28 +171,136 @@ public class SXRSceneMaker {
         {
             return null;
         }
-        if (TextureCache.containsKey(resourceId))
-        {
-            return TextureCache.get(resourceId);
-        }
-        return loadTexture(sxrContext, resourceId);
+        mSceneTextures.add(resourceId);
+        return getTexture(sxrContext, resourceId);
     }
 
+    /**
+     * Returns the cache textures loaded by scene makers are kept in.
+     * It is shared by all scene makers and all tests.
+     */
+    public static SXRTextureCache getTextureCache()
+    {
+        return TextureCache;
+    }
+
+    /**
+     * Loads a texture through the texture cache for use outside of a scene
+     * built by this scene maker. No reference is held on it, so the cache
+     * will drop it when it needs room but never release it on the GPU.
+     */
     public SXRTexture loadTexture(SXRContext sxrContext, int resourceId) {
-        if (TextureCache.containsKey(resourceId))
+        SXRTexture tex = getTexture(sxrContext, resourceId);
+        TextureCache.share(resourceId);
+        return tex;
+    }
+
+    private SXRTexture getTexture(SXRContext sxrContext, int resourceId) {
+        SXRTexture cached = TextureCache.get(sxrContext, resourceId);
+        if (cached != null)
         {
-            return TextureCache.get(resourceId);
+            return cached;
         }
         SXRAndroidResource resource = new SXRAndroidResource(sxrContext, resourceId);
         TextureEventHandler waitForTextureLoad = new TextureEventHandler(Tester, 1);
         sxrContext.getEventReceiver().addListener(waitForTextureLoad);
         SXRTexture tex = sxrContext.getAssetLoader().loadTexture(resource);
-        TextureCache.put(resourceId, tex);
+        TextureCache.put(sxrContext, resourceId, tex, getTextureBytes(sxrContext, resourceId));
         Tester.waitForAssetLoad();
         sxrContext.getEventReceiver().removeListener(waitForTextureLoad);
         return tex;
     }
 
+    /**
+     * Loads all textures referenced by "resource_id" anywhere in the given
+     * scene descriptions concurrently and waits for them. The textures which
+     * are not cached yet are loaded by a single {@link SXRTexturePreloader} batch.
+     * @return the preloader, which reports the load times.
+     */
+    public SXRTexturePreloader preloadTextures(SXRContext sxrContext, JSONObject... jsonScenes)
+            throws JSONException {
+        List<Integer> resourceIds = new ArrayList<Integer>();
+
+        for (JSONObject jsonScene : jsonScenes) {
+            if (jsonScene != null) {
+                collectTextures(jsonScene, resourceIds);
+            }
+        }
+        return preloadTextures(sxrContext, resourceIds);
+    }
+
+    /**
+     * Loads the given textures concurrently and waits for them.
+     * @return the preloader, which reports the load times.
+     */
+    public SXRTexturePreloader preloadTextures(SXRContext sxrContext, int... resourceIds) {
+        List<Integer> ids = new ArrayList<Integer>(resourceIds.length);
+
+        for (int id : resourceIds) {
+            ids.add(id);
+        }
+        return preloadTextures(sxrContext, ids);
+    }
+
+    private SXRTexturePreloader preloadTextures(SXRContext sxrContext, List<Integer> resourceIds) {
+        SXRTexturePreloader preloader = new SXRTexturePreloader(sxrContext, TextureCache);
+
+        try {
+            preloader.preload(resourceIds, TEXTURE_PRELOAD_TIMEOUT);
+        } catch (InterruptedException e) {
+            Log.e("SceneMaker", "texture preload interrupted");
+            Thread.currentThread().interrupt();
+        }
+        return preloader;
+    }
+
+    private static void collectTextures(JSONObject jsonObject, List<Integer> resourceIds)
+            throws JSONException {
+        int resourceId = jsonObject.optInt("resource_id", -1);
+        if (resourceId != -1) {
+            resourceIds.add(resourceId);
+        }
+        JSONArray names = jsonObject.names();
+        if (names == null) {
+            return;
+        }
+        for (int i = 0; i < names.length(); i++) {
+            Object value = jsonObject.get(names.getString(i));
+            if (value instanceof JSONObject) {
+                collectTextures((JSONObject) value, resourceIds);
+            } else if (value instanceof JSONArray) {
+                collectTextures((JSONArray) value, resourceIds);
+            }
+        }
+    }
+
+    private static void collectTextures(JSONArray jsonArray, List<Integer> resourceIds)
+            throws JSONException {
+        for (int i = 0; i < jsonArray.length(); i++) {
+            Object value = jsonArray.get(i);
+            if (value instanceof JSONObject) {
+                collectTextures((JSONObject) value, resourceIds);
+            } else if (value instanceof JSONArray) {
+                collectTextures((JSONArray) value, resourceIds);
+            }
+        }
+    }
+
+    /*
+     * Size of the texture as RGBA, read from the header of the image resource.
+     * Returns 0 for resources BitmapFactory cannot read, e.g. compressed textures.
+     */
+    static long getTextureBytes(SXRContext sxrContext, int resourceId) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(sxrContext.getContext().getResources(), resourceId, options);
+        if ((options.outWidth <= 0) || (options.outHeight <= 0))
+        {
+            return 0;
+        }
+        return 4L * options.outWidth * options.outHeight;
+    }
+
     /*
      {
       r: 1, g: 1, b: 1, a: 0
@@ -492,22 +620,22 @@ public class SXRSceneMaker {
         SXRMesh mesh = new SXRMesh(sxrContext, descriptor);
 
         if (jsonObject.has("vertices")) {
-            mesh.setVertices(jsonToFloatArray(jsonObject.optJSONArray("vertices")));
+            mesh.setVertices(jsonToFloatArray(jsonObject.get("vertices")));
         }
 
         if (jsonObject.has("normals")) {
-            mesh.setNormals(jsonToFloatArray(jsonObject.optJSONArray("normals")));
+            mesh.setNormals(jsonToFloatArray(jsonObject.get("normals")));
         }
 
         if (jsonObject.has("triangles")) {
-            mesh.setIndices(jsonToIntArray(jsonObject.optJSONArray("triangles")));
+            mesh.setIndices(jsonToIntArray(jsonObject.get("triangles")));
         }
 
         if (jsonObject.has("texcoords")) {
             JSONArray jsonCorrds = jsonObject.optJSONArray("texcoords");
             if (jsonCorrds != null) {
                 for (int i = 0; i < jsonCorrds.length(); i++) {
-                    mesh.setTexCoords(jsonToFloatArray(jsonCorrds.optJSONArray(i)), i);
+                    mesh.setTexCoords(jsonToFloatArray(jsonCorrds.get(i)), i);
                 }
             }
         }
@@ -701,7 +829,14 @@ public class SXRSceneMaker {
         ArrayMap<String, SXRMaterial> materials = new ArrayMap<>();
         SXRNode root  = new SXRNode(sxrContext);
         root.setName("root");
-        Log.d("SceneMaker", jsonScene.toString());
+        Log.d("SceneMaker", "making scene %s", jsonScene.optString("id"));
+        releaseRemovedRoots();
+        mSceneTextures.clear();
+        if (!preloadTextures(sxrContext, jsonShareables, jsonScene).isComplete()) {
+            // the scene may be shown before all of its textures are in
+            Log.e("SceneMaker", "textures of scene %s not loaded after %d ms",
+                  jsonScene.optString("id"), TEXTURE_PRELOAD_TIMEOUT);
+        }
 
         if (jsonShareables != null) {
             createShareables(sxrContext, textures, materials, jsonShareables);
@@ -726,6 +861,7 @@ public class SXRSceneMaker {
             addChildrenObjects(sxrContext, root, textures, materials,
                     jsonChildrenObjects);
         }
+        TextureCache.acquire(root, mSceneTextures);
         return root;
     }
 
@@ -742,6 +878,28 @@ public class SXRSceneMaker {
                           JSONObject jsonScene) throws JSONException {
         SXRNode root = makeScene(sxrContext, scene, jsonScene, null);
         scene.addNode(root);
+        synchronized (AddedRoots) {
+            AddedRoots.add(root);
+        }
+    }
+
+    /*
+     * Scenes added directly are usually taken down by clearing the scene,
+     * which the scene maker does not see. The texture references of such
+     * roots are released once they are no longer attached.
+     */
+    private static void releaseRemovedRoots() {
+        synchronized (AddedRoots) {
+            Iterator<SXRNode> iter = AddedRoots.iterator();
+
+            while (iter.hasNext()) {
+                SXRNode root = iter.next();
+                if (root.getParent() == null) {
+                    iter.remove();
+                    TextureCache.release(root);
+                }
+            }
+        }
     }
 
     public SXRNode makeScene(SXRTestUtils tester, JSONObject jsonScene)
@@ -773,6 +931,58 @@ public class SXRSceneMaker {
         return root;
     }
 
+    /**
+     * Returns the parsed form of a scene description given as text.
+     * Scenes are parsed once and then served from the compiled scene cache,
+     * which is kept in the cache directory of the application.
+     */
+    public static JSONObject compileScene(SXRContext sxrContext, String jsonScene)
+            throws JSONException
+    {
+        SXRSceneCache cache;
+
+        synchronized (SXRSceneMaker.class)
+        {
+            if (SceneCache == null)
+            {
+                SceneCache = new SXRSceneCache(new File(sxrContext.getContext().getCacheDir(), "scenes"));
+            }
+            cache = SceneCache;
+        }
+        try
+        {
+            return cache.get(jsonScene);
+        }
+        catch (IOException ex)
+        {
+            throw new JSONException("Cannot read scene: " + ex.getMessage());
+        }
+    }
+
+    public void makeScene(SXRContext sxrContext, SXRScene scene, String jsonScene)
+            throws JSONException
+    {
+        makeScene(sxrContext, scene, compileScene(sxrContext, jsonScene));
+    }
+
+    public SXRNode makeScene(SXRTestUtils tester, String jsonScene)
+            throws JSONException
+    {
+        return makeScene(tester, compileScene(tester.getSxrContext(), jsonScene));
+    }
+
+    public SXRNode makeScene(SXRTestUtils tester, String jsonScene, Runnable callback)
+            throws JSONException
+    {
+        return makeScene(tester, compileScene(tester.getSxrContext(), jsonScene), callback);
+    }
+
+    public SXRNode makeScene(SXRTestUtils tester, String jsonScene, ChangeScene sceneChanger)
+            throws JSONException
+    {
+        return makeScene(tester, compileScene(tester.getSxrContext(), jsonScene), sceneChanger);
+    }
+
     static public class ChangeScene implements Runnable
     {
         private SXRScene mScene;
@@ -803,6 +1013,7 @@ public class SXRSceneMaker {
             if (root != null)
             {
                 mScene.clear();
+                TextureCache.release(root);
             }
             mScene.addNode(mRoot);
             if (mCallback != null)
@@ -0,0 +1,184 @@
+package com.samsungxr.scene;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * Pull parser for the scene descriptions read by {@link SXRSceneMaker}.
+ * <p>
+ * The result is the same JSONObject tree org.json would build, except that
+ * arrays of numbers are read straight into a float[] (or an int[] for the
+ * index arrays "triangles" and "bone_indices") instead of a JSONArray of boxed
+ * numbers. A polygon with thousands of vertices therefore costs one primitive
+ * array, not thousands of Double objects. {@link SXRSceneMaker} accepts
+ * both forms. The reader is lenient like org.json, names and strings
+ * do not need to be quoted.
+ */
+public class SXRSceneReader
+{
+    private static final int INITIAL_ARRAY_SIZE = 64;
+
+    private final JsonReader mReader;
+    private float[] mFloats = new float[INITIAL_ARRAY_SIZE];
+    private int[] mInts = new int[INITIAL_ARRAY_SIZE];
+
+    public SXRSceneReader(Reader reader)
+    {
+        mReader = new JsonReader(reader);
+        mReader.setLenient(true);
+    }
+
+    /**
+     * Parses a scene description.
+     * @param json scene description text.
+     * @return the root object.
+     */
+    public static JSONObject parse(String json) throws IOException, JSONException
+    {
+        SXRSceneReader reader = new SXRSceneReader(new StringReader(json));
+
+        try
+        {
+            return reader.readObject();
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    public void close() throws IOException
+    {
+        mReader.close();
+    }
+
+    /**
+     * Reads the next value, which must be an object.
+     */
+    public JSONObject readObject() throws IOException, JSONException
+    {
+        JSONObject object = new JSONObject();
+
+        mReader.beginObject();
+        while (mReader.hasNext())
+        {
+            String name = mReader.nextName();
+            object.put(name, readValue(isIndexArray(name)));
+        }
+        mReader.endObject();
+        return object;
+    }
+
+    private static boolean isIndexArray(String name)
+    {
+        return name.equals("triangles") || name.equals("bone_indices");
+    }
+
+    private Object readValue(boolean indices) throws IOException, JSONException
+    {
+        switch (mReader.peek())
+        {
+            case BEGIN_OBJECT:
+                return readObject();
+
+            case BEGIN_ARRAY:
+                return readArray(indices);
+
+            case NUMBER:
+                return readNumber();
+
+            case BOOLEAN:
+                return mReader.nextBoolean();
+
+            case NULL:
+                mReader.nextNull();
+                return JSONObject.NULL;
+
+            default:
+                return mReader.nextString();
+        }
+    }
+
+    private Object readNumber() throws IOException
+    {
+        String text = mReader.nextString();
+
+        if ((text.indexOf('.') < 0) && (text.indexOf('e') < 0) && (text.indexOf('E') < 0))
+        {
+            try
+            {
+                long value = Long.parseLong(text);
+                if ((value >= Integer.MIN_VALUE) && (value <= Integer.MAX_VALUE))
+                {
+                    return (int) value;
+                }
+                return value;
+            }
+            catch (NumberFormatException ex) { }
+        }
+        return Double.parseDouble(text);
+    }
+
+    /*
+     * An array starting with a number is read as a primitive array.
+     * Anything else, including an empty array, becomes a JSONArray.
+     */
+    private Object readArray(boolean indices) throws IOException, JSONException
+    {
+        mReader.beginArray();
+        if (mReader.hasNext() && (mReader.peek() == JsonToken.NUMBER))
+        {
+            Object array = indices ? readInts() : readFloats();
+            mReader.endArray();
+            return array;
+        }
+        JSONArray array = new JSONArray();
+        while (mReader.hasNext())
+        {
+            array.put(readValue(indices));
+        }
+        mReader.endArray();
+        return array;
+    }
+
+    private float[] readFloats() throws IOException
+    {
+        float[] values = mFloats;
+        int n = 0;
+
+        while (mReader.hasNext())
+        {
+            if (n == values.length)
+            {
+                values = mFloats = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = (float) mReader.nextDouble();
+        }
+        return Arrays.copyOf(values, n);
+    }
+
+    private int[] readInts() throws IOException
+    {
+        int[] values = mInts;
+        int n = 0;
+
+        while (mReader.hasNext())
+        {
+            if (n == values.length)
+            {
+                values = mInts = Arrays.copyOf(values, n * 2);
+            }
+            values[n++] = mReader.nextInt();
+        }
+        return Arrays.copyOf(values, n);
+    }
+}
@@ -0,0 +1,297 @@
+package com.samsungxr.scene;
+
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRTexture;
+import com.samsungxr.utility.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Textures loaded by {@link SXRSceneMaker}, keyed by resource id.
+ * <p>
+ * The cache belongs to one SXRContext. When it is asked for a texture of
+ * another context, e.g. because the activity was restarted for the next test,
+ * everything cached for the old context is dropped.
+ * <p>
+ * A scene built by SXRSceneMaker holds a reference to every texture it uses,
+ * the references are released when the scene is cleared. Unreferenced textures
+ * stay cached until the cache exceeds its entry or byte budget, then the
+ * least recently used ones are evicted. Referenced textures are never evicted,
+ * so the budgets can be exceeded while a large scene is shown.
+ * <p>
+ * Evicted textures are released on the GPU. A texture replaced by
+ * {@link #put} is released right away if no scene holds it, otherwise
+ * when the last scene holding it lets go. Textures marked by {@link #share}
+ * were handed to code the cache cannot track, they are dropped from the
+ * cache like the others but never released by it.
+ */
+public class SXRTextureCache
+{
+    private static final String TAG = "TextureCache";
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final class Entry
+    {
+        final int resourceId;
+        SXRTexture texture;
+        long bytes;
+        int refCount = 0;
+        List<SXRTexture> replaced = null;
+
+        Entry(int resourceId, SXRTexture texture, long bytes)
+        {
+            this.resourceId = resourceId;
+            this.texture = texture;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int mMaxEntries;
+    private final long mMaxBytes;
+    private final LinkedHashMap<Integer, Entry> mEntries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true);
+    private final Map<Object, List<Entry>> mOwners = new IdentityHashMap<Object, List<Entry>>();
+    private final Set<SXRTexture> mShared = Collections.newSetFromMap(new IdentityHashMap<SXRTexture, Boolean>());
+    private SXRContext mContext = null;
+    private long mBytes = 0;
+    private int mHits = 0;
+    private int mMisses = 0;
+    private int mEvictions = 0;
+    private int mInvalidations = 0;
+
+    public SXRTextureCache()
+    {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxEntries most textures kept when none of them is referenced.
+     * @param maxBytes   most texture memory kept when none of the textures is referenced.
+     */
+    public SXRTextureCache(int maxEntries, long maxBytes)
+    {
+        if ((maxEntries < 0) || (maxBytes < 0))
+        {
+            throw new IllegalArgumentException("texture cache budgets cannot be negative");
+        }
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a cached texture.
+     * @param context    context the texture is for, the cache is cleared if it differs
+     *                   from the context of the cached textures.
+     * @param resourceId resource the texture was loaded from.
+     * @return the texture or null if it is not cached.
+     */
+    public synchronized SXRTexture get(SXRContext context, int resourceId)
+    {
+        setContext(context);
+        Entry entry = mEntries.get(resourceId);
+        if (entry == null)
+        {
+            ++mMisses;
+            return null;
+        }
+        ++mHits;
+        return entry.texture;
+    }
+
+    /**
+     * Adds a newly loaded texture, evicting unreferenced textures if
+     * the cache is over budget afterwards. Replacing a cached texture
+     * keeps the references scenes hold on the resource.
+     * @param bytes memory used by the texture, 0 if unknown.
+     */
+    public synchronized void put(SXRContext context, int resourceId, SXRTexture texture, long bytes)
+    {
+        setContext(context);
+        Entry entry = mEntries.get(resourceId);
+        if (entry == null)
+        {
+            mEntries.put(resourceId, new Entry(resourceId, texture, bytes));
+        }
+        else
+        {
+            if (entry.texture != texture)
+            {
+                if (entry.refCount > 0)
+                {
+                    if (entry.replaced == null)
+                    {
+                        entry.replaced = new ArrayList<SXRTexture>();
+                    }
+                    entry.replaced.add(entry.texture);
+                }
+                else
+                {
+                    free(entry.texture);
+                }
+            }
+            mBytes -= entry.bytes;
+            entry.texture = texture;
+            entry.bytes = bytes;
+        }
+        mBytes += bytes;
+        trim();
+    }
+
+    /**
+     * Makes an owner, usually the root of a scene, hold a reference to
+     * the given textures until {@link #release} is called for it.
+     */
+    public synchronized void acquire(Object owner, Iterable<Integer> resourceIds)
+    {
+        List<Entry> held = mOwners.get(owner);
+
+        if (held == null)
+        {
+            held = new ArrayList<Entry>();
+            mOwners.put(owner, held);
+        }
+        for (Integer id : resourceIds)
+        {
+            Entry entry = mEntries.get(id);
+            if (entry != null)
+            {
+                entry.refCount++;
+                held.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Releases all references held by an owner and evicts textures if
+     * the cache is over budget afterwards.
+     */
+    public synchronized void release(Object owner)
+    {
+        List<Entry> held = mOwners.remove(owner);
+
+        if (held != null)
+        {
+            for (Entry entry : held)
+            {
+                if ((--entry.refCount <= 0) && (entry.replaced != null))
+                {
+                    for (SXRTexture texture : entry.replaced)
+                    {
+                        free(texture);
+                    }
+                    entry.replaced = null;
+                }
+            }
+            trim();
+        }
+    }
+
+    /**
+     * Marks the cached texture of a resource as handed out without a
+     * reference, e.g. by {@link SXRSceneMaker#loadTexture}. The cache
+     * will not release it on the GPU when it is evicted or replaced,
+     * whoever uses it may still show it.
+     */
+    public synchronized void share(int resourceId)
+    {
+        Entry entry = mEntries.get(resourceId);
+
+        if ((entry != null) && (entry.texture != null))
+        {
+            mShared.add(entry.texture);
+        }
+    }
+
+    /**
+     * Drops all textures, e.g. when the context they belong to goes away.
+     */
+    public synchronized void invalidate()
+    {
+        if (!mEntries.isEmpty())
+        {
+            ++mInvalidations;
+            Log.d(TAG, "dropping %d textures of the previous context", mEntries.size());
+        }
+        mEntries.clear();
+        mOwners.clear();
+        mShared.clear();
+        mBytes = 0;
+        mContext = null;
+    }
+
+    public synchronized boolean contains(int resourceId) { return mEntries.containsKey(resourceId); }
+    public synchronized int getRefCount(int resourceId)
+    {
+        Entry entry = mEntries.get(resourceId);
+        return (entry != null) ? entry.refCount : 0;
+    }
+    public synchronized int getResidentCount() { return mEntries.size(); }
+    public synchronized long getResidentBytes() { return mBytes; }
+    public synchronized int getHits() { return mHits; }
+    public synchronized int getMisses() { return mMisses; }
+    public synchronized int getEvictions() { return mEvictions; }
+    public synchronized int getInvalidations() { return mInvalidations; }
+
+    public synchronized String getStatistics()
+    {
+        return String.format("texture cache: %d textures, %d KB, %d hits, %d misses, %d evictions, %d invalidations",
+                             mEntries.size(), mBytes / 1024, mHits, mMisses, mEvictions, mInvalidations);
+    }
+
+    private void setContext(SXRContext context)
+    {
+        if (context != mContext)
+        {
+            invalidate();
+            mContext = context;
+        }
+    }
+
+    /*
+     * Evicts unreferenced textures, least recently used first, until the
+     * cache is within budget or only referenced textures are left.
+     */
+    private void trim()
+    {
+        Iterator<Entry> iter = mEntries.values().iterator();
+
+        while (((mEntries.size() > mMaxEntries) || (mBytes > mMaxBytes)) && iter.hasNext())
+        {
+            Entry entry = iter.next();
+            if (entry.refCount <= 0)
+            {
+                iter.remove();
+                mBytes -= entry.bytes;
+                ++mEvictions;
+                free(entry.texture);
+            }
+        }
+    }
+
+    private void free(SXRTexture texture)
+    {
+        if (!mShared.remove(texture))
+        {
+            releaseTexture(texture);
+        }
+    }
+
+    /**
+     * Frees the GPU memory of a texture the cache no longer hands out.
+     */
+    protected void releaseTexture(SXRTexture texture)
+    {
+        if (texture != null)
+        {
+            texture.releaseNative();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.samsungxr.scene;
+
+import com.samsungxr.IAssetEvents;
+import com.samsungxr.SXRAndroidResource;
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRTexture;
+import com.samsungxr.utility.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a batch of textures concurrently.
+ * <p>
+ * All loads are issued to the asset loader at once and awaited with a single
+ * latch, instead of one texture after the other. Textures already in the
+ * {@link SXRTextureCache} are skipped, the loaded ones are added to it.
+ * <p>
+ * The context reports every texture it loads, only the events for the
+ * textures of the batch count. Loaded textures are matched by identity,
+ * errors by the file name of the resource.
+ * <p>
+ * Reports two times: the total load time is the sum of the times the individual
+ * textures took, which is roughly what loading them one by one would cost. The
+ * critical path is the time from issuing the first load to the last one
+ * completing, which is what the test actually waits.
+ */
+public class SXRTexturePreloader implements IAssetEvents
+{
+    private static final String TAG = "TexturePreloader";
+
+    private final SXRContext mContext;
+    private final SXRTextureCache mCache;
+    /* textures of the batch still loading and when their load was issued */
+    private final Map<SXRTexture, Long> mStartTimes = new IdentityHashMap<SXRTexture, Long>();
+    private final Map<String, SXRTexture> mFiles = new HashMap<String, SXRTexture>();
+    /* events which arrived before the load which caused them returned */
+    private final Set<SXRTexture> mEarlyLoads = Collections.newSetFromMap(new IdentityHashMap<SXRTexture, Boolean>());
+    private final List<String> mEarlyErrors = new ArrayList<String>();
+    private CountDownLatch mDone;
+    private long mBatchStart;
+    private long mTotalNanos = 0;
+    private long mCriticalPathNanos = 0;
+    private int mLoaded = 0;
+    private int mErrors = 0;
+    private int mRequested = 0;
+    private boolean mComplete = true;
+
+    public SXRTexturePreloader(SXRContext context, SXRTextureCache cache)
+    {
+        mContext = context;
+        mCache = cache;
+    }
+
+    /**
+     * Loads the textures which are not cached yet and waits until all of them are loaded.
+     * @param resourceIds resources to load, duplicates are loaded once.
+     * @param timeoutMs   longest time to wait for the batch.
+     * @return true if all textures completed, false on timeout.
+     */
+    public boolean preload(Iterable<Integer> resourceIds, long timeoutMs) throws InterruptedException
+    {
+        Set<Integer> missing = new LinkedHashSet<Integer>();
+
+        for (Integer id : resourceIds)
+        {
+            if (mCache.get(mContext, id) == null)
+            {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty())
+        {
+            return true;
+        }
+        synchronized (this)
+        {
+            mDone = new CountDownLatch(missing.size());
+            mRequested = missing.size();
+            mBatchStart = System.nanoTime();
+            mComplete = false;
+        }
+        mContext.getEventReceiver().addListener(this);
+        try
+        {
+            for (Integer id : missing)
+            {
+                SXRAndroidResource resource = new SXRAndroidResource(mContext, id);
+                String fileName = resource.getResourceFilename();
+                long start = System.nanoTime();
+                SXRTexture tex = mContext.getAssetLoader().loadTexture(resource);
+
+                mCache.put(mContext, id, tex, SXRSceneMaker.getTextureBytes(mContext, id));
+                issued(tex, fileName, start);
+            }
+            boolean completed = mDone.await(timeoutMs, TimeUnit.MILLISECONDS);
+            Log.d(TAG, "%s", this);
+            if (!completed)
+            {
+                Log.e(TAG, "%d of %d textures not loaded after %d ms",
+                      mDone.getCount(), missing.size(), timeoutMs);
+            }
+            synchronized (this)
+            {
+                mComplete = completed;
+            }
+            return completed;
+        }
+        finally
+        {
+            mContext.getEventReceiver().removeListener(this);
+            synchronized (this)
+            {
+                mEarlyLoads.clear();
+                mEarlyErrors.clear();
+            }
+        }
+    }
+
+    public synchronized int getRequested() { return mRequested; }
+    public synchronized int getLoaded() { return mLoaded; }
+    public synchronized int getErrors() { return mErrors; }
+
+    /**
+     * Returns false if the last {@link #preload} timed out or was
+     * interrupted before all textures completed.
+     */
+    public synchronized boolean isComplete() { return mComplete; }
+
+    /**
+     * Returns the sum of the load times of all textures in the batch.
+     */
+    public synchronized long getTotalNanos() { return mTotalNanos; }
+
+    /**
+     * Returns the time from issuing the first load to the last one completing.
+     */
+    public synchronized long getCriticalPathNanos() { return mCriticalPathNanos; }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("%d textures, %d errors: total %.1f ms, critical path %.1f ms",
+                             mLoaded, mErrors, mTotalNanos / 1000000.0, mCriticalPathNanos / 1000000.0);
+    }
+
+    public void onAssetLoaded(SXRContext context, SXRNode model, String filePath, String errors) { }
+    public void onModelLoaded(SXRContext context, SXRNode model, String filePath) { }
+    public void onModelError(SXRContext context, String error, String filePath) { }
+
+    public synchronized void onTextureLoaded(SXRContext context, SXRTexture texture, String filePath)
+    {
+        Long start = mStartTimes.remove(texture);
+
+        if (start != null)
+        {
+            mLoaded++;
+            completed(start);
+        }
+        else
+        {
+            mEarlyLoads.add(texture);
+        }
+    }
+
+    public synchronized void onTextureError(SXRContext context, String error, String filePath)
+    {
+        SXRTexture texture = (filePath != null) ? mFiles.get(filePath) : null;
+        Long start = (texture != null) ? mStartTimes.remove(texture) : null;
+
+        if (start != null)
+        {
+            Log.e(TAG, "Cannot load texture %s: %s", filePath, error);
+            mErrors++;
+            completed(start);
+        }
+        else if (filePath != null)
+        {
+            mEarlyErrors.add(filePath);
+        }
+    }
+
+    /*
+     * Called after the load of a texture of the batch was issued. Completes
+     * it right away if its event arrived before the load returned.
+     */
+    private synchronized void issued(SXRTexture texture, String fileName, long start)
+    {
+        if (mEarlyLoads.remove(texture))
+        {
+            mLoaded++;
+            completed(start);
+        }
+        else if ((fileName != null) && mEarlyErrors.remove(fileName))
+        {
+            Log.e(TAG, "Cannot load texture %s", fileName);
+            mErrors++;
+            completed(start);
+        }
+        else
+        {
+            mStartTimes.put(texture, start);
+            if (fileName != null)
+            {
+                mFiles.put(fileName, texture);
+            }
+        }
+    }
+
+    private void completed(long start)
+    {
+        long now = System.nanoTime();
+
+        mTotalNanos += now - start;
+        mCriticalPathNanos = now - mBatchStart;
+        mDone.countDown();
+    }
+}
@@ -13,12 +13,15 @@ import com.samsungxr.SXRNode;
 import com.samsungxr.SXRSpotLight;
 import com.samsungxr.nodes.SXRCubeNode;
 import com.samsungxr.nodes.SXRSphereNode;
+import com.samsungxr.unittestutils.SXRImageComparator;
+import com.samsungxr.unittestutils.SXRImageComparators;
 import com.samsungxr.unittestutils.SXRTestUtils;
 import com.samsungxr.unittestutils.SXRTestableActivity;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TestName;
 import org.junit.runner.RunWith;
 
 import java.util.concurrent.TimeoutException;
@@ -38,15 +41,31 @@ public class ShadowTests
     @Rule
     public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
 
+    @Rule
+    public TestName mTestName = new TestName();
+
+    /*
+     * The tests take their screenshots with screenShotAsync, they are saved
+     * and compared on the screenshot pipeline. Collecting them here fails
+     * the test which took a screenshot that does not match.
+     */
     @After
-    public void tearDown()
+    public void tearDown() throws TimeoutException
     {
-        SXRScene scene = mTestUtils.getMainScene();
-        if (scene != null)
+        try
+        {
+            mTestUtils.awaitScreenshots(mWaiter);
+        }
+        finally
         {
-            scene.clear();
+            SXRScene scene = mTestUtils.getMainScene();
+            if (scene != null)
+            {
+                scene.clear();
+            }
         }
     }
+
     @Before
     public void setUp() throws TimeoutException
     {
@@ -79,6 +98,15 @@ public class ShadowTests
         scene.addNode(background);
     }
 
+    /*
+     * The comparator of the running test, the default one unless
+     * the test is annotated with @SXRScreenshotComparison.
+     */
+    private SXRImageComparator getComparator()
+    {
+        return mDoCompare ? SXRImageComparators.forTest(getClass(), mTestName.getMethodName()) : null;
+    }
+
     void setupShadow(SXRDirectLight light, SXRNode owner)
     {
         owner.attachComponent(light);
@@ -108,7 +136,7 @@ public class ShadowTests
         mRoot.addChildObject(mCube);
         mRoot.addChildObject(mSphere);
         mTestUtils.waitForXFrames(WAIT_FRAMES);
-        mTestUtils.screenShot(getClass().getSimpleName(), "spotLightAtCornerCastsShadow", mWaiter, mDoCompare);
+        mTestUtils.screenShotAsync(getClass().getSimpleName(), "spotLightAtCornerCastsShadow", getComparator());
     }
 
     @Test
@@ -127,7 +155,7 @@ public class ShadowTests
         mRoot.addChildObject(mCube);
         mRoot.addChildObject(mSphere);
         mTestUtils.waitForXFrames(WAIT_FRAMES);
-        mTestUtils.screenShot(getClass().getSimpleName(), "spotLightAtFrontCastsShadow", mWaiter, mDoCompare);
+        mTestUtils.screenShotAsync(getClass().getSimpleName(), "spotLightAtFrontCastsShadow", getComparator());
     }
 
 
@@ -147,7 +175,7 @@ public class ShadowTests
         mRoot.addChildObject(mCube);
         mRoot.addChildObject(mSphere);
         mTestUtils.waitForXFrames(WAIT_FRAMES);
-        mTestUtils.screenShot(getClass().getSimpleName(), "spotLightAtSideCastsShadow", mWaiter, mDoCompare);
+        mTestUtils.screenShotAsync(getClass().getSimpleName(), "spotLightAtSideCastsShadow", getComparator());
     }
 
 
@@ -167,7 +195,7 @@ public class ShadowTests
         mRoot.addChildObject(mCube);
         mRoot.addChildObject(mSphere);
         mTestUtils.waitForXFrames(WAIT_FRAMES);
-        mTestUtils.screenShot(getClass().getSimpleName(), "spotLightAtTopCastsShadow", mWaiter, mDoCompare);
+        mTestUtils.screenShotAsync(getClass().getSimpleName(), "spotLightAtTopCastsShadow", getComparator());
     }
 
     @Test
@@ -185,7 +213,7 @@ public class ShadowTests
         mRoot.addChildObject(mCube);
         mRoot.addChildObject(mSphere);
         mTestUtils.waitForXFrames(WAIT_FRAMES);
-        mTestUtils.screenShot(getClass().getSimpleName(), "directLightAtCornerCastsShadow", mWaiter, mDoCompare);
+        mTestUtils.screenShotAsync(getClass().getSimpleName(), "directLightAtCornerCastsShadow", getComparator());
     }
 
 
@@ -202,7 +230,7 @@ public class ShadowTests
         mRoot.addChildObject(mCube);
         mRoot.addChildObject(mSphere);
         mTestUtils.waitForXFrames(WAIT_FRAMES);
-        mTestUtils.screenShot(getClass().getSimpleName(), "directLightAtFrontCastsShadow", mWaiter, mDoCompare);
+        mTestUtils.screenShotAsync(getClass().getSimpleName(), "directLightAtFrontCastsShadow", getComparator());
     }
 
     @Test
@@ -218,7 +246,7 @@ public class ShadowTests
         mRoot.addChildObject(mCube);
         mRoot.addChildObject(mSphere);
         mTestUtils.waitForXFrames(WAIT_FRAMES);
-        mTestUtils.screenShot(getClass().getSimpleName(), "directLightAtSideCastsShadow", mWaiter, mDoCompare);
+        mTestUtils.screenShotAsync(getClass().getSimpleName(), "directLightAtSideCastsShadow", getComparator());
     }
 
     @Test
@@ -234,7 +262,7 @@ public class ShadowTests
         mRoot.addChildObject(mCube);
         mRoot.addChildObject(mSphere);
         mTestUtils.waitForXFrames(WAIT_FRAMES);
-        mTestUtils.screenShot(getClass().getSimpleName(), "directLightAtTopCastsShadow", mWaiter, mDoCompare);
+        mTestUtils.screenShotAsync(getClass().getSimpleName(), "directLightAtTopCastsShadow", getComparator());
     }
 
     @Test
@@ -258,7 +286,7 @@ public class ShadowTests
         mRoot.addChildObject(mCube);
         mRoot.addChildObject(mSphere);
         mTestUtils.waitForXFrames(WAIT_FRAMES);
-        mTestUtils.screenShot(getClass().getSimpleName(), "twoLightsCastShadows", mWaiter, mDoCompare);
+        mTestUtils.screenShotAsync(getClass().getSimpleName(), "twoLightsCastShadows", getComparator());
     }
 
 
@@ -291,7 +319,7 @@ public class ShadowTests
         mRoot.addChildObject(mCube);
         mRoot.addChildObject(mSphere);
         mTestUtils.waitForXFrames(WAIT_FRAMES);
-        mTestUtils.screenShot(getClass().getSimpleName(), "threeLightsCastShadows", mWaiter, mDoCompare);
+        mTestUtils.screenShotAsync(getClass().getSimpleName(), "threeLightsCastShadows", getComparator());
     }
 
     SXRNode makeBackground(SXRContext ctx)
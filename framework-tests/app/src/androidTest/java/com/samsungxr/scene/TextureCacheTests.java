@@ -0,0 +1,265 @@
+package com.samsungxr.scene;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRScene;
+import com.samsungxr.SXRTexture;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.sdktests.R;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+@RunWith(AndroidJUnit4.class)
+public class TextureCacheTests
+{
+    private static final long MB = 1024 * 1024;
+
+    private SXRTestUtils sxrTestUtils;
+    private Waiter mWaiter;
+    private SXRContext mContext;
+
+    /*
+     * Records the textures the cache releases.
+     */
+    private static class ReleaseTracker extends SXRTextureCache
+    {
+        final List<SXRTexture> mReleased = new ArrayList<SXRTexture>();
+
+        ReleaseTracker(int maxEntries, long maxBytes)
+        {
+            super(maxEntries, maxBytes);
+        }
+
+        @Override
+        protected void releaseTexture(SXRTexture texture)
+        {
+            mReleased.add(texture);
+            super.releaseTexture(texture);
+        }
+    }
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new
+            ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @Before
+    public void setUp() throws TimeoutException
+    {
+        sxrTestUtils = new SXRTestUtils(ActivityRule.getActivity());
+        mWaiter = new Waiter();
+        sxrTestUtils.waitForOnInit();
+        mContext = sxrTestUtils.getSxrContext();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed()
+    {
+        SXRTextureCache cache = new SXRTextureCache(2, 100 * MB);
+        SXRTexture tex1 = new SXRTexture(mContext);
+
+        cache.put(mContext, 1, tex1, MB);
+        cache.put(mContext, 2, new SXRTexture(mContext), MB);
+        mWaiter.assertTrue(cache.get(mContext, 1) == tex1);
+        cache.put(mContext, 3, new SXRTexture(mContext), MB);
+        mWaiter.assertTrue(cache.contains(1));
+        mWaiter.assertFalse(cache.contains(2));
+        mWaiter.assertTrue(cache.contains(3));
+        mWaiter.assertEquals(1, cache.getEvictions());
+        mWaiter.assertEquals(2 * MB, cache.getResidentBytes());
+        mWaiter.assertTrue(cache.get(mContext, 2) == null);
+        mWaiter.assertEquals(1, cache.getHits());
+        mWaiter.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void enforcesByteBudget()
+    {
+        SXRTextureCache cache = new SXRTextureCache(100, 3 * MB);
+
+        cache.put(mContext, 1, new SXRTexture(mContext), 2 * MB);
+        cache.put(mContext, 2, new SXRTexture(mContext), 2 * MB);
+        mWaiter.assertFalse(cache.contains(1));
+        mWaiter.assertTrue(cache.contains(2));
+        mWaiter.assertEquals(2 * MB, cache.getResidentBytes());
+    }
+
+    @Test
+    public void keepsReferencedTextures()
+    {
+        SXRTextureCache cache = new SXRTextureCache(1, 100 * MB);
+        Object scene = new Object();
+
+        cache.put(mContext, 1, new SXRTexture(mContext), MB);
+        cache.acquire(scene, Arrays.asList(1));
+        mWaiter.assertEquals(1, cache.getRefCount(1));
+        cache.put(mContext, 2, new SXRTexture(mContext), MB);
+        mWaiter.assertTrue(cache.contains(1));
+        mWaiter.assertFalse(cache.contains(2));
+        mWaiter.assertEquals(1, cache.getEvictions());
+
+        cache.put(mContext, 3, new SXRTexture(mContext), MB);
+        cache.release(scene);
+        mWaiter.assertEquals(0, cache.getRefCount(1));
+        mWaiter.assertFalse(cache.contains(1));
+        mWaiter.assertTrue(cache.contains(3));
+        mWaiter.assertEquals(1, cache.getResidentCount());
+    }
+
+    @Test
+    public void releasesEvictedTextures()
+    {
+        ReleaseTracker cache = new ReleaseTracker(1, 100 * MB);
+        SXRTexture tex1 = new SXRTexture(mContext);
+
+        cache.put(mContext, 1, tex1, MB);
+        cache.put(mContext, 2, new SXRTexture(mContext), MB);
+        mWaiter.assertEquals(1, cache.mReleased.size());
+        mWaiter.assertTrue(cache.mReleased.get(0) == tex1);
+    }
+
+    @Test
+    public void replaceKeepsReferences()
+    {
+        ReleaseTracker cache = new ReleaseTracker(1, 100 * MB);
+        Object scene = new Object();
+        SXRTexture tex1 = new SXRTexture(mContext);
+        SXRTexture tex2 = new SXRTexture(mContext);
+        SXRTexture tex3 = new SXRTexture(mContext);
+
+        cache.put(mContext, 1, tex1, MB);
+        cache.acquire(scene, Arrays.asList(1));
+        cache.put(mContext, 1, tex2, 2 * MB);
+        mWaiter.assertEquals(1, cache.getRefCount(1));
+        mWaiter.assertEquals(2 * MB, cache.getResidentBytes());
+        mWaiter.assertTrue(cache.get(mContext, 1) == tex2);
+        // the scene still shows the old texture
+        mWaiter.assertTrue(cache.mReleased.isEmpty());
+
+        // a referenced resource is not evicted after it was replaced
+        cache.put(mContext, 2, tex3, MB);
+        mWaiter.assertTrue(cache.contains(1));
+        mWaiter.assertTrue(cache.mReleased.get(0) == tex3);
+
+        cache.release(scene);
+        mWaiter.assertEquals(0, cache.getRefCount(1));
+        mWaiter.assertTrue(cache.mReleased.get(1) == tex1);
+
+        // unreferenced textures are released when they are replaced
+        cache.put(mContext, 1, new SXRTexture(mContext), MB);
+        mWaiter.assertTrue(cache.mReleased.get(2) == tex2);
+        mWaiter.assertEquals(MB, cache.getResidentBytes());
+    }
+
+    @Test
+    public void keepsSharedTexturesOnGpu()
+    {
+        ReleaseTracker cache = new ReleaseTracker(1, 100 * MB);
+        SXRTexture tex1 = new SXRTexture(mContext);
+        SXRTexture tex2 = new SXRTexture(mContext);
+
+        cache.put(mContext, 1, tex1, MB);
+        cache.share(1);
+        cache.put(mContext, 2, tex2, MB);
+        mWaiter.assertFalse(cache.contains(1));
+        mWaiter.assertTrue(cache.mReleased.isEmpty());
+
+        // only the texture which was shared is kept
+        cache.share(2);
+        cache.put(mContext, 2, new SXRTexture(mContext), MB);
+        cache.put(mContext, 3, new SXRTexture(mContext), MB);
+        mWaiter.assertEquals(1, cache.mReleased.size());
+        mWaiter.assertFalse(cache.mReleased.contains(tex2));
+    }
+
+    @Test
+    public void invalidatesOnContextChange() throws TimeoutException
+    {
+        SXRTextureCache cache = new SXRTextureCache();
+
+        cache.put(mContext, 1, new SXRTexture(mContext), MB);
+        mWaiter.assertTrue(cache.contains(1));
+
+        // the next test gets a new activity and with it a new context
+        ActivityRule.finishActivity();
+        ActivityRule.launchActivity(null);
+        sxrTestUtils = new SXRTestUtils(ActivityRule.getActivity());
+        sxrTestUtils.waitForOnInit();
+        SXRContext context = sxrTestUtils.getSxrContext();
+
+        mWaiter.assertTrue(context != mContext);
+        cache.put(context, 2, new SXRTexture(context), MB);
+        mWaiter.assertFalse(cache.contains(1));
+        mWaiter.assertTrue(cache.contains(2));
+        mWaiter.assertEquals(1, cache.getInvalidations());
+        mWaiter.assertEquals(MB, cache.getResidentBytes());
+    }
+
+    @Test
+    public void sceneMakerCachesTextures()
+    {
+        SXRSceneMaker maker = new SXRSceneMaker(sxrTestUtils);
+        SXRTextureCache cache = SXRSceneMaker.getTextureCache();
+        SXRTexture tex = maker.loadTexture(mContext, R.drawable.checker);
+        int hits = cache.getHits();
+
+        mWaiter.assertTrue(cache.contains(R.drawable.checker));
+        mWaiter.assertTrue(cache.getResidentBytes() > 0);
+        mWaiter.assertTrue(maker.loadTexture(mContext, R.drawable.checker) == tex);
+        mWaiter.assertEquals(hits + 1, cache.getHits());
+    }
+
+    @Test
+    public void releasesClearedScenes() throws JSONException
+    {
+        SXRSceneMaker maker = new SXRSceneMaker(sxrTestUtils);
+        SXRTextureCache cache = SXRSceneMaker.getTextureCache();
+        SXRScene scene = sxrTestUtils.getMainScene();
+        JSONObject jsonScene = new JSONObject("{id: scene, objects: [{geometry: {type: quad}, "
+                + "material: {shader: texture, textures: [{type: bitmap, resource_id: "
+                + R.drawable.rock_normal + "}]}, position: {z: -2.0}}]}");
+        int refs = cache.getRefCount(R.drawable.rock_normal);
+
+        maker.makeScene(mContext, scene, jsonScene);
+        mWaiter.assertEquals(refs + 1, cache.getRefCount(R.drawable.rock_normal));
+
+        // a cleared scene lets go of its textures when the next scene is made
+        scene.clear();
+        maker.makeScene(mContext, scene, new JSONObject("{id: empty}"));
+        mWaiter.assertEquals(refs, cache.getRefCount(R.drawable.rock_normal));
+        scene.clear();
+    }
+
+    @Test
+    public void preloadsTexturesConcurrently()
+    {
+        SXRSceneMaker maker = new SXRSceneMaker(sxrTestUtils);
+        SXRTextureCache cache = SXRSceneMaker.getTextureCache();
+        int[] textures = new int[] { R.drawable.checker, R.drawable.rock_normal, R.raw.jpg_opaque };
+        SXRTexturePreloader preloader = maker.preloadTextures(mContext, textures);
+
+        mWaiter.assertTrue(preloader.isComplete());
+        mWaiter.assertEquals(textures.length, preloader.getLoaded());
+        mWaiter.assertEquals(0, preloader.getErrors());
+        mWaiter.assertTrue(preloader.getCriticalPathNanos() > 0);
+        for (int id : textures)
+        {
+            mWaiter.assertTrue(cache.contains(id));
+        }
+        mWaiter.assertEquals(0, maker.preloadTextures(mContext, textures).getRequested());
+    }
+}
@@ -0,0 +1,200 @@
+package com.samsungxr.testutils;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.unittestutils.SXRFrameBarrier;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tests waiting for frames of the test activity with {@link SXRFrameBarrier}:
+ * completion, timeouts, cancellation and cancelling while the render
+ * thread completes the same frame.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameBarrierTests
+{
+    private static final long TIMEOUT_MS = 5000;
+    private static final long FAR_AWAY = 1000000;
+    private static final int RACES = 200;
+    private static final int WAITERS = 8;
+
+    private SXRTestUtils mTestUtils;
+    private Waiter mWaiter;
+    private SXRFrameBarrier mBarrier;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @Before
+    public void setUp() throws TimeoutException
+    {
+        mTestUtils = new SXRTestUtils(ActivityRule.getActivity());
+        mTestUtils.waitForOnInit();
+        mWaiter = new Waiter();
+        mBarrier = mTestUtils.getFrameBarrier();
+    }
+
+    @Test
+    public void completesWhenFrameIsRendered() throws Exception
+    {
+        SXRFrameBarrier.FrameFuture future = mBarrier.nextFrames(2);
+        long frame = future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        mWaiter.assertTrue(frame >= future.getTargetFrame());
+        mWaiter.assertTrue(future.isDone());
+        mWaiter.assertFalse(future.isCancelled());
+        mWaiter.assertFalse(future.cancel(false));
+        mWaiter.assertEquals(frame, future.get());
+
+        // a frame which was already rendered completes right away
+        future = mBarrier.frame(frame);
+        mWaiter.assertTrue(future.isDone());
+        mWaiter.assertTrue(future.get() >= frame);
+    }
+
+    @Test
+    public void timesOutBeforeFrame() throws Exception
+    {
+        SXRFrameBarrier.FrameFuture future = mBarrier.frame(mBarrier.getFrameNumber() + FAR_AWAY);
+
+        try
+        {
+            future.get(50, TimeUnit.MILLISECONDS);
+            mWaiter.fail("future completed " + FAR_AWAY + " frames early");
+        }
+        catch (TimeoutException ex)
+        {
+        }
+        mWaiter.assertFalse(future.isDone());
+        try
+        {
+            mBarrier.awaitFrame(future.getTargetFrame(), 50, TimeUnit.MILLISECONDS);
+            mWaiter.fail("awaitFrame did not time out");
+        }
+        catch (TimeoutException ex)
+        {
+        }
+        mWaiter.assertTrue(future.cancel(false));
+    }
+
+    @Test
+    public void cancelReleasesWaiter() throws Exception
+    {
+        final SXRFrameBarrier.FrameFuture future = mBarrier.frame(mBarrier.getFrameNumber() + FAR_AWAY);
+        Thread waiting = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    mWaiter.fail("cancelled future returned a frame");
+                }
+                catch (CancellationException ex)
+                {
+                    mWaiter.resume();
+                }
+                catch (Exception ex)
+                {
+                    mWaiter.fail(ex);
+                }
+            }
+        });
+
+        waiting.start();
+        mTestUtils.waitForXFrames(2);
+        mWaiter.assertTrue(future.cancel(false));
+        mWaiter.await(TIMEOUT_MS);
+        mWaiter.assertTrue(future.isCancelled());
+        mWaiter.assertTrue(future.isDone());
+        mWaiter.assertFalse(future.cancel(false));
+    }
+
+    /*
+     * Cancels futures for the next frame at random moments while the render
+     * thread completes them. Each must end up either completed or cancelled.
+     */
+    @Test
+    public void cancelRacingCompletionHasOneWinner() throws Exception
+    {
+        Random random = new Random(RACES);
+        int cancelled = 0;
+
+        for (int i = 0; i < RACES; ++i)
+        {
+            SXRFrameBarrier.FrameFuture future = mBarrier.nextFrames(1);
+            long until = System.nanoTime() + random.nextInt(20000000);
+
+            while (System.nanoTime() < until)
+            {
+                if (future.isDone())
+                {
+                    break;
+                }
+            }
+            if (future.cancel(false))
+            {
+                ++cancelled;
+                mWaiter.assertTrue(future.isCancelled());
+                try
+                {
+                    future.get();
+                    mWaiter.fail("future was completed and cancelled");
+                }
+                catch (CancellationException ex)
+                {
+                }
+            }
+            else
+            {
+                mWaiter.assertFalse(future.isCancelled());
+                mWaiter.assertTrue(future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS) >= future.getTargetFrame());
+            }
+        }
+        mWaiter.assertTrue(cancelled < RACES);
+    }
+
+    @Test
+    public void threadsWaitForDifferentFrames() throws Exception
+    {
+        final long first = mBarrier.getFrameNumber() + 1;
+
+        for (int i = 0; i < WAITERS; ++i)
+        {
+            final long target = first + i;
+
+            new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        mWaiter.assertTrue(mBarrier.awaitFrame(target, TIMEOUT_MS, TimeUnit.MILLISECONDS) >= target);
+                        mWaiter.resume();
+                    }
+                    catch (Exception ex)
+                    {
+                        mWaiter.fail(ex);
+                    }
+                }
+            }).start();
+        }
+        mWaiter.await(TIMEOUT_MS, WAITERS);
+    }
+}
@@ -0,0 +1,319 @@
+package com.samsungxr.testutils;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.unittestutils.SXRDigest;
+import com.samsungxr.unittestutils.SXRDirectoryGoldenMasterStore;
+import com.samsungxr.unittestutils.SXRGoldenMasterCache;
+import com.samsungxr.unittestutils.SXRGoldenMasterStore;
+import com.samsungxr.unittestutils.SXRManifestGoldenMasterStore;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests the golden master stores the screenshot tests read through:
+ * hit and miss counting, corrupt entries and failing sources in the cache, device aliases
+ * in the manifest store and running offline from what was cached before.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GoldenMasterStoreTests
+{
+    private static final String GOLDEN = "S7Edge/LightTests/canEnableLight.png";
+
+    private Waiter mWaiter;
+    private File mCacheDir;
+    private MemoryStore mSource;
+
+    /*
+     * In memory golden_masters tree which can be taken offline.
+     */
+    private static class MemoryStore implements SXRGoldenMasterStore
+    {
+        final Map<String, byte[]> mFiles = new HashMap<String, byte[]>();
+        boolean mOffline = false;
+        int mReads = 0;
+
+        void put(String path, String contents) throws IOException
+        {
+            mFiles.put(path, contents.getBytes("UTF-8"));
+        }
+
+        @Override
+        public byte[] read(String path) throws IOException
+        {
+            if (mOffline)
+            {
+                throw new IOException("offline");
+            }
+            ++mReads;
+            return mFiles.get(path);
+        }
+
+        @Override
+        public Entry lookup(String path) throws IOException
+        {
+            byte[] data = read(path);
+            return (data != null) ? new Entry(SXRDigest.sha256(data), data) : null;
+        }
+
+        @Override
+        public String getStatistics()
+        {
+            return "memory: " + mReads + " read";
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        mWaiter = new Waiter();
+        mCacheDir = new File(InstrumentationRegistry.getTargetContext().getCacheDir(), "GoldenMasterStoreTests");
+        deleteAll(mCacheDir);
+        mSource = new MemoryStore();
+        mSource.put(GOLDEN, "golden");
+    }
+
+    private static void deleteAll(File file)
+    {
+        File[] files = file.listFiles();
+
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                deleteAll(f);
+            }
+        }
+        file.delete();
+    }
+
+    private static void writeFile(File file, String contents) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        FileOutputStream stream = new FileOutputStream(file);
+        try
+        {
+            stream.write(contents.getBytes("UTF-8"));
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /*
+     * Adds a device manifest listing the golden master and its blob to the source.
+     */
+    private String addManifest(String device, String name, String contents) throws IOException
+    {
+        String hash = SXRDigest.sha256(contents.getBytes("UTF-8"));
+
+        mSource.put("blobs/" + hash + ".png", contents);
+        mSource.put("manifests/" + device + ".json",
+                    "{ \"device\": \"" + device + "\", \"files\": { \"" + name + "\": \"" + hash + "\" } }");
+        return hash;
+    }
+
+    private void addAlias(String device, String alias) throws IOException
+    {
+        mSource.put("manifests/" + device + ".json",
+                    "{ \"device\": \"" + device + "\", \"alias\": \"" + alias + "\" }");
+    }
+
+    @Test
+    public void cacheCountsHitsAndMisses() throws IOException
+    {
+        SXRGoldenMasterCache cache = new SXRGoldenMasterCache(mCacheDir, mSource);
+        SXRGoldenMasterStore.Entry entry = cache.lookup(GOLDEN);
+
+        mWaiter.assertNotNull(entry);
+        mWaiter.assertEquals(SXRDigest.sha256(entry.data), entry.hash);
+        mWaiter.assertTrue(Arrays.equals("golden".getBytes("UTF-8"), cache.read(GOLDEN)));
+        mWaiter.assertNull(cache.lookup("S7Edge/LightTests/missing.png"));
+        mWaiter.assertEquals(1, cache.getMisses());
+        mWaiter.assertEquals(1, cache.getHits());
+        mWaiter.assertEquals(1, cache.getNotFound());
+        mWaiter.assertEquals(2, mSource.mReads);
+
+        // the index is kept on disk, a new cache serves the file without the source
+        cache = new SXRGoldenMasterCache(mCacheDir, mSource);
+        mWaiter.assertEquals(entry.hash, cache.lookup(GOLDEN).hash);
+        mWaiter.assertEquals(1, cache.getHits());
+        mWaiter.assertEquals(0, cache.getMisses());
+        mWaiter.assertEquals(2, mSource.mReads);
+    }
+
+    @Test
+    public void cacheReplacesCorruptEntries() throws IOException
+    {
+        SXRGoldenMasterCache cache = new SXRGoldenMasterCache(mCacheDir, mSource);
+        String hash = cache.lookup(GOLDEN).hash;
+
+        writeFile(new File(mCacheDir, "blobs/" + hash), "corrupt");
+        cache = new SXRGoldenMasterCache(mCacheDir, mSource);
+        SXRGoldenMasterStore.Entry entry = cache.lookup(GOLDEN);
+
+        mWaiter.assertEquals(hash, entry.hash);
+        mWaiter.assertTrue(Arrays.equals("golden".getBytes("UTF-8"), entry.data));
+        mWaiter.assertEquals(0, cache.getHits());
+        mWaiter.assertEquals(1, cache.getMisses());
+        mWaiter.assertTrue(cache.getStatistics().contains("1 corrupt"));
+
+        // the blob was fetched again, the next lookup is a hit
+        mWaiter.assertEquals(hash, cache.lookup(GOLDEN).hash);
+        mWaiter.assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void cacheRejectsBlobsWhichDoNotMatchTheirHash() throws IOException
+    {
+        String hash = SXRDigest.sha256("golden".getBytes("UTF-8"));
+        SXRGoldenMasterCache cache = new SXRGoldenMasterCache(mCacheDir, mSource);
+
+        mSource.put("blobs/" + hash + ".png", "tampered");
+        try
+        {
+            cache.lookupBlob(hash, ".png");
+            mWaiter.fail("blob with the wrong contents was accepted");
+        }
+        catch (IOException ex)
+        {
+            mWaiter.assertTrue(cache.getStatistics().contains("1 corrupt"));
+        }
+        mWaiter.assertFalse(new File(mCacheDir, "blobs/" + hash).exists());
+    }
+
+    @Test
+    public void manifestResolvesDeviceAliases() throws IOException
+    {
+        String hash = addManifest("S7Edge", "LightTests/canEnableLight.png", "golden");
+        addAlias("SM-G935F", "S7Edge");
+        addAlias("SM-G935X", "SM-G935F");
+        addAlias("Loop1", "Loop2");
+        addAlias("Loop2", "Loop1");
+        SXRManifestGoldenMasterStore store = new SXRManifestGoldenMasterStore(
+                new SXRGoldenMasterCache(mCacheDir, mSource));
+
+        mWaiter.assertEquals("S7Edge", store.resolveDevice("S7Edge"));
+        mWaiter.assertEquals("S7Edge", store.resolveDevice("SM-G935X"));
+        mWaiter.assertEquals("S7Edge", new String(store.read("SM-G935F"), "UTF-8"));
+        mWaiter.assertNull(store.resolveDevice("Unknown"));
+        mWaiter.assertNull(store.read("Unknown"));
+
+        SXRGoldenMasterStore.Entry entry = store.lookup("SM-G935X/LightTests/canEnableLight.png");
+        mWaiter.assertNotNull(entry);
+        mWaiter.assertEquals(hash, entry.hash);
+        mWaiter.assertEquals(hash, store.lookup(GOLDEN).hash);
+        mWaiter.assertNull(store.lookup("S7Edge/LightTests/missing.png"));
+        mWaiter.assertNull(store.lookup("Unknown/LightTests/canEnableLight.png"));
+        try
+        {
+            store.resolveDevice("Loop1");
+            mWaiter.fail("alias loop was not detected");
+        }
+        catch (IOException ex)
+        {
+        }
+    }
+
+    @Test
+    public void manifestRunsOfflineFromTheCache() throws IOException
+    {
+        String hash = addManifest("S7Edge", "LightTests/canEnableLight.png", "golden");
+        String otherHash = SXRDigest.sha256("other".getBytes("UTF-8"));
+        SXRManifestGoldenMasterStore store = new SXRManifestGoldenMasterStore(
+                new SXRGoldenMasterCache(mCacheDir, mSource));
+
+        mSource.put("blobs/" + otherHash + ".png", "other");
+        mSource.put("manifests/S7Edge.json", "{ \"device\": \"S7Edge\", \"files\": { "
+                    + "\"LightTests/canEnableLight.png\": \"" + hash + "\", "
+                    + "\"LightTests/notCached.png\": \"" + otherHash + "\" } }");
+        mWaiter.assertEquals(hash, store.lookup(GOLDEN).hash);
+
+        mSource.mOffline = true;
+        store = new SXRManifestGoldenMasterStore(new SXRGoldenMasterCache(mCacheDir, mSource));
+        mWaiter.assertEquals("S7Edge", store.resolveDevice("S7Edge"));
+        mWaiter.assertEquals(hash, store.lookup(GOLDEN).hash);
+        try
+        {
+            store.lookup("S7Edge/LightTests/notCached.png");
+            mWaiter.fail("golden master which was never cached was read offline");
+        }
+        catch (IOException ex)
+        {
+        }
+
+        // an updated manifest wins over the cached one once the source is back
+        mSource.mOffline = false;
+        mSource.put("manifests/S7Edge.json", "{ \"device\": \"S7Edge\", \"files\": { "
+                    + "\"LightTests/canEnableLight.png\": \"" + otherHash + "\" } }");
+        store = new SXRManifestGoldenMasterStore(new SXRGoldenMasterCache(mCacheDir, mSource));
+        mWaiter.assertEquals(otherHash, store.lookup(GOLDEN).hash);
+    }
+
+    @Test
+    public void directoryStoreReadsFiles() throws IOException
+    {
+        File root = new File(mCacheDir, "golden_masters");
+        SXRDirectoryGoldenMasterStore store = new SXRDirectoryGoldenMasterStore(root);
+
+        writeFile(new File(root, GOLDEN), "golden");
+        SXRGoldenMasterStore.Entry entry = store.lookup(GOLDEN);
+
+        mWaiter.assertNotNull(entry);
+        mWaiter.assertEquals(SXRDigest.sha256("golden".getBytes("UTF-8")), entry.hash);
+        mWaiter.assertNull(store.lookup("S7Edge/LightTests/missing.png"));
+        mWaiter.assertNull(store.read("S7Edge/LightTests/missing.png"));
+        mWaiter.assertTrue(store.getStatistics().contains("1 read, 2 not found"));
+
+        // the cache reads its sources with read(), which is counted too
+        SXRGoldenMasterCache cache = new SXRGoldenMasterCache(new File(mCacheDir, "cache"), store);
+        mWaiter.assertNotNull(cache.read(GOLDEN));
+        mWaiter.assertTrue(store.getStatistics().contains("2 read, 2 not found"));
+    }
+
+    @Test
+    public void cacheSkipsFailingSources() throws IOException
+    {
+        MemoryStore offline = new MemoryStore();
+        String hash = SXRDigest.sha256("golden".getBytes("UTF-8"));
+        SXRGoldenMasterCache cache;
+
+        offline.mOffline = true;
+        mSource.put("blobs/" + hash + ".png", "golden");
+        cache = new SXRGoldenMasterCache(mCacheDir, offline, mSource);
+        mWaiter.assertEquals(hash, cache.lookup(GOLDEN).hash);
+        mWaiter.assertEquals(hash, cache.lookupBlob(hash, ".png").hash);
+        mWaiter.assertEquals(2, cache.getMisses());
+
+        // a source with a bad copy of a blob is skipped as well
+        MemoryStore tampered = new MemoryStore();
+        tampered.put("blobs/" + hash + ".png", "tampered");
+        deleteAll(mCacheDir);
+        cache = new SXRGoldenMasterCache(mCacheDir, tampered, mSource);
+        mWaiter.assertTrue(Arrays.equals("golden".getBytes("UTF-8"), cache.lookupBlob(hash, ".png").data));
+
+        // failures are reported if no source has the file
+        cache = new SXRGoldenMasterCache(mCacheDir, offline);
+        try
+        {
+            cache.lookup("S7Edge/LightTests/missing.png");
+            mWaiter.fail("failing source was reported as not having the file");
+        }
+        catch (IOException ex)
+        {
+        }
+    }
+}
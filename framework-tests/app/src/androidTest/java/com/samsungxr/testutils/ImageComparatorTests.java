@@ -0,0 +1,135 @@
+package com.samsungxr.testutils;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.unittestutils.SXRImageComparator;
+import com.samsungxr.unittestutils.SXRImageComparators;
+import com.samsungxr.unittestutils.SXRSSIMComparator;
+import com.samsungxr.unittestutils.SXRScreenshotComparison;
+import com.samsungxr.unittestutils.SXRScreenshotComparison.Strategy;
+import com.samsungxr.unittestutils.SXRSumDiffComparator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+/**
+ * Tests the screenshot comparators on synthetic images and choosing
+ * one with the {@link SXRScreenshotComparison} annotation.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageComparatorTests
+{
+    private static final int SIZE = 64;
+    private static final int GRAY = 0xFF808080;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    private Waiter mWaiter;
+    private int[] mGolden;
+    private int[] mScreenshot;
+
+    @Before
+    public void setUp()
+    {
+        mWaiter = new Waiter();
+        mGolden = new int[SIZE * SIZE];
+        Arrays.fill(mGolden, GRAY);
+        mScreenshot = mGolden.clone();
+    }
+
+    /*
+     * Paints the rectangle [left, right) x [top, bottom) of the screenshot white.
+     */
+    private void fillScreenshot(int left, int top, int right, int bottom)
+    {
+        for (int y = top; y < bottom; ++y)
+        {
+            Arrays.fill(mScreenshot, y * SIZE + left, y * SIZE + right, WHITE);
+        }
+    }
+
+    private SXRImageComparator.Result compare(SXRImageComparator comparator) throws InterruptedException
+    {
+        return comparator.compare(mGolden, mScreenshot, SIZE, SIZE, null);
+    }
+
+    @Test
+    public void maskedComparatorIgnoresRegions() throws InterruptedException
+    {
+        fillScreenshot(8, 8, 24, 24);
+        mWaiter.assertFalse(compare(SXRImageComparators.sumDiff(0)).passed);
+        mWaiter.assertTrue(compare(SXRImageComparators.ignoring(SXRImageComparators.sumDiff(0),
+                                                                8, 8, 24, 24)).passed);
+        mWaiter.assertFalse(compare(SXRImageComparators.ignoring(SXRImageComparators.sumDiff(0),
+                                                                 8, 8, 16, 24)).passed);
+        // regions are clipped to the image
+        mWaiter.assertTrue(compare(SXRImageComparators.ignoring(SXRImageComparators.sumDiff(0),
+                                                                -8, -8, 100, 100)).passed);
+    }
+
+    @Test
+    public void tileErrorCatchesSmallDifferences() throws InterruptedException
+    {
+        fillScreenshot(0, 0, 16, 16);
+        mWaiter.assertTrue(compare(SXRImageComparators.getDefault()).passed);
+        mWaiter.assertFalse(compare(SXRImageComparators.tileError(32, 8.0f)).passed);
+    }
+
+    @Test
+    public void identicalImagesPassEveryStrategy() throws InterruptedException
+    {
+        mWaiter.assertTrue(compare(SXRImageComparators.sumDiff(0)).passed);
+        mWaiter.assertTrue(compare(SXRImageComparators.tileError(16, 0)).passed);
+        mWaiter.assertTrue(compare(SXRImageComparators.ssim(0.999f)).passed);
+    }
+
+    @Test
+    public void ssimIgnoresInvisibleDifferences() throws InterruptedException
+    {
+        SXRImageComparator.Result result;
+
+        mScreenshot[0] = 0xFF818181;
+        result = compare(new SXRSSIMComparator());
+        mWaiter.assertTrue(result.score < 1.0f);
+        mWaiter.assertTrue(result.passed);
+        mWaiter.assertFalse(result.noticeable);
+
+        // one white pixel passes, but is noticed
+        mScreenshot[0] = WHITE;
+        result = compare(new SXRSSIMComparator());
+        mWaiter.assertTrue(result.passed);
+        mWaiter.assertTrue(result.noticeable);
+    }
+
+    @Test
+    @SXRScreenshotComparison(value = Strategy.TILE_ERROR, threshold = 4.0f, size = 16, ignore = { 0, 0, 16, 16 })
+    public void forTestReadsAnnotation() throws InterruptedException
+    {
+        SXRImageComparator comparator = SXRImageComparators.forTest(getClass(), "forTestReadsAnnotation");
+        SXRImageComparator.Result result;
+
+        fillScreenshot(0, 0, 16, 16);
+        result = compare(comparator);
+        mWaiter.assertEquals("tile error", result.metric);
+        mWaiter.assertEquals(4.0f, result.threshold);
+        mWaiter.assertTrue(result.passed);
+
+        fillScreenshot(16, 16, 20, 20);
+        mWaiter.assertFalse(compare(comparator).passed);
+    }
+
+    @Test
+    public void forTestDefaultsWithoutAnnotation() throws InterruptedException
+    {
+        SXRImageComparator.Result result =
+                compare(SXRImageComparators.forTest(getClass(), "forTestDefaultsWithoutAnnotation"));
+
+        mWaiter.assertEquals("diff", result.metric);
+        mWaiter.assertEquals(SXRSumDiffComparator.DEFAULT_MAX_DIFF, result.threshold);
+        mWaiter.assertTrue(result.passed);
+    }
+}
@@ -0,0 +1,94 @@
+package com.samsungxr.tester;
+
+import java.util.Arrays;
+
+/**
+ * The body pairs which had a contact in the current step.
+ * <p>
+ * The SDK delivers the collision events of a contact to the listeners of
+ * both bodies, a listener added to both gets every contact twice. Handlers
+ * keep a contact only if {@link #add(int, int, byte)} returns true and
+ * {@link #clear()} the set after every step. Open addressing over a long
+ * array, so it allocates nothing once it reached the most contacts of a step.
+ */
+final class PhysicsContactPairs
+{
+    private static final long EMPTY = -1L;
+
+    private long[] mKeys = new long[64];
+    private int mCount = 0;
+
+    PhysicsContactPairs()
+    {
+        Arrays.fill(mKeys, EMPTY);
+    }
+
+    /**
+     * Records a contact between two bodies.
+     * @param a     id of one body, -1 if the body has no id.
+     * @param b     id of the other body, -1 if the body has no id.
+     * @param phase {@link PhysicsContacts#ENTER} or {@link PhysicsContacts#EXIT}.
+     * @return false if the pair already had a contact of this phase in the step.
+     *         Contacts with a body without id cannot be told apart and are always new.
+     */
+    boolean add(int a, int b, byte phase)
+    {
+        if ((a < 0) || (b < 0))
+        {
+            return true;
+        }
+        final long key = ((long) Math.min(a, b) << 32) | ((long) Math.max(a, b) << 1) | phase;
+
+        if (2 * (mCount + 1) > mKeys.length)
+        {
+            rehash(2 * mKeys.length);
+        }
+        return insert(mKeys, key);
+    }
+
+    /**
+     * Forgets all pairs, called at the end of every step.
+     */
+    void clear()
+    {
+        if (mCount > 0)
+        {
+            Arrays.fill(mKeys, EMPTY);
+            mCount = 0;
+        }
+    }
+
+    private boolean insert(long[] keys, long key)
+    {
+        final int mask = keys.length - 1;
+        int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+
+        while (keys[i] != EMPTY)
+        {
+            if (keys[i] == key)
+            {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        ++mCount;
+        return true;
+    }
+
+    private void rehash(int capacity)
+    {
+        long[] old = mKeys;
+
+        mKeys = new long[capacity];
+        Arrays.fill(mKeys, EMPTY);
+        mCount = 0;
+        for (long key : old)
+        {
+            if (key != EMPTY)
+            {
+                insert(mKeys, key);
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.samsungxr.tester;
+
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRTransform;
+import com.samsungxr.physics.ICollisionEvents;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Collects the collision events of a physics step into one reusable
+ * struct-of-arrays buffer and hands the whole step to a listener at once.
+ * <p>
+ * Instead of one {@link ICollisionEvents} handler call per contact, which
+ * gets a node pair and a normal array it must copy to keep, the listener
+ * gets all contacts of the step as parallel arrays indexed by contact:
+ * the ids of the two bodies, the normal, the distance, the impulse and
+ * whether the contact started or ended. The arrays are only valid during
+ * {@link Listener#onContacts(PhysicsContacts)} and only up to
+ * {@link #size()}, they are cleared and reused for the next step. They only
+ * grow when a step has more contacts than any before it, so once a scene
+ * reaches its peak collecting contacts allocates nothing.
+ * <p>
+ * The collision events carry no impulse, it is estimated from the
+ * velocities of the bodies going into the step, as the impulse which
+ * stops them approaching along the normal. Exits have no impulse.
+ * <p>
+ * The SDK sends the events of a contact to both bodies, contacts are kept
+ * once per body pair and phase in a step, so the buffer may listen to
+ * every body. The dropped copies are counted by {@link #getDuplicates()}.
+ * The buffer still receives its events through the SDK's callbacks, what
+ * the SDK allocates to deliver them is not saved, only what handlers
+ * allocate to keep them.
+ * <p>
+ * Bodies get ids when added. The buffer is a {@link PhysicsStepper.StepListener}
+ * and must be added to the stepper which advances the world, events are
+ * expected on the stepping thread.
+ * <pre>
+ * PhysicsContacts contacts = new PhysicsContacts(256, listener);
+ * contacts.addBody(floor, 0.0f, false);
+ * contacts.addBody(sphere, 1.0f, true);
+ * stepper.addStepListener(contacts);
+ * </pre>
+ */
+public class PhysicsContacts implements ICollisionEvents, PhysicsStepper.StepListener
+{
+    public static final byte ENTER = 0;
+    public static final byte EXIT = 1;
+
+    /**
+     * Receives the contacts of every step which had any.
+     */
+    public interface Listener
+    {
+        void onContacts(PhysicsContacts contacts);
+    }
+
+    private final Listener mListener;
+    private final IdentityHashMap<SXRNode, Integer> mIds = new IdentityHashMap<SXRNode, Integer>();
+
+    private SXRNode[] mNodes = new SXRNode[64];
+    private float[] mMasses = new float[64];
+    private float[] mLast = new float[3 * 64];
+    private float[] mBeforeLast = new float[3 * 64];
+    private int mBodies = 0;
+
+    private int[] mBodyA;
+    private int[] mBodyB;
+    private float[] mNormals;
+    private float[] mDistances;
+    private float[] mImpulses;
+    private byte[] mPhases;
+    private int mCount = 0;
+    private int mStep = 0;
+    private long mTotal = 0;
+    private long mDuplicates = 0;
+    private final PhysicsContactPairs mPairs = new PhysicsContactPairs();
+
+    /**
+     * @param capacity number of contacts per step to allocate room for up front.
+     * @param listener receives the contacts after every step.
+     */
+    public PhysicsContacts(int capacity, Listener listener)
+    {
+        mListener = listener;
+        allocate(Math.max(capacity, 16));
+    }
+
+    private void allocate(int capacity)
+    {
+        mBodyA = grow(mBodyA, capacity);
+        mBodyB = grow(mBodyB, capacity);
+        mNormals = grow(mNormals, 3 * capacity);
+        mDistances = grow(mDistances, capacity);
+        mImpulses = grow(mImpulses, capacity);
+
+        byte[] phases = new byte[capacity];
+        if (mPhases != null)
+        {
+            System.arraycopy(mPhases, 0, phases, 0, mCount);
+        }
+        mPhases = phases;
+    }
+
+    private int[] grow(int[] array, int length)
+    {
+        int[] grown = new int[length];
+        if (array != null)
+        {
+            System.arraycopy(array, 0, grown, 0, mCount);
+        }
+        return grown;
+    }
+
+    private float[] grow(float[] array, int length)
+    {
+        float[] grown = new float[length];
+        if (array != null)
+        {
+            System.arraycopy(array, 0, grown, 0, Math.min(array.length, length));
+        }
+        return grown;
+    }
+
+    /**
+     * Gives a body an id and starts tracking its velocity.
+     * @param node   node with the rigid body.
+     * @param mass   mass of the body, 0 for static bodies.
+     * @param listen true to get the collision events of the node, contacts
+     *               between two listened bodies are recorded once.
+     * @return the id of the body in the contact arrays.
+     */
+    public int addBody(SXRNode node, float mass, boolean listen)
+    {
+        Integer id = mIds.get(node);
+
+        if (id == null)
+        {
+            if (mBodies == mNodes.length)
+            {
+                SXRNode[] nodes = new SXRNode[2 * mBodies];
+                System.arraycopy(mNodes, 0, nodes, 0, mBodies);
+                mNodes = nodes;
+                mMasses = grow(mMasses, 2 * mBodies);
+                mLast = grow(mLast, 6 * mBodies);
+                mBeforeLast = grow(mBeforeLast, 6 * mBodies);
+            }
+            id = mBodies++;
+            mIds.put(node, id);
+            mNodes[id] = node;
+            mMasses[id] = mass;
+            readPosition(id, mLast);
+            readPosition(id, mBeforeLast);
+        }
+        if (listen)
+        {
+            node.getEventReceiver().addListener(this);
+        }
+        return id;
+    }
+
+    public SXRNode getNode(int id)
+    {
+        return mNodes[id];
+    }
+
+    public float getMass(int id)
+    {
+        return mMasses[id];
+    }
+
+    /**
+     * Returns the step the contacts were collected in.
+     */
+    public int getStep()
+    {
+        return mStep;
+    }
+
+    /**
+     * Returns the number of contacts in the arrays.
+     */
+    public int size()
+    {
+        return mCount;
+    }
+
+    /**
+     * Returns the number of contacts collected since the buffer was created.
+     */
+    public long getTotal()
+    {
+        return mTotal;
+    }
+
+    /**
+     * Returns the number of events dropped because the contact was already
+     * delivered through the other body of the pair.
+     */
+    public long getDuplicates()
+    {
+        return mDuplicates;
+    }
+
+    /**
+     * Returns the ids of the first bodies, -1 for bodies which were not added.
+     */
+    public int[] getBodyA()
+    {
+        return mBodyA;
+    }
+
+    /**
+     * Returns the ids of the second bodies, -1 for bodies which were not added.
+     */
+    public int[] getBodyB()
+    {
+        return mBodyB;
+    }
+
+    /**
+     * Returns the contact normals, x, y, z for each contact.
+     */
+    public float[] getNormals()
+    {
+        return mNormals;
+    }
+
+    public float[] getDistances()
+    {
+        return mDistances;
+    }
+
+    /**
+     * Returns the estimated impulses of the contacts in N s.
+     */
+    public float[] getImpulses()
+    {
+        return mImpulses;
+    }
+
+    /**
+     * Returns {@link #ENTER} or {@link #EXIT} for each contact.
+     */
+    public byte[] getPhases()
+    {
+        return mPhases;
+    }
+
+    @Override
+    public void onEnter(SXRNode node0, SXRNode node1, float normal[], float distance)
+    {
+        add(node0, node1, normal, distance, ENTER);
+    }
+
+    @Override
+    public void onExit(SXRNode node0, SXRNode node1, float normal[], float distance)
+    {
+        add(node0, node1, normal, distance, EXIT);
+    }
+
+    private void add(SXRNode node0, SXRNode node1, float normal[], float distance, byte phase)
+    {
+        final int a = getId(node0);
+        final int b = getId(node1);
+
+        if (!mPairs.add(a, b, phase))
+        {
+            ++mDuplicates;
+            return;
+        }
+        if (mCount == mPhases.length)
+        {
+            allocate(2 * mCount);
+        }
+        final int i = mCount++;
+
+        mBodyA[i] = a;
+        mBodyB[i] = b;
+        mNormals[3 * i] = normal[0];
+        mNormals[3 * i + 1] = normal[1];
+        mNormals[3 * i + 2] = normal[2];
+        mDistances[i] = distance;
+        mImpulses[i] = 0.0f;
+        mPhases[i] = phase;
+    }
+
+    private int getId(SXRNode node)
+    {
+        Integer id = mIds.get(node);
+        return (id != null) ? id : -1;
+    }
+
+    @Override
+    public void onStep(PhysicsStepper stepper)
+    {
+        mStep = stepper.getSteps();
+        if (mCount > 0)
+        {
+            estimateImpulses(1.0f / stepper.getTimeStep());
+            mTotal += mCount;
+            mListener.onContacts(this);
+            mCount = 0;
+        }
+        mPairs.clear();
+        float[] t = mBeforeLast;
+        mBeforeLast = mLast;
+        mLast = t;
+        for (int id = 0; id < mBodies; ++id)
+        {
+            readPosition(id, mLast);
+        }
+    }
+
+    /*
+     * Impulse which stops the bodies approaching along the normal,
+     * with the velocities they had before the step.
+     */
+    private void estimateImpulses(float rate)
+    {
+        for (int i = 0; i < mCount; ++i)
+        {
+            final int a = mBodyA[i];
+            final int b = mBodyB[i];
+
+            if (mPhases[i] != ENTER)
+            {
+                continue;
+            }
+            final float massA = (a >= 0) ? mMasses[a] : 0.0f;
+            final float massB = (b >= 0) ? mMasses[b] : 0.0f;
+            float mass;
+
+            if ((massA > 0) && (massB > 0))
+            {
+                mass = massA * massB / (massA + massB);
+            }
+            else
+            {
+                mass = massA + massB;
+            }
+            float speed = 0.0f;
+            for (int k = 0; k < 3; ++k)
+            {
+                final float va = (a >= 0) ? mLast[3 * a + k] - mBeforeLast[3 * a + k] : 0.0f;
+                final float vb = (b >= 0) ? mLast[3 * b + k] - mBeforeLast[3 * b + k] : 0.0f;
+                speed += (va - vb) * rate * mNormals[3 * i + k];
+            }
+            mImpulses[i] = mass * Math.abs(speed);
+        }
+    }
+
+    private void readPosition(int id, float[] positions)
+    {
+        SXRTransform t = mNodes[id].getTransform();
+
+        positions[3 * id] = t.getPositionX();
+        positions[3 * id + 1] = t.getPositionY();
+        positions[3 * id + 2] = t.getPositionZ();
+    }
+}
@@ -0,0 +1,387 @@
+package com.samsungxr.tester;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.SXRAndroidResource;
+import com.samsungxr.SXRBoxCollider;
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRMesh;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRScene;
+import com.samsungxr.SXRSphereCollider;
+import com.samsungxr.SXRTexture;
+import com.samsungxr.physics.ICollisionEvents;
+import com.samsungxr.physics.SXRRigidBody;
+import com.samsungxr.physics.SXRWorld;
+import com.samsungxr.unittestutils.SXRAllocations;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.utility.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Compares handling collision events in the SDK's {@link ICollisionEvents}
+ * callbacks against collecting them in the batched {@link PhysicsContacts} buffer.
+ * <p>
+ * Layers of spheres are dropped onto a floor so they pile up and produce
+ * thousands of contacts. The same scene is stepped with a
+ * {@link PhysicsStepper} three times: without listeners, with a handler
+ * which reduces every event right in the SDK's callback and keeps nothing,
+ * and with a {@link PhysicsContacts} buffer which reduces the contacts of
+ * the step at its end. Both listen to every body and keep a contact once
+ * per body pair, as the SDK delivers it to both bodies. For each run the
+ * time spent stepping and the bytes allocated while stepping are recorded.
+ * The run without listeners is what the simulation itself costs, the
+ * per event run adds what the SDK costs to deliver the events, normal
+ * arrays included, and the batched run adds the buffer on top of that.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhysicsContactsTest
+{
+    private static final String TAG = PhysicsContactsTest.class.getSimpleName();
+    private static final int ROWS = 10;
+    private static final int LAYERS = 5;
+    private static final float SPACING = 1.2f;
+    private static final int SETTLE_FRAMES = 4;
+    private static final int STEPS = 300;
+
+    private SXRTestUtils mTestUtils;
+    private Waiter mWaiter;
+    private SXRWorld mWorld;
+
+    private SXRMesh mCubeMesh;
+    private SXRTexture mCubeTexture;
+    private SXRMesh mSphereMesh;
+    private SXRTexture mSphereTexture;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @Before
+    public void setUp() throws TimeoutException, IOException
+    {
+        mWaiter = new Waiter();
+        mTestUtils = new SXRTestUtils(ActivityRule.getActivity());
+        mTestUtils.waitForOnInit();
+
+        SXRContext ctx = mTestUtils.getSxrContext();
+        mCubeMesh = ctx.getAssetLoader().loadMesh(new SXRAndroidResource(ctx, "cube.obj"));
+        mCubeTexture = ctx.getAssetLoader().loadTexture(new SXRAndroidResource(ctx, "cube.jpg"));
+        mSphereMesh = ctx.getAssetLoader().loadMesh(new SXRAndroidResource(ctx, "sphere.obj"));
+        mSphereTexture = ctx.getAssetLoader().loadTexture(new SXRAndroidResource(ctx, "sphere.jpg"));
+        mTestUtils.getMainScene().getMainCameraRig().getTransform().setPosition(0.0f, 10.0f, 15.0f);
+    }
+
+    @After
+    public void tearDown()
+    {
+        SXRScene scene = mTestUtils.getMainScene();
+        if (scene != null)
+        {
+            scene.clear();
+        }
+    }
+
+    /*
+     * What both handlers compute from the contacts of a step.
+     */
+    private static final class Reduction
+    {
+        int enters;
+        int exits;
+        float minDistance = Float.MAX_VALUE;
+        float maxUp;
+
+        void add(byte phase, float normalY, float distance)
+        {
+            if (phase == PhysicsContacts.ENTER)
+            {
+                ++enters;
+            }
+            else
+            {
+                ++exits;
+            }
+            minDistance = Math.min(minDistance, distance);
+            maxUp = Math.max(maxUp, Math.abs(normalY));
+        }
+    }
+
+    /*
+     * Reduces every event in the SDK's callback, the cheapest a per event handler gets.
+     */
+    private static final class PerEventHandler implements ICollisionEvents, PhysicsStepper.StepListener
+    {
+        final Reduction reduction = new Reduction();
+        final IdentityHashMap<SXRNode, Integer> ids = new IdentityHashMap<SXRNode, Integer>();
+        final PhysicsContactPairs pairs = new PhysicsContactPairs();
+        long duplicates;
+
+        void addBody(SXRNode node, boolean listen)
+        {
+            ids.put(node, ids.size());
+            if (listen)
+            {
+                node.getEventReceiver().addListener(this);
+            }
+        }
+
+        @Override
+        public void onEnter(SXRNode node0, SXRNode node1, float normal[], float distance)
+        {
+            add(node0, node1, normal, distance, PhysicsContacts.ENTER);
+        }
+
+        @Override
+        public void onExit(SXRNode node0, SXRNode node1, float normal[], float distance)
+        {
+            add(node0, node1, normal, distance, PhysicsContacts.EXIT);
+        }
+
+        private void add(SXRNode node0, SXRNode node1, float normal[], float distance, byte phase)
+        {
+            if (pairs.add(getId(node0), getId(node1), phase))
+            {
+                reduction.add(phase, normal[1], distance);
+            }
+            else
+            {
+                ++duplicates;
+            }
+        }
+
+        private int getId(SXRNode node)
+        {
+            Integer id = ids.get(node);
+            return (id != null) ? id : -1;
+        }
+
+        @Override
+        public void onStep(PhysicsStepper stepper)
+        {
+            pairs.clear();
+        }
+    }
+
+    private static final class BatchedHandler implements PhysicsContacts.Listener
+    {
+        final Reduction reduction = new Reduction();
+        float maxImpulse;
+
+        @Override
+        public void onContacts(PhysicsContacts contacts)
+        {
+            final byte[] phases = contacts.getPhases();
+            final float[] normals = contacts.getNormals();
+            final float[] distances = contacts.getDistances();
+            final float[] impulses = contacts.getImpulses();
+
+            for (int i = 0; i < contacts.size(); ++i)
+            {
+                reduction.add(phases[i], normals[3 * i + 1], distances[i]);
+                maxImpulse = Math.max(maxImpulse, impulses[i]);
+            }
+        }
+    }
+
+    /*
+     * Time and allocations of one run.
+     */
+    private static final class Run
+    {
+        final String mode;
+        long wallNanos;
+        /** -1 if the runtime does not report allocations */
+        long allocBytes;
+        int events;
+        long duplicates;
+
+        Run(String mode)
+        {
+            this.mode = mode;
+        }
+    }
+
+    @Test
+    public void batchedVersusPerEventContacts() throws Exception
+    {
+        Run baseline = run("none", null, null);
+
+        PerEventHandler perEvent = new PerEventHandler();
+        Run perEventRun = run("per_event", perEvent, null);
+        perEventRun.events = perEvent.reduction.enters + perEvent.reduction.exits;
+        perEventRun.duplicates = perEvent.duplicates;
+
+        BatchedHandler batched = new BatchedHandler();
+        PhysicsContacts contacts = new PhysicsContacts(ROWS * ROWS * LAYERS, batched);
+        Run batchedRun = run("batched", null, contacts);
+        batchedRun.events = (int) contacts.getTotal();
+        batchedRun.duplicates = contacts.getDuplicates();
+
+        writeResult(baseline, baseline);
+        writeResult(perEventRun, baseline);
+        writeResult(batchedRun, baseline);
+
+        mWaiter.assertTrue(perEventRun.events > 0);
+        mWaiter.assertEquals(perEventRun.events, batchedRun.events);
+        mWaiter.assertEquals(perEvent.reduction.enters, batched.reduction.enters);
+        mWaiter.assertEquals(perEventRun.duplicates, batchedRun.duplicates);
+        mWaiter.assertTrue(batched.reduction.maxUp > 0.5f);
+        mWaiter.assertTrue(batched.maxImpulse > 0.0f);
+    }
+
+    /*
+     * Builds the pile in a new world, steps it and measures the stepping.
+     * Either handler may be null, with both null no events are collected.
+     */
+    private Run run(String mode, PerEventHandler perEvent, PhysicsContacts contacts)
+    {
+        SXRScene scene = mTestUtils.getMainScene();
+        Run run = new Run(mode);
+
+        scene.clear();
+        newWorld();
+        SXRNode floor = addFloor(scene);
+        if (perEvent != null)
+        {
+            perEvent.addBody(floor, false);
+        }
+        if (contacts != null)
+        {
+            contacts.addBody(floor, 0.0f, false);
+        }
+        for (int layer = 0; layer < LAYERS; ++layer)
+        {
+            // every other layer is shifted so the spheres do not stack neatly
+            float shift = (layer % 2) * SPACING / 3;
+
+            for (int i = 0; i < ROWS * ROWS; ++i)
+            {
+                float x = (i % ROWS - ROWS / 2) * SPACING + shift;
+                float z = (i / ROWS - ROWS / 2) * SPACING + shift;
+                SXRNode sphere = addSphere(scene, x, 1.5f + layer * SPACING, z);
+
+                // spheres hit each other, both handlers drop the second copy of those contacts
+                if (perEvent != null)
+                {
+                    perEvent.addBody(sphere, true);
+                }
+                if (contacts != null)
+                {
+                    contacts.addBody(sphere, 1.0f, true);
+                }
+            }
+        }
+        mTestUtils.waitForXFrames(SETTLE_FRAMES);
+
+        PhysicsStepper stepper = new PhysicsStepper(mWorld, PhysicsStepper.DEFAULT_TIME_STEP);
+        if (perEvent != null)
+        {
+            stepper.addStepListener(perEvent);
+        }
+        if (contacts != null)
+        {
+            stepper.addStepListener(contacts);
+        }
+        long allocStart = SXRAllocations.getAllocatedBytes();
+        long start = System.nanoTime();
+        stepper.step(STEPS);
+        run.wallNanos = System.nanoTime() - start;
+        run.allocBytes = (allocStart >= 0) ? SXRAllocations.getAllocatedBytes() - allocStart : -1;
+        return run;
+    }
+
+    /*
+     * Replaces the world of the scene so every run starts from the same state.
+     */
+    private void newWorld()
+    {
+        SXRNode root = mTestUtils.getMainScene().getRoot();
+
+        if (mWorld != null)
+        {
+            root.detachComponent(SXRWorld.getComponentType());
+        }
+        mWorld = new SXRWorld(mTestUtils.getSxrContext());
+        mWorld.setEnable(false);
+        root.attachComponent(mWorld);
+    }
+
+    private void writeResult(Run run, Run baseline)
+    {
+        final int events = Math.max(run.events, 1);
+        final double extraAlloc = Math.max(0, run.allocBytes - baseline.allocBytes);
+        final double extraNanos = Math.max(0, run.wallNanos - baseline.wallNanos);
+
+        Log.e("PERFORMANCE", "%s: %d events in %d steps, %.2f ms, %d bytes allocated, %.1f bytes and %.0f ns per event"
+              + " over no listeners", run.mode, run.events, STEPS, run.wallNanos / 1e6, run.allocBytes,
+              extraAlloc / events, extraNanos / events);
+        try
+        {
+            SXRPerfResult result = new SXRPerfResult(TAG, "contacts_" + run.mode)
+                    .setParameter("bodies", ROWS * ROWS * LAYERS + 1)
+                    .setParameter("steps", STEPS)
+                    .setMetric("events", run.events)
+                    .setMetric("duplicate_events", run.duplicates)
+                    .setMetric("wall_ms", run.wallNanos / 1e6)
+                    .setMetric("ns_per_event", extraNanos / events);
+
+            if ((run.allocBytes >= 0) && (baseline.allocBytes >= 0))
+            {
+                result.setMetric("alloc_bytes", run.allocBytes)
+                      .setMetric("alloc_bytes_per_event", extraAlloc / events);
+            }
+            result.write();
+        }
+        catch (IOException ex)
+        {
+            Log.e(TAG, "Cannot write results of %s: %s", run.mode, ex.getMessage());
+        }
+    }
+
+    private SXRNode addSphere(SXRScene scene, float x, float y, float z)
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+        SXRNode sphere = new SXRNode(ctx, mSphereMesh, mSphereTexture);
+        SXRSphereCollider collider = new SXRSphereCollider(ctx);
+        SXRRigidBody body = new SXRRigidBody(ctx);
+
+        sphere.getTransform().setScale(0.5f, 0.5f, 0.5f);
+        sphere.getTransform().setPosition(x, y, z);
+        collider.setRadius(0.5f);
+        sphere.attachCollider(collider);
+        body.setMass(1.0f);
+        sphere.attachComponent(body);
+        scene.addNode(sphere);
+        return sphere;
+    }
+
+    private SXRNode addFloor(SXRScene scene)
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+        SXRNode floor = new SXRNode(ctx, mCubeMesh, mCubeTexture);
+        SXRBoxCollider collider = new SXRBoxCollider(ctx);
+        SXRRigidBody body = new SXRRigidBody(ctx);
+
+        floor.getTransform().setPosition(0.0f, 0.0f, 0.0f);
+        collider.setHalfExtents(ROWS * SPACING, 0.5f, ROWS * SPACING);
+        floor.attachCollider(collider);
+        body.setMass(0.0f);
+        floor.attachComponent(body);
+        scene.addNode(floor);
+        return floor;
+    }
+}
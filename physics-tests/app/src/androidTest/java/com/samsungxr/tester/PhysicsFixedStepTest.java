@@ -0,0 +1,307 @@
+package com.samsungxr.tester;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.SXRAndroidResource;
+import com.samsungxr.SXRBoxCollider;
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRMesh;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRScene;
+import com.samsungxr.SXRSphereCollider;
+import com.samsungxr.SXRTexture;
+import com.samsungxr.physics.ICollisionEvents;
+import com.samsungxr.physics.SXRRigidBody;
+import com.samsungxr.physics.SXRWorld;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.utility.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The free fall scenarios of {@link PhysicsSimulationTest} run with a
+ * {@link PhysicsStepper} instead of waiting for rendered frames.
+ * <p>
+ * The world is advanced at a fixed 1/60 s per step as fast as the CPU allows,
+ * collisions are timed in simulated time, so the results do not depend on
+ * how fast the device renders and a few seconds of simulation take
+ * milliseconds. The trajectories are written to the results directory
+ * to compare runs across devices and SDK versions.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhysicsFixedStepTest
+{
+    private static final String TAG = PhysicsFixedStepTest.class.getSimpleName();
+    private static final float GRAVITY = 9.8f;
+    private static final float DT = PhysicsStepper.DEFAULT_TIME_STEP;
+    private static final float DROP_Y = 40.0f;
+    private static final float CUBE_Y = 1.0f;
+    /** distance the sphere falls until its surface touches the top of the cube */
+    private static final float FALL = DROP_Y - CUBE_Y - 0.5f - 0.25f;
+    /** frames for the bodies to be added to the world before the first step */
+    private static final int SETTLE_FRAMES = 4;
+    private static final int MAX_STEPS = 600;
+    private static final int REST_STEPS = 120;
+    private static final int PAIRS = 100;
+    private static final float REPEAT_TOLERANCE = 1e-4f;
+
+    private SXRTestUtils mTestUtils;
+    private Waiter mWaiter;
+    private SXRWorld mWorld;
+
+    private SXRMesh mCubeMesh;
+    private SXRTexture mCubeTexture;
+    private SXRMesh mSphereMesh;
+    private SXRTexture mSphereTexture;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @Before
+    public void setUp() throws TimeoutException, IOException
+    {
+        mWaiter = new Waiter();
+        mTestUtils = new SXRTestUtils(ActivityRule.getActivity());
+        mTestUtils.waitForOnInit();
+
+        SXRContext ctx = mTestUtils.getSxrContext();
+        mCubeMesh = ctx.getAssetLoader().loadMesh(new SXRAndroidResource(ctx, "cube.obj"));
+        mCubeTexture = ctx.getAssetLoader().loadTexture(new SXRAndroidResource(ctx, "cube.jpg"));
+        mSphereMesh = ctx.getAssetLoader().loadMesh(new SXRAndroidResource(ctx, "sphere.obj"));
+        mSphereTexture = ctx.getAssetLoader().loadTexture(new SXRAndroidResource(ctx, "sphere.jpg"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        SXRScene scene = mTestUtils.getMainScene();
+        if (scene != null)
+        {
+            scene.clear();
+        }
+    }
+
+    /*
+     * Records the step of the first contact of a sphere, so it is timed in simulated time.
+     */
+    private static final class ContactCounter implements ICollisionEvents
+    {
+        PhysicsStepper stepper;
+        int firstContactStep = -1;
+        int contacts = 0;
+
+        @Override
+        public void onEnter(SXRNode node0, SXRNode node1, float normal[], float distance)
+        {
+            if (firstContactStep < 0)
+            {
+                firstContactStep = stepper.getSteps();
+            }
+            ++contacts;
+        }
+
+        @Override
+        public void onExit(SXRNode node0, SXRNode node1, float normal[], float distance)
+        {
+        }
+    }
+
+    @Test
+    public void freeFallMatchesKinematics() throws Exception
+    {
+        SXRScene scene = mTestUtils.getMainScene();
+        final ContactCounter handler = new ContactCounter();
+
+        newWorld();
+        SXRNode cube = addCube(scene, 0.0f, CUBE_Y, -10.0f, 0.0f);
+        SXRNode sphere = addSphere(scene, handler, 0.0f, DROP_Y, -10.0f, 1.0f);
+        mTestUtils.waitForXFrames(SETTLE_FRAMES);
+
+        PhysicsStepper stepper = new PhysicsStepper(mWorld, DT);
+        PhysicsStepper.Trajectory fall = stepper.track(sphere);
+        handler.stepper = stepper;
+
+        long start = System.nanoTime();
+        boolean landed = stepper.stepUntil(MAX_STEPS, new PhysicsStepper.Condition()
+        {
+            @Override
+            public boolean isMet(PhysicsStepper s)
+            {
+                return handler.firstContactStep >= 0;
+            }
+        });
+        stepper.step(REST_STEPS);
+        long wallNanos = System.nanoTime() - start;
+
+        double expectedMs = Math.sqrt(2.0 * FALL / GRAVITY) * 1000.0;
+        double contactMs = handler.firstContactStep * DT * 1000.0;
+        Log.d(TAG, "free fall: contact after %.1f ms simulated, expected %.1f ms, %d steps in %.2f ms",
+              contactMs, expectedMs, stepper.getSteps(), wallNanos / 1e6);
+        mWaiter.assertTrue(landed);
+        mWaiter.assertTrue(Math.abs(contactMs - expectedMs) <= 3 * DT * 1000.0);
+
+        // the integrator lags the exact fall by up to g * dt * t / 2
+        for (int i = 0; i < handler.firstContactStep; ++i)
+        {
+            double t = i * DT;
+            double exact = DROP_Y - 0.5 * GRAVITY * t * t;
+            mWaiter.assertTrue(Math.abs(fall.getY(i) - exact) <= GRAVITY * DT * t / 2 + 0.01);
+        }
+        float d = sphere.getTransform().getPositionY() - cube.getTransform().getPositionY();
+        mWaiter.assertTrue(d <= 1.6f);
+
+        stepper.writeTrajectories(new File(SXRTestUtils.getResultsDir(TAG), "freeFall.csv"));
+        writeResult("freeFallMatchesKinematics", stepper, wallNanos);
+    }
+
+    @Test
+    public void simultaneousFreeFallIsRepeatable() throws Exception
+    {
+        PhysicsStepper.Trajectory[] first = simultaneousFreeFall(true);
+        PhysicsStepper.Trajectory[] second = simultaneousFreeFall(false);
+        float deviation = 0.0f;
+
+        for (int i = 0; i < PAIRS; ++i)
+        {
+            mWaiter.assertEquals(first[i].size(), second[i].size());
+            deviation = Math.max(deviation, first[i].maxDeviation(second[i]));
+        }
+        Log.d(TAG, "largest deviation between two runs: %g", deviation);
+        mWaiter.assertTrue(deviation <= REPEAT_TOLERANCE);
+    }
+
+    /*
+     * Drops PAIRS spheres onto cubes at the same time in a new world,
+     * checks they all land and returns their trajectories.
+     */
+    private PhysicsStepper.Trajectory[] simultaneousFreeFall(boolean record) throws IOException
+    {
+        SXRScene scene = mTestUtils.getMainScene();
+        SXRNode[] cubes = new SXRNode[PAIRS];
+        SXRNode[] spheres = new SXRNode[PAIRS];
+        ContactCounter[] handlers = new ContactCounter[PAIRS];
+        PhysicsStepper.Trajectory[] trajectories = new PhysicsStepper.Trajectory[PAIRS];
+
+        scene.clear();
+        newWorld();
+        for (int i = 0; i < PAIRS; ++i)
+        {
+            float x = -20.0f + (i % 10) * 5.0f;
+            float z = -10.0f - (i / 10) * 10.0f;
+
+            handlers[i] = new ContactCounter();
+            cubes[i] = addCube(scene, x, CUBE_Y, z, 0.0f);
+            spheres[i] = addSphere(scene, handlers[i], x, DROP_Y, z, 1.0f);
+        }
+        mTestUtils.waitForXFrames(SETTLE_FRAMES);
+
+        PhysicsStepper stepper = new PhysicsStepper(mWorld, DT);
+        for (int i = 0; i < PAIRS; ++i)
+        {
+            handlers[i].stepper = stepper;
+            trajectories[i] = stepper.track(spheres[i]);
+        }
+        long start = System.nanoTime();
+        stepper.step(MAX_STEPS);
+        long wallNanos = System.nanoTime() - start;
+
+        for (int i = 0; i < PAIRS; ++i)
+        {
+            float d = spheres[i].getTransform().getPositionY() - cubes[i].getTransform().getPositionY();
+
+            mWaiter.assertTrue(handlers[i].contacts >= 1);
+            mWaiter.assertTrue(d <= 1.6f);
+            mWaiter.assertTrue(spheres[i].getTransform().getPositionX() == cubes[i].getTransform().getPositionX());
+            mWaiter.assertTrue(spheres[i].getTransform().getPositionZ() == cubes[i].getTransform().getPositionZ());
+        }
+        if (record)
+        {
+            stepper.writeTrajectories(new File(SXRTestUtils.getResultsDir(TAG), "simultaneousFreeFall.csv"));
+            writeResult("simultaneousFreeFall", stepper, wallNanos);
+        }
+        return trajectories;
+    }
+
+    /*
+     * Replaces the world of the scene so every run starts from the same state.
+     */
+    private void newWorld()
+    {
+        SXRNode root = mTestUtils.getMainScene().getRoot();
+
+        if (mWorld != null)
+        {
+            mWorld.setEnable(false);
+            root.detachComponent(SXRWorld.getComponentType());
+        }
+        mWorld = new SXRWorld(mTestUtils.getSxrContext());
+        mWorld.setEnable(false);
+        root.attachComponent(mWorld);
+    }
+
+    private void writeResult(String name, PhysicsStepper stepper, long wallNanos)
+    {
+        Log.e("PERFORMANCE", "%s: %.0f ms simulated in %.2f ms, %.0f steps/s", name,
+              stepper.getSimulatedMillis(), wallNanos / 1e6, stepper.getSteps() * 1e9 / wallNanos);
+        try
+        {
+            new SXRPerfResult(TAG, name)
+                    .setParameter("time_step", DT)
+                    .setParameter("steps", stepper.getSteps())
+                    .setMetric("wall_ms", wallNanos / 1e6)
+                    .setMetric("us_per_step", wallNanos / (1e3 * stepper.getSteps()))
+                    .write();
+        }
+        catch (IOException ex)
+        {
+            Log.e(TAG, "Cannot write results of %s: %s", name, ex.getMessage());
+        }
+    }
+
+    private SXRNode addSphere(SXRScene scene, ICollisionEvents handler, float x, float y, float z, float mass)
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+        SXRNode sphere = new SXRNode(ctx, mSphereMesh, mSphereTexture);
+        SXRSphereCollider collider = new SXRSphereCollider(ctx);
+        SXRRigidBody body = new SXRRigidBody(ctx);
+
+        sphere.getTransform().setScale(0.5f, 0.5f, 0.5f);
+        sphere.getTransform().setPosition(x, y, z);
+        collider.setRadius(0.5f);
+        sphere.attachCollider(collider);
+        body.setMass(mass);
+        sphere.getEventReceiver().addListener(handler);
+        sphere.attachComponent(body);
+        scene.addNode(sphere);
+        return sphere;
+    }
+
+    private SXRNode addCube(SXRScene scene, float x, float y, float z, float mass)
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+        SXRNode cube = new SXRNode(ctx, mCubeMesh, mCubeTexture);
+        SXRBoxCollider collider = new SXRBoxCollider(ctx);
+        SXRRigidBody body = new SXRRigidBody(ctx);
+
+        cube.getTransform().setPosition(x, y, z);
+        collider.setHalfExtents(0.5f, 0.5f, 0.5f);
+        cube.attachCollider(collider);
+        body.setMass(mass);
+        cube.attachComponent(body);
+        scene.addNode(cube);
+        return cube;
+    }
+}
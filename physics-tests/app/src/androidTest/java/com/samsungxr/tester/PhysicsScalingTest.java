@@ -0,0 +1,412 @@
+package com.samsungxr.tester;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.jodah.concurrentunit.Waiter;
+
+import com.samsungxr.SXRAndroidResource;
+import com.samsungxr.SXRBoxCollider;
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRMesh;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRScene;
+import com.samsungxr.SXRSphereCollider;
+import com.samsungxr.SXRTexture;
+import com.samsungxr.physics.ICollisionEvents;
+import com.samsungxr.physics.SXRRigidBody;
+import com.samsungxr.physics.SXRWorld;
+import com.samsungxr.unittestutils.SXRAllocations;
+import com.samsungxr.unittestutils.SXRFrameStats;
+import com.samsungxr.unittestutils.SXRGrowthFit;
+import com.samsungxr.unittestutils.SXRPerfResult;
+import com.samsungxr.unittestutils.SXRTestUtils;
+import com.samsungxr.unittestutils.SXRTestableActivity;
+import com.samsungxr.utility.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measures how the physics simulation scales with the number of rigid bodies.
+ * <p>
+ * At each size from 10 to 5,000 bodies half of them are static cubes and half
+ * are spheres dropped from the same height above them, built with the same
+ * addCube / addSphere setup as {@link PhysicsSimulationTest}. All spheres
+ * are released at once and each one must report a collision. Per size the
+ * test records
+ * <ul>
+ * <li>the frame time with the world disabled and while the spheres fall,
+ *     the difference is what the physics step adds to a frame,</li>
+ * <li>when the first contact was delivered compared to the analytic fall
+ *     time, how far behind real time the simulation runs,</li>
+ * <li>the spread of the contact deliveries, the wall time from the first
+ *     to the median, 95th percentile and last sphere reporting its contact.
+ *     All spheres hit at the same simulated time, so this is how unevenly
+ *     the contacts are delivered, not the time from a step to its callback,</li>
+ * <li>the bytes allocated per frame while simulating, minus what the
+ *     same frames allocate with the world disabled, on Android M and later.</li>
+ * </ul>
+ * A power law is fitted to each series and the whole curve is written to
+ * "physics_scaling.csv" in the results directory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhysicsScalingTest
+{
+    private static final String TAG = PhysicsScalingTest.class.getSimpleName();
+    private static final int[] BODY_COUNTS = { 10, 25, 50, 100, 250, 500, 1000, 2500, 5000 };
+    private static final float SPACING = 2.0f;
+    private static final float DROP_HEIGHT = 10.0f;
+    private static final float GRAVITY = 9.8f;
+    private static final int SETTLE_FRAMES = 4;
+    private static final int MEASURE_FRAMES = 60;
+    private static final long CONTACT_TIMEOUT_MS = 120000;
+
+    private SXRTestUtils mTestUtils;
+    private Waiter mWaiter;
+    private SXRWorld mWorld;
+
+    private SXRMesh mCubeMesh;
+    private SXRTexture mCubeTexture;
+    private SXRMesh mSphereMesh;
+    private SXRTexture mSphereTexture;
+
+    @Rule
+    public ActivityTestRule<SXRTestableActivity> ActivityRule = new ActivityTestRule<SXRTestableActivity>(SXRTestableActivity.class);
+
+    @Before
+    public void setUp() throws TimeoutException
+    {
+        mWaiter = new Waiter();
+        mTestUtils = new SXRTestUtils(ActivityRule.getActivity());
+        mTestUtils.waitForOnInit();
+        mTestUtils.getMainScene().getMainCameraRig().getTransform().setPosition(0.0f, 20.0f, 10.0f);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (mWorld != null)
+        {
+            mWorld.setEnable(false);
+        }
+        SXRScene scene = mTestUtils.getMainScene();
+        if (scene != null)
+        {
+            scene.clear();
+        }
+    }
+
+    /*
+     * Results at one body count.
+     */
+    private static final class Run
+    {
+        int bodies;
+        double buildMs;
+        SXRFrameStats idleFrames;
+        SXRFrameStats simulatedFrames;
+        double firstContactMs;
+        double spreadMedianMs;
+        double spreadP95Ms;
+        double spreadMaxMs;
+        double allocPerFrame;
+        int contacts;
+
+        double getStepOverheadMs()
+        {
+            return Math.max(0.0, simulatedFrames.getPercentileMs(50) - idleFrames.getPercentileMs(50));
+        }
+
+        /*
+         * How many times longer the first contact took than the fall in real time.
+         */
+        double getSlowdown()
+        {
+            return firstContactMs / getExpectedContactMs();
+        }
+    }
+
+    /*
+     * One handler per sphere, so the time of its first contact is recorded
+     * without looking the sphere up. Later contacts are counted only.
+     */
+    private static final class ContactRecorder implements ICollisionEvents
+    {
+        private final long[] mArrivals;
+        private final int mIndex;
+        private final CountDownLatch mLatch;
+        private long mStart;
+        private boolean mArrived;
+        int contacts;
+
+        ContactRecorder(long[] arrivals, int index, CountDownLatch latch)
+        {
+            mArrivals = arrivals;
+            mIndex = index;
+            mLatch = latch;
+        }
+
+        void start(long startNanos)
+        {
+            mStart = startNanos;
+        }
+
+        @Override
+        public void onEnter(SXRNode node0, SXRNode node1, float normal[], float distance)
+        {
+            ++contacts;
+            if (!mArrived)
+            {
+                mArrived = true;
+                mArrivals[mIndex] = System.nanoTime() - mStart;
+                mLatch.countDown();
+            }
+        }
+
+        @Override
+        public void onExit(SXRNode node0, SXRNode node1, float normal[], float distance)
+        {
+        }
+    }
+
+    static double getExpectedContactMs()
+    {
+        return Math.sqrt(2.0 * DROP_HEIGHT / GRAVITY) * 1000.0;
+    }
+
+    @Test
+    public void rigidBodyScaling() throws Exception
+    {
+        Run[] runs = new Run[BODY_COUNTS.length];
+
+        loadMeshes();
+        for (int i = 0; i < BODY_COUNTS.length; ++i)
+        {
+            runs[i] = simulate(BODY_COUNTS[i]);
+            writeResult(runs[i]);
+        }
+        writeCurve(runs);
+    }
+
+    private Run simulate(int bodies) throws Exception
+    {
+        final SXRContext ctx = mTestUtils.getSxrContext();
+        final SXRScene scene = mTestUtils.getMainScene();
+        final int pairs = bodies / 2;
+        final int columns = (int) Math.ceil(Math.sqrt(pairs));
+        final long[] arrivals = new long[pairs];
+        final CountDownLatch latch = new CountDownLatch(pairs);
+        final ContactRecorder[] recorders = new ContactRecorder[pairs];
+        Run run = new Run();
+
+        if (mWorld != null)
+        {
+            mWorld.setEnable(false);
+            scene.getRoot().detachComponent(SXRWorld.getComponentType());
+        }
+        scene.clear();
+        mWorld = new SXRWorld(ctx);
+        mWorld.setEnable(false);
+        scene.getRoot().attachComponent(mWorld);
+        mTestUtils.waitForXFrames(SETTLE_FRAMES);
+        System.gc();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < pairs; ++i)
+        {
+            float x = (i % columns - columns / 2) * SPACING;
+            float z = -10.0f - (i / columns) * SPACING;
+
+            recorders[i] = new ContactRecorder(arrivals, i, latch);
+            addCube(scene, x, 0.0f, z, 0.0f);
+            addSphere(scene, recorders[i], x, 0.75f + DROP_HEIGHT, z, 1.0f);
+        }
+        run.bodies = 2 * pairs;
+        run.buildMs = (System.nanoTime() - start) / 1e6;
+        mTestUtils.waitForXFrames(SETTLE_FRAMES);
+
+        // what the frames cost without simulating
+        long idleAlloc = SXRAllocations.getAllocatedBytes();
+        long idleFrame = mTestUtils.getFrameNumber();
+        run.idleFrames = mTestUtils.measureFrames(MEASURE_FRAMES, SXRFrameStats.REFRESH_PERIOD_60HZ);
+        double idleAllocPerFrame = (double) (SXRAllocations.getAllocatedBytes() - idleAlloc)
+                                   / Math.max(1, mTestUtils.getFrameNumber() - idleFrame);
+
+        mTestUtils.getFrameTimes().reset();
+        long simAlloc = SXRAllocations.getAllocatedBytes();
+        long simFrame = mTestUtils.getFrameNumber();
+        start = System.nanoTime();
+        for (ContactRecorder r : recorders)
+        {
+            r.start(start);
+        }
+        mWorld.setEnable(true);
+        if (!latch.await(CONTACT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+        {
+            mWorld.setEnable(false);
+            throw new TimeoutException(latch.getCount() + " of " + pairs + " spheres did not land in "
+                                       + CONTACT_TIMEOUT_MS + " ms with " + run.bodies + " bodies");
+        }
+        long frames = Math.max(1, mTestUtils.getFrameNumber() - simFrame);
+        run.allocPerFrame = (simAlloc >= 0)
+                ? Math.max(0.0, (double) (SXRAllocations.getAllocatedBytes() - simAlloc) / frames - idleAllocPerFrame)
+                : Double.NaN;
+        run.simulatedFrames = mTestUtils.getFrameTimes().getStats(SXRFrameStats.REFRESH_PERIOD_60HZ);
+        mWorld.setEnable(false);
+
+        Arrays.sort(arrivals);
+        run.firstContactMs = arrivals[0] / 1e6;
+        run.spreadMedianMs = (arrivals[pairs / 2] - arrivals[0]) / 1e6;
+        run.spreadP95Ms = (arrivals[Math.min(pairs - 1, (int) (pairs * 0.95))] - arrivals[0]) / 1e6;
+        run.spreadMaxMs = (arrivals[pairs - 1] - arrivals[0]) / 1e6;
+        for (ContactRecorder r : recorders)
+        {
+            run.contacts += r.contacts;
+        }
+        mWaiter.assertTrue(run.contacts >= pairs);
+        return run;
+    }
+
+    private void writeResult(Run run) throws IOException
+    {
+        Log.e("PERFORMANCE", "%d bodies: build %.1f ms, frame %.2f ms idle %.2f ms simulating (+%.2f), "
+                             + "first contact %.0f ms (%.2fx real time), delivery spread median %.1f p95 %.1f max %.1f ms, "
+                             + "%.0f bytes/frame, %d contacts",
+              run.bodies, run.buildMs, run.idleFrames.getPercentileMs(50), run.simulatedFrames.getPercentileMs(50),
+              run.getStepOverheadMs(), run.firstContactMs, run.getSlowdown(), run.spreadMedianMs,
+              run.spreadP95Ms, run.spreadMaxMs, run.allocPerFrame, run.contacts);
+        SXRPerfResult result = new SXRPerfResult(TAG, "bodies_" + run.bodies)
+                .setParameter("bodies", run.bodies)
+                .setParameter("drop_height", DROP_HEIGHT)
+                .setMetric("build_ms", run.buildMs)
+                .setMetric("idle_frame_ms", run.idleFrames.getPercentileMs(50))
+                .setMetric("step_overhead_ms", run.getStepOverheadMs())
+                .setMetric("first_contact_ms", run.firstContactMs)
+                .setMetric("slowdown", run.getSlowdown())
+                .setMetric("contact_spread_p95_ms", run.spreadP95Ms)
+                .setMetric("contact_spread_max_ms", run.spreadMaxMs)
+                .setFrameStats(run.simulatedFrames);
+        if (!Double.isNaN(run.allocPerFrame))
+        {
+            result.setMetric("alloc_bytes_per_frame", run.allocPerFrame);
+        }
+        result.write();
+    }
+
+    private void writeCurve(Run[] runs) throws IOException
+    {
+        double[] sizes = new double[runs.length];
+        double[] overhead = new double[runs.length];
+        double[] spread = new double[runs.length];
+        double[] alloc = new double[runs.length];
+        File file = new File(SXRTestUtils.getResultsDir(TAG), "physics_scaling.csv");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+        try
+        {
+            writer.write("bodies,build_ms,idle_frame_ms,simulated_frame_ms,step_overhead_ms,first_contact_ms,"
+                         + "slowdown,spread_median_ms,spread_p95_ms,spread_max_ms,alloc_bytes_per_frame,contacts\n");
+            for (int i = 0; i < runs.length; ++i)
+            {
+                Run r = runs[i];
+                sizes[i] = r.bodies;
+                overhead[i] = r.getStepOverheadMs();
+                spread[i] = r.spreadP95Ms;
+                // sizes without a value are left out of the fit
+                alloc[i] = Double.isNaN(r.allocPerFrame) ? 0.0 : r.allocPerFrame;
+                writer.write(String.format(Locale.US, "%d,%.2f,%.3f,%.3f,%.3f,%.1f,%.3f,%.2f,%.2f,%.2f,%.0f,%d\n",
+                                           r.bodies, r.buildMs, r.idleFrames.getPercentileMs(50),
+                                           r.simulatedFrames.getPercentileMs(50), r.getStepOverheadMs(),
+                                           r.firstContactMs, r.getSlowdown(), r.spreadMedianMs, r.spreadP95Ms,
+                                           r.spreadMaxMs, r.allocPerFrame, r.contacts));
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        SXRGrowthFit overheadFit = SXRGrowthFit.fit(sizes, overhead);
+        SXRGrowthFit spreadFit = SXRGrowthFit.fit(sizes, spread);
+        SXRGrowthFit allocFit = SXRGrowthFit.fit(sizes, alloc);
+
+        Log.e("PERFORMANCE", "physics step overhead %s", overheadFit.toString());
+        Log.e("PERFORMANCE", "collision delivery spread %s", spreadFit.toString());
+        Log.e("PERFORMANCE", "allocation per frame %s", allocFit.toString());
+        SXRPerfResult summary = new SXRPerfResult(TAG, "rigidBodyScaling")
+                .setParameter("min_bodies", BODY_COUNTS[0])
+                .setParameter("max_bodies", BODY_COUNTS[BODY_COUNTS.length - 1]);
+        if (!Float.isNaN(overheadFit.exponent))
+        {
+            summary.setMetric("step_overhead_exponent", overheadFit.exponent);
+        }
+        if (!Float.isNaN(spreadFit.exponent))
+        {
+            summary.setMetric("contact_spread_exponent", spreadFit.exponent);
+        }
+        if (!Float.isNaN(allocFit.exponent))
+        {
+            summary.setMetric("alloc_exponent", allocFit.exponent);
+        }
+        summary.write();
+    }
+
+    private void loadMeshes() throws IOException
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+
+        mCubeMesh = ctx.getAssetLoader().loadMesh(new SXRAndroidResource(ctx, "cube.obj"));
+        mCubeTexture = ctx.getAssetLoader().loadTexture(new SXRAndroidResource(ctx, "cube.jpg"));
+        mSphereMesh = ctx.getAssetLoader().loadMesh(new SXRAndroidResource(ctx, "sphere.obj"));
+        mSphereTexture = ctx.getAssetLoader().loadTexture(new SXRAndroidResource(ctx, "sphere.jpg"));
+    }
+
+    private SXRNode addSphere(SXRScene scene, ICollisionEvents handler, float x, float y, float z, float mass)
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+        SXRNode sphere = new SXRNode(ctx, mSphereMesh, mSphereTexture);
+        SXRSphereCollider collider = new SXRSphereCollider(ctx);
+        SXRRigidBody body = new SXRRigidBody(ctx);
+
+        sphere.getTransform().setScale(0.5f, 0.5f, 0.5f);
+        sphere.getTransform().setPosition(x, y, z);
+        collider.setRadius(0.5f);
+        sphere.attachCollider(collider);
+        body.setMass(mass);
+        sphere.getEventReceiver().addListener(handler);
+        sphere.attachComponent(body);
+        scene.addNode(sphere);
+        return sphere;
+    }
+
+    private SXRNode addCube(SXRScene scene, float x, float y, float z, float mass)
+    {
+        SXRContext ctx = mTestUtils.getSxrContext();
+        SXRNode cube = new SXRNode(ctx, mCubeMesh, mCubeTexture);
+        SXRBoxCollider collider = new SXRBoxCollider(ctx);
+        SXRRigidBody body = new SXRRigidBody(ctx);
+
+        cube.getTransform().setPosition(x, y, z);
+        collider.setHalfExtents(0.5f, 0.5f, 0.5f);
+        cube.attachCollider(collider);
+        body.setMass(mass);
+        cube.attachComponent(body);
+        scene.addNode(cube);
+        return cube;
+    }
+}
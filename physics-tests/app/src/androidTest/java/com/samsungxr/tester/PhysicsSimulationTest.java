@@ -31,15 +31,23 @@ import java.util.concurrent.TimeoutException;
 // kinematic equation
 // d = 0.5*g(m/s^2)*t(s)^2
 // (d/(0.5*g))^0.5 = t
-// Xframes = t * 60
-// tested on note4, no other apps running
-// time to fall 2800ms or 168 frames, rounded up
+// Xsteps = t * 60
+// the world is stepped at a fixed 1/60 s by a PhysicsStepper, independent of the frame rate,
+// with an SDK whose world cannot be stepped manually it runs one step per frame
+// time to fall 2800ms or 168 steps, rounded up
 
 @RunWith(AndroidJUnit4.class)
 public class PhysicsSimulationTest {
+    // frames for the bodies to be added to the world before the first step
+    private static final int SETTLE_FRAMES = 4;
+    private static final int FALL_STEPS = 168;
+
     private SXRTestUtils sxrTestUtils;
     private Waiter mWaiter;
     SXRWorld world;
+    // false if the world steps itself with the render loop
+    private boolean manualSteps;
+    private PhysicsStepper stepper;
 
     private SXRMesh cubeMesh = null;
     private SXRTexture cubeTexture = null;
@@ -60,6 +68,13 @@ public class PhysicsSimulationTest {
             public void onInit(SXRContext sxrContext) {
                 sxrContext.getMainScene().getMainCameraRig().getTransform().setPosition(0.0f, 6.0f, 0.0f);
                 world = new SXRWorld(sxrContext);
+                // paused before any body is added, so every run starts from the same state
+                manualSteps = PhysicsStepper.isSupported();
+                if (manualSteps) {
+                    world.setEnable(false);
+                } else {
+                    Log.w("PHYSICS", "SXRWorld cannot be stepped manually, stepping with the render loop");
+                }
                 sxrContext.getMainScene().getRoot().attachComponent(world);
             }
         };
@@ -114,13 +129,14 @@ public class PhysicsSimulationTest {
 
         }
 
-        sxrTestUtils.waitForXFrames(47);
+        startStepping();
+        step(47);
 
         for(int i = 0; i < 5; i++) {
             objects[i*2].getTransform().setPositionX(2.0f);
         }
 
-        sxrTestUtils.waitForXFrames(600);
+        step(600);
 
         float d = (bodies[1].getTransform().getPositionY()
                 - bodies[0].getTransform().getPositionY()); //sphere is on top of the cube rigid body
@@ -145,9 +161,6 @@ public class PhysicsSimulationTest {
         for(int i = 0; i < 5; i++) {
             mWaiter.assertTrue(objects[i*2].getTransform().getPositionX() == bodies[i*2].getTransform().getPositionX());
         }
-
-
-        sxrTestUtils.waitForXFrames(60);
     }
 
     @Test
@@ -159,8 +172,9 @@ public class PhysicsSimulationTest {
         SXRNode cube = addCube(sxrTestUtils.getMainScene(), 0.0f, 1.0f, -10.0f, 0.0f);
         SXRNode sphere = addSphere(sxrTestUtils.getMainScene(), mCollisionHandler, 0.0f, 40.0f, -10.0f, 1.0f);
 
-        mCollisionHandler.startTime = System.currentTimeMillis();
-        sxrTestUtils.waitForXFrames(168);
+        startStepping();
+        mCollisionHandler.start();
+        step(FALL_STEPS);
 
         //Log.d("PHYSICS", "    Delta time of the last collisions:" + mCollisionHandler.lastCollisionTime);
         //mWaiter.assertTrue(mCollisionHandler.lastCollisionTime <= mCollisionHandler.extimatedTime);
@@ -183,12 +197,13 @@ public class PhysicsSimulationTest {
         sxrTestUtils.waitForSceneRendering();
         sxrTestUtils.setOnRenderCallback(null);
 
-        beginCallback.mCollisionHandler.startTime = System.currentTimeMillis();
-        sxrTestUtils.waitForXFrames(168);
+        startStepping();
+        beginCallback.mCollisionHandler.start();
+        step(FALL_STEPS);
 
         runTest(beginCallback.sphere, beginCallback.cube, beginCallback.lenght);
 
-        //It is complicated to try to predict this timing depends on the device state, should be almost the same as the above
+        //The spheres were added in different frames while the world was running, so they land at different times
         //Log.d("PHYSICS", "    Delta time of the last collisions:" + beginCallback.mCollisionHandler.lastCollisionTime);
         //mWaiter.assertTrue(beginCallback.mCollisionHandler.lastCollisionTime <= beginCallback.mCollisionHandler.extimatedTime);
 
@@ -205,12 +220,13 @@ public class PhysicsSimulationTest {
         sxrTestUtils.waitForSceneRendering();
         sxrTestUtils.setOnRenderCallback(null);
 
-        beginCallback.mCollisionHandler.startTime = System.currentTimeMillis();
-        sxrTestUtils.waitForXFrames(168 + 60 ); // Too many simultaneous events triggered need more time to process all???
+        startStepping();
+        beginCallback.mCollisionHandler.start();
+        step(FALL_STEPS + 60); // let all spheres come to rest on their cubes
 
         runTest(beginCallback.sphere, beginCallback.cube, beginCallback.lenght);
 
-        //It is complicated to try to predict this timing
+        //All spheres fall from the same height, they land at about the same simulated time
         //Log.d("PHYSICS", "    Delta time of the last collisions:" + mCollisionHandler.lastCollisionTime);
         //mWaiter.assertTrue(mCollisionHandler.lastCollisionTime <= mCollisionHandler.extimatedTime);
 
@@ -226,13 +242,14 @@ public class PhysicsSimulationTest {
         addGroundMesh(sxrTestUtils.getMainScene(), 0.0f,0.0f,0.0f, 0.0f);
         SXRNode cube = addCube(sxrTestUtils.getMainScene(), 0.0f, 0.6f, -5.0f, 0.01f);
         sxrTestUtils.waitForSceneRendering();
-        sxrTestUtils.waitForXFrames(10);
+        startStepping();
+        step(10);
 
         distance = cube.getTransform().getPositionZ();
         rotation = cube.getTransform().getRotationPitch();
         ((SXRRigidBody)cube.getComponent(
                 SXRRigidBody.getComponentType())).applyCentralForce(0,0,-1);
-        sxrTestUtils.waitForXFrames(60);
+        step(60);
         mWaiter.assertFalse(distance - cube.getTransform().getPositionZ() == 0);
         mWaiter.assertTrue(Math.abs(rotation - cube.getTransform().getRotationPitch()) < 1);
 
@@ -241,7 +258,7 @@ public class PhysicsSimulationTest {
         ((SXRRigidBody)cube.getComponent(
                 SXRRigidBody.getComponentType())).applyForce(0,0,-1,
                 0.0f, 0.5f, 0.0f);
-        sxrTestUtils.waitForXFrames(120);
+        step(120);
         mWaiter.assertFalse(distance - cube.getTransform().getPositionZ() == 0);
         mWaiter.assertFalse(Math.abs(rotation - cube.getTransform().getRotationPitch()) < 1);
 
@@ -249,7 +266,7 @@ public class PhysicsSimulationTest {
         rotation = cube.getTransform().getRotationPitch();
         ((SXRRigidBody)cube.getComponent(
                 SXRRigidBody.getComponentType())).applyCentralImpulse(0,0,-0.02f);
-        sxrTestUtils.waitForXFrames(120);
+        step(120);
         mWaiter.assertFalse(distance - cube.getTransform().getPositionZ() == 0);
         mWaiter.assertTrue(Math.abs(rotation - cube.getTransform().getRotationPitch()) < 1);
 
@@ -258,7 +275,7 @@ public class PhysicsSimulationTest {
         ((SXRRigidBody)cube.getComponent(
                 SXRRigidBody.getComponentType())).applyImpulse(0,0, -0.02f,
                 0.0f, 0.5f, 0.0f);
-        sxrTestUtils.waitForXFrames(120);
+        step(120);
         mWaiter.assertFalse(distance - cube.getTransform().getPositionZ() == 0);
         mWaiter.assertFalse(Math.abs(rotation - cube.getTransform().getRotationPitch()) < 1);
 
@@ -266,7 +283,7 @@ public class PhysicsSimulationTest {
         rotation = cube.getTransform().getRotationPitch();
         ((SXRRigidBody)cube.getComponent(
                 SXRRigidBody.getComponentType())).applyTorque(-1, 0, 0);
-        sxrTestUtils.waitForXFrames(120);
+        step(120);
         mWaiter.assertFalse(distance - cube.getTransform().getPositionZ() == 0);
         mWaiter.assertFalse(Math.abs(rotation - cube.getTransform().getRotationPitch()) < 1);
 
@@ -274,7 +291,7 @@ public class PhysicsSimulationTest {
         rotation = cube.getTransform().getRotationPitch();
         ((SXRRigidBody)cube.getComponent(
                 SXRRigidBody.getComponentType())).applyTorqueImpulse(-0.1f, 0, 0);
-        sxrTestUtils.waitForXFrames(60);
+        step(60);
         mWaiter.assertFalse(distance - cube.getTransform().getPositionZ() == 0);
         mWaiter.assertFalse(Math.abs(rotation - cube.getTransform().getRotationPitch()) < 1);
     }
@@ -336,7 +353,9 @@ public class PhysicsSimulationTest {
             int z = -10;
             int step = 50 / k;
 
-            world.setEnable(false);
+            if (!manualSteps) {
+                world.setEnable(false);
+            }
             for(int i = 0; i < lenght; i++) {
                 x += step;
                 cube[i] = addCube(sxrTestUtils.getMainScene(), (float)x, 1.0f, (float)z, 0.0f);
@@ -348,12 +367,16 @@ public class PhysicsSimulationTest {
                     j = 0;
                 }
             }
-            world.setEnable(true);
+            if (!manualSteps) {
+                world.setEnable(true);
+            }
         }
     }
 
     public void runTest(SXRNode sphere[], SXRNode cube[], int lenght) throws  Exception{
-        world.setEnable(false);
+        if (stepper == null) {
+            world.setEnable(false);
+        }
         for(int i = 0; i < lenght; i++) {
             float cubeX = cube[i].getTransform().getPositionX();
             float cubeY = cube[i].getTransform().getPositionY();
@@ -375,14 +398,43 @@ public class PhysicsSimulationTest {
         }
     }
 
+    /*
+     * Waits for the bodies of the scene to be added to the paused world,
+     * the test steps it from then on.
+     */
+    private void startStepping() {
+        sxrTestUtils.waitForXFrames(SETTLE_FRAMES);
+        if (manualSteps) {
+            stepper = new PhysicsStepper(world, PhysicsStepper.DEFAULT_TIME_STEP);
+        }
+    }
+
+    // advances the world by the given number of steps, or waits as many frames
+    private void step(int steps) {
+        if (stepper != null) {
+            stepper.step(steps);
+        } else {
+            sxrTestUtils.waitForXFrames(steps);
+        }
+    }
+
+    private double getSimulatedMillis() {
+        return (stepper != null) ? stepper.getSimulatedMillis() : System.currentTimeMillis();
+    }
+
+    // times collisions in simulated time, so they do not depend on how fast the device renders
     public class CollisionHandler implements ICollisionEvents {
-        public long startTime;
+        public double startTime;
         public long extimatedTime;
         public long lastCollisionTime;
         public int collisionCounter;
 
+        public void start() {
+            startTime = getSimulatedMillis();
+        }
+
         public void onEnter(SXRNode sceneObj0, SXRNode sceneObj1, float normal[], float distance) {
-            lastCollisionTime = System.currentTimeMillis() - startTime;
+            lastCollisionTime = (long) (getSimulatedMillis() - startTime);
             collisionCounter++;
         }
 
@@ -0,0 +1,416 @@
+package com.samsungxr.tester;
+
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRTransform;
+import com.samsungxr.physics.SXRWorld;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps an {@link SXRWorld} at a fixed time step on the GL thread,
+ * independent of the render loop, and records the trajectories of nodes.
+ * <p>
+ * Normally the world steps itself on a timer with the wall clock time
+ * since the last step, so how far a test gets in N frames depends on how
+ * fast the device renders. The stepper disables the world's own loop and
+ * advances it by exactly dt per step as fast as the CPU allows. Simulated
+ * time is the number of steps times dt, handlers should use
+ * {@link #getSimulatedMillis()} instead of the system clock to time events.
+ * <p>
+ * The world is advanced through its step method if the SDK has one,
+ * otherwise through the method its own loop calls, which also delivers the
+ * collision events of the step. If it has neither the stepper cannot be
+ * created, {@link #isSupported()} tells tests which can fall back to
+ * waiting for frames, tests which cannot fail.
+ * The steps run on the GL thread with the world's own loop paused, like
+ * the SDK steps it, so the native world is never touched by two threads.
+ * Collision events, conditions and step listeners are called on the GL
+ * thread, the calling thread waits until the steps are done; the step
+ * methods must not be called on the GL thread.
+ * <pre>
+ * PhysicsStepper stepper = new PhysicsStepper(world, 1.0f / 60.0f);
+ * PhysicsStepper.Trajectory t = stepper.track(sphere);
+ * stepper.stepUntil(600, done);
+ * </pre>
+ * Bodies are added to the world asynchronously, wait a few frames after
+ * building the scene and before the first step.
+ */
+public class PhysicsStepper
+{
+    public static final float DEFAULT_TIME_STEP = 1.0f / 60.0f;
+    /** longest a call may take to run its steps on the GL thread */
+    private static final long STEP_TIMEOUT_MS = 60000;
+
+    private final SXRWorld mWorld;
+    private final SXRContext mContext;
+    private final float mTimeStep;
+    private final Method mStep;
+    private final boolean mHasSubSteps;
+    private final List<Trajectory> mTrajectories = new ArrayList<Trajectory>();
+    private final List<StepListener> mListeners = new ArrayList<StepListener>();
+    private int mSteps = 0;
+
+    /**
+     * Condition to stop stepping at, checked after every step.
+     */
+    public interface Condition
+    {
+        boolean isMet(PhysicsStepper stepper);
+    }
+
+    /**
+     * Called after every step, once the trajectories are recorded.
+     */
+    public interface StepListener
+    {
+        void onStep(PhysicsStepper stepper);
+    }
+
+    /**
+     * Positions of a node after every step, the first entry is the position
+     * when it started being tracked.
+     */
+    public static final class Trajectory
+    {
+        private final SXRNode mNode;
+        private final int mFirstStep;
+        private float[] mPositions = new float[3 * 256];
+        private int mCount = 0;
+
+        Trajectory(SXRNode node, int firstStep)
+        {
+            mNode = node;
+            mFirstStep = firstStep;
+            record();
+        }
+
+        void record()
+        {
+            SXRTransform t = mNode.getTransform();
+
+            if (3 * mCount + 3 > mPositions.length)
+            {
+                float[] grown = new float[2 * mPositions.length];
+                System.arraycopy(mPositions, 0, grown, 0, 3 * mCount);
+                mPositions = grown;
+            }
+            mPositions[3 * mCount] = t.getPositionX();
+            mPositions[3 * mCount + 1] = t.getPositionY();
+            mPositions[3 * mCount + 2] = t.getPositionZ();
+            ++mCount;
+        }
+
+        public SXRNode getNode()
+        {
+            return mNode;
+        }
+
+        /**
+         * Returns the step of the world the first position was recorded at.
+         */
+        public int getFirstStep()
+        {
+            return mFirstStep;
+        }
+
+        public int size()
+        {
+            return mCount;
+        }
+
+        /**
+         * Copies the position after the i-th recorded step into xyz.
+         */
+        public float[] getPosition(int i, float[] xyz)
+        {
+            System.arraycopy(mPositions, 3 * i, xyz, 0, 3);
+            return xyz;
+        }
+
+        public float getY(int i)
+        {
+            return mPositions[3 * i + 1];
+        }
+
+        /**
+         * Returns the largest distance along any axis between the positions
+         * of two trajectories over their common length.
+         */
+        public float maxDeviation(Trajectory other)
+        {
+            final int n = 3 * Math.min(mCount, other.mCount);
+            float max = 0.0f;
+
+            for (int i = 0; i < n; ++i)
+            {
+                max = Math.max(max, Math.abs(mPositions[i] - other.mPositions[i]));
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Returns true if the SXRWorld of this SDK can be stepped manually.
+     */
+    public static boolean isSupported()
+    {
+        return findStep() != null;
+    }
+
+    /**
+     * Creates a stepper and stops the world's own simulation loop.
+     * @param world    world to step.
+     * @param timeStep seconds the world advances per step.
+     * @throws UnsupportedOperationException if the world cannot be stepped
+     *         manually in this SDK, see {@link #isSupported()}.
+     */
+    public PhysicsStepper(SXRWorld world, float timeStep)
+    {
+        Method step = findStep();
+
+        if (step == null)
+        {
+            throw new UnsupportedOperationException("SXRWorld of this SDK cannot be stepped manually");
+        }
+        step.setAccessible(true);
+        mStep = step;
+        mHasSubSteps = (step.getParameterTypes().length == 2);
+        mWorld = world;
+        mTimeStep = timeStep;
+        mContext = world.getSXRContext();
+        mWorld.setEnable(false);
+    }
+
+    /*
+     * The public step method of the world, or the one its own loop calls.
+     */
+    private static Method findStep()
+    {
+        Method step = findMethod(SXRWorld.class, "step", float.class, int.class);
+
+        if (step == null)
+        {
+            step = findMethod(SXRWorld.class, "step", float.class);
+        }
+        if (step == null)
+        {
+            step = findMethod(SXRWorld.class, "doPhysicsStep", float.class, int.class);
+        }
+        return step;
+    }
+
+    private static Method findMethod(Class<?> clazz, String name, Class<?>... parameters)
+    {
+        try
+        {
+            return clazz.getDeclaredMethod(name, parameters);
+        }
+        catch (NoSuchMethodException ex)
+        {
+            return null;
+        }
+    }
+
+    public float getTimeStep()
+    {
+        return mTimeStep;
+    }
+
+    /**
+     * Returns the number of steps taken so far.
+     */
+    public int getSteps()
+    {
+        return mSteps;
+    }
+
+    public double getSimulatedMillis()
+    {
+        return mSteps * (double) mTimeStep * 1000.0;
+    }
+
+    /**
+     * Starts recording the position of a node after every step.
+     */
+    public Trajectory track(SXRNode node)
+    {
+        Trajectory t = new Trajectory(node, mSteps);
+
+        mTrajectories.add(t);
+        return t;
+    }
+
+    public void addStepListener(StepListener listener)
+    {
+        mListeners.add(listener);
+    }
+
+    public void removeStepListener(StepListener listener)
+    {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Advances the world by one time step. Collision events of the step are
+     * delivered on the GL thread before this returns.
+     */
+    public void step()
+    {
+        runSteps(1, null);
+    }
+
+    /**
+     * Takes the given number of steps.
+     */
+    public void step(int steps)
+    {
+        runSteps(steps, null);
+    }
+
+    /**
+     * Steps until a condition is met or maxSteps steps were taken.
+     * @return true if the condition was met.
+     */
+    public boolean stepUntil(int maxSteps, Condition condition)
+    {
+        return runSteps(maxSteps, condition);
+    }
+
+    /*
+     * Posts all steps to the GL thread at once and waits for them,
+     * exceptions thrown on the GL thread are rethrown here.
+     */
+    private boolean runSteps(final int maxSteps, final Condition condition)
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        final boolean[] met = { false };
+        final Throwable[] failure = { null };
+
+        mContext.runOnGlThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    for (int i = 0; (i < maxSteps) && !met[0]; ++i)
+                    {
+                        stepNow();
+                        met[0] = (condition != null) && condition.isMet(PhysicsStepper.this);
+                    }
+                }
+                catch (Throwable ex)
+                {
+                    failure[0] = ex;
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            }
+        });
+        try
+        {
+            if (!done.await(STEP_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+            {
+                throw new IllegalStateException("Physics steps did not finish on the GL thread in "
+                                                + STEP_TIMEOUT_MS + " ms");
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        }
+        if (failure[0] instanceof RuntimeException)
+        {
+            throw (RuntimeException) failure[0];
+        }
+        if (failure[0] instanceof Error)
+        {
+            throw (Error) failure[0];
+        }
+        if (failure[0] != null)
+        {
+            throw new IllegalStateException(failure[0]);
+        }
+        return met[0];
+    }
+
+    /*
+     * Takes one step, called on the GL thread only.
+     */
+    private void stepNow()
+    {
+        try
+        {
+            if (mHasSubSteps)
+            {
+                mStep.invoke(mWorld, mTimeStep, 1);
+            }
+            else
+            {
+                mStep.invoke(mWorld, mTimeStep);
+            }
+        }
+        catch (IllegalAccessException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+        catch (InvocationTargetException ex)
+        {
+            throw new IllegalStateException("Physics step failed", ex.getCause());
+        }
+        ++mSteps;
+        for (int i = 0; i < mTrajectories.size(); ++i)
+        {
+            mTrajectories.get(i).record();
+        }
+        for (int i = 0; i < mListeners.size(); ++i)
+        {
+            mListeners.get(i).onStep(this);
+        }
+    }
+
+    /**
+     * Writes all trajectories as "step,time_ms,body,x,y,z" lines, so runs
+     * on different devices or SDK versions can be compared offline.
+     */
+    public void writeTrajectories(File file) throws IOException
+    {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        float[] xyz = new float[3];
+
+        try
+        {
+            writer.write("step,time_ms,body,x,y,z\n");
+            for (int b = 0; b < mTrajectories.size(); ++b)
+            {
+                Trajectory t = mTrajectories.get(b);
+                for (int i = 0; i < t.size(); ++i)
+                {
+                    int step = t.getFirstStep() + i;
+                    t.getPosition(i, xyz);
+                    writer.write(String.format(Locale.US, "%d,%.3f,%d,%.6f,%.6f,%.6f\n", step,
+                                               step * mTimeStep * 1000.0, b, xyz[0], xyz[1], xyz[2]));
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
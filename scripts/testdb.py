@@ -0,0 +1,222 @@
+# Append-only store of test durations, shared by test-durations and run-parallel.
+#
+# Every test case found in a JUnit XML file becomes one JSON line:
+#   { "time": 1520000000.0, "device": "SM-G935F", "class": "com.samsungxr.scene.NodeTests",
+#     "test": "testName", "seconds": 1.25, "outcome": "passed", "source": "<sha256 of the XML>" }
+# A file is only imported once, files whose hash is already in the store are
+# skipped, so importing the whole TestResults tree again after every run is cheap.
+#
+# The device is the phone model. It is read from the "device" property gradle
+# and run-parallel write into the XML, or taken from the directory layout of
+# runtest, TestResults/<model>/..., when the file has no such property.
+
+import datetime
+import hashlib
+import json
+import math
+import os
+import statistics
+import xml.etree.ElementTree as ET
+
+PASSED = 'passed'
+FAILED = 'failed'
+ERROR = 'error'
+SKIPPED = 'skipped'
+
+
+def sha256(path):
+    h = hashlib.sha256()
+    with open(path, 'rb') as f:
+        for chunk in iter(lambda: f.read(1 << 16), b''):
+            h.update(chunk)
+    return h.hexdigest()
+
+
+def load(db):
+    """
+    Returns all records of the store, oldest first.
+    """
+    records = []
+    if not os.path.isfile(db):
+        return records
+    with open(db) as f:
+        for line in f:
+            line = line.strip()
+            if line:
+                try:
+                    records.append(json.loads(line))
+                except ValueError:
+                    pass    # a run killed while appending leaves a partial line
+    records.sort(key=lambda r: r['time'])
+    return records
+
+
+def outcome(case):
+    if case.find('failure') is not None:
+        return FAILED
+    if case.find('error') is not None:
+        return ERROR
+    if case.find('skipped') is not None:
+        return SKIPPED
+    return PASSED
+
+
+def device_of(suite, path, root):
+    for prop in suite.iter('property'):
+        if prop.get('name') == 'device':
+            # gradle writes "<model> - <android version>"
+            return prop.get('value').split(' - ')[0].strip()
+    rel = os.path.relpath(path, root).split(os.sep)
+    return rel[0] if len(rel) > 1 else 'unknown'
+
+
+def suite_time(suite, path):
+    stamp = suite.get('timestamp')
+    if stamp:
+        try:
+            return datetime.datetime.strptime(stamp[:19], '%Y-%m-%dT%H:%M:%S').timestamp()
+        except ValueError:
+            pass
+    return os.path.getmtime(path)
+
+
+def find_xml(root):
+    for dirpath, _, names in os.walk(root):
+        for name in sorted(names):
+            if name.startswith('TEST-') and name.endswith('.xml') and name != 'TEST-merged.xml':
+                yield os.path.join(dirpath, name)
+
+
+def import_results(db, roots):
+    """
+    Appends the test cases of all JUnit XML files below roots
+    which are not in the store yet. Returns the number of new records.
+    """
+    known = set(r['source'] for r in load(db))
+    added = 0
+    if os.path.dirname(db):
+        os.makedirs(os.path.dirname(db), exist_ok=True)
+    with open(db, 'a') as out:
+        for root in roots:
+            for path in find_xml(root):
+                source = sha256(path)
+                if source in known:
+                    continue
+                known.add(source)
+                try:
+                    tree = ET.parse(path)
+                except ET.ParseError:
+                    continue
+                top = tree.getroot()
+                suites = [top] if top.tag == 'testsuite' else list(top.iter('testsuite'))
+                for suite in suites:
+                    device = device_of(suite, path, root)
+                    when = suite_time(suite, path)
+                    for case in suite.findall('testcase'):
+                        record = {'time': when, 'device': device, 'class': case.get('classname'),
+                                  'test': case.get('name'), 'seconds': float(case.get('time', 0)),
+                                  'outcome': outcome(case), 'source': source}
+                        out.write(json.dumps(record, sort_keys=True) + '\n')
+                        added += 1
+    return added
+
+
+def history(records, device=None):
+    """
+    Returns {(class, test): [seconds, ...]} oldest first, for tests which
+    ran to completion. Skipped tests and crashes say nothing about duration.
+    """
+    tests = {}
+    for r in records:
+        if r['outcome'] in (SKIPPED, ERROR):
+            continue
+        if device is not None and r['device'] != device:
+            continue
+        tests.setdefault((r['class'], r['test']), []).append(r['seconds'])
+    return tests
+
+
+def class_estimates(records, device=None, recent=5):
+    """
+    Returns {class: seconds}, the sum over its tests of the median
+    of their most recent durations.
+    """
+    classes = {}
+    for (classname, _), seconds in history(records, device).items():
+        classes[classname] = classes.get(classname, 0.0) + statistics.median(seconds[-recent:])
+    return classes
+
+
+def pack(jobs, bins):
+    """
+    Longest processing time first packing of (name, seconds) jobs into
+    bins shards. Returns a list of (total seconds, [names]) per shard.
+    The largest shard is at most 4/3 of the optimum.
+    """
+    shards = [[0.0, i, []] for i in range(bins)]
+    for name, seconds in sorted(jobs, key=lambda j: (-j[1], j[0])):
+        shard = min(shards, key=lambda s: (s[0], s[1]))
+        shard[0] += seconds
+        shard[2].append(name)
+    return [(s[0], s[2]) for s in shards]
+
+
+def mann_kendall_increasing(values):
+    """
+    One-sided Mann-Kendall test for an upward trend. Uses the normal
+    approximation with tie correction. Returns the p-value.
+    """
+    n = len(values)
+    if n < 3:
+        return 1.0
+    s = 0
+    for i in range(n - 1):
+        for j in range(i + 1, n):
+            s += (values[j] > values[i]) - (values[j] < values[i])
+    counts = {}
+    for v in values:
+        counts[v] = counts.get(v, 0) + 1
+    var = (n * (n - 1) * (2 * n + 5) - sum(t * (t - 1) * (2 * t + 5) for t in counts.values())) / 18.0
+    if var <= 0:
+        return 1.0
+    z = (s - 1) / math.sqrt(var) if s > 0 else 0.0
+    return 0.5 * math.erfc(z / math.sqrt(2))
+
+
+def theil_sen_slope(values):
+    """
+    Median of the slopes between all pairs of points, robust to the
+    occasional slow run which would dominate a least squares fit.
+    """
+    slopes = [(values[j] - values[i]) / (j - i)
+              for i in range(len(values) - 1) for j in range(i + 1, len(values))]
+    return statistics.median(slopes) if slopes else 0.0
+
+
+def trends(records, window=20, min_runs=5, alpha=0.01, min_effect=0.10):
+    """
+    Returns (device, class, test, runs, first, last, growth, p) for every test
+    whose duration in its last window runs on a device trends upward
+    significantly AND by more than min_effect relative to its median.
+    """
+    by_device = {}
+    for r in records:
+        if r['outcome'] in (SKIPPED, ERROR):
+            continue
+        by_device.setdefault((r['device'], r['class'], r['test']), []).append(r['seconds'])
+    flagged = []
+    for (device, classname, test), seconds in sorted(by_device.items()):
+        values = seconds[-window:]
+        if len(values) < min_runs:
+            continue
+        median = statistics.median(values)
+        if median <= 0:
+            continue
+        slope = theil_sen_slope(values)
+        growth = slope * (len(values) - 1) / median
+        p = mann_kendall_increasing(values)
+        if p < alpha and growth > min_effect:
+            fitted = median - slope * (len(values) - 1) / 2.0
+            flagged.append((device, classname, test, len(values), fitted, fitted + slope * (len(values) - 1),
+                            growth, p))
+    return flagged
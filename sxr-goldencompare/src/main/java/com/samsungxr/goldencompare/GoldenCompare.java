@@ -0,0 +1,458 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.goldencompare;
+
+import com.samsungxr.unittestutils.SXRImageComparator;
+import com.samsungxr.unittestutils.SXRMaskedComparator;
+import com.samsungxr.unittestutils.SXRSSIMComparator;
+import com.samsungxr.unittestutils.SXRSumDiffComparator;
+import com.samsungxr.unittestutils.SXRTileErrorComparator;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Re-scores a directory of screenshots pulled from a device against the
+ * golden_masters tree on the host, with the comparators the tests use on
+ * the device so a score here is the score the device would have computed.
+ * <p>
+ * The screenshot directory has the layout the tests write to the sdcard,
+ * "&lt;category&gt;/&lt;name&gt;.png", diff images the device saved next to
+ * them are skipped. Every screenshot is decoded and compared on its own
+ * task of a fork-join pool, so a run with a thousand screenshots keeps all
+ * cores busy. The results are written as report.json and report.html, with
+ * a diff image for every noticeable difference.
+ * <pre>
+ * golden-compare [options] SCREENSHOT_DIR
+ *   --golden DIR      golden_masters directory, default ./golden_masters
+ *   --device NAME     device or phone model whose golden masters to use, default S7Edge
+ *   --metric M        diff, ssim or tile, default diff
+ *   --threshold T     limit of the metric, default the limit of the comparator
+ *   --size N          SSIM window or tile size in pixels
+ *   --ignore L,T,R,B  region to exclude from the comparison, may be repeated
+ *   --threads N       size of the fork-join pool, default the number of processors
+ *   --out DIR         where to write the report, default ./golden-compare
+ *   --no-diffs        do not write diff images
+ * </pre>
+ * The exit code is 0 if every screenshot matches its golden master,
+ * 1 if any does not or has no golden master and 2 for bad arguments.
+ * <p>
+ * Tests which choose their comparator with a
+ * {@link com.samsungxr.unittestutils.SXRScreenshotComparison} annotation are
+ * scored with the comparator given on the command line, re-score those
+ * categories separately to reproduce their device results.
+ */
+public class GoldenCompare
+{
+    public static final String PASSED = "passed";
+    public static final String FAILED = "failed";
+    public static final String MISSING = "missing";
+    public static final String ERROR = "error";
+
+    private static final String DIFF_PREFIX = "diff_";
+
+    private final GoldenMasters mGolden;
+    private final SXRImageComparator mComparator;
+    private final File mDiffDir;
+    private final ThreadLocal<PngDecoder> mDecoders = new ThreadLocal<PngDecoder>()
+    {
+        @Override
+        protected PngDecoder initialValue()
+        {
+            return new PngDecoder();
+        }
+    };
+
+    /**
+     * Outcome of comparing one screenshot.
+     */
+    public static final class Comparison
+    {
+        /** "category/name.png", the name of the golden master */
+        public final String name;
+        public final File screenshot;
+        public File golden;
+        public String status;
+        public SXRImageComparator.Result result;
+        public String message;
+        public File diff;
+        public long nanos;
+
+        Comparison(String name, File screenshot)
+        {
+            this.name = name;
+            this.screenshot = screenshot;
+        }
+
+        public boolean isFailure()
+        {
+            return !PASSED.equals(status);
+        }
+
+        /**
+         * Returns how far the score is from a perfect match relative to
+         * the threshold, 1 at the threshold. Used to list the worst first.
+         */
+        public double getSeverity()
+        {
+            if (result == null)
+            {
+                return Double.POSITIVE_INFINITY;
+            }
+            if ("ssim".equals(result.metric))
+            {
+                return (1.0 - result.score) / Math.max(1.0 - result.threshold, 1e-6);
+            }
+            return result.score / Math.max(result.threshold, 1e-6);
+        }
+    }
+
+    /**
+     * @param golden     golden masters of the device.
+     * @param comparator comparator to score the screenshots with.
+     * @param diffDir    directory for diff images, null to not write any.
+     */
+    public GoldenCompare(GoldenMasters golden, SXRImageComparator comparator, File diffDir)
+    {
+        mGolden = golden;
+        mComparator = comparator;
+        mDiffDir = diffDir;
+    }
+
+    /**
+     * Returns the screenshots below a directory, sorted by name.
+     */
+    public static List<Comparison> findScreenshots(File dir)
+    {
+        List<Comparison> screenshots = new ArrayList<Comparison>();
+        File[] categories = dir.listFiles();
+
+        if (categories == null)
+        {
+            return screenshots;
+        }
+        Arrays.sort(categories);
+        for (File category : categories)
+        {
+            File[] files = category.listFiles();
+            if (files == null)
+            {
+                continue;
+            }
+            Arrays.sort(files);
+            for (File f : files)
+            {
+                String name = f.getName();
+                if (f.isFile() && name.endsWith(".png") && !name.startsWith(DIFF_PREFIX))
+                {
+                    screenshots.add(new Comparison(category.getName() + "/" + name, f));
+                }
+            }
+        }
+        return screenshots;
+    }
+
+    /**
+     * Compares all screenshots on a fork-join pool.
+     */
+    public void compareAll(List<Comparison> screenshots, ForkJoinPool pool)
+    {
+        if (!screenshots.isEmpty())
+        {
+            pool.invoke(new CompareTask(screenshots.toArray(new Comparison[screenshots.size()]),
+                                        0, screenshots.size()));
+        }
+    }
+
+    /*
+     * Splits the screenshots in halves until each task has a single one,
+     * a comparison is big enough to be worth a task of its own.
+     */
+    private final class CompareTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final Comparison[] mScreenshots;
+        private final int mStart;
+        private final int mEnd;
+
+        CompareTask(Comparison[] screenshots, int start, int end)
+        {
+            mScreenshots = screenshots;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (mEnd - mStart == 1)
+            {
+                compare(mScreenshots[mStart]);
+                return;
+            }
+            int mid = (mStart + mEnd) >>> 1;
+            invokeAll(new CompareTask(mScreenshots, mStart, mid),
+                      new CompareTask(mScreenshots, mid, mEnd));
+        }
+    }
+
+    /**
+     * Compares one screenshot with its golden master.
+     */
+    public void compare(Comparison c)
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            c.golden = mGolden.getFile(c.name);
+            if ((c.golden == null) || !c.golden.isFile())
+            {
+                c.status = MISSING;
+                c.message = "No golden master for " + mGolden.getDevice() + "/" + c.name;
+                return;
+            }
+            PngDecoder decoder = mDecoders.get();
+            PngDecoder.Image golden = decoder.decode(c.golden);
+            PngDecoder.Image screenshot = decoder.decode(c.screenshot);
+
+            if ((golden.width != screenshot.width) || (golden.height != screenshot.height))
+            {
+                c.status = FAILED;
+                c.message = "Screenshot is " + screenshot.width + "x" + screenshot.height
+                            + ", golden master is " + golden.width + "x" + golden.height;
+                return;
+            }
+            int[] diffPixels = (mDiffDir != null) ? new int[golden.width * golden.height] : null;
+
+            c.result = mComparator.compare(golden.pixels, screenshot.pixels,
+                                           golden.width, golden.height, diffPixels);
+            c.status = c.result.passed ? PASSED : FAILED;
+            if (c.result.noticeable && (diffPixels != null))
+            {
+                c.diff = writeDiff(c.name, diffPixels, golden.width, golden.height);
+            }
+        }
+        catch (Exception ex)
+        {
+            c.status = ERROR;
+            c.message = ex.toString();
+        }
+        finally
+        {
+            c.nanos = System.nanoTime() - start;
+        }
+    }
+
+    private File writeDiff(String name, int[] pixels, int width, int height) throws IOException
+    {
+        int slash = name.lastIndexOf('/');
+        File file = new File(mDiffDir, name.substring(0, slash + 1) + DIFF_PREFIX + name.substring(slash + 1));
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+        file.getParentFile().mkdirs();
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        if (!ImageIO.write(image, "png", file))
+        {
+            throw new IOException("Cannot write " + file);
+        }
+        return file;
+    }
+
+    /**
+     * Creates the comparator the tests would use for the given metric.
+     * @param metric    "diff", "ssim" or "tile".
+     * @param threshold limit of the metric, negative for the default.
+     * @param size      SSIM window or tile size, 0 for the default.
+     * @param ignore    regions to exclude, 4 coordinates each.
+     */
+    public static SXRImageComparator createComparator(String metric, float threshold, int size, int[] ignore)
+    {
+        SXRImageComparator comparator;
+
+        if ("ssim".equals(metric))
+        {
+            comparator = new SXRSSIMComparator((threshold >= 0) ? threshold : SXRSSIMComparator.DEFAULT_MIN_SSIM,
+                                               (size > 0) ? size : SXRSSIMComparator.DEFAULT_WINDOW_SIZE);
+        }
+        else if ("tile".equals(metric))
+        {
+            comparator = new SXRTileErrorComparator((size > 0) ? size : SXRTileErrorComparator.DEFAULT_TILE_SIZE,
+                    (threshold >= 0) ? threshold : SXRTileErrorComparator.DEFAULT_MAX_TILE_ERROR);
+        }
+        else if ("diff".equals(metric))
+        {
+            // the fork-join pool already keeps every core busy, diff on the calling thread
+            comparator = new SXRSumDiffComparator((threshold >= 0) ? threshold : SXRSumDiffComparator.DEFAULT_MAX_DIFF,
+                                                  null);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown metric " + metric);
+        }
+        return (ignore.length > 0) ? new SXRMaskedComparator(comparator, ignore) : comparator;
+    }
+
+    private static void usage(String message)
+    {
+        System.err.println("golden-compare: " + message);
+        System.err.println("usage: golden-compare [--golden DIR] [--device NAME] [--metric diff|ssim|tile]");
+        System.err.println("                      [--threshold T] [--size N] [--ignore L,T,R,B]...");
+        System.err.println("                      [--threads N] [--out DIR] [--no-diffs] SCREENSHOT_DIR");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        File goldenDir = new File("golden_masters");
+        File outDir = new File("golden-compare");
+        File screenshotDir = null;
+        String device = "S7Edge";
+        String metric = "diff";
+        float threshold = -1;
+        int size = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean diffs = true;
+        List<Integer> ignore = new ArrayList<Integer>();
+
+        try
+        {
+            for (int i = 0; i < args.length; ++i)
+            {
+                String arg = args[i];
+                if (arg.equals("--no-diffs"))
+                {
+                    diffs = false;
+                }
+                else if (arg.startsWith("--"))
+                {
+                    if (i + 1 >= args.length)
+                    {
+                        usage(arg + " needs a value");
+                    }
+                    String value = args[++i];
+                    if (arg.equals("--golden"))
+                    {
+                        goldenDir = new File(value);
+                    }
+                    else if (arg.equals("--device"))
+                    {
+                        device = value;
+                    }
+                    else if (arg.equals("--metric"))
+                    {
+                        metric = value;
+                    }
+                    else if (arg.equals("--threshold"))
+                    {
+                        threshold = Float.parseFloat(value);
+                    }
+                    else if (arg.equals("--size"))
+                    {
+                        size = Integer.parseInt(value);
+                    }
+                    else if (arg.equals("--threads"))
+                    {
+                        threads = Integer.parseInt(value);
+                    }
+                    else if (arg.equals("--out"))
+                    {
+                        outDir = new File(value);
+                    }
+                    else if (arg.equals("--ignore"))
+                    {
+                        String[] coords = value.split(",");
+                        if (coords.length != 4)
+                        {
+                            usage("--ignore needs left,top,right,bottom");
+                        }
+                        for (String c : coords)
+                        {
+                            ignore.add(Integer.parseInt(c.trim()));
+                        }
+                    }
+                    else
+                    {
+                        usage("unknown option " + arg);
+                    }
+                }
+                else if (screenshotDir == null)
+                {
+                    screenshotDir = new File(arg);
+                }
+                else
+                {
+                    usage("only one screenshot directory can be given");
+                }
+            }
+        }
+        catch (NumberFormatException ex)
+        {
+            usage("bad number " + ex.getMessage());
+        }
+        if ((screenshotDir == null) || !screenshotDir.isDirectory())
+        {
+            usage("no screenshot directory");
+        }
+        int[] regions = new int[ignore.size()];
+        for (int i = 0; i < regions.length; ++i)
+        {
+            regions[i] = ignore.get(i);
+        }
+        SXRImageComparator comparator = null;
+        try
+        {
+            comparator = createComparator(metric, threshold, size, regions);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            usage(ex.getMessage());
+        }
+
+        GoldenMasters golden = new GoldenMasters(goldenDir, device);
+        GoldenCompare compare = new GoldenCompare(golden, comparator, diffs ? new File(outDir, "diffs") : null);
+        List<Comparison> screenshots = findScreenshots(screenshotDir);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(threads, 1));
+        long start = System.nanoTime();
+
+        compare.compareAll(screenshots, pool);
+        pool.shutdown();
+
+        Report report = new Report(device, golden.getDevice(), metric, screenshotDir,
+                                   screenshots, System.nanoTime() - start, threads);
+        outDir.mkdirs();
+        report.writeJson(new File(outDir, "report.json"));
+        report.writeHtml(new File(outDir, "report.html"));
+        System.out.println(report.getSummary());
+        for (Comparison c : report.getSorted())
+        {
+            if (c.isFailure())
+            {
+                System.out.println("  " + c.status.toUpperCase() + " " + c.name + ": "
+                                   + ((c.result != null) ? c.result.toString() : c.message));
+            }
+        }
+        System.out.println("report: " + new File(outDir, "report.html"));
+        System.exit(report.getFailures() > 0 ? 1 : 0);
+    }
+}
@@ -0,0 +1,154 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.goldencompare;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Looks up golden masters in a local copy of the golden_masters tree.
+ * <p>
+ * This is the host side of
+ * {@link com.samsungxr.unittestutils.SXRManifestGoldenMasterStore}: the
+ * manifest "manifests/&lt;device&gt;.json" of a device, or of the device it
+ * is an alias of, maps golden master names like "LightTests/canEnableLight.png"
+ * to the blob "blobs/&lt;sha256&gt;.png" holding the image.
+ */
+public class GoldenMasters
+{
+    private static final int MAX_ALIAS_DEPTH = 8;
+
+    private final File mRoot;
+    private final String mDevice;
+    private final Map<String, String> mFiles;
+
+    /**
+     * Reads the manifest of a device.
+     * @param root   golden_masters directory.
+     * @param device device name or phone model, e.g. "S7Edge" or "SM-G935F".
+     * @throws IOException if there is no manifest for the device or it cannot be read.
+     */
+    public GoldenMasters(File root, String device) throws IOException
+    {
+        Map<String, Object> manifest = null;
+
+        mRoot = root;
+        for (int depth = 0; depth < MAX_ALIAS_DEPTH; ++depth)
+        {
+            manifest = readManifest(device);
+            if (!manifest.containsKey("alias"))
+            {
+                break;
+            }
+            device = (String) manifest.get("alias");
+            manifest = null;
+        }
+        if (manifest == null)
+        {
+            throw new IOException("Golden master aliases of " + device + " are nested too deep");
+        }
+        Object files = manifest.get("files");
+        if (!(files instanceof Map))
+        {
+            throw new IOException("Golden master manifest of " + device + " has no files");
+        }
+        mDevice = device;
+        mFiles = new HashMap<String, String>();
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) files).entrySet())
+        {
+            mFiles.put((String) e.getKey(), (String) e.getValue());
+        }
+    }
+
+    /**
+     * Returns the device whose golden masters are used, after following aliases.
+     */
+    public String getDevice()
+    {
+        return mDevice;
+    }
+
+    public int size()
+    {
+        return mFiles.size();
+    }
+
+    /**
+     * Returns the file of a golden master.
+     * @param name "category/name.png".
+     * @return blob file or null if the device has no such golden master.
+     */
+    public File getFile(String name)
+    {
+        String hash = mFiles.get(name);
+
+        if (hash == null)
+        {
+            return null;
+        }
+        int dot = name.lastIndexOf('.');
+        String ext = (dot > name.lastIndexOf('/')) ? name.substring(dot) : "";
+        return new File(new File(mRoot, "blobs"), hash + ext);
+    }
+
+    /**
+     * Returns the content hash of a golden master, null if there is none.
+     */
+    public String getHash(String name)
+    {
+        return mFiles.get(name);
+    }
+
+    private Map<String, Object> readManifest(String device) throws IOException
+    {
+        File file = new File(new File(mRoot, "manifests"), device + ".json");
+
+        if (!file.isFile())
+        {
+            throw new IOException("No golden master manifest for " + device + " in " + mRoot);
+        }
+        byte[] data = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            int n = 0;
+            while (n < data.length)
+            {
+                int r = in.read(data, n, data.length - n);
+                if (r < 0)
+                {
+                    break;
+                }
+                n += r;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        Object json = Json.parse(new String(data, "UTF-8"));
+        if (!(json instanceof Map))
+        {
+            throw new IOException("Invalid golden master manifest for " + device);
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> manifest = (Map<String, Object>) json;
+        return manifest;
+    }
+}
@@ -0,0 +1,247 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.goldencompare;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the golden master manifests and the report,
+ * so the tool runs on a bare JDK. Objects become maps, arrays lists,
+ * numbers doubles.
+ */
+final class Json
+{
+    private final String mText;
+    private int mPos;
+
+    private Json(String text)
+    {
+        mText = text;
+    }
+
+    static Object parse(String text) throws IOException
+    {
+        Json json = new Json(text);
+        Object value = json.value();
+
+        json.skipSpace();
+        if (json.mPos < text.length())
+        {
+            throw json.error("trailing characters");
+        }
+        return value;
+    }
+
+    /**
+     * Returns a string as a quoted JSON string.
+     */
+    static String quote(String s)
+    {
+        StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+
+        for (int i = 0; i < s.length(); ++i)
+        {
+            char c = s.charAt(i);
+            switch (c)
+            {
+                case '"': b.append("\\\""); break;
+                case '\\': b.append("\\\\"); break;
+                case '\n': b.append("\\n"); break;
+                case '\r': b.append("\\r"); break;
+                case '\t': b.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                    {
+                        b.append(String.format("\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        b.append(c);
+                    }
+            }
+        }
+        return b.append('"').toString();
+    }
+
+    private Object value() throws IOException
+    {
+        skipSpace();
+        if (mPos >= mText.length())
+        {
+            throw error("unexpected end");
+        }
+        char c = mText.charAt(mPos);
+        switch (c)
+        {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default: return number();
+        }
+    }
+
+    private Map<String, Object> object() throws IOException
+    {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+
+        ++mPos;
+        skipSpace();
+        if (peek('}'))
+        {
+            return map;
+        }
+        do
+        {
+            skipSpace();
+            String key = string();
+            skipSpace();
+            expect(':');
+            map.put(key, value());
+            skipSpace();
+        }
+        while (peek(','));
+        expect('}');
+        return map;
+    }
+
+    private List<Object> array() throws IOException
+    {
+        List<Object> list = new ArrayList<Object>();
+
+        ++mPos;
+        skipSpace();
+        if (peek(']'))
+        {
+            return list;
+        }
+        do
+        {
+            list.add(value());
+            skipSpace();
+        }
+        while (peek(','));
+        expect(']');
+        return list;
+    }
+
+    private String string() throws IOException
+    {
+        StringBuilder b = new StringBuilder();
+
+        expect('"');
+        while (mPos < mText.length())
+        {
+            char c = mText.charAt(mPos++);
+            if (c == '"')
+            {
+                return b.toString();
+            }
+            if (c != '\\')
+            {
+                b.append(c);
+                continue;
+            }
+            if (mPos >= mText.length())
+            {
+                break;
+            }
+            c = mText.charAt(mPos++);
+            switch (c)
+            {
+                case 'b': b.append('\b'); break;
+                case 'f': b.append('\f'); break;
+                case 'n': b.append('\n'); break;
+                case 'r': b.append('\r'); break;
+                case 't': b.append('\t'); break;
+                case 'u':
+                    if (mPos + 4 > mText.length())
+                    {
+                        throw error("bad escape");
+                    }
+                    b.append((char) Integer.parseInt(mText.substring(mPos, mPos + 4), 16));
+                    mPos += 4;
+                    break;
+                default: b.append(c); break;
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private Object literal(String word, Object value) throws IOException
+    {
+        if (!mText.startsWith(word, mPos))
+        {
+            throw error("unexpected character");
+        }
+        mPos += word.length();
+        return value;
+    }
+
+    private Double number() throws IOException
+    {
+        int start = mPos;
+
+        while ((mPos < mText.length()) && ("+-0123456789.eE".indexOf(mText.charAt(mPos)) >= 0))
+        {
+            ++mPos;
+        }
+        try
+        {
+            return Double.valueOf(mText.substring(start, mPos));
+        }
+        catch (NumberFormatException ex)
+        {
+            throw error("bad number");
+        }
+    }
+
+    private void skipSpace()
+    {
+        while ((mPos < mText.length()) && Character.isWhitespace(mText.charAt(mPos)))
+        {
+            ++mPos;
+        }
+    }
+
+    private boolean peek(char c)
+    {
+        if ((mPos < mText.length()) && (mText.charAt(mPos) == c))
+        {
+            ++mPos;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) throws IOException
+    {
+        if (!peek(c))
+        {
+            throw error("expected '" + c + "'");
+        }
+    }
+
+    private IOException error(String message)
+    {
+        return new IOException("Invalid JSON at offset " + mPos + ": " + message);
+    }
+}
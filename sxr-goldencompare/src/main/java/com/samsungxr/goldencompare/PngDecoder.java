@@ -0,0 +1,405 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.goldencompare;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Decodes PNG files into packed ARGB pixels, the layout
+ * {@link com.samsungxr.unittestutils.SXRImageComparator} works on.
+ * <p>
+ * The file is memory mapped and its IDAT chunks are inflated straight into
+ * one scanline buffer which is unfiltered in place, so decoding a screenshot
+ * reads the file once and allocates little more than the pixels themselves.
+ * Only what Android writes is handled this way: 8 bit gray, RGB, palette,
+ * gray + alpha and RGBA images without interlacing. Anything else is left
+ * to ImageIO, which is much slower but rarely needed.
+ * <p>
+ * Like the decoder on the device, this one does not verify the chunk CRCs
+ * or the zlib checksum. Some of the golden masters in the tree have a bad
+ * checksum and would not decode otherwise.
+ * <p>
+ * Instances keep scratch buffers and must not be shared between threads.
+ */
+public class PngDecoder
+{
+    private static final long SIGNATURE = 0x89504E470D0A1A0AL;
+    private static final int IHDR = 0x49484452;
+    private static final int PLTE = 0x504C5445;
+    private static final int TRNS = 0x74524E53;
+    private static final int IDAT = 0x49444154;
+    private static final int IEND = 0x49454E44;
+
+    private static final int GRAY = 0;
+    private static final int RGB = 2;
+    private static final int PALETTE = 3;
+    private static final int GRAY_ALPHA = 4;
+    private static final int RGBA = 6;
+
+    private final Inflater mInflater = new Inflater();
+    private byte[] mCompressed = new byte[64 * 1024];
+    private byte[] mScanlines = new byte[0];
+    private int mDecoded = 0;
+    private int mFallbacks = 0;
+
+    /**
+     * Decoded image, pixels are packed unpremultiplied ARGB.
+     */
+    public static final class Image
+    {
+        public final int width;
+        public final int height;
+        public final int[] pixels;
+
+        public Image(int width, int height, int[] pixels)
+        {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+    }
+
+    /**
+     * Returns the number of images decoded by this decoder and how many of
+     * them had to be decoded by ImageIO.
+     */
+    public int[] getStatistics()
+    {
+        return new int[] { mDecoded, mFallbacks };
+    }
+
+    public Image decode(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        Image image;
+
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            image = decode(buffer);
+        }
+        catch (DataFormatException ex)
+        {
+            throw new IOException("Corrupt PNG " + file + ": " + ex.getMessage());
+        }
+        finally
+        {
+            raf.close();
+        }
+        if (image == null)
+        {
+            image = decodeWithImageIO(file);
+        }
+        ++mDecoded;
+        return image;
+    }
+
+    /*
+     * Returns null if the image is a PNG this decoder does not handle.
+     */
+    private Image decode(ByteBuffer buffer) throws IOException, DataFormatException
+    {
+        if ((buffer.remaining() < 8) || (buffer.getLong() != SIGNATURE))
+        {
+            return null;
+        }
+        int width = 0;
+        int height = 0;
+        int colorType = -1;
+        int channels = 0;
+        int stride = 0;
+        int[] palette = null;
+        int written = 0;
+
+        mInflater.reset();
+        while (buffer.remaining() >= 12)
+        {
+            int length = buffer.getInt();
+            final int type = buffer.getInt();
+            final int start = buffer.position();
+
+            if ((length < 0) || (length > buffer.remaining() - 4))
+            {
+                // a file cut short still decodes if the image data is complete
+                length = buffer.remaining();
+            }
+            if (type == IHDR)
+            {
+                width = buffer.getInt();
+                height = buffer.getInt();
+                final int depth = buffer.get() & 0xFF;
+                colorType = buffer.get() & 0xFF;
+                buffer.get();   // compression, always deflate
+                buffer.get();   // filter method, always adaptive
+                final int interlace = buffer.get() & 0xFF;
+
+                channels = getChannels(colorType);
+                if ((depth != 8) || (interlace != 0) || (channels == 0))
+                {
+                    return null;
+                }
+                stride = width * channels;
+                final long size = (long) height * (stride + 1);
+                if ((width <= 0) || (height <= 0) || (size > Integer.MAX_VALUE))
+                {
+                    throw new IOException("Invalid PNG size " + width + "x" + height);
+                }
+                if (mScanlines.length < size)
+                {
+                    mScanlines = new byte[(int) size];
+                }
+            }
+            else if (type == PLTE)
+            {
+                palette = new int[256];
+                for (int i = 0; i < length / 3; ++i)
+                {
+                    palette[i] = 0xFF000000 | ((buffer.get() & 0xFF) << 16)
+                                 | ((buffer.get() & 0xFF) << 8) | (buffer.get() & 0xFF);
+                }
+            }
+            else if ((type == TRNS) && (palette != null))
+            {
+                for (int i = 0; i < Math.min(length, 256); ++i)
+                {
+                    palette[i] = (palette[i] & 0x00FFFFFF) | ((buffer.get() & 0xFF) << 24);
+                }
+            }
+            else if (type == IDAT)
+            {
+                if (channels == 0)
+                {
+                    throw new IOException("PNG image data before header");
+                }
+                written = inflate(buffer, length, written, height * (stride + 1));
+            }
+            else if (type == IEND)
+            {
+                break;
+            }
+            buffer.position(Math.min(start + length + 4, buffer.limit()));     // skip the CRC
+        }
+        if (written < height * (stride + 1))
+        {
+            throw new IOException("PNG image data is truncated");
+        }
+        if ((colorType == PALETTE) && (palette == null))
+        {
+            throw new IOException("PNG palette is missing");
+        }
+        unfilter(mScanlines, height, stride, channels);
+        return new Image(width, height, toARGB(mScanlines, width, height, colorType, palette));
+    }
+
+    private int inflate(ByteBuffer buffer, int length, int written, int size) throws DataFormatException
+    {
+        if (mCompressed.length < length)
+        {
+            mCompressed = new byte[length];
+        }
+        buffer.get(mCompressed, 0, length);
+        mInflater.setInput(mCompressed, 0, length);
+        while ((written < size) && !mInflater.needsInput() && !mInflater.finished())
+        {
+            final int n = mInflater.inflate(mScanlines, written, size - written);
+            if ((n == 0) && mInflater.needsDictionary())
+            {
+                throw new DataFormatException("preset dictionary");
+            }
+            written += n;
+        }
+        return written;
+    }
+
+    private static int getChannels(int colorType)
+    {
+        switch (colorType)
+        {
+            case GRAY:
+            case PALETTE:
+                return 1;
+
+            case GRAY_ALPHA:
+                return 2;
+
+            case RGB:
+                return 3;
+
+            case RGBA:
+                return 4;
+
+            default:
+                return 0;
+        }
+    }
+
+    /*
+     * Reverses the per scanline filters in place, each scanline
+     * is preceded by the byte which says how it was filtered.
+     */
+    private static void unfilter(byte[] data, int height, int stride, int bpp) throws IOException
+    {
+        for (int y = 0; y < height; ++y)
+        {
+            final int row = y * (stride + 1) + 1;
+            final int prev = row - stride - 1;
+            final int filter = data[row - 1];
+
+            switch (filter)
+            {
+                case 0:
+                    break;
+
+                case 1:
+                    for (int i = bpp; i < stride; ++i)
+                    {
+                        data[row + i] += data[row + i - bpp];
+                    }
+                    break;
+
+                case 2:
+                    if (y > 0)
+                    {
+                        for (int i = 0; i < stride; ++i)
+                        {
+                            data[row + i] += data[prev + i];
+                        }
+                    }
+                    break;
+
+                case 3:
+                    for (int i = 0; i < stride; ++i)
+                    {
+                        final int left = (i >= bpp) ? data[row + i - bpp] & 0xFF : 0;
+                        final int up = (y > 0) ? data[prev + i] & 0xFF : 0;
+                        data[row + i] += (left + up) >> 1;
+                    }
+                    break;
+
+                case 4:
+                    for (int i = 0; i < stride; ++i)
+                    {
+                        final int a = (i >= bpp) ? data[row + i - bpp] & 0xFF : 0;
+                        final int b = (y > 0) ? data[prev + i] & 0xFF : 0;
+                        final int c = ((i >= bpp) && (y > 0)) ? data[prev + i - bpp] & 0xFF : 0;
+                        data[row + i] += paeth(a, b, c);
+                    }
+                    break;
+
+                default:
+                    throw new IOException("Unknown PNG filter " + filter + " in row " + y);
+            }
+        }
+    }
+
+    private static int paeth(int a, int b, int c)
+    {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+
+        if ((pa <= pb) && (pa <= pc))
+        {
+            return a;
+        }
+        return (pb <= pc) ? b : c;
+    }
+
+    private static int[] toARGB(byte[] data, int width, int height, int colorType, int[] palette)
+    {
+        final int[] pixels = new int[width * height];
+        final int channels = getChannels(colorType);
+        int p = 0;
+
+        for (int y = 0; y < height; ++y)
+        {
+            int i = y * (width * channels + 1) + 1;
+
+            switch (colorType)
+            {
+                case RGBA:
+                    for (int x = 0; x < width; ++x, i += 4)
+                    {
+                        pixels[p++] = ((data[i + 3] & 0xFF) << 24) | ((data[i] & 0xFF) << 16)
+                                      | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+                    }
+                    break;
+
+                case RGB:
+                    for (int x = 0; x < width; ++x, i += 3)
+                    {
+                        pixels[p++] = 0xFF000000 | ((data[i] & 0xFF) << 16)
+                                      | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+                    }
+                    break;
+
+                case GRAY_ALPHA:
+                    for (int x = 0; x < width; ++x, i += 2)
+                    {
+                        final int g = data[i] & 0xFF;
+                        pixels[p++] = ((data[i + 1] & 0xFF) << 24) | (g << 16) | (g << 8) | g;
+                    }
+                    break;
+
+                case GRAY:
+                    for (int x = 0; x < width; ++x, ++i)
+                    {
+                        final int g = data[i] & 0xFF;
+                        pixels[p++] = 0xFF000000 | (g << 16) | (g << 8) | g;
+                    }
+                    break;
+
+                default:
+                    for (int x = 0; x < width; ++x, ++i)
+                    {
+                        pixels[p++] = palette[data[i] & 0xFF];
+                    }
+                    break;
+            }
+        }
+        return pixels;
+    }
+
+    private Image decodeWithImageIO(File file) throws IOException
+    {
+        BufferedImage image = ImageIO.read(file);
+
+        if (image == null)
+        {
+            throw new IOException("Cannot decode " + file);
+        }
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        ++mFallbacks;
+        return new Image(width, height, pixels);
+    }
+}
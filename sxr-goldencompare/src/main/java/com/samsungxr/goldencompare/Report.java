@@ -0,0 +1,208 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.goldencompare;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes the results of a {@link GoldenCompare} run as JSON for tools
+ * and as an HTML page for people. Both list the screenshots worst first:
+ * failures, then noticeable differences, each by how close the score
+ * is to the threshold.
+ */
+public class Report
+{
+    private final String mDevice;
+    private final String mGoldenDevice;
+    private final String mMetric;
+    private final File mScreenshotDir;
+    private final List<GoldenCompare.Comparison> mSorted;
+    private final long mNanos;
+    private final int mThreads;
+    private int mFailures = 0;
+    private int mNoticeable = 0;
+
+    public Report(String device, String goldenDevice, String metric, File screenshotDir,
+                  List<GoldenCompare.Comparison> comparisons, long nanos, int threads)
+    {
+        mDevice = device;
+        mGoldenDevice = goldenDevice;
+        mMetric = metric;
+        mScreenshotDir = screenshotDir;
+        mNanos = nanos;
+        mThreads = threads;
+        mSorted = new ArrayList<GoldenCompare.Comparison>(comparisons);
+        Collections.sort(mSorted, new Comparator<GoldenCompare.Comparison>()
+        {
+            @Override
+            public int compare(GoldenCompare.Comparison a, GoldenCompare.Comparison b)
+            {
+                if (a.isFailure() != b.isFailure())
+                {
+                    return a.isFailure() ? -1 : 1;
+                }
+                int c = Double.compare(b.getSeverity(), a.getSeverity());
+                return (c != 0) ? c : a.name.compareTo(b.name);
+            }
+        });
+        for (GoldenCompare.Comparison c : mSorted)
+        {
+            if (c.isFailure())
+            {
+                ++mFailures;
+            }
+            else if (c.result.noticeable)
+            {
+                ++mNoticeable;
+            }
+        }
+    }
+
+    public List<GoldenCompare.Comparison> getSorted()
+    {
+        return mSorted;
+    }
+
+    public int getFailures()
+    {
+        return mFailures;
+    }
+
+    public String getSummary()
+    {
+        return String.format(Locale.US, "%d screenshots of %s compared with %s golden masters by %s"
+                             + " in %.2f s on %d threads: %d failed, %d noticeable",
+                             mSorted.size(), mDevice, mGoldenDevice, mMetric, mNanos / 1e9, mThreads,
+                             mFailures, mNoticeable);
+    }
+
+    public void writeJson(File file) throws IOException
+    {
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+        try
+        {
+            w.write("{\n");
+            w.write("  \"device\": " + Json.quote(mDevice) + ",\n");
+            w.write("  \"golden_device\": " + Json.quote(mGoldenDevice) + ",\n");
+            w.write("  \"metric\": " + Json.quote(mMetric) + ",\n");
+            w.write("  \"screenshots\": " + Json.quote(mScreenshotDir.getPath()) + ",\n");
+            w.write(String.format(Locale.US, "  \"seconds\": %.3f,\n", mNanos / 1e9));
+            w.write("  \"total\": " + mSorted.size() + ",\n");
+            w.write("  \"failed\": " + mFailures + ",\n");
+            w.write("  \"noticeable\": " + mNoticeable + ",\n");
+            w.write("  \"results\": [");
+            for (int i = 0; i < mSorted.size(); ++i)
+            {
+                GoldenCompare.Comparison c = mSorted.get(i);
+                w.write((i > 0) ? ",\n    {" : "\n    {");
+                w.write("\"name\": " + Json.quote(c.name));
+                w.write(", \"status\": " + Json.quote(c.status));
+                if (c.result != null)
+                {
+                    w.write(", \"metric\": " + Json.quote(c.result.metric));
+                    w.write(", \"score\": " + c.result.score + ", \"threshold\": " + c.result.threshold);
+                    w.write(", \"noticeable\": " + c.result.noticeable);
+                }
+                if (c.message != null)
+                {
+                    w.write(", \"message\": " + Json.quote(c.message));
+                }
+                w.write(", \"screenshot\": " + Json.quote(c.screenshot.getPath()));
+                if (c.golden != null)
+                {
+                    w.write(", \"golden\": " + Json.quote(c.golden.getPath()));
+                }
+                if (c.diff != null)
+                {
+                    w.write(", \"diff\": " + Json.quote(c.diff.getPath()));
+                }
+                w.write(String.format(Locale.US, ", \"ms\": %.1f}", c.nanos / 1e6));
+            }
+            w.write("\n  ]\n}\n");
+        }
+        finally
+        {
+            w.close();
+        }
+    }
+
+    public void writeHtml(File file) throws IOException
+    {
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+
+        try
+        {
+            w.write("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Golden master comparison</title>\n");
+            w.write("<style>body{font-family:sans-serif} table{border-collapse:collapse}"
+                    + " td,th{border:1px solid #ccc;padding:4px;vertical-align:top}"
+                    + " tr.failed,tr.missing,tr.error{background:#fdd} tr.noticeable{background:#ffd}"
+                    + " img{width:160px}</style>\n</head><body>\n");
+            w.write("<h1>Golden master comparison</h1>\n<p>" + escape(getSummary()) + "</p>\n");
+            w.write("<table>\n<tr><th>screenshot</th><th>status</th><th>score</th><th>threshold</th>"
+                    + "<th>golden master</th><th>screenshot</th><th>diff</th></tr>\n");
+            for (GoldenCompare.Comparison c : mSorted)
+            {
+                String rowClass = c.isFailure() ? c.status : (c.result.noticeable ? "noticeable" : "passed");
+                w.write("<tr class=\"" + rowClass + "\"><td>" + escape(c.name) + "</td><td>" + escape(c.status));
+                if (c.message != null)
+                {
+                    w.write("<br>" + escape(c.message));
+                }
+                w.write("</td>");
+                if (c.result != null)
+                {
+                    w.write("<td>" + escape(c.result.metric) + " " + c.result.score + "</td><td>"
+                            + c.result.threshold + "</td>");
+                }
+                else
+                {
+                    w.write("<td></td><td></td>");
+                }
+                w.write("<td>" + image(c.golden) + "</td><td>" + image(c.screenshot)
+                        + "</td><td>" + image(c.diff) + "</td></tr>\n");
+            }
+            w.write("</table>\n</body></html>\n");
+        }
+        finally
+        {
+            w.close();
+        }
+    }
+
+    private static String image(File image)
+    {
+        if (image == null)
+        {
+            return "";
+        }
+        String uri = image.getAbsoluteFile().toURI().toString();
+        return "<a href=\"" + escape(uri) + "\"><img src=\"" + escape(uri) + "\" loading=\"lazy\"></a>";
+    }
+
+    private static String escape(String s)
+    {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,50 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.samsungxr.unittestutils;
+
+import android.os.Build;
+import android.os.Debug;
+
+/**
+ * Bytes allocated on the Java heap, for performance tests which report
+ * how much an operation allocates.
+ */
+public final class SXRAllocations
+{
+    private SXRAllocations() { }
+
+    /**
+     * Returns the bytes allocated on the Java heap by all threads since the
+     * process started, -1 if the runtime does not report them, before Android M.
+     */
+    public static long getAllocatedBytes()
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+        {
+            String bytes = Debug.getRuntimeStat("art.gc.bytes-allocated");
+            if (bytes != null)
+            {
+                return Long.parseLong(bytes);
+            }
+        }
+        return -1;
+    }
+
+    public static boolean isSupported()
+    {
+        return getAllocatedBytes() >= 0;
+    }
+}
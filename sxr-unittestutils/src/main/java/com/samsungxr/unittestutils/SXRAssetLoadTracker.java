@@ -0,0 +1,203 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.samsungxr.unittestutils;
+
+import com.samsungxr.IAssetEvents;
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRTexture;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks any number of asset loads in flight at the same time.
+ * <p>
+ * {@link SXRTestUtils#waitForAssetLoad} can only wait for one load at a time.
+ * A tracker instead hands out a {@link Request} per load, which is passed as
+ * the IAssetEvents handler of that load. Each request has its own id and
+ * records when its model and textures completed, so the loads can be told
+ * apart even if they are for the same file. {@link #await} waits for all
+ * requests issued so far, any number of threads may wait at the same time.
+ * <pre>
+ *     SXRAssetLoadTracker tracker = new SXRAssetLoadTracker();
+ *     for (String file : files)
+ *     {
+ *         SXRAssetLoadTracker.Request r = tracker.newRequest(file);
+ *         ctx.getAssetLoader().loadModel(file, r);
+ *     }
+ *     tracker.await(timeout, TimeUnit.MILLISECONDS);
+ * </pre>
+ */
+public class SXRAssetLoadTracker
+{
+    private final List<Request> mRequests = new ArrayList<Request>();
+    private int mPending = 0;
+
+    /**
+     * One asset load. All times are System.nanoTime values, 0 if the event did not happen.
+     */
+    public final class Request implements IAssetEvents
+    {
+        private final int mId;
+        private final String mFilePath;
+        private final long mStartTime;
+        private long mModelTime = 0;
+        private long mDoneTime = 0;
+        private int mTextures = 0;
+        private int mTextureErrors = 0;
+        private int mCompletions = 0;
+        private SXRNode mModel = null;
+        private String mErrors = null;
+
+        Request(int id, String filePath)
+        {
+            mId = id;
+            mFilePath = filePath;
+            mStartTime = System.nanoTime();
+        }
+
+        public int getId() { return mId; }
+        public String getFilePath() { return mFilePath; }
+        public synchronized boolean isDone() { return mCompletions > 0; }
+
+        /**
+         * Returns how often the load reported completion, which must be once.
+         */
+        public synchronized int getCompletions() { return mCompletions; }
+        public synchronized SXRNode getModel() { return mModel; }
+        public synchronized String getErrors() { return mErrors; }
+        public synchronized int getTextures() { return mTextures; }
+        public synchronized int getTextureErrors() { return mTextureErrors; }
+        public long getStartTime() { return mStartTime; }
+        public synchronized long getModelTime() { return mModelTime; }
+        public synchronized long getDoneTime() { return mDoneTime; }
+
+        /**
+         * Returns the time from issuing the load until it completed.
+         */
+        public synchronized long getLatencyNanos()
+        {
+            return (mDoneTime != 0) ? mDoneTime - mStartTime : 0;
+        }
+
+        public void onAssetLoaded(SXRContext context, SXRNode model, String filePath, String errors)
+        {
+            boolean first;
+
+            synchronized (this)
+            {
+                mModel = model;
+                mErrors = errors;
+                first = (mCompletions++ == 0);
+                if (first)
+                {
+                    mDoneTime = System.nanoTime();
+                }
+            }
+            if (first)
+            {
+                completed();
+            }
+        }
+
+        public synchronized void onModelLoaded(SXRContext context, SXRNode model, String filePath)
+        {
+            mModelTime = System.nanoTime();
+        }
+
+        public synchronized void onTextureLoaded(SXRContext context, SXRTexture texture, String filePath)
+        {
+            mTextures++;
+        }
+
+        public void onModelError(SXRContext context, String error, String filePath)
+        {
+            synchronized (this)
+            {
+                mErrors = error;
+            }
+        }
+
+        public synchronized void onTextureError(SXRContext context, String error, String filePath)
+        {
+            mTextureErrors++;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return String.format("#%d %s: %s", mId, mFilePath,
+                                 (mCompletions == 0) ? "pending"
+                                 : String.format("%.1f ms%s", getLatencyNanos() / 1e6,
+                                                 (mErrors != null) ? ", " + mErrors : ""));
+        }
+    }
+
+    /**
+     * Starts tracking a new load. Pass the request as the IAssetEvents handler of the load.
+     * @param filePath file being loaded, only used for reporting.
+     */
+    public synchronized Request newRequest(String filePath)
+    {
+        Request r = new Request(mRequests.size(), filePath);
+
+        mRequests.add(r);
+        mPending++;
+        return r;
+    }
+
+    /**
+     * Waits until every request issued so far has completed.
+     * @return true if all completed, false on timeout.
+     */
+    public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (mPending > 0)
+        {
+            long left = deadline - System.nanoTime();
+
+            if (left <= 0)
+            {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+    public synchronized int getPending() { return mPending; }
+
+    /**
+     * Returns all requests in the order they were issued.
+     */
+    public synchronized List<Request> getRequests()
+    {
+        return Collections.unmodifiableList(new ArrayList<Request>(mRequests));
+    }
+
+    private synchronized void completed()
+    {
+        if (--mPending == 0)
+        {
+            notifyAll();
+        }
+    }
+}
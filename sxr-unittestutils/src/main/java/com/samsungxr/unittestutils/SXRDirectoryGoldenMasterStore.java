@@ -0,0 +1,97 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.samsungxr.unittestutils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads golden masters from a local copy of the golden_masters tree,
+ * either the repository checkout on a host or a copy pushed to the device.
+ */
+public class SXRDirectoryGoldenMasterStore implements SXRGoldenMasterStore
+{
+    private final File mRoot;
+    private int mReads = 0;
+    private int mNotFound = 0;
+
+    /**
+     * @param root directory which contains the device directories.
+     */
+    public SXRDirectoryGoldenMasterStore(File root)
+    {
+        mRoot = root;
+    }
+
+    public File getRoot()
+    {
+        return mRoot;
+    }
+
+    @Override
+    public byte[] read(String path) throws IOException
+    {
+        File file = new File(mRoot, path);
+
+        if (!file.isFile())
+        {
+            return count(null);
+        }
+        InputStream stream = new FileInputStream(file);
+        try
+        {
+            return count(SXRGoldenMasterCache.readFully(stream, (int) file.length()));
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    @Override
+    public Entry lookup(String path) throws IOException
+    {
+        byte[] data = read(path);
+        return (data != null) ? new Entry(SXRDigest.sha256(data), data) : null;
+    }
+
+    private synchronized byte[] count(byte[] data)
+    {
+        if (data != null)
+        {
+            ++mReads;
+        }
+        else
+        {
+            ++mNotFound;
+        }
+        return data;
+    }
+
+    @Override
+    public synchronized String getStatistics()
+    {
+        return String.format("golden masters %s: %d read, %d not found", toString(), mReads, mNotFound);
+    }
+
+    @Override
+    public String toString()
+    {
+        return mRoot.getPath();
+    }
+}
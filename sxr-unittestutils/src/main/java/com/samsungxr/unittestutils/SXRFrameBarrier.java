@@ -0,0 +1,228 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts rendered frames and lets any number of threads wait for a frame.
+ * <p>
+ * The render thread calls {@link #onFrame()} once per frame. It increments
+ * an atomic counter and releases the waiters whose frame has been reached,
+ * it never takes a lock or waits for a test thread. Waiters are kept in a
+ * lock-free queue and released through a latch, so several threads can wait
+ * for different frames at the same time.
+ */
+public class SXRFrameBarrier
+{
+    private final AtomicLong mFrame = new AtomicLong(0);
+    private final ConcurrentLinkedQueue<FrameFuture> mWaiters = new ConcurrentLinkedQueue<FrameFuture>();
+
+    /**
+     * Completes when a given frame has been rendered.
+     * {@link #get()} returns the number of the frame which completed it.
+     * <p>
+     * A future is either completed by the render thread or cancelled,
+     * whichever gets there first, never both.
+     */
+    public final class FrameFuture implements Future<Long>
+    {
+        private static final int PENDING = 0;
+        private static final int COMPLETED = 1;
+        private static final int CANCELLED = 2;
+
+        private final long mTarget;
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private final AtomicInteger mState = new AtomicInteger(PENDING);
+        private volatile long mFrameNumber = -1;
+
+        FrameFuture(long target)
+        {
+            mTarget = target;
+        }
+
+        /**
+         * Returns the frame number this future waits for.
+         */
+        public long getTargetFrame()
+        {
+            return mTarget;
+        }
+
+        boolean complete(long frame)
+        {
+            if (!mState.compareAndSet(PENDING, COMPLETED))
+            {
+                return false;
+            }
+            mFrameNumber = frame;
+            mDone.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            if (!mState.compareAndSet(PENDING, CANCELLED))
+            {
+                return false;
+            }
+            mWaiters.remove(this);
+            mDone.countDown();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return mState.get() == CANCELLED;
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return mState.get() != PENDING;
+        }
+
+        @Override
+        public Long get() throws InterruptedException
+        {
+            mDone.await();
+            return result();
+        }
+
+        @Override
+        public Long get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException
+        {
+            if (!mDone.await(timeout, unit))
+            {
+                throw new TimeoutException("frame " + mTarget + " not rendered, at frame " + mFrame.get());
+            }
+            return result();
+        }
+
+        private Long result()
+        {
+            if (mState.get() == CANCELLED)
+            {
+                throw new CancellationException();
+            }
+            return mFrameNumber;
+        }
+    }
+
+    /**
+     * Called by the render thread after each frame.
+     */
+    void onFrame()
+    {
+        final long frame = mFrame.incrementAndGet();
+
+        if (mWaiters.isEmpty())
+        {
+            return;
+        }
+        for (Iterator<FrameFuture> iter = mWaiters.iterator(); iter.hasNext(); )
+        {
+            FrameFuture waiter = iter.next();
+            if (waiter.mTarget <= frame)
+            {
+                iter.remove();
+                waiter.complete(frame);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of frames rendered so far.
+     */
+    public long getFrameNumber()
+    {
+        return mFrame.get();
+    }
+
+    /**
+     * Returns a future which completes when the given frame has been rendered.
+     * @param frameNumber frame to wait for, already completed if it was rendered.
+     */
+    public FrameFuture frame(long frameNumber)
+    {
+        FrameFuture future = new FrameFuture(frameNumber);
+
+        mWaiters.add(future);
+        /*
+         * The frame may have been rendered between creating the future and
+         * adding it, the render thread would not have seen it then.
+         */
+        long frame = mFrame.get();
+        if (frame >= frameNumber)
+        {
+            mWaiters.remove(future);
+            future.complete(frame);
+        }
+        return future;
+    }
+
+    /**
+     * Returns a future which completes after n more frames have been rendered.
+     */
+    public FrameFuture nextFrames(int n)
+    {
+        return frame(mFrame.get() + n);
+    }
+
+    /**
+     * Blocks until the given frame has been rendered.
+     * @return number of the frame which released the caller.
+     */
+    public long awaitFrame(long frameNumber) throws InterruptedException
+    {
+        FrameFuture future = frame(frameNumber);
+        try
+        {
+            return future.get();
+        }
+        finally
+        {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Blocks until the given frame has been rendered or the timeout expires.
+     * @return number of the frame which released the caller.
+     */
+    public long awaitFrame(long frameNumber, long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException
+    {
+        FrameFuture future = frame(frameNumber);
+        try
+        {
+            return future.get(timeout, unit);
+        }
+        finally
+        {
+            future.cancel(false);
+        }
+    }
+}
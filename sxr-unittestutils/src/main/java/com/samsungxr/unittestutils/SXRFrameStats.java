@@ -0,0 +1,191 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Summary of a sequence of frame intervals.
+ * <p>
+ * Percentiles use the nearest rank method. A frame is janky if it took longer
+ * than 1.5 refresh periods, so at least one vsync was missed, and severely
+ * janky if it took longer than 2.5 refresh periods.
+ * All times are reported in milliseconds.
+ */
+public class SXRFrameStats
+{
+    public static final long REFRESH_PERIOD_60HZ = 1000000000L / 60;
+
+    private static final float NANOS_PER_MS = 1000000.0f;
+
+    private final long[] mIntervals;
+    private final long[] mSorted;
+    private final long mRefreshPeriod;
+    private final long mTotal;
+    private final int mJankCount;
+    private final int mSevereJankCount;
+
+    /**
+     * @param intervals          frame intervals in nanoseconds, in the order they occurred.
+     * @param refreshPeriodNanos duration of one display refresh in nanoseconds.
+     */
+    public SXRFrameStats(long[] intervals, long refreshPeriodNanos)
+    {
+        long total = 0;
+        int jank = 0;
+        int severeJank = 0;
+
+        mIntervals = intervals;
+        mSorted = intervals.clone();
+        mRefreshPeriod = refreshPeriodNanos;
+        Arrays.sort(mSorted);
+        for (long t : intervals)
+        {
+            total += t;
+            if (2 * t > 3 * refreshPeriodNanos)
+            {
+                ++jank;
+                if (2 * t > 5 * refreshPeriodNanos)
+                {
+                    ++severeJank;
+                }
+            }
+        }
+        mTotal = total;
+        mJankCount = jank;
+        mSevereJankCount = severeJank;
+    }
+
+    public int getFrameCount() { return mIntervals.length; }
+    public int getJankCount() { return mJankCount; }
+    public int getSevereJankCount() { return mSevereJankCount; }
+    public float getRefreshPeriodMs() { return mRefreshPeriod / NANOS_PER_MS; }
+
+    /**
+     * Returns the frame intervals in nanoseconds in the order they occurred.
+     */
+    public long[] getIntervals()
+    {
+        return mIntervals.clone();
+    }
+
+    public float getMeanMs()
+    {
+        return (mIntervals.length > 0) ? mTotal / (NANOS_PER_MS * mIntervals.length) : 0.0f;
+    }
+
+    /**
+     * Returns the average frame rate over all intervals.
+     */
+    public float getFps()
+    {
+        return (mTotal > 0) ? (1000000000.0f * mIntervals.length) / mTotal : 0.0f;
+    }
+
+    /**
+     * Returns the frame time below which the given percentage of frames were.
+     * @param percent percentile in (0, 100].
+     */
+    public float getPercentileMs(float percent)
+    {
+        if (mSorted.length == 0)
+        {
+            return 0.0f;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * mSorted.length);
+        rank = Math.max(1, Math.min(rank, mSorted.length));
+        return mSorted[rank - 1] / NANOS_PER_MS;
+    }
+
+    public float getMaxMs()
+    {
+        return (mSorted.length > 0) ? mSorted[mSorted.length - 1] / NANOS_PER_MS : 0.0f;
+    }
+
+    /**
+     * Returns the summary as JSON.
+     * @param withIntervals also include all frame intervals as "intervals_ns".
+     */
+    public JSONObject toJSON(boolean withIntervals) throws JSONException
+    {
+        JSONObject json = new JSONObject();
+
+        json.put("frames", getFrameCount());
+        json.put("fps", getFps());
+        json.put("mean_ms", getMeanMs());
+        json.put("p50_ms", getPercentileMs(50));
+        json.put("p90_ms", getPercentileMs(90));
+        json.put("p99_ms", getPercentileMs(99));
+        json.put("max_ms", getMaxMs());
+        json.put("jank", getJankCount());
+        json.put("severe_jank", getSevereJankCount());
+        json.put("refresh_period_ms", getRefreshPeriodMs());
+        if (withIntervals)
+        {
+            JSONArray intervals = new JSONArray();
+            for (long t : mIntervals)
+            {
+                intervals.put(t);
+            }
+            json.put("intervals_ns", intervals);
+        }
+        return json;
+    }
+
+    /**
+     * Writes the frame intervals as CSV, one frame per line.
+     */
+    public void writeCsv(File file) throws IOException
+    {
+        StringBuilder csv = new StringBuilder(mIntervals.length * 12 + 32);
+
+        csv.append("frame,interval_ns\n");
+        for (int i = 0; i < mIntervals.length; ++i)
+        {
+            csv.append(i).append(',').append(mIntervals[i]).append('\n');
+        }
+        writeText(file, csv.toString());
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d frames, %.2f fps, p50 = %.2f ms, p90 = %.2f ms, p99 = %.2f ms, max = %.2f ms, %d jank, %d severe jank",
+                             getFrameCount(), getFps(), getPercentileMs(50), getPercentileMs(90),
+                             getPercentileMs(99), getMaxMs(), getJankCount(), getSevereJankCount());
+    }
+
+    static void writeText(File file, String text) throws IOException
+    {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try
+        {
+            writer.write(text);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+/**
+ * Records the time between successive frames.
+ * <p>
+ * {@link SXRTestableMain#onStep()} calls {@link #onFrame(long)} on the GL thread
+ * every frame. The intervals go into a preallocated ring buffer, so recording
+ * does not allocate or lock. Only the most recent {@link #getCapacity()}
+ * intervals are kept.
+ */
+public class SXRFrameTimes
+{
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private final long[] mIntervals;
+    private long mLastFrame = 0;
+    private volatile int mCount = 0;
+    private volatile boolean mResetRequested = false;
+
+    public SXRFrameTimes(int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        mIntervals = new long[capacity];
+    }
+
+    public int getCapacity()
+    {
+        return mIntervals.length;
+    }
+
+    /**
+     * Called once per frame from the GL thread.
+     * @param nanoTime value of {@link System#nanoTime()} at the start of the frame.
+     */
+    void onFrame(long nanoTime)
+    {
+        if (mResetRequested)
+        {
+            mResetRequested = false;
+            mLastFrame = 0;
+            mCount = 0;
+        }
+        if (mLastFrame != 0)
+        {
+            int count = mCount;
+            mIntervals[count % mIntervals.length] = nanoTime - mLastFrame;
+            mCount = count + 1;
+        }
+        mLastFrame = nanoTime;
+    }
+
+    /**
+     * Discards the recorded intervals. The next frame starts a new recording,
+     * the first interval is recorded on the frame after it.
+     */
+    public void reset()
+    {
+        mResetRequested = true;
+    }
+
+    /**
+     * Returns the number of intervals recorded since the last reset,
+     * which may be more than the buffer holds.
+     */
+    public int getCount()
+    {
+        return mResetRequested ? 0 : mCount;
+    }
+
+    /**
+     * Copies the most recent intervals, oldest first.
+     * Call it when no frames are being recorded, otherwise the oldest
+     * entries of a full buffer may already be overwritten by newer ones.
+     * @return frame intervals in nanoseconds.
+     */
+    public long[] getIntervals()
+    {
+        final int count = getCount();
+        final int n = Math.min(count, mIntervals.length);
+        final long[] intervals = new long[n];
+        final int first = count - n;
+
+        for (int i = 0; i < n; ++i)
+        {
+            intervals[i] = mIntervals[(first + i) % mIntervals.length];
+        }
+        return intervals;
+    }
+
+    /**
+     * Computes percentiles and jank counts of the most recent intervals.
+     * @param refreshPeriodNanos duration of one display refresh in nanoseconds.
+     */
+    public SXRFrameStats getStats(long refreshPeriodNanos)
+    {
+        return new SXRFrameStats(getIntervals(), refreshPeriodNanos);
+    }
+}
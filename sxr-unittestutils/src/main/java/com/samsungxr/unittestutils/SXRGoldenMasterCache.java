@@ -0,0 +1,380 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.samsungxr.unittestutils;
+
+import com.samsungxr.utility.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Local content-addressed cache in front of one or more golden master stores.
+ * <p>
+ * Every file is stored once, under the hex SHA-256 of its contents, in
+ * the "blobs" subdirectory of the cache directory. An index file maps
+ * golden master paths to hashes. Sources are asked in order on a miss,
+ * put a local golden_masters tree before the network. A source which
+ * fails is logged and the next one is asked.
+ * <p>
+ * {@link #lookupBlob} reads the blobs of the golden_masters tree by hash,
+ * these never change so a cached blob is always used. {@link #fetch} is for
+ * files like the device manifests which do change, it asks the sources
+ * first and only uses the cached copy when none of them can be reached,
+ * which lets a device which has run the tests once run them again offline.
+ */
+public class SXRGoldenMasterCache implements SXRGoldenMasterStore
+{
+    private static final String TAG = SXRGoldenMasterCache.class.getSimpleName();
+    private static final String INDEX_FILE = "index.txt";
+    private static final String BLOB_DIR = "blobs";
+
+    private final File mCacheDir;
+    private final File mBlobDir;
+    private final SXRGoldenMasterStore[] mSources;
+    private final Map<String, String> mIndex = new HashMap<String, String>();
+    private int mHits = 0;
+    private int mMisses = 0;
+    private int mNotFound = 0;
+    private int mCorrupt = 0;
+
+    /**
+     * @param cacheDir directory to keep the cache in, created if necessary.
+     * @param sources  stores to fetch from on a cache miss, in order of preference.
+     */
+    public SXRGoldenMasterCache(File cacheDir, SXRGoldenMasterStore... sources)
+    {
+        mCacheDir = cacheDir;
+        mBlobDir = new File(cacheDir, BLOB_DIR);
+        mSources = sources;
+        mBlobDir.mkdirs();
+        loadIndex();
+    }
+
+    @Override
+    public byte[] read(String path) throws IOException
+    {
+        Entry entry = lookup(path);
+        return (entry != null) ? entry.data : null;
+    }
+
+    /**
+     * Returns a file which never changes together with its content hash.
+     * A file which is in the index is always served from the cache.
+     * @param path path relative to the golden_masters root.
+     * @return cache entry or null if no source has the file.
+     */
+    @Override
+    public synchronized Entry lookup(String path) throws IOException
+    {
+        String hash = mIndex.get(path);
+
+        if (hash != null)
+        {
+            byte[] data = readBlob(hash);
+            if (data != null)
+            {
+                if (hash.equals(SXRDigest.sha256(data)))
+                {
+                    ++mHits;
+                    return new Entry(hash, data);
+                }
+                ++mCorrupt;
+                new File(mBlobDir, hash).delete();
+            }
+        }
+        IOException error = null;
+        for (SXRGoldenMasterStore source : mSources)
+        {
+            byte[] data;
+            try
+            {
+                data = source.read(path);
+            }
+            catch (IOException ex)
+            {
+                error = sourceFailed(source, path, ex);
+                continue;
+            }
+            if (data != null)
+            {
+                hash = SXRDigest.sha256(data);
+                writeBlob(hash, data);
+                addToIndex(path, hash);
+                ++mMisses;
+                return new Entry(hash, data);
+            }
+        }
+        if (error != null)
+        {
+            throw error;
+        }
+        ++mNotFound;
+        return null;
+    }
+
+    /**
+     * Returns the current version of a file which may change, such as a device manifest.
+     * The sources are asked first, the cached copy is only used if none of them
+     * has the file or can be reached.
+     * @param path path relative to the golden_masters root.
+     * @return cache entry or null if the file is neither in a source nor in the cache.
+     */
+    public synchronized Entry fetch(String path) throws IOException
+    {
+        IOException error = null;
+
+        for (SXRGoldenMasterStore source : mSources)
+        {
+            try
+            {
+                byte[] data = source.read(path);
+                if (data != null)
+                {
+                    String hash = SXRDigest.sha256(data);
+                    writeBlob(hash, data);
+                    if (!hash.equals(mIndex.get(path)))
+                    {
+                        addToIndex(path, hash);
+                    }
+                    ++mMisses;
+                    return new Entry(hash, data);
+                }
+            }
+            catch (IOException ex)
+            {
+                error = sourceFailed(source, path, ex);
+            }
+        }
+        String hash = mIndex.get(path);
+        if (hash != null)
+        {
+            byte[] data = readBlob(hash);
+            if ((data != null) && hash.equals(SXRDigest.sha256(data)))
+            {
+                ++mHits;
+                return new Entry(hash, data);
+            }
+        }
+        if (error != null)
+        {
+            throw error;
+        }
+        ++mNotFound;
+        return null;
+    }
+
+    /**
+     * Returns a blob of the golden_masters tree by content hash.
+     * The blob is read from "blobs/" + hash + extension in the sources
+     * if it is not in the cache yet.
+     * @param hash      hex SHA-256 of the blob.
+     * @param extension file extension of the blob including the dot, e.g. ".png".
+     * @return cache entry or null if no source has the blob.
+     * @throws IOException if no source has a good copy of the blob and one of them
+     *                     could not be read or has one which does not match the hash.
+     */
+    public synchronized Entry lookupBlob(String hash, String extension) throws IOException
+    {
+        byte[] data = readBlob(hash);
+
+        if (data != null)
+        {
+            if (hash.equals(SXRDigest.sha256(data)))
+            {
+                ++mHits;
+                return new Entry(hash, data);
+            }
+            ++mCorrupt;
+            new File(mBlobDir, hash).delete();
+        }
+        String path = BLOB_DIR + "/" + hash + extension;
+        IOException error = null;
+        for (SXRGoldenMasterStore source : mSources)
+        {
+            try
+            {
+                data = source.read(path);
+            }
+            catch (IOException ex)
+            {
+                error = sourceFailed(source, path, ex);
+                continue;
+            }
+            if (data != null)
+            {
+                if (!hash.equals(SXRDigest.sha256(data)))
+                {
+                    ++mCorrupt;
+                    error = sourceFailed(source, path, new IOException("Golden master " + path + " from "
+                                                                       + source + " does not match its hash"));
+                    continue;
+                }
+                writeBlob(hash, data);
+                ++mMisses;
+                return new Entry(hash, data);
+            }
+        }
+        if (error != null)
+        {
+            throw error;
+        }
+        ++mNotFound;
+        return null;
+    }
+
+    private static IOException sourceFailed(SXRGoldenMasterStore source, String path, IOException ex)
+    {
+        Log.w(TAG, "Cannot read golden master %s from %s: %s", path, source, ex.getMessage());
+        return ex;
+    }
+
+    public synchronized int getHits() { return mHits; }
+    public synchronized int getMisses() { return mMisses; }
+    public synchronized int getNotFound() { return mNotFound; }
+
+    @Override
+    public synchronized String getStatistics()
+    {
+        return String.format("golden master cache %s: %d hits, %d misses, %d not found, %d corrupt",
+                             mCacheDir.getPath(), mHits, mMisses, mNotFound, mCorrupt);
+    }
+
+    static byte[] readFully(InputStream stream, int sizeHint) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(sizeHint > 0 ? sizeHint : 64 * 1024);
+        byte[] buffer = new byte[16 * 1024];
+        int n;
+
+        while ((n = stream.read(buffer)) > 0)
+        {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    private byte[] readBlob(String hash)
+    {
+        File blob = new File(mBlobDir, hash);
+
+        if (!blob.isFile())
+        {
+            return null;
+        }
+        try
+        {
+            InputStream stream = new FileInputStream(blob);
+            try
+            {
+                return readFully(stream, (int) blob.length());
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            return null;
+        }
+    }
+
+    private void writeBlob(String hash, byte[] data) throws IOException
+    {
+        File blob = new File(mBlobDir, hash);
+
+        if (blob.isFile())
+        {
+            return;
+        }
+        File temp = new File(mBlobDir, hash + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try
+        {
+            stream.write(data);
+        }
+        finally
+        {
+            stream.close();
+        }
+        if (!temp.renameTo(blob))
+        {
+            temp.delete();
+            throw new IOException("Cannot write golden master cache entry " + blob.getPath());
+        }
+    }
+
+    /*
+     * The index is a text file with one "path<TAB>hash" line per entry.
+     * It is only ever appended to, a later line for the same path wins.
+     */
+    private void loadIndex()
+    {
+        File index = new File(mCacheDir, INDEX_FILE);
+
+        if (!index.isFile())
+        {
+            return;
+        }
+        try
+        {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), "UTF-8"));
+            try
+            {
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    int tab = line.lastIndexOf('\t');
+                    if (tab > 0)
+                    {
+                        mIndex.put(line.substring(0, tab), line.substring(tab + 1));
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            mIndex.clear();
+        }
+    }
+
+    private void addToIndex(String path, String hash) throws IOException
+    {
+        mIndex.put(path, hash);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(mCacheDir, INDEX_FILE), true), "UTF-8");
+        try
+        {
+            writer.write(path + "\t" + hash + "\n");
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+}
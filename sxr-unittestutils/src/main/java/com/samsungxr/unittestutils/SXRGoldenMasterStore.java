@@ -0,0 +1,70 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.samsungxr.unittestutils;
+
+import java.io.IOException;
+
+/**
+ * Source of golden master files.
+ * <p>
+ * Paths are relative to the root of the golden_masters tree, for example
+ * "S7Edge/LightTests/canEnableLight.png". A path which names a device model
+ * (such as "SM-G935F") returns the redirect to the device directory it shares
+ * golden masters with.
+ * <p>
+ * These are the names tests use, {@link SXRManifestGoldenMasterStore} maps them
+ * onto the deduplicated files of the golden_masters tree.
+ * @see SXRTestUtils#setGoldenMasterStore(SXRGoldenMasterStore)
+ */
+public interface SXRGoldenMasterStore
+{
+    /**
+     * A golden master together with the hex SHA-256 of its contents.
+     * Golden masters with the same hash are decoded once per run.
+     */
+    final class Entry
+    {
+        public final String hash;
+        public final byte[] data;
+
+        public Entry(String hash, byte[] data)
+        {
+            this.hash = hash;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Reads a golden master.
+     * @param path path relative to the golden_masters root.
+     * @return contents of the file or null if this store does not have it.
+     * @throws IOException if the store has the file but it could not be read.
+     */
+    byte[] read(String path) throws IOException;
+
+    /**
+     * Reads a golden master together with its content hash.
+     * @param path path relative to the golden_masters root.
+     * @return entry or null if this store does not have the file.
+     * @throws IOException if the store has the file but it could not be read.
+     */
+    Entry lookup(String path) throws IOException;
+
+    /**
+     * Returns a one line summary of the store statistics for the log.
+     */
+    String getStatistics();
+}
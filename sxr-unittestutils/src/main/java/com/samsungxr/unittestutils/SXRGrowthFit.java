@@ -0,0 +1,85 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+/**
+ * Fits a power law y = a * x^k to measurements taken at increasing sizes.
+ * <p>
+ * The fit is a least squares line through (log x, log y), the slope is the
+ * growth exponent k: about 1 for work which grows linearly with the size,
+ * 2 for quadratic work. Scaling benchmarks report it so that a change which
+ * makes an operation super-linear shows up as a jump of the exponent even
+ * when the absolute times at the sizes we usually test still look fine.
+ */
+public final class SXRGrowthFit
+{
+    public final float exponent;
+    public final float coefficient;
+    /** coefficient of determination of the fit in log space, 1 for a perfect power law */
+    public final float r2;
+    public final int points;
+
+    private SXRGrowthFit(float exponent, float coefficient, float r2, int points)
+    {
+        this.exponent = exponent;
+        this.coefficient = coefficient;
+        this.r2 = r2;
+        this.points = points;
+    }
+
+    /**
+     * Fits the measurements, pairs where either value is not positive are ignored.
+     * @param sizes  problem sizes, e.g. node counts.
+     * @param values measured values at those sizes, e.g. milliseconds.
+     * @return the fit, its exponent is NaN if there are less than two usable points.
+     */
+    public static SXRGrowthFit fit(double[] sizes, double[] values)
+    {
+        double sx = 0, sy = 0, sxx = 0, sxy = 0, syy = 0;
+        int n = 0;
+
+        for (int i = 0; i < Math.min(sizes.length, values.length); ++i)
+        {
+            if ((sizes[i] <= 0) || (values[i] <= 0))
+            {
+                continue;
+            }
+            double x = Math.log(sizes[i]);
+            double y = Math.log(values[i]);
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+            syy += y * y;
+            ++n;
+        }
+        double dx = n * sxx - sx * sx;
+        if ((n < 2) || (dx <= 0))
+        {
+            return new SXRGrowthFit(Float.NaN, Float.NaN, Float.NaN, n);
+        }
+        double k = (n * sxy - sx * sy) / dx;
+        double b = (sy - k * sx) / n;
+        double dy = n * syy - sy * sy;
+        double r2 = (dy > 0) ? ((n * sxy - sx * sy) * (n * sxy - sx * sy)) / (dx * dy) : 1.0;
+        return new SXRGrowthFit((float) k, (float) Math.exp(b), (float) r2, n);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("exponent = %.3f (r2 = %.3f, %d points)", exponent, r2, points);
+    }
+}
@@ -0,0 +1,72 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+/**
+ * Decides whether a screenshot matches its golden master.
+ * <p>
+ * Images are packed ARGB int arrays of the same size, as returned by
+ * {@link android.graphics.Bitmap#getPixels}. Implementations must not
+ * modify either image and must give the same result for the same input.
+ * @see SXRImageComparators
+ * @see SXRScreenshotComparison
+ */
+public interface SXRImageComparator
+{
+    /**
+     * Compares a screenshot with its golden master.
+     * @param golden     pixels of the golden master.
+     * @param screenshot pixels of the captured screenshot.
+     * @param width      width of both images in pixels.
+     * @param height     height of both images in pixels.
+     * @param diffPixels receives an opaque ARGB image showing where the images differ,
+     *                   may be null.
+     * @return outcome of the comparison.
+     */
+    Result compare(int[] golden, int[] screenshot, int width, int height, int[] diffPixels)
+            throws InterruptedException;
+
+    /**
+     * Outcome of a comparison.
+     */
+    final class Result
+    {
+        /** name of the metric, e.g. "diff" or "ssim" */
+        public final String metric;
+        /** value of the metric for the compared images */
+        public final float score;
+        /** limit the score was checked against */
+        public final float threshold;
+        /** true if the screenshot matches the golden master */
+        public final boolean passed;
+        /** true if the difference is worth keeping a diff image for, even if the test passed */
+        public final boolean noticeable;
+
+        public Result(String metric, float score, float threshold, boolean passed, boolean noticeable)
+        {
+            this.metric = metric;
+            this.score = score;
+            this.threshold = threshold;
+            this.passed = passed;
+            this.noticeable = noticeable || !passed;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s = %f (limit %f)%s", metric, score, threshold, passed ? "" : " FAILED");
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates the {@link SXRImageComparator} for a screenshot test.
+ */
+public final class SXRImageComparators
+{
+    private SXRImageComparators() { }
+
+    /**
+     * Returns the comparator screenshot tests use unless they choose another,
+     * {@link SXRSumDiffComparator} with its default limit.
+     */
+    public static SXRImageComparator getDefault()
+    {
+        return new SXRSumDiffComparator();
+    }
+
+    public static SXRImageComparator sumDiff(float maxDiff)
+    {
+        return new SXRSumDiffComparator(maxDiff);
+    }
+
+    public static SXRImageComparator ssim(float minSSIM)
+    {
+        return new SXRSSIMComparator(minSSIM, SXRSSIMComparator.DEFAULT_WINDOW_SIZE);
+    }
+
+    public static SXRImageComparator tileError(int tileSize, float maxTileError)
+    {
+        return new SXRTileErrorComparator(tileSize, maxTileError);
+    }
+
+    /**
+     * Wraps a comparator to ignore the given regions.
+     * @see SXRMaskedComparator#SXRMaskedComparator(SXRImageComparator, int...)
+     */
+    public static SXRImageComparator ignoring(SXRImageComparator comparator, int... regions)
+    {
+        return (regions.length > 0) ? new SXRMaskedComparator(comparator, regions) : comparator;
+    }
+
+    /**
+     * Returns the comparator described by an annotation, the default comparator if it is null.
+     */
+    public static SXRImageComparator fromAnnotation(SXRScreenshotComparison annotation)
+    {
+        if (annotation == null)
+        {
+            return getDefault();
+        }
+        final float threshold = annotation.threshold();
+        final int size = annotation.size();
+        SXRImageComparator comparator;
+
+        switch (annotation.value())
+        {
+            case SSIM:
+                comparator = new SXRSSIMComparator(
+                        (threshold >= 0) ? threshold : SXRSSIMComparator.DEFAULT_MIN_SSIM,
+                        (size > 0) ? size : SXRSSIMComparator.DEFAULT_WINDOW_SIZE);
+                break;
+
+            case TILE_ERROR:
+                comparator = new SXRTileErrorComparator(
+                        (size > 0) ? size : SXRTileErrorComparator.DEFAULT_TILE_SIZE,
+                        (threshold >= 0) ? threshold : SXRTileErrorComparator.DEFAULT_MAX_TILE_ERROR);
+                break;
+
+            default:
+                comparator = new SXRSumDiffComparator(
+                        (threshold >= 0) ? threshold : SXRSumDiffComparator.DEFAULT_MAX_DIFF);
+                break;
+        }
+        return ignoring(comparator, annotation.ignore());
+    }
+
+    /**
+     * Returns the comparator described by the {@link SXRScreenshotComparison}
+     * annotation of a test method, the default comparator if it has none.
+     * <pre>
+     * &#64;Rule public TestName mTestName = new TestName();
+     * ...
+     * mTestUtils.screenShot(category, name, mWaiter,
+     *                       SXRImageComparators.forTest(getClass(), mTestName.getMethodName()));
+     * </pre>
+     * @param testClass  class which declares the test method.
+     * @param methodName name of the test method.
+     */
+    public static SXRImageComparator forTest(Class<?> testClass, String methodName)
+    {
+        try
+        {
+            Method method = testClass.getMethod(methodName);
+            return fromAnnotation(method.getAnnotation(SXRScreenshotComparison.class));
+        }
+        catch (NoSuchMethodException ex)
+        {
+            throw new IllegalArgumentException(testClass.getName() + " has no test method " + methodName);
+        }
+    }
+}
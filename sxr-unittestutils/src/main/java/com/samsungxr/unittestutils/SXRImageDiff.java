@@ -0,0 +1,276 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.samsungxr.unittestutils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the difference between a golden master and a screenshot.
+ * <p>
+ * Both images are given as packed ARGB int arrays, as returned by
+ * {@link android.graphics.Bitmap#getPixels}. The image is split into
+ * horizontal tiles which are claimed by a fixed pool of workers.
+ * Each worker accumulates the absolute RGB deltas of its tiles into
+ * a private partial sum, the partial sums are added together once
+ * all workers are done. Nothing is allocated or locked per pixel.
+ * <p>
+ * The result is the sum over all pixels of |dr| + |dg| + |db| with each
+ * channel normalized to [0, 1], which is the metric the screenshot tests
+ * have always used.
+ */
+public class SXRImageDiff
+{
+    /**
+     * Number of image rows in a tile unless specified otherwise.
+     */
+    public static final int DEFAULT_TILE_ROWS = 32;
+
+    private static SXRImageDiff sDefault = null;
+
+    private final ExecutorService mExecutor;
+    private final int mNumWorkers;
+    private final int mTileRows;
+
+    /**
+     * Creates a diff engine with one worker per available processor.
+     */
+    public SXRImageDiff()
+    {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_TILE_ROWS);
+    }
+
+    /**
+     * Creates a diff engine.
+     * @param numWorkers number of worker threads in the pool.
+     * @param tileRows   number of image rows handled by a worker at a time.
+     */
+    public SXRImageDiff(int numWorkers, int tileRows)
+    {
+        if ((numWorkers < 1) || (tileRows < 1))
+        {
+            throw new IllegalArgumentException("numWorkers and tileRows must be positive");
+        }
+        mTileRows = tileRows;
+        mNumWorkers = numWorkers;
+        mExecutor = Executors.newFixedThreadPool(numWorkers, new ThreadFactory()
+        {
+            private int mThreadCount = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "SXRImageDiff-" + mThreadCount++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Returns the diff engine shared by all screenshot tests in the process.
+     */
+    public static synchronized SXRImageDiff getDefault()
+    {
+        if (sDefault == null)
+        {
+            sDefault = new SXRImageDiff();
+        }
+        return sDefault;
+    }
+
+    /**
+     * Converts the integer channel sum returned by {@link #compareSum} into the
+     * normalized difference reported by the screenshot tests.
+     */
+    public static float toDiff(long channelSum)
+    {
+        return channelSum / 255.0f;
+    }
+
+    /**
+     * Compares two images of the same size.
+     * @param golden     pixels of the golden master.
+     * @param screenshot pixels of the captured screenshot.
+     * @param width      width of both images in pixels.
+     * @param height     height of both images in pixels.
+     * @param diffPixels receives the per pixel difference as opaque ARGB,
+     *                   may be null or be the same array as <i>golden</i>.
+     * @return normalized difference, 0 for identical images.
+     */
+    public float compare(int[] golden, int[] screenshot, int width, int height, int[] diffPixels)
+            throws InterruptedException
+    {
+        return toDiff(compareSum(golden, screenshot, width, height, diffPixels));
+    }
+
+    /**
+     * Compares two images of the same size and returns the
+     * sum of the absolute red, green and blue deltas in the range [0, 255].
+     * <p>
+     * If the calling thread is interrupted the remaining tiles are
+     * abandoned and the workers still running finish on their own,
+     * they only touch the state of this call.
+     * @see #compare(int[], int[], int, int, int[])
+     */
+    public long compareSum(int[] golden, int[] screenshot, int width, int height,
+                           int[] diffPixels) throws InterruptedException
+    {
+        final int numPixels = width * height;
+
+        if ((golden.length < numPixels) || (screenshot.length < numPixels)
+            || ((diffPixels != null) && (diffPixels.length < numPixels)))
+        {
+            throw new IllegalArgumentException("pixel arrays are smaller than " + width + "x" + height);
+        }
+        final int numTiles = (height + mTileRows - 1) / mTileRows;
+        final int numWorkers = Math.min(mNumWorkers, Math.max(numTiles, 1));
+        Task task = new Task(golden, screenshot, diffPixels, width, height, numTiles, numWorkers);
+
+        for (int i = 0; i < numWorkers; ++i)
+        {
+            mExecutor.execute(task);
+        }
+        try
+        {
+            task.mDone.await();
+        }
+        catch (InterruptedException ex)
+        {
+            task.cancel();
+            throw ex;
+        }
+        return task.getSum();
+    }
+
+    /**
+     * Stops the worker threads. The engine cannot be used afterwards.
+     */
+    public void shutdown()
+    {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Accumulates the channel deltas for rows [firstRow, lastRow).
+     */
+    static long diffRows(int[] golden, int[] screenshot, int[] diffPixels,
+                         int width, int firstRow, int lastRow)
+    {
+        return diffColumns(golden, screenshot, diffPixels, firstRow * width, lastRow * width);
+    }
+
+    /**
+     * Accumulates the channel deltas for pixels [start, end).
+     */
+    static long diffColumns(int[] golden, int[] screenshot, int[] diffPixels, int start, int end)
+    {
+        long sum = 0;
+
+        for (int i = start; i < end; ++i)
+        {
+            final int p1 = golden[i];
+            final int p2 = screenshot[i];
+            final int r = Math.abs(((p1 >> 16) & 0xFF) - ((p2 >> 16) & 0xFF));
+            final int g = Math.abs(((p1 >> 8) & 0xFF) - ((p2 >> 8) & 0xFF));
+            final int b = Math.abs((p1 & 0xFF) - (p2 & 0xFF));
+
+            sum += r + g + b;
+            if (diffPixels != null)
+            {
+                diffPixels[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return sum;
+    }
+
+    /*
+     * State of one comparison, shared by the workers running it.
+     * Each worker claims a slot for its partial sum and then claims
+     * tiles until none are left.
+     */
+    private final class Task implements Runnable
+    {
+        final int[] mGolden;
+        final int[] mScreenshot;
+        final int[] mDiffPixels;
+        final int mWidth;
+        final int mHeight;
+        final int mNumTiles;
+        final long[] mPartialSums;
+        final CountDownLatch mDone;
+        final AtomicInteger mNextWorker = new AtomicInteger();
+        final AtomicInteger mNextTile = new AtomicInteger();
+
+        Task(int[] golden, int[] screenshot, int[] diffPixels,
+             int width, int height, int numTiles, int numWorkers)
+        {
+            mGolden = golden;
+            mScreenshot = screenshot;
+            mDiffPixels = diffPixels;
+            mWidth = width;
+            mHeight = height;
+            mNumTiles = numTiles;
+            mPartialSums = new long[numWorkers];
+            mDone = new CountDownLatch(numWorkers);
+        }
+
+        /*
+         * Makes the workers stop after the tile they are working on.
+         */
+        void cancel()
+        {
+            mNextTile.set(mNumTiles);
+        }
+
+        long getSum()
+        {
+            long total = 0;
+
+            for (long sum : mPartialSums)
+            {
+                total += sum;
+            }
+            return total;
+        }
+
+        @Override
+        public void run()
+        {
+            final int index = mNextWorker.getAndIncrement();
+            long sum = 0;
+
+            try
+            {
+                int tile;
+                while ((tile = mNextTile.getAndIncrement()) < mNumTiles)
+                {
+                    final int firstRow = tile * mTileRows;
+                    final int lastRow = Math.min(firstRow + mTileRows, mHeight);
+                    sum += diffRows(mGolden, mScreenshot, mDiffPixels, mWidth, firstRow, lastRow);
+                }
+            }
+            finally
+            {
+                mPartialSums[index] = sum;
+                mDone.countDown();
+            }
+        }
+    }
+}
@@ -23,6 +23,5 @@ import com.samsungxr.SXRNode;
 interface SXRMainMonitor {
     void onInitCalled(SXRContext context, SXRScene scene);
     void onSceneRendered();
-    void xFramesRendered();
     void onAssetLoaded(SXRNode asset);
 }
@@ -0,0 +1,195 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.samsungxr.unittestutils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Reads golden masters from the deduplicated golden_masters tree.
+ * <p>
+ * Every distinct image is stored once as "blobs/&lt;sha256&gt;.&lt;ext&gt;".
+ * Each device has a manifest "manifests/&lt;device&gt;.json" which maps the
+ * golden master names of that device to blob hashes:
+ * <pre>
+ * { "device": "S7Edge", "files": { "LightTests/canEnableLight.png": "&lt;sha256&gt;", ... } }
+ * </pre>
+ * or names the device whose golden masters it uses:
+ * <pre>
+ * { "device": "SM-G935F", "alias": "S7Edge" }
+ * </pre>
+ * The tree is maintained with scripts/golden-masters.
+ * <p>
+ * Manifests are read once per run, blobs are read through the cache by hash
+ * so a golden master shared by several devices or tests is fetched once.
+ */
+public class SXRManifestGoldenMasterStore implements SXRGoldenMasterStore
+{
+    private static final String MANIFEST_DIR = "manifests/";
+    private static final int MAX_ALIAS_DEPTH = 8;
+
+    private final SXRGoldenMasterCache mCache;
+    private final Map<String, Manifest> mManifests = new HashMap<String, Manifest>();
+
+    private static final class Manifest
+    {
+        final String alias;
+        final Map<String, String> files;
+
+        Manifest(String alias, Map<String, String> files)
+        {
+            this.alias = alias;
+            this.files = files;
+        }
+    }
+
+    /**
+     * @param cache cache whose sources hold the golden_masters tree.
+     */
+    public SXRManifestGoldenMasterStore(SXRGoldenMasterCache cache)
+    {
+        mCache = cache;
+    }
+
+    public SXRGoldenMasterCache getCache()
+    {
+        return mCache;
+    }
+
+    /**
+     * Reads a golden master. A path without a directory names a device,
+     * the name of the device whose golden masters it uses is returned.
+     * @param path "device/name" or "device".
+     */
+    @Override
+    public byte[] read(String path) throws IOException
+    {
+        if (path.indexOf('/') < 0)
+        {
+            String device = resolveDevice(path);
+            return (device != null) ? device.getBytes("UTF-8") : null;
+        }
+        Entry entry = lookup(path);
+        return (entry != null) ? entry.data : null;
+    }
+
+    /**
+     * Returns a golden master together with its content hash.
+     * @param path "device/name", e.g. "S7Edge/LightTests/canEnableLight.png".
+     * @return cache entry or null if the device has no such golden master.
+     */
+    @Override
+    public Entry lookup(String path) throws IOException
+    {
+        int slash = path.indexOf('/');
+
+        if (slash <= 0)
+        {
+            return null;
+        }
+        String name = path.substring(slash + 1);
+        Manifest manifest;
+
+        synchronized (this)
+        {
+            String device = resolveDevice(path.substring(0, slash));
+            if (device == null)
+            {
+                return null;
+            }
+            manifest = getManifest(device);
+        }
+        String hash = manifest.files.get(name);
+        if (hash == null)
+        {
+            return null;
+        }
+        int dot = name.lastIndexOf('.');
+        return mCache.lookupBlob(hash, (dot > name.lastIndexOf('/')) ? name.substring(dot) : "");
+    }
+
+    /**
+     * Follows the aliases of a device to the device which lists its golden masters.
+     * @return device name or null if there is no manifest for the device.
+     */
+    public synchronized String resolveDevice(String device) throws IOException
+    {
+        for (int depth = 0; depth < MAX_ALIAS_DEPTH; ++depth)
+        {
+            Manifest manifest = getManifest(device);
+            if (manifest == null)
+            {
+                return null;
+            }
+            if (manifest.alias == null)
+            {
+                return device;
+            }
+            device = manifest.alias;
+        }
+        throw new IOException("Golden master aliases of " + device + " are nested too deep");
+    }
+
+    @Override
+    public String getStatistics()
+    {
+        return mCache.getStatistics();
+    }
+
+    private Manifest getManifest(String device) throws IOException
+    {
+        if (mManifests.containsKey(device))
+        {
+            return mManifests.get(device);
+        }
+        Entry entry = mCache.fetch(MANIFEST_DIR + device + ".json");
+        Manifest manifest = (entry != null) ? parseManifest(device, entry.data) : null;
+
+        mManifests.put(device, manifest);
+        return manifest;
+    }
+
+    private static Manifest parseManifest(String device, byte[] data) throws IOException
+    {
+        try
+        {
+            JSONObject json = new JSONObject(new String(data, "UTF-8"));
+            if (json.has("alias"))
+            {
+                return new Manifest(json.getString("alias"), null);
+            }
+            JSONObject files = json.getJSONObject("files");
+            Map<String, String> hashes = new HashMap<String, String>(files.length() * 2);
+            Iterator<String> names = files.keys();
+
+            while (names.hasNext())
+            {
+                String name = names.next();
+                hashes.put(name, files.getString(name));
+            }
+            return new Manifest(null, hashes);
+        }
+        catch (JSONException ex)
+        {
+            throw new IOException("Invalid golden master manifest for " + device + ": " + ex.getMessage());
+        }
+    }
+}
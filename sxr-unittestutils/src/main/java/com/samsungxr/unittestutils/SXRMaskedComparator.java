@@ -0,0 +1,65 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+/**
+ * Excludes rectangular regions of the screen from a comparison.
+ * <p>
+ * Pixels inside the regions are taken from the golden master before the
+ * images are handed to another comparator, so they never count as different
+ * whatever the strategy. Use it for parts of the screen which legitimately
+ * change from run to run, like text with a time stamp or a frame counter.
+ */
+public class SXRMaskedComparator implements SXRImageComparator
+{
+    private final SXRImageComparator mComparator;
+    private final int[] mRegions;
+
+    /**
+     * @param comparator comparator to use for the unmasked pixels.
+     * @param regions    left, top, right, bottom pixel coordinates of each region to ignore,
+     *                   right and bottom are exclusive. Regions are clipped to the image.
+     */
+    public SXRMaskedComparator(SXRImageComparator comparator, int... regions)
+    {
+        if ((regions.length % 4) != 0)
+        {
+            throw new IllegalArgumentException("ignore regions must have 4 coordinates each");
+        }
+        mComparator = comparator;
+        mRegions = regions.clone();
+    }
+
+    @Override
+    public Result compare(int[] golden, int[] screenshot, int width, int height, int[] diffPixels)
+            throws InterruptedException
+    {
+        final int[] masked = screenshot.clone();
+
+        for (int r = 0; r < mRegions.length; r += 4)
+        {
+            final int left = Math.max(mRegions[r], 0);
+            final int top = Math.max(mRegions[r + 1], 0);
+            final int right = Math.min(mRegions[r + 2], width);
+            final int bottom = Math.min(mRegions[r + 3], height);
+
+            for (int y = top; (y < bottom) && (left < right); ++y)
+            {
+                System.arraycopy(golden, y * width + left, masked, y * width + left, right - left);
+            }
+        }
+        return mComparator.compare(golden, masked, width, height, diffPixels);
+    }
+}
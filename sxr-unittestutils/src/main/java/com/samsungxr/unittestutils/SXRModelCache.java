@@ -0,0 +1,1278 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.samsungxr.unittestutils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.samsungxr.IAssetEvents;
+import com.samsungxr.SXRBitmapImage;
+import com.samsungxr.SXRContext;
+import com.samsungxr.SXRImage;
+import com.samsungxr.SXRIndexBuffer;
+import com.samsungxr.SXRLight;
+import com.samsungxr.SXRMaterial;
+import com.samsungxr.SXRMesh;
+import com.samsungxr.SXRNode;
+import com.samsungxr.SXRRenderData;
+import com.samsungxr.SXRRenderPass;
+import com.samsungxr.SXRShaderId;
+import com.samsungxr.SXRTexture;
+import com.samsungxr.SXRTextureParameters;
+import com.samsungxr.SXRVersion;
+import com.samsungxr.SXRVertexBuffer;
+import com.samsungxr.animation.SXRAnimator;
+import com.samsungxr.animation.SXRSkeleton;
+import com.samsungxr.utility.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Cache of test models converted to a binary format which loads
+ * with a memory mapped read instead of a full import.
+ * <p>
+ * A model of the {@link SXRModelCorpus} is imported once with SXRAssetLoader
+ * and its node hierarchy, meshes, materials and textures are written to
+ * "&lt;key&gt;.sxrm" in the cache directory. The key, {@link #getKey},
+ * hashes {@link SXRModelCorpus.Model#getKey()}, a hash over every file the
+ * model reads, with {@link #getImporterVersion}, the SDK version and the
+ * native libraries of the SDK and the importer. Changing the model file, a
+ * gltf buffer, a texture or the SDK build changes the key, so stale entries
+ * are never used; scripts/model-cache prunes them on the host.
+ * Textures are stored decoded, as ARGB_8888 pixels ready for the GPU.
+ * <p>
+ * A model loaded from the cache is rebuilt by this class and not by the
+ * importer, so only tests which measure loading use the cache. Tests which
+ * check what the importer produces load with SXRAssetLoader.
+ * <p>
+ * Materials keep their shader and all their uniforms, opacity included, and
+ * for every texture its texture coordinate mapping and sampler state. Render
+ * data keeps all its render passes with their cull face, the rendering order,
+ * draw mode, alpha blending and depth test. The asset events of the import,
+ * texture errors included, are stored with the model and replayed to the
+ * handler when it is loaded from the cache.
+ * <p>
+ * Only static models with the built in shaders are converted: a model with
+ * lights, skeletons, animations or embedded textures is reported as
+ * unsupported and is always imported. Entries are made with the default
+ * import settings, like {@link com.samsungxr.SXRAssetLoader#loadModel(String, IAssetEvents)}.
+ * <p>
+ * All numbers are little endian and every array starts on a 4 byte boundary:
+ * <pre>
+ *   header     "SXRM", version, 32 byte key of the entry, 32 byte key of the model files
+ *   events     textureLoads, errorCount, { error }
+ *   images     count, { name, width, height, pixels[width * height * 4] }
+ *   materials  count, { shader, textureCount, { key, image, texCoordAttr, shaderVar,
+ *                                               minFilter, magFilter, wrapS, wrapT },
+ *                       uniformCount, { key, isInt, count, values[count] } }
+ *   meshes     count, { descriptor, vertexCount, attributeCount,
+ *                       { name, isInt, components, data[vertexCount * components] },
+ *                       indexSize, indexCount, indices[indexCount] }
+ *   nodes      count, { name, parent, localMatrix[16], mesh, renderingOrder, drawMode,
+ *                       alphaBlend, depthTest, passCount, { material, cullFace } }
+ * </pre>
+ * Strings are a byte count followed by UTF-8, nodes are in preorder and
+ * refer to their parent, mesh, materials and images by index, -1 for none.
+ * A texture without an image is one which failed to load. Sampler states
+ * are the names of the enum values, empty for the default.
+ */
+public class SXRModelCache
+{
+    private static final String TAG = SXRModelCache.class.getSimpleName();
+    private static final int MAGIC = 0x4D525853;    // "SXRM"
+    private static final int VERSION = 3;
+    private static final String SUFFIX = ".sxrm";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static Map<String, SXRShaderId> sShaders = null;
+
+    private final File mCacheDir;
+    private String mImporterVersion = null;
+    private int mHits = 0;
+    private int mMisses = 0;
+    private int mStored = 0;
+    private int mUnsupported = 0;
+
+    /**
+     * @param cacheDir directory to keep the converted models in, created if necessary.
+     */
+    public SXRModelCache(File cacheDir)
+    {
+        mCacheDir = cacheDir;
+        mCacheDir.mkdirs();
+    }
+
+    /**
+     * Loads a model like SXRAssetLoader.loadModel(path, handler), from the
+     * cache if the model is part of the corpus and has been converted before.
+     * <p>
+     * On a cache hit the model is built right away and the handler gets the
+     * events of the import it was converted from on the calling thread.
+     * Otherwise the model is imported and converted once it has loaded,
+     * before the handler gets onAssetLoaded. Paths which are not models of
+     * the corpus are imported without the cache.
+     * @param ctx     context to create the model with.
+     * @param corpus  models which can be cached, null to always import.
+     * @param path    path to load the model from, the GitHub URL or the local copy of a corpus model.
+     * @param handler receives the asset events of the load.
+     * @return the model, not added to a scene.
+     */
+    public SXRNode loadModel(SXRContext ctx, SXRModelCorpus corpus, String path, IAssetEvents handler)
+            throws IOException
+    {
+        SXRModelCorpus.Model model = (corpus != null) ? corpus.getModelForPath(path) : null;
+
+        if (model == null)
+        {
+            return ctx.getAssetLoader().loadModel(path, handler);
+        }
+        Reader entry = read(ctx, getKey(ctx, model));
+        if (entry != null)
+        {
+            entry.replay(path, handler);
+            return entry.mRoot;
+        }
+        return ctx.getAssetLoader().loadModel(path, new Import(corpus, model, handler));
+    }
+
+    /**
+     * Loads a model of the corpus and waits until it has loaded completely,
+     * including its textures. Must not be called on the GL thread.
+     * @param ctx     context to create the model with.
+     * @param corpus  corpus of the model.
+     * @param model   model to load.
+     * @param timeout how long to wait for an import in milliseconds.
+     * @return the model, not added to a scene.
+     */
+    public SXRNode loadModel(SXRContext ctx, SXRModelCorpus corpus, SXRModelCorpus.Model model, long timeout)
+            throws IOException, InterruptedException, TimeoutException
+    {
+        final CountDownLatch done = new CountDownLatch(1);
+        final SXRNode[] loaded = { null };
+        final String[] errors = { null };
+        String path = corpus.getLoadPath(model);
+        IAssetEvents handler = new IAssetEvents()
+        {
+            public void onAssetLoaded(SXRContext context, SXRNode model, String filePath, String error)
+            {
+                loaded[0] = model;
+                done.countDown();
+            }
+            public void onModelLoaded(SXRContext context, SXRNode model, String filePath) { }
+            public void onTextureLoaded(SXRContext context, SXRTexture texture, String filePath) { }
+            public void onModelError(SXRContext context, String error, String filePath)
+            {
+                errors[0] = error;
+            }
+            // a texture which cannot be loaded leaves the model usable
+            public void onTextureError(SXRContext context, String error, String filePath) { }
+        };
+
+        loadModel(ctx, corpus, path, handler);
+        if (!done.await(timeout, TimeUnit.MILLISECONDS))
+        {
+            throw new TimeoutException(path + " not loaded after " + timeout + " ms");
+        }
+        if ((errors[0] != null) || (loaded[0] == null))
+        {
+            throw new IOException("Cannot import " + path + ": " + errors[0]);
+        }
+        return loaded[0];
+    }
+
+    /**
+     * Returns the key of the entry of a model, the hex SHA-256 of the key
+     * of its files and the version of the importer.
+     */
+    public String getKey(SXRContext ctx, SXRModelCorpus.Model model) throws IOException
+    {
+        String id = model.getKey() + " " + getImporterVersion(ctx);
+        return SXRDigest.sha256(id.getBytes(UTF8));
+    }
+
+    /**
+     * Returns what identifies the build of the SDK and the importer: the SDK
+     * version and a hash over the native libraries of the app, which include
+     * those of the SDK and Assimp. If the libraries are not extracted, the
+     * hash is over the APK instead. Computed once per cache.
+     */
+    public synchronized String getImporterVersion(SXRContext ctx) throws IOException
+    {
+        if (mImporterVersion == null)
+        {
+            File[] libs = new File(ctx.getContext().getApplicationInfo().nativeLibraryDir).listFiles();
+            StringBuilder files = new StringBuilder();
+
+            if (libs != null)
+            {
+                Arrays.sort(libs);
+                for (File lib : libs)
+                {
+                    if (lib.getName().endsWith(".so"))
+                    {
+                        files.append(lib.getName()).append(' ').append(hashFile(lib)).append('\n');
+                    }
+                }
+            }
+            if (files.length() == 0)
+            {
+                File apk = new File(ctx.getContext().getApplicationInfo().sourceDir);
+                files.append(apk.getName()).append(' ').append(hashFile(apk)).append('\n');
+            }
+            mImporterVersion = SXRVersion.CURRENT + " " + SXRDigest.sha256(files.toString().getBytes(UTF8));
+        }
+        return mImporterVersion;
+    }
+
+    private static String hashFile(File file) throws IOException
+    {
+        FileInputStream stream = new FileInputStream(file);
+        try
+        {
+            return SXRDigest.sha256(SXRGoldenMasterCache.readFully(stream, (int) file.length()));
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Returns the model stored under the given key,
+     * or null if it is not in the cache.
+     */
+    public SXRNode load(SXRContext ctx, String key) throws IOException
+    {
+        Reader entry = read(ctx, key);
+        return (entry != null) ? entry.mRoot : null;
+    }
+
+    private Reader read(SXRContext ctx, String key) throws IOException
+    {
+        File file = getFile(key);
+
+        if (!file.isFile())
+        {
+            synchronized (this) { ++mMisses; }
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if ((buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION))
+            {
+                Log.w(TAG, "Discarding %s, it was written by another version", file.getName());
+                file.delete();
+                synchronized (this) { ++mMisses; }
+                return null;
+            }
+            buffer.position(buffer.position() + 64);
+            Reader entry = new Reader(ctx, buffer);
+            entry.read();
+            synchronized (this) { ++mHits; }
+            return entry;
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /*
+     * Converts a model which has been loaded completely, including its textures.
+     * Returns false if the model cannot be represented.
+     */
+    private boolean store(SXRContext ctx, SXRModelCorpus corpus, SXRModelCorpus.Model model, SXRNode root,
+                          int textureLoads, List<String> textureErrors) throws IOException
+    {
+        String key = getKey(ctx, model);
+        Converter converter = new Converter(corpus, model);
+
+        if (!converter.collect(root, -1))
+        {
+            Log.d(TAG, "Not caching %s: %s", model.path, converter.mUnsupported);
+            synchronized (this) { ++mUnsupported; }
+            return false;
+        }
+        File file = getFile(key);
+        File temp = new File(mCacheDir, key + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try
+        {
+            Output out = new Output(stream.getChannel());
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putBytes(ByteBuffer.wrap(toBytes(key)));
+            out.putBytes(ByteBuffer.wrap(toBytes(model.getKey())));
+            out.putInt(textureLoads);
+            out.putInt(textureErrors.size());
+            for (String error : textureErrors)
+            {
+                out.putString(error);
+            }
+            converter.write(out);
+            out.flush();
+        }
+        finally
+        {
+            stream.close();
+        }
+        if (!temp.renameTo(file))
+        {
+            temp.delete();
+            throw new IOException("Cannot write model cache entry " + file.getPath());
+        }
+        synchronized (this) { ++mStored; }
+        return true;
+    }
+
+    public File getFile(String key)
+    {
+        return new File(mCacheDir, key + SUFFIX);
+    }
+
+    public synchronized int getHits() { return mHits; }
+    public synchronized int getMisses() { return mMisses; }
+    public synchronized int getStored() { return mStored; }
+    public synchronized int getUnsupported() { return mUnsupported; }
+
+    /**
+     * Returns a one line summary of the cache statistics for the log.
+     */
+    public synchronized String getStatistics()
+    {
+        return String.format("model cache %s: %d hits, %d misses, %d stored, %d unsupported",
+                             mCacheDir.getPath(), mHits, mMisses, mStored, mUnsupported);
+    }
+
+    private static byte[] toBytes(String hex)
+    {
+        byte[] bytes = new byte[hex.length() / 2];
+
+        for (int i = 0; i < bytes.length; ++i)
+        {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /*
+     * The built in shaders by the names of their SXRShaderType classes.
+     */
+    private static synchronized Map<String, SXRShaderId> getShaders()
+    {
+        if (sShaders == null)
+        {
+            sShaders = new HashMap<String, SXRShaderId>();
+            for (Class<?> type : SXRMaterial.SXRShaderType.class.getClasses())
+            {
+                try
+                {
+                    Object id = type.getField("ID").get(null);
+                    if (id instanceof SXRShaderId)
+                    {
+                        sShaders.put(type.getSimpleName(), (SXRShaderId) id);
+                    }
+                }
+                catch (NoSuchFieldException ex)
+                {
+                }
+                catch (IllegalAccessException ex)
+                {
+                }
+            }
+        }
+        return sShaders;
+    }
+
+    private static String getShaderName(SXRShaderId id)
+    {
+        for (Map.Entry<String, SXRShaderId> e : getShaders().entrySet())
+        {
+            if (e.getValue() == id)
+            {
+                return e.getKey();
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Types and names in a vertex or uniform descriptor like
+     * "float3 a_position, int4 a_bone_indices" or "float4 diffuse_color; float line_width".
+     */
+    private static List<String[]> parseDescriptor(String descriptor)
+    {
+        String[] tokens = descriptor.trim().split("[\\s,;]+");
+        List<String[]> attributes = new ArrayList<String[]>();
+
+        for (int i = 0; i + 1 < tokens.length; i += 2)
+        {
+            attributes.add(new String[] { tokens[i], tokens[i + 1] });
+        }
+        return attributes;
+    }
+
+    private static int getComponents(String type)
+    {
+        char last = type.charAt(type.length() - 1);
+        return Character.isDigit(last) ? last - '0' : 1;
+    }
+
+    private static String nameOf(Enum<?> value)
+    {
+        return (value != null) ? value.name() : "";
+    }
+
+    /*
+     * Forwards the events of an import to the caller's handler and
+     * converts the model before it is told the model has loaded.
+     */
+    private final class Import implements IAssetEvents
+    {
+        private final SXRModelCorpus mCorpus;
+        private final SXRModelCorpus.Model mModel;
+        private final IAssetEvents mHandler;
+        private final List<String> mTextureErrors = new ArrayList<String>();
+        private int mTextureLoads = 0;
+        private String mModelError = null;
+
+        Import(SXRModelCorpus corpus, SXRModelCorpus.Model model, IAssetEvents handler)
+        {
+            mCorpus = corpus;
+            mModel = model;
+            mHandler = handler;
+        }
+
+        public void onAssetLoaded(SXRContext context, SXRNode model, String filePath, String errors)
+        {
+            int textureLoads;
+            List<String> textureErrors;
+            boolean failed;
+
+            synchronized (this)
+            {
+                textureLoads = mTextureLoads;
+                textureErrors = new ArrayList<String>(mTextureErrors);
+                failed = (mModelError != null);
+            }
+            if ((model != null) && !failed)
+            {
+                try
+                {
+                    store(context, mCorpus, mModel, model, textureLoads, textureErrors);
+                }
+                catch (IOException ex)
+                {
+                    Log.e(TAG, "Cannot cache %s: %s", filePath, ex.getMessage());
+                }
+            }
+            if (mHandler != null)
+            {
+                mHandler.onAssetLoaded(context, model, filePath, errors);
+            }
+        }
+
+        public void onModelLoaded(SXRContext context, SXRNode model, String filePath)
+        {
+            if (mHandler != null)
+            {
+                mHandler.onModelLoaded(context, model, filePath);
+            }
+        }
+
+        public void onTextureLoaded(SXRContext context, SXRTexture texture, String filePath)
+        {
+            synchronized (this)
+            {
+                mTextureLoads++;
+            }
+            if (mHandler != null)
+            {
+                mHandler.onTextureLoaded(context, texture, filePath);
+            }
+        }
+
+        public void onModelError(SXRContext context, String error, String filePath)
+        {
+            synchronized (this)
+            {
+                mModelError = error;
+            }
+            if (mHandler != null)
+            {
+                mHandler.onModelError(context, error, filePath);
+            }
+        }
+
+        public void onTextureError(SXRContext context, String error, String filePath)
+        {
+            synchronized (this)
+            {
+                mTextureErrors.add(error);
+            }
+            if (mHandler != null)
+            {
+                mHandler.onTextureError(context, error, filePath);
+            }
+        }
+    }
+
+    /*
+     * Walks a loaded model and writes it out.
+     */
+    private static final class Converter
+    {
+        private final SXRModelCorpus mCorpus;
+        private final Map<String, SXRModelCorpus.Dependency> mFiles = new HashMap<String, SXRModelCorpus.Dependency>();
+        private final List<SXRNode> mNodes = new ArrayList<SXRNode>();
+        private final List<Integer> mParents = new ArrayList<Integer>();
+        private final Map<SXRMesh, Integer> mMeshes = new IdentityHashMap<SXRMesh, Integer>();
+        private final List<SXRMesh> mMeshList = new ArrayList<SXRMesh>();
+        private final Map<SXRMaterial, Integer> mMaterials = new IdentityHashMap<SXRMaterial, Integer>();
+        private final List<SXRMaterial> mMaterialList = new ArrayList<SXRMaterial>();
+        private final Map<String, Integer> mImages = new HashMap<String, Integer>();
+        private final List<SXRModelCorpus.Dependency> mImageFiles = new ArrayList<SXRModelCorpus.Dependency>();
+        private final List<String> mImageNames = new ArrayList<String>();
+        private String mUnsupported = null;
+
+        Converter(SXRModelCorpus corpus, SXRModelCorpus.Model model)
+        {
+            mCorpus = corpus;
+            // textures are matched by file name, the way the importer looks them up
+            for (int i = 1; i < model.files.size(); ++i)
+            {
+                SXRModelCorpus.Dependency file = model.files.get(i);
+                mFiles.put(getBaseName(file.path), file);
+            }
+        }
+
+        private static String getBaseName(String path)
+        {
+            path = path.replace('\\', '/');
+            return path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.US);
+        }
+
+        boolean collect(SXRNode node, int parent)
+        {
+            if (node.getComponent(SXRLight.getComponentType()) != null)
+            {
+                return unsupported("light on " + node.getName());
+            }
+            if ((node.getComponent(SXRSkeleton.getComponentType()) != null)
+                || (node.getComponent(SXRAnimator.getComponentType()) != null))
+            {
+                return unsupported("animation on " + node.getName());
+            }
+            int index = mNodes.size();
+            mNodes.add(node);
+            mParents.add(parent);
+
+            SXRRenderData rdata = node.getRenderData();
+            if ((rdata != null) && (rdata.getMesh() != null))
+            {
+                SXRMesh mesh = rdata.getMesh();
+                if (mesh.getVertexBuffer().hasAttribute("a_bone_weights"))
+                {
+                    return unsupported("skinned mesh on " + node.getName());
+                }
+                if (!mMeshes.containsKey(mesh))
+                {
+                    mMeshes.put(mesh, mMeshList.size());
+                    mMeshList.add(mesh);
+                }
+                for (int p = 0; p < rdata.getPassCount(); ++p)
+                {
+                    if (!collect(rdata.getPass(p).getMaterial(), node))
+                    {
+                        return false;
+                    }
+                }
+            }
+            for (int i = 0; i < node.getChildrenCount(); ++i)
+            {
+                if (!collect(node.getChildByIndex(i), index))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean collect(SXRMaterial material, SXRNode node)
+        {
+            if ((material == null) || mMaterials.containsKey(material))
+            {
+                return true;
+            }
+            if (getShaderName(material.getShaderType()) == null)
+            {
+                return unsupported("custom shader on " + node.getName());
+            }
+            for (String key : material.getTextureNames())
+            {
+                SXRImage image = material.getTexture(key).getImage();
+
+                if ((image != null) && (getImageFile(image) == null))
+                {
+                    return unsupported("embedded texture " + key + " on " + node.getName());
+                }
+            }
+            mMaterials.put(material, mMaterialList.size());
+            mMaterialList.add(material);
+            return true;
+        }
+
+        private boolean unsupported(String reason)
+        {
+            mUnsupported = reason;
+            return false;
+        }
+
+        /*
+         * Returns the file an image was loaded from,
+         * null if it was embedded in the model.
+         */
+        private SXRModelCorpus.Dependency getImageFile(SXRImage image)
+        {
+            String name = image.getFileName();
+
+            if ((name == null) || name.isEmpty() || name.startsWith("*"))
+            {
+                return null;
+            }
+            return mFiles.get(getBaseName(name));
+        }
+
+        /*
+         * Returns the index of the image of a texture, -1 if it has none.
+         */
+        private int getImage(SXRTexture texture)
+        {
+            SXRImage image = texture.getImage();
+
+            if (image == null)
+            {
+                return -1;
+            }
+            SXRModelCorpus.Dependency file = getImageFile(image);
+            Integer index = mImages.get(file.path);
+
+            if (index == null)
+            {
+                index = mImageFiles.size();
+                mImages.put(file.path, index);
+                mImageFiles.add(file);
+                mImageNames.add(image.getFileName());
+            }
+            return index;
+        }
+
+        void write(Output out) throws IOException
+        {
+            // images are only known once the materials have been looked at
+            for (SXRMaterial material : mMaterialList)
+            {
+                for (String key : material.getTextureNames())
+                {
+                    getImage(material.getTexture(key));
+                }
+            }
+            out.putInt(mImageFiles.size());
+            for (int i = 0; i < mImageFiles.size(); ++i)
+            {
+                writeImage(out, mImageFiles.get(i), mImageNames.get(i));
+            }
+            out.putInt(mMaterialList.size());
+            for (SXRMaterial material : mMaterialList)
+            {
+                writeMaterial(out, material);
+            }
+            out.putInt(mMeshList.size());
+            for (SXRMesh mesh : mMeshList)
+            {
+                writeMesh(out, mesh);
+            }
+            out.putInt(mNodes.size());
+            for (int i = 0; i < mNodes.size(); ++i)
+            {
+                writeNode(out, mNodes.get(i), mParents.get(i));
+            }
+        }
+
+        private void writeImage(Output out, SXRModelCorpus.Dependency file, String name) throws IOException
+        {
+            byte[] data = mCorpus.read(file);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+            if (bitmap == null)
+            {
+                throw new IOException("Cannot decode texture " + file.path);
+            }
+            try
+            {
+                if (bitmap.getConfig() != Bitmap.Config.ARGB_8888)
+                {
+                    Bitmap converted = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+                    bitmap.recycle();
+                    bitmap = converted;
+                }
+                ByteBuffer pixels = ByteBuffer.allocateDirect(bitmap.getWidth() * bitmap.getHeight() * 4);
+                bitmap.copyPixelsToBuffer(pixels);
+                pixels.flip();
+                out.putString(name);
+                out.putInt(bitmap.getWidth());
+                out.putInt(bitmap.getHeight());
+                out.putBytes(pixels);
+            }
+            finally
+            {
+                bitmap.recycle();
+            }
+        }
+
+        private void writeMaterial(Output out, SXRMaterial material) throws IOException
+        {
+            List<String> textures = new ArrayList<String>(material.getTextureNames());
+            List<String[]> uniforms = new ArrayList<String[]>();
+
+            out.putString(getShaderName(material.getShaderType()));
+            out.putInt(textures.size());
+            for (String key : textures)
+            {
+                SXRTexture texture = material.getTexture(key);
+                SXRTextureParameters params = texture.getTextureParameters();
+
+                out.putString(key);
+                out.putInt(getImage(texture));
+                out.putString((texture.getTexCoordAttr() != null) ? texture.getTexCoordAttr() : "");
+                out.putString((texture.getTexCoordShaderVar() != null) ? texture.getTexCoordShaderVar() : "");
+                out.putString((params != null) ? nameOf(params.getMinFilterType()) : "");
+                out.putString((params != null) ? nameOf(params.getMagFilterType()) : "");
+                out.putString((params != null) ? nameOf(params.getWrapSType()) : "");
+                out.putString((params != null) ? nameOf(params.getWrapTType()) : "");
+            }
+            for (String[] u : parseDescriptor(material.getUniformDescriptor()))
+            {
+                if (material.hasUniform(u[1]))
+                {
+                    uniforms.add(u);
+                }
+            }
+            out.putInt(uniforms.size());
+            for (String[] u : uniforms)
+            {
+                boolean isInt = u[0].startsWith("int");
+
+                out.putString(u[1]);
+                out.putInt(isInt ? 1 : 0);
+                if (isInt)
+                {
+                    int[] values = material.getIntVec(u[1]);
+                    out.putInt(values.length);
+                    out.putInts(IntBuffer.wrap(values));
+                }
+                else
+                {
+                    float[] values = material.getFloatVec(u[1]);
+                    out.putInt(values.length);
+                    out.putFloats(FloatBuffer.wrap(values));
+                }
+            }
+        }
+
+        private void writeMesh(Output out, SXRMesh mesh) throws IOException
+        {
+            SXRVertexBuffer vbuf = mesh.getVertexBuffer();
+            SXRIndexBuffer ibuf = mesh.getIndexBuffer();
+            List<String[]> attributes = parseDescriptor(vbuf.getDescriptor());
+            List<String[]> present = new ArrayList<String[]>();
+
+            for (String[] a : attributes)
+            {
+                if (vbuf.hasAttribute(a[1]))
+                {
+                    present.add(a);
+                }
+            }
+            out.putString(vbuf.getDescriptor());
+            out.putInt(vbuf.getVertexCount());
+            out.putInt(present.size());
+            for (String[] a : present)
+            {
+                boolean isInt = a[0].startsWith("int");
+                out.putString(a[1]);
+                out.putInt(isInt ? 1 : 0);
+                out.putInt(getComponents(a[0]));
+                if (isInt)
+                {
+                    out.putInts(vbuf.getIntVec(a[1]));
+                }
+                else
+                {
+                    out.putFloats(vbuf.getFloatVec(a[1]));
+                }
+            }
+            if (ibuf == null)
+            {
+                out.putInt(0);
+                out.putInt(0);
+            }
+            else if (ibuf.getIndexSize() == 2)
+            {
+                out.putInt(2);
+                out.putInt(ibuf.getIndexCount());
+                out.putChars(ibuf.asCharBuffer());
+            }
+            else
+            {
+                out.putInt(4);
+                out.putInt(ibuf.getIndexCount());
+                out.putInts(ibuf.asIntBuffer());
+            }
+        }
+
+        private void writeNode(Output out, SXRNode node, int parent) throws IOException
+        {
+            SXRRenderData rdata = node.getRenderData();
+            SXRMesh mesh = (rdata != null) ? rdata.getMesh() : null;
+            float[] matrix = node.getTransform().getLocalModelMatrix();
+
+            out.putString((node.getName() != null) ? node.getName() : "");
+            out.putInt(parent);
+            for (float f : matrix)
+            {
+                out.putFloat(f);
+            }
+            out.putInt((mesh != null) ? mMeshes.get(mesh) : -1);
+            if (mesh == null)
+            {
+                return;
+            }
+            out.putInt(rdata.getRenderingOrder());
+            out.putInt(rdata.getDrawMode());
+            out.putInt(rdata.getAlphaBlend() ? 1 : 0);
+            out.putInt(rdata.getDepthTest() ? 1 : 0);
+            out.putInt(rdata.getPassCount());
+            for (int p = 0; p < rdata.getPassCount(); ++p)
+            {
+                SXRRenderPass pass = rdata.getPass(p);
+                Integer material = mMaterials.get(pass.getMaterial());
+
+                out.putInt((material != null) ? material : -1);
+                out.putString(nameOf(pass.getCullFace()));
+            }
+        }
+    }
+
+    /*
+     * Rebuilds a model from a mapped cache entry. Vertex and index arrays
+     * are handed to the buffers as views of the mapping, nothing is copied
+     * on the Java side.
+     */
+    private static final class Reader
+    {
+        private final SXRContext mContext;
+        private final ByteBuffer mBuffer;
+        private final List<SXRTexture> mTextures = new ArrayList<SXRTexture>();
+        private final List<String> mTextureErrors = new ArrayList<String>();
+        private int mTextureLoads = 0;
+        private SXRNode mRoot = null;
+
+        Reader(SXRContext ctx, ByteBuffer buffer)
+        {
+            mContext = ctx;
+            mBuffer = buffer;
+        }
+
+        void read()
+        {
+            mTextureLoads = mBuffer.getInt();
+            for (int i = mBuffer.getInt(); i > 0; --i)
+            {
+                mTextureErrors.add(getString());
+            }
+            SXRImage[] images = new SXRImage[mBuffer.getInt()];
+            for (int i = 0; i < images.length; ++i)
+            {
+                images[i] = readImage();
+            }
+            SXRMaterial[] materials = new SXRMaterial[mBuffer.getInt()];
+            for (int i = 0; i < materials.length; ++i)
+            {
+                materials[i] = readMaterial(images);
+            }
+            SXRMesh[] meshes = new SXRMesh[mBuffer.getInt()];
+            for (int i = 0; i < meshes.length; ++i)
+            {
+                meshes[i] = readMesh();
+            }
+            SXRNode[] nodes = new SXRNode[mBuffer.getInt()];
+            for (int i = 0; i < nodes.length; ++i)
+            {
+                nodes[i] = readNode(nodes, meshes, materials);
+            }
+            mRoot = (nodes.length > 0) ? nodes[0] : null;
+        }
+
+        /*
+         * Sends the handler the events of the import the model was converted from.
+         */
+        void replay(String filePath, IAssetEvents handler)
+        {
+            String errors = null;
+
+            handler.onModelLoaded(mContext, mRoot, filePath);
+            for (int i = 0; i < mTextureLoads; ++i)
+            {
+                handler.onTextureLoaded(mContext, (i < mTextures.size()) ? mTextures.get(i) : null, filePath);
+            }
+            for (String error : mTextureErrors)
+            {
+                handler.onTextureError(mContext, error, filePath);
+                errors = (errors != null) ? errors + "\n" + error : error;
+            }
+            handler.onAssetLoaded(mContext, mRoot, filePath, errors);
+        }
+
+        private String getString()
+        {
+            byte[] bytes = new byte[mBuffer.getInt()];
+            mBuffer.get(bytes);
+            align();
+            return new String(bytes, UTF8);
+        }
+
+        private void align()
+        {
+            mBuffer.position((mBuffer.position() + 3) & ~3);
+        }
+
+        /*
+         * Returns a view of the next n bytes and skips them.
+         */
+        private ByteBuffer slice(int n)
+        {
+            ByteBuffer view = mBuffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            view.limit(n);
+            mBuffer.position(mBuffer.position() + n);
+            align();
+            return view;
+        }
+
+        private SXRImage readImage()
+        {
+            String name = getString();
+            int width = mBuffer.getInt();
+            int height = mBuffer.getInt();
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+
+            bitmap.copyPixelsFromBuffer(slice(width * height * 4));
+            SXRBitmapImage image = new SXRBitmapImage(mContext, bitmap);
+            image.setFileName(name);
+            return image;
+        }
+
+        private SXRMaterial readMaterial(SXRImage[] images)
+        {
+            SXRMaterial material = new SXRMaterial(mContext, getShaders().get(getString()));
+            int numTextures = mBuffer.getInt();
+
+            for (int i = 0; i < numTextures; ++i)
+            {
+                String key = getString();
+                int image = mBuffer.getInt();
+                String texCoordAttr = getString();
+                String shaderVar = getString();
+                String minFilter = getString();
+                String magFilter = getString();
+                String wrapS = getString();
+                String wrapT = getString();
+                SXRTextureParameters params = new SXRTextureParameters(mContext);
+
+                if (!minFilter.isEmpty())
+                {
+                    params.setMinFilterType(SXRTextureParameters.TextureFilterType.valueOf(minFilter));
+                }
+                if (!magFilter.isEmpty())
+                {
+                    params.setMagFilterType(SXRTextureParameters.TextureFilterType.valueOf(magFilter));
+                }
+                if (!wrapS.isEmpty())
+                {
+                    params.setWrapSType(SXRTextureParameters.TextureWrapType.valueOf(wrapS));
+                }
+                if (!wrapT.isEmpty())
+                {
+                    params.setWrapTType(SXRTextureParameters.TextureWrapType.valueOf(wrapT));
+                }
+                SXRTexture texture = new SXRTexture(mContext, params);
+                if (image >= 0)
+                {
+                    texture.setImage(images[image]);
+                    mTextures.add(texture);
+                }
+                if (!texCoordAttr.isEmpty())
+                {
+                    texture.setTexCoord(texCoordAttr, shaderVar);
+                }
+                material.setTexture(key, texture);
+            }
+            int numUniforms = mBuffer.getInt();
+            for (int i = 0; i < numUniforms; ++i)
+            {
+                String key = getString();
+                boolean isInt = mBuffer.getInt() != 0;
+                int count = mBuffer.getInt();
+
+                if (isInt)
+                {
+                    int[] values = new int[count];
+                    slice(count * 4).asIntBuffer().get(values);
+                    material.setIntArray(key, values);
+                }
+                else
+                {
+                    float[] values = new float[count];
+                    slice(count * 4).asFloatBuffer().get(values);
+                    material.setFloatArray(key, values);
+                }
+            }
+            return material;
+        }
+
+        private SXRMesh readMesh()
+        {
+            String descriptor = getString();
+            int vertexCount = mBuffer.getInt();
+            int numAttributes = mBuffer.getInt();
+            SXRVertexBuffer vbuf = new SXRVertexBuffer(mContext, descriptor, vertexCount);
+
+            for (int i = 0; i < numAttributes; ++i)
+            {
+                String name = getString();
+                boolean isInt = mBuffer.getInt() != 0;
+                int size = vertexCount * mBuffer.getInt() * 4;
+                ByteBuffer data = slice(size);
+                if (isInt)
+                {
+                    vbuf.setIntVec(name, data.asIntBuffer());
+                }
+                else
+                {
+                    vbuf.setFloatVec(name, data.asFloatBuffer());
+                }
+            }
+            int indexSize = mBuffer.getInt();
+            int indexCount = mBuffer.getInt();
+            SXRIndexBuffer ibuf = null;
+            if (indexSize > 0)
+            {
+                ibuf = new SXRIndexBuffer(mContext, indexSize, indexCount);
+                ByteBuffer data = slice(indexSize * indexCount);
+                if (indexSize == 2)
+                {
+                    ibuf.setShortVec(data.asCharBuffer());
+                }
+                else
+                {
+                    ibuf.setIntVec(data.asIntBuffer());
+                }
+            }
+            return new SXRMesh(vbuf, ibuf);
+        }
+
+        private SXRNode readNode(SXRNode[] nodes, SXRMesh[] meshes, SXRMaterial[] materials)
+        {
+            SXRNode node = new SXRNode(mContext);
+            float[] matrix = new float[16];
+
+            node.setName(getString());
+            int parent = mBuffer.getInt();
+            for (int i = 0; i < 16; ++i)
+            {
+                matrix[i] = mBuffer.getFloat();
+            }
+            node.getTransform().setModelMatrix(matrix);
+            int mesh = mBuffer.getInt();
+
+            if (mesh >= 0)
+            {
+                SXRRenderData rdata = new SXRRenderData(mContext);
+
+                rdata.setMesh(meshes[mesh]);
+                rdata.setRenderingOrder(mBuffer.getInt());
+                rdata.setDrawMode(mBuffer.getInt());
+                rdata.setAlphaBlend(mBuffer.getInt() != 0);
+                rdata.setDepthTest(mBuffer.getInt() != 0);
+                int numPasses = mBuffer.getInt();
+                for (int p = 0; p < numPasses; ++p)
+                {
+                    int material = mBuffer.getInt();
+                    String cullFace = getString();
+                    SXRRenderPass pass = (p == 0) ? rdata.getPass(0) : new SXRRenderPass(mContext);
+
+                    if (material >= 0)
+                    {
+                        pass.setMaterial(materials[material]);
+                    }
+                    if (!cullFace.isEmpty())
+                    {
+                        pass.setCullFace(SXRRenderPass.SXRCullFaceEnum.valueOf(cullFace));
+                    }
+                    if (p > 0)
+                    {
+                        rdata.addPass(pass);
+                    }
+                }
+                node.attachComponent(rdata);
+            }
+            if (parent >= 0)
+            {
+                nodes[parent].addChildObject(node);
+            }
+            return node;
+        }
+    }
+
+    /*
+     * Buffered little endian writer which keeps arrays 4 byte aligned.
+     */
+    private static final class Output
+    {
+        private final FileChannel mChannel;
+        private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        private long mPosition = 0;
+
+        Output(FileChannel channel)
+        {
+            mChannel = channel;
+        }
+
+        private void reserve(int n) throws IOException
+        {
+            if (mBuffer.remaining() < n)
+            {
+                flush();
+            }
+        }
+
+        void flush() throws IOException
+        {
+            mBuffer.flip();
+            while (mBuffer.hasRemaining())
+            {
+                mChannel.write(mBuffer);
+            }
+            mBuffer.clear();
+        }
+
+        void putInt(int v) throws IOException
+        {
+            reserve(4);
+            mBuffer.putInt(v);
+            mPosition += 4;
+        }
+
+        void putFloat(float v) throws IOException
+        {
+            reserve(4);
+            mBuffer.putFloat(v);
+            mPosition += 4;
+        }
+
+        void putString(String s) throws IOException
+        {
+            byte[] bytes = s.getBytes(UTF8);
+            putInt(bytes.length);
+            putBytes(ByteBuffer.wrap(bytes));
+        }
+
+        /*
+         * Writes the remaining bytes of the buffer and pads to 4 bytes.
+         */
+        void putBytes(ByteBuffer data) throws IOException
+        {
+            int n = data.remaining();
+
+            if (n > mBuffer.remaining())
+            {
+                flush();
+                while (data.hasRemaining())
+                {
+                    mChannel.write(data);
+                }
+            }
+            else
+            {
+                mBuffer.put(data);
+            }
+            mPosition += n;
+            while ((mPosition & 3) != 0)
+            {
+                reserve(1);
+                mBuffer.put((byte) 0);
+                ++mPosition;
+            }
+        }
+
+        void putFloats(FloatBuffer data) throws IOException
+        {
+            ByteBuffer bytes = ByteBuffer.allocate(data.remaining() * 4).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.asFloatBuffer().put(data.duplicate());
+            putBytes(bytes);
+        }
+
+        void putInts(IntBuffer data) throws IOException
+        {
+            ByteBuffer bytes = ByteBuffer.allocate(data.remaining() * 4).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.asIntBuffer().put(data.duplicate());
+            putBytes(bytes);
+        }
+
+        void putChars(CharBuffer data) throws IOException
+        {
+            ByteBuffer bytes = ByteBuffer.allocate(data.remaining() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.asCharBuffer().put(data.duplicate());
+            putBytes(bytes);
+        }
+    }
+}
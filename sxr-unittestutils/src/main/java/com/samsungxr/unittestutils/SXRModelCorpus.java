@@ -0,0 +1,292 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.samsungxr.unittestutils;
+
+import android.os.Environment;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The models of the jassimp/ and x3d/ trees at the top of the repository,
+ * read from the manifest model_corpus.json.
+ * <p>
+ * The manifest lists every model with the files it reads, the model file
+ * first, then buffers, materials, textures and inlines, each with its size
+ * and SHA-256. It is generated on the host by "scripts/model-cache manifest".
+ * <p>
+ * runtest pushes the trees and the manifest to /sdcard/SXRModelCorpus, models
+ * are then loaded from there. Without the local copy the manifest and the
+ * models are read from the repository on GitHub.
+ */
+public class SXRModelCorpus
+{
+    public static final String MANIFEST = "model_corpus.json";
+    public static final String LOCAL_DIR = "SXRModelCorpus";
+
+    /**
+     * A file a model reads, path relative to the top of the repository.
+     */
+    public static final class Dependency
+    {
+        public final String path;
+        public final long bytes;
+        public final String sha256;
+
+        Dependency(String path, long bytes, String sha256)
+        {
+            this.path = path;
+            this.bytes = bytes;
+            this.sha256 = sha256;
+        }
+    }
+
+    public static final class Model
+    {
+        public final String path;
+        /** the model file followed by the files it reads */
+        public final List<Dependency> files;
+
+        Model(String path, List<Dependency> files)
+        {
+            this.path = path;
+            this.files = Collections.unmodifiableList(files);
+        }
+
+        /**
+         * Returns the size of the model and all files it reads.
+         */
+        public long getBytes()
+        {
+            long bytes = 0;
+
+            for (Dependency file : files)
+            {
+                bytes += file.bytes;
+            }
+            return bytes;
+        }
+
+        /**
+         * Returns the key of the model in the {@link SXRModelCache}, the hex
+         * SHA-256 of a "path sha256\n" line for each file it reads. Changing
+         * any of the files, a gltf buffer or a texture as well as the model
+         * file, changes the key.
+         */
+        public String getKey()
+        {
+            StringBuilder lines = new StringBuilder();
+
+            for (Dependency file : files)
+            {
+                lines.append(file.path).append(' ').append(file.sha256).append('\n');
+            }
+            return SXRDigest.sha256(lines.toString().getBytes(Charset.forName("UTF-8")));
+        }
+
+        /**
+         * Returns the lower case extension of the model file.
+         */
+        public String getFormat()
+        {
+            int dot = path.lastIndexOf('.');
+            return (dot >= 0) ? path.substring(dot + 1).toLowerCase(Locale.US) : "";
+        }
+    }
+
+    private final List<Model> mModels;
+    private final String mBase;
+
+    private SXRModelCorpus(byte[] manifest, String base) throws IOException
+    {
+        mModels = parse(manifest);
+        mBase = base;
+    }
+
+    /**
+     * Reads the manifest of the local copy of the corpus if there is one,
+     * otherwise the manifest on GitHub.
+     */
+    public static SXRModelCorpus load() throws IOException
+    {
+        File local = new File(Environment.getExternalStorageDirectory(), LOCAL_DIR);
+        File manifest = new File(local, MANIFEST);
+
+        if (manifest.isFile())
+        {
+            InputStream stream = new FileInputStream(manifest);
+            try
+            {
+                return new SXRModelCorpus(SXRGoldenMasterCache.readFully(stream, (int) manifest.length()),
+                                          "sd:" + LOCAL_DIR + "/");
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+        InputStream stream = new URL(SXRTestUtils.GITHUB_URL + MANIFEST).openStream();
+        try
+        {
+            return new SXRModelCorpus(SXRGoldenMasterCache.readFully(stream, 0), SXRTestUtils.GITHUB_URL);
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Returns true if the models are loaded from the local copy.
+     */
+    public boolean isLocal()
+    {
+        return mBase.startsWith("sd:");
+    }
+
+    /**
+     * Returns all models, or the models below the given top level directory.
+     * @param tree "jassimp", "x3d" or null for all models.
+     */
+    public List<Model> getModels(String tree)
+    {
+        List<Model> models = new ArrayList<Model>();
+
+        for (Model model : mModels)
+        {
+            if ((tree == null) || model.path.startsWith(tree + "/"))
+            {
+                models.add(model);
+            }
+        }
+        return models;
+    }
+
+    /**
+     * Returns the model with the given path or null if the corpus does not have it.
+     */
+    public Model getModel(String path)
+    {
+        for (Model model : mModels)
+        {
+            if (model.path.equals(path))
+            {
+                return model;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the model a path passed to SXRAssetLoader.loadModel refers to,
+     * or null if it is not a model of the corpus. The path may be relative to
+     * the top of the repository, a GitHub URL or a path of the local copy.
+     */
+    public Model getModelForPath(String loadPath)
+    {
+        String path = loadPath;
+        String local = "sd:" + LOCAL_DIR + "/";
+
+        if (path.startsWith(SXRTestUtils.GITHUB_URL))
+        {
+            path = path.substring(SXRTestUtils.GITHUB_URL.length()).replace("%20", " ");
+        }
+        else if (path.startsWith(local))
+        {
+            path = path.substring(local.length());
+        }
+        while (path.startsWith("/"))
+        {
+            path = path.substring(1);
+        }
+        return getModel(path);
+    }
+
+    /**
+     * Reads a file of a model from wherever the models are loaded from.
+     */
+    public byte[] read(Dependency file) throws IOException
+    {
+        InputStream stream;
+
+        if (isLocal())
+        {
+            stream = new FileInputStream(new File(new File(Environment.getExternalStorageDirectory(), LOCAL_DIR),
+                                                  file.path));
+        }
+        else
+        {
+            stream = new URL(mBase + file.path.replace(" ", "%20")).openStream();
+        }
+        try
+        {
+            return SXRGoldenMasterCache.readFully(stream, (int) file.bytes);
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    /**
+     * Returns the path to pass to SXRAssetLoader.loadModel for a model.
+     */
+    public String getLoadPath(Model model)
+    {
+        return isLocal() ? mBase + model.path : mBase + model.path.replace(" ", "%20");
+    }
+
+    private static List<Model> parse(byte[] manifest) throws IOException
+    {
+        List<Model> models = new ArrayList<Model>();
+
+        try
+        {
+            JSONArray jsonModels = new JSONObject(new String(manifest, "UTF-8")).getJSONArray("models");
+
+            for (int i = 0; i < jsonModels.length(); ++i)
+            {
+                JSONObject jsonModel = jsonModels.getJSONObject(i);
+                JSONArray jsonFiles = jsonModel.getJSONArray("files");
+                List<Dependency> files = new ArrayList<Dependency>(jsonFiles.length());
+
+                for (int j = 0; j < jsonFiles.length(); ++j)
+                {
+                    JSONObject file = jsonFiles.getJSONObject(j);
+                    files.add(new Dependency(file.getString("path"), file.getLong("bytes"), file.getString("sha256")));
+                }
+                models.add(new Model(jsonModel.getString("path"), files));
+            }
+        }
+        catch (JSONException ex)
+        {
+            throw new IOException("Bad model corpus manifest: " + ex.getMessage());
+        }
+        return models;
+    }
+}
@@ -0,0 +1,145 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+import android.os.Build;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Machine readable result of a performance test.
+ * <p>
+ * Each result is written as "&lt;test&gt;_perf.json" into the results directory
+ * of its category, where scripts/runtest collects it. scripts/perf-compare
+ * compares collected results with the stored baselines of the device.
+ * <pre>
+ * {
+ *   "category": "QuadPerfTests", "test": "quad15x15",
+ *   "device": "SM-G935F", "device_type": "S7Edge", "fingerprint": "...",
+ *   "timestamp": 1520000000000,
+ *   "parameters": { "rows": 15, ... },
+ *   "metrics": { "load_ms": 12.5, ... },
+ *   "frames": { "p50_ms": 16.6, ..., "intervals_ns": [ ... ] }
+ * }
+ * </pre>
+ */
+public class SXRPerfResult
+{
+    private final String mCategory;
+    private final String mTestName;
+    private final Map<String, Object> mParameters = new LinkedHashMap<String, Object>();
+    private final Map<String, Double> mMetrics = new LinkedHashMap<String, Double>();
+    private SXRFrameStats mFrameStats = null;
+
+    /**
+     * @param category test class, used as directory name.
+     * @param testName name of the test, unique within the category.
+     */
+    public SXRPerfResult(String category, String testName)
+    {
+        mCategory = category;
+        mTestName = testName;
+    }
+
+    /**
+     * Records the parameters the test was run with.
+     */
+    public SXRPerfResult setParameters(Map<String, ?> parameters)
+    {
+        mParameters.putAll(parameters);
+        return this;
+    }
+
+    public SXRPerfResult setParameter(String name, Object value)
+    {
+        mParameters.put(name, value);
+        return this;
+    }
+
+    /**
+     * Records a single measured value, larger values must mean worse performance.
+     */
+    public SXRPerfResult setMetric(String name, double value)
+    {
+        mMetrics.put(name, value);
+        return this;
+    }
+
+    public SXRPerfResult setFrameStats(SXRFrameStats stats)
+    {
+        mFrameStats = stats;
+        return this;
+    }
+
+    public JSONObject toJSON() throws JSONException
+    {
+        JSONObject json = new JSONObject();
+        JSONObject parameters = new JSONObject();
+        JSONObject metrics = new JSONObject();
+
+        json.put("category", mCategory);
+        json.put("test", mTestName);
+        json.put("device", Build.MODEL);
+        json.put("device_type", SXRTestUtils.DEVICE_TYPE);
+        json.put("fingerprint", Build.FINGERPRINT);
+        json.put("timestamp", System.currentTimeMillis());
+        for (Map.Entry<String, Object> p : mParameters.entrySet())
+        {
+            parameters.put(p.getKey(), p.getValue());
+        }
+        json.put("parameters", parameters);
+        for (Map.Entry<String, Double> m : mMetrics.entrySet())
+        {
+            metrics.put(m.getKey(), m.getValue().doubleValue());
+        }
+        json.put("metrics", metrics);
+        if (mFrameStats != null)
+        {
+            json.put("frames", mFrameStats.toJSON(true));
+        }
+        return json;
+    }
+
+    /**
+     * Writes the result, and the frame intervals as CSV if there are any,
+     * into the results directory of the category.
+     * @return the JSON file written.
+     */
+    public File write() throws IOException
+    {
+        File dir = SXRTestUtils.getResultsDir(mCategory);
+        File file = new File(dir, mTestName + "_perf.json");
+
+        try
+        {
+            SXRFrameStats.writeText(file, toJSON().toString(2));
+        }
+        catch (JSONException ex)
+        {
+            throw new IOException("Cannot write performance result of " + mTestName + ": " + ex.getMessage());
+        }
+        if (mFrameStats != null)
+        {
+            mFrameStats.writeCsv(new File(dir, mTestName + "_frames.csv"));
+        }
+        return file;
+    }
+}
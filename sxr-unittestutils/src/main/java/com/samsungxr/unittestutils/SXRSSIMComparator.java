@@ -0,0 +1,162 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+import java.util.Arrays;
+
+/**
+ * Compares images by their mean structural similarity (SSIM).
+ * <p>
+ * SSIM is computed on the luminance of both images over non-overlapping
+ * square windows and averaged over all windows. It is 1 for identical
+ * images and is much less sensitive to antialiasing noise along edges
+ * than a sum of pixel deltas, while still catching missing or misplaced
+ * geometry and wrong shading.
+ * <p>
+ * The window statistics are accumulated as integers, so the result
+ * does not depend on evaluation order or on the device.
+ */
+public class SXRSSIMComparator implements SXRImageComparator
+{
+    public static final float DEFAULT_MIN_SSIM = 0.95f;
+    public static final float DEFAULT_NOTICEABLE_SSIM = 0.99f;
+    public static final int DEFAULT_WINDOW_SIZE = 8;
+
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    private final float mMinSSIM;
+    private final float mNoticeableSSIM;
+    private final int mWindowSize;
+
+    public SXRSSIMComparator()
+    {
+        this(DEFAULT_MIN_SSIM, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param minSSIM    smallest mean SSIM for which the images still match, in [0, 1].
+     * @param windowSize width and height of the windows in pixels.
+     */
+    public SXRSSIMComparator(float minSSIM, int windowSize)
+    {
+        if (windowSize < 2)
+        {
+            throw new IllegalArgumentException("SSIM window must be at least 2 pixels");
+        }
+        mMinSSIM = minSSIM;
+        mNoticeableSSIM = Math.max(DEFAULT_NOTICEABLE_SSIM, minSSIM);
+        mWindowSize = windowSize;
+    }
+
+    @Override
+    public Result compare(int[] golden, int[] screenshot, int width, int height, int[] diffPixels)
+    {
+        final int[] lumaX = luminance(golden, width * height);
+        final int[] lumaY = luminance(screenshot, width * height);
+        final int n = mWindowSize;
+        final int windowsX = (width + n - 1) / n;
+        final long[] sums = new long[windowsX * 5];
+        double total = 0;
+        int numWindows = 0;
+
+        for (int top = 0; top < height; top += n)
+        {
+            final int bottom = Math.min(top + n, height);
+
+            Arrays.fill(sums, 0);
+            for (int y = top; y < bottom; ++y)
+            {
+                final int row = y * width;
+                for (int w = 0; w < windowsX; ++w)
+                {
+                    final int end = row + Math.min((w + 1) * n, width);
+                    long sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+
+                    for (int i = row + w * n; i < end; ++i)
+                    {
+                        final int a = lumaX[i];
+                        final int b = lumaY[i];
+
+                        sx += a;
+                        sy += b;
+                        sxx += a * a;
+                        syy += b * b;
+                        sxy += a * b;
+                    }
+                    sums[w * 5] += sx;
+                    sums[w * 5 + 1] += sy;
+                    sums[w * 5 + 2] += sxx;
+                    sums[w * 5 + 3] += syy;
+                    sums[w * 5 + 4] += sxy;
+                }
+            }
+            for (int w = 0; w < windowsX; ++w)
+            {
+                final int left = w * n;
+                final int count = (Math.min(left + n, width) - left) * (bottom - top);
+                final double ssim = windowSSIM(sums, w * 5, count);
+
+                total += ssim;
+                ++numWindows;
+                if (diffPixels != null)
+                {
+                    fillWindow(diffPixels, width, left, top, Math.min(left + n, width), bottom, ssim);
+                }
+            }
+        }
+        float mean = (numWindows > 0) ? (float) (total / numWindows) : 1.0f;
+        return new Result("ssim", mean, mMinSSIM, mean >= mMinSSIM, mean < mNoticeableSSIM);
+    }
+
+    /*
+     * Rec. 601 luma in [0, 255] with integer weights.
+     */
+    static int[] luminance(int[] pixels, int numPixels)
+    {
+        final int[] luma = new int[numPixels];
+
+        for (int i = 0; i < numPixels; ++i)
+        {
+            final int p = pixels[i];
+            luma[i] = (77 * ((p >> 16) & 0xFF) + 150 * ((p >> 8) & 0xFF) + 29 * (p & 0xFF)) >> 8;
+        }
+        return luma;
+    }
+
+    private static double windowSSIM(long[] sums, int s, int count)
+    {
+        final double meanX = (double) sums[s] / count;
+        final double meanY = (double) sums[s + 1] / count;
+        final double varX = (double) sums[s + 2] / count - meanX * meanX;
+        final double varY = (double) sums[s + 3] / count - meanY * meanY;
+        final double cov = (double) sums[s + 4] / count - meanX * meanY;
+
+        return ((2 * meanX * meanY + C1) * (2 * cov + C2))
+               / ((meanX * meanX + meanY * meanY + C1) * (varX + varY + C2));
+    }
+
+    private static void fillWindow(int[] diffPixels, int width, int left, int top,
+                                   int right, int bottom, double ssim)
+    {
+        final int v = (int) Math.max(0, Math.min(255, Math.round((1.0 - ssim) * 255.0)));
+        final int color = 0xFF000000 | (v << 16) | (v << 8) | v;
+
+        for (int y = top; y < bottom; ++y)
+        {
+            Arrays.fill(diffPixels, y * width + left, y * width + right, color);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Chooses how the screenshots taken by a test method are compared with their golden masters.
+ * <pre>
+ * &#64;Test
+ * &#64;SXRScreenshotComparison(value = Strategy.SSIM, threshold = 0.97f)
+ * public void canRenderText() ...
+ * </pre>
+ * The test passes the comparator to the screenshot it takes:
+ * <pre>
+ * mTestUtils.screenShot(category, "canRenderText", mWaiter,
+ *                       SXRImageComparators.forTest(getClass(), "canRenderText"));
+ * </pre>
+ * Tests without the annotation use {@link SXRSumDiffComparator}.
+ * @see SXRImageComparators#forTest(Class, String)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SXRScreenshotComparison
+{
+    enum Strategy
+    {
+        /** sum of all pixel deltas, see {@link SXRSumDiffComparator} */
+        SUM_DIFF,
+        /** mean structural similarity, see {@link SXRSSIMComparator} */
+        SSIM,
+        /** worst mean error of a tile, see {@link SXRTileErrorComparator} */
+        TILE_ERROR
+    }
+
+    Strategy value() default Strategy.SUM_DIFF;
+
+    /**
+     * Limit for the score of the strategy: the largest diff, the smallest SSIM
+     * or the largest tile error. Negative selects the default of the strategy.
+     */
+    float threshold() default -1.0f;
+
+    /**
+     * SSIM window or tile size in pixels, 0 selects the default of the strategy.
+     */
+    int size() default 0;
+
+    /**
+     * Regions to ignore, 4 values per region: left, top, right (exclusive), bottom (exclusive).
+     */
+    int[] ignore() default {};
+}
@@ -0,0 +1,290 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+import android.graphics.Bitmap;
+
+import com.samsungxr.utility.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves a captured screenshot and compares it with its golden master.
+ * <p>
+ * The screenshot is handed to the {@link SXRScreenshotWriter} of the tests,
+ * which stores it in /sdcard/GearVRFTests/$category$/ while it is compared.
+ * A diff image is stored next to it if the comparison finds a noticeable
+ * difference. A job runs once, on the capture thread for {@link SXRTestUtils#screenShot}
+ * or on a {@link SXRScreenshotPipeline} thread for {@link SXRTestUtils#screenShotAsync}.
+ * The bitmap is recycled once it is written and compared.
+ * <p>
+ * {@link #run()} returns while the images are still being written,
+ * {@link #await} waits until they are on disk and every failure is known.
+ */
+public final class SXRScreenshotJob implements Runnable
+{
+    private static final String TAG = SXRScreenshotJob.class.getSimpleName();
+
+    private final String mCategory;
+    private final String mTestName;
+    private final SXRImageComparator mComparator;
+    private final Bitmap mBitmap;
+    private final AtomicInteger mBitmapRefs = new AtomicInteger(1);
+    private volatile SXRImageComparator.Result mResult = null;
+    private volatile Throwable mFailure = null;
+    private int mPendingWrites = 0;
+    private boolean mRunDone = false;
+    private Runnable mWhenDone = null;
+
+    /**
+     * @param category   directory to store screenshots in.
+     * @param testName   name of the screenshot.
+     * @param bitmap     captured screenshot, recycled when the job is done.
+     * @param comparator how to compare with the golden master, null to only save the screenshot.
+     */
+    SXRScreenshotJob(String category, String testName, Bitmap bitmap, SXRImageComparator comparator)
+    {
+        mCategory = category;
+        mTestName = testName;
+        mBitmap = bitmap;
+        mComparator = comparator;
+    }
+
+    /**
+     * Sets what to do once the job has run and its images are written,
+     * called on the thread which finished last. Must be set before the job runs.
+     */
+    synchronized void setWhenDone(Runnable whenDone)
+    {
+        mWhenDone = whenDone;
+    }
+
+    public String getCategory() { return mCategory; }
+    public String getTestName() { return mTestName; }
+
+    /**
+     * Returns the outcome of the comparison, null if there was none or it could not be done.
+     */
+    public SXRImageComparator.Result getResult() { return mResult; }
+
+    /**
+     * Returns why the screenshot could not be saved or did not match, null if it passed.
+     */
+    public Throwable getFailure() { return mFailure; }
+
+    /**
+     * Waits until the job has run and the screenshot and its diff image are written.
+     * @return false if the timeout expired first.
+     */
+    public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        final long end = System.nanoTime() + unit.toNanos(timeout);
+
+        while (!mRunDone || (mPendingWrites > 0))
+        {
+            final long left = end - System.nanoTime();
+            if (left <= 0)
+            {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            mBitmapRefs.incrementAndGet();
+            write(mTestName, mBitmap, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    releaseBitmap();
+                }
+            });
+            if (mComparator != null)
+            {
+                compareWithGolden();
+            }
+        }
+        catch (Throwable t)
+        {
+            Log.e(mCategory, "Screenshot %s failed: %s", mTestName, t.getMessage());
+            setFailure(t);
+        }
+        finally
+        {
+            releaseBitmap();
+            synchronized (this)
+            {
+                mRunDone = true;
+                notifyAll();
+            }
+            checkDone();
+        }
+    }
+
+    private void compareWithGolden() throws IOException, InterruptedException
+    {
+        final String testname = mTestName + ".png";
+        final Bitmap screenshot = mBitmap;
+
+        Log.v(TAG, "Fetching golden master %s/%s", mCategory, testname);
+        SXRTestUtils.GoldenImage golden = SXRTestUtils.getGoldenImage(mCategory + "/" + testname);
+        if (golden == null)
+        {
+            throw new FileNotFoundException("No golden master for " + SXRTestUtils.DEVICE_TYPE
+                                            + "/" + mCategory + "/" + testname);
+        }
+        final int goldenHeight = golden.height;
+        final int goldenWidth = golden.width;
+
+        if ((goldenWidth != screenshot.getWidth()) || (goldenHeight != screenshot.getHeight()))
+        {
+            throw new AssertionError("Screenshot " + mTestName + " is " + screenshot.getWidth() + "x"
+                                     + screenshot.getHeight() + ", golden master is "
+                                     + goldenWidth + "x" + goldenHeight);
+        }
+        final int[] diffPixels = new int[goldenHeight * goldenWidth];
+        final int[] screenshotPixels = new int[goldenHeight * goldenWidth];
+
+        screenshot.getPixels(screenshotPixels, 0, goldenWidth, 0, 0, goldenWidth, goldenHeight);
+        SXRImageComparator.Result result = mComparator.compare(golden.pixels, screenshotPixels,
+                                                               goldenWidth, goldenHeight, diffPixels);
+        mResult = result;
+        Log.e(mCategory, "RESULT: %s %s %s", mCategory, mTestName, result);
+        Log.d(TAG, SXRTestUtils.getGoldenMasterStatistics());
+        if (result.noticeable)
+        {
+            final Bitmap diffBitmap = Bitmap.createBitmap(diffPixels, goldenWidth, goldenHeight,
+                                                    Bitmap.Config.ARGB_8888);
+            write("diff_" + mTestName, diffBitmap, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    diffBitmap.recycle();
+                }
+            });
+        }
+        if (!result.passed)
+        {
+            throw new AssertionError("Screenshot " + mCategory + "/" + mTestName
+                                     + " does not match golden master: " + result);
+        }
+    }
+
+    /*
+     * Queues a bitmap for writing, whenDone is called once it has been
+     * written or could not be written. It is also called if the bitmap
+     * cannot be queued, the exception is passed on then.
+     */
+    private void write(final String name, Bitmap bitmap, final Runnable whenDone)
+            throws InterruptedException
+    {
+        boolean queued = false;
+
+        synchronized (this)
+        {
+            ++mPendingWrites;
+        }
+        try
+        {
+            SXRTestUtils.getScreenshotWriter().write(mCategory, name, bitmap, new SXRScreenshotWriter.Listener()
+            {
+                @Override
+                public void onWritten(File file, Throwable failure)
+                {
+                    if (failure != null)
+                    {
+                        setFailure(new IOException("Cannot save screenshot " + mCategory + "/" + name, failure));
+                    }
+                    else
+                    {
+                        Log.d(mCategory, "Saved screenshot of %s", name);
+                    }
+                    writeDone(whenDone);
+                }
+            });
+            queued = true;
+        }
+        finally
+        {
+            if (!queued)
+            {
+                writeDone(whenDone);
+            }
+        }
+    }
+
+    private void writeDone(Runnable whenDone)
+    {
+        try
+        {
+            whenDone.run();
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                --mPendingWrites;
+                notifyAll();
+            }
+            checkDone();
+        }
+    }
+
+    private void checkDone()
+    {
+        Runnable whenDone = null;
+
+        synchronized (this)
+        {
+            if (mRunDone && (mPendingWrites == 0))
+            {
+                whenDone = mWhenDone;
+                mWhenDone = null;
+            }
+        }
+        if (whenDone != null)
+        {
+            whenDone.run();
+        }
+    }
+
+    private synchronized void setFailure(Throwable failure)
+    {
+        if (mFailure == null)
+        {
+            mFailure = failure;
+        }
+    }
+
+    private void releaseBitmap()
+    {
+        if (mBitmapRefs.decrementAndGet() == 0)
+        {
+            mBitmap.recycle();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+import com.samsungxr.utility.Log;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Saves and compares screenshots on background threads.
+ * <p>
+ * {@link SXRTestUtils#screenShotAsync} hands each capture to the pipeline and
+ * returns, the test continues while earlier screenshots are encoded, written
+ * and compared. At most {@link #getMaxPending()} screenshots are in flight,
+ * a capture which would exceed that waits for an earlier one to be written
+ * and compared so a test taking many screenshots cannot run out of memory.
+ * <p>
+ * The pipeline is shared by all tests. Every screenshot is submitted for an
+ * owner, usually the {@link SXRTestUtils} of the test, and the owner collects
+ * its own results with {@link #awaitAll}, typically when the test is torn down.
+ */
+public class SXRScreenshotPipeline
+{
+    private static final String TAG = SXRScreenshotPipeline.class.getSimpleName();
+
+    private final ExecutorService mExecutor;
+    private final Semaphore mPending;
+    private final int mMaxPending;
+    private final Map<Object, List<SXRScreenshotJob>> mJobs = new IdentityHashMap<Object, List<SXRScreenshotJob>>();
+
+    /**
+     * @param numThreads number of threads saving and comparing screenshots.
+     * @param maxPending maximum number of screenshots captured but not done yet.
+     */
+    public SXRScreenshotPipeline(int numThreads, int maxPending)
+    {
+        if ((numThreads < 1) || (maxPending < numThreads))
+        {
+            throw new IllegalArgumentException("need at least one thread and one pending screenshot per thread");
+        }
+        mMaxPending = maxPending;
+        mPending = new Semaphore(maxPending);
+        mExecutor = Executors.newFixedThreadPool(numThreads, new ThreadFactory()
+        {
+            private int mThreadCount = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "SXRScreenshotPipeline-" + mThreadCount++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public int getMaxPending()
+    {
+        return mMaxPending;
+    }
+
+    /**
+     * Queues a screenshot, waits if {@link #getMaxPending()} screenshots are already queued.
+     * The screenshot counts as queued until it is written and compared.
+     * @param owner whose screenshot it is, the one to pass to {@link #awaitAll}.
+     */
+    void submit(Object owner, final SXRScreenshotJob job) throws InterruptedException
+    {
+        mPending.acquire();
+        synchronized (mJobs)
+        {
+            List<SXRScreenshotJob> jobs = mJobs.get(owner);
+            if (jobs == null)
+            {
+                jobs = new ArrayList<SXRScreenshotJob>();
+                mJobs.put(owner, jobs);
+            }
+            jobs.add(job);
+        }
+        job.setWhenDone(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mPending.release();
+            }
+        });
+        mExecutor.execute(job);
+    }
+
+    /**
+     * Waits for the screenshots of an owner and returns them.
+     * The pipeline holds none of its screenshots afterwards.
+     * @param owner   the owner the screenshots were submitted for.
+     * @param timeout longest time to wait.
+     * @param unit    unit of the timeout.
+     * @return the finished jobs in the order they were captured.
+     */
+    public List<SXRScreenshotJob> awaitAll(Object owner, long timeout, TimeUnit unit)
+            throws InterruptedException, TimeoutException
+    {
+        final long end = System.nanoTime() + unit.toNanos(timeout);
+        List<SXRScreenshotJob> jobs;
+
+        synchronized (mJobs)
+        {
+            jobs = mJobs.remove(owner);
+        }
+        if (jobs == null)
+        {
+            return new ArrayList<SXRScreenshotJob>();
+        }
+        for (SXRScreenshotJob job : jobs)
+        {
+            if (!job.await(Math.max(0, end - System.nanoTime()), TimeUnit.NANOSECONDS))
+            {
+                throw new TimeoutException("Screenshot " + job.getCategory() + "/" + job.getTestName()
+                                           + " still pending after " + unit.toMillis(timeout) + " ms");
+            }
+        }
+        Log.d(TAG, "%d screenshots done", jobs.size());
+        return jobs;
+    }
+
+    public void shutdown()
+    {
+        mExecutor.shutdown();
+    }
+}
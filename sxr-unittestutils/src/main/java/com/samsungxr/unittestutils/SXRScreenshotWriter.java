@@ -0,0 +1,523 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.samsungxr.unittestutils;
+
+import android.graphics.Bitmap;
+
+import com.samsungxr.utility.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes screenshots to external storage on a background thread.
+ * <p>
+ * Screenshots are encoded straight into the file, no encoded copy of the
+ * image is kept in memory. Three encodings are available:
+ * <ul>
+ * <li>PNG with a zlib compression level from {@link Deflater#BEST_SPEED} to
+ *     {@link Deflater#BEST_COMPRESSION}, encoded row by row into a buffered stream.</li>
+ * <li>PNG with {@link #PLATFORM_COMPRESSION}, encoded by {@link Bitmap#compress}.</li>
+ * <li>{@link Format#RAW_RGBA}, the pixels copied into a memory mapped file as they are
+ *     in the bitmap (premultiplied RGBA, 4 bytes per pixel). The file name contains the
+ *     size, e.g. "canEnableLight_1024x1024.rgba", to convert it with ImageMagick use
+ *     <code>convert -size 1024x1024 -depth 8 rgba:canEnableLight_1024x1024.rgba out.png</code>.</li>
+ * </ul>
+ * At most {@link #MAX_PENDING} screenshots wait to be written, {@link #write} blocks
+ * when there are more. Encode time and bytes written are accumulated per category,
+ * which is the test class. {@link #writeStatistics()} writes them as the
+ * "screenshotWriter" performance result of each category, the test activity
+ * does that when it is destroyed so no result file is written while screenshots
+ * are being timed.
+ */
+public class SXRScreenshotWriter
+{
+    private static final String TAG = SXRScreenshotWriter.class.getSimpleName();
+
+    /**
+     * Compression level which encodes PNG files with {@link Bitmap#compress}.
+     */
+    public static final int PLATFORM_COMPRESSION = -1;
+
+    /**
+     * Maximum number of screenshots waiting to be written.
+     */
+    public static final int MAX_PENDING = 4;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    public enum Format
+    {
+        PNG,
+        RAW_RGBA
+    }
+
+    /**
+     * Called on the writer thread when a screenshot has been written or could not be written.
+     */
+    public interface Listener
+    {
+        /**
+         * @param file    file written, null if the screenshot could not be written.
+         * @param failure why the screenshot could not be written, null if it was.
+         */
+        void onWritten(File file, Throwable failure);
+    }
+
+    /**
+     * Accumulated cost of writing the screenshots of one category.
+     */
+    public static final class Statistics
+    {
+        public int screenshots;
+        public int failures;
+        public long bytesWritten;
+        public long pixelBytes;
+        public long encodeNanos;
+
+        /**
+         * Returns the uncompressed image data encoded per second in MB.
+         */
+        public double getEncodeMBPerSecond()
+        {
+            return (encodeNanos > 0) ? (pixelBytes * 1000.0) / encodeNanos : 0.0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d screenshots, %d failed, %d KB written, %.1f ms/screenshot, %.1f MB/s",
+                                 screenshots, failures, bytesWritten / 1024,
+                                 (screenshots > 0) ? encodeNanos / (screenshots * 1000000.0) : 0.0,
+                                 getEncodeMBPerSecond());
+        }
+    }
+
+    private final File mRootDir;
+    private final Format mFormat;
+    private final int mCompressionLevel;
+    private final ExecutorService mExecutor;
+    private final Semaphore mPending = new Semaphore(MAX_PENDING);
+    private final Map<String, Statistics> mStatistics = new HashMap<String, Statistics>();
+    private final Set<String> mChangedCategories = new HashSet<String>();
+
+    /**
+     * @param rootDir          screenshots are written into a subdirectory per category of this directory.
+     * @param format           file format.
+     * @param compressionLevel zlib compression level for PNG files, {@link Deflater#BEST_SPEED}
+     *                         to {@link Deflater#BEST_COMPRESSION} or {@link #PLATFORM_COMPRESSION}.
+     *                         Ignored for raw files.
+     */
+    public SXRScreenshotWriter(File rootDir, Format format, int compressionLevel)
+    {
+        if ((compressionLevel != PLATFORM_COMPRESSION)
+            && ((compressionLevel < Deflater.NO_COMPRESSION) || (compressionLevel > Deflater.BEST_COMPRESSION)))
+        {
+            throw new IllegalArgumentException("invalid compression level " + compressionLevel);
+        }
+        mRootDir = rootDir;
+        mFormat = format;
+        mCompressionLevel = compressionLevel;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, TAG);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public Format getFormat() { return mFormat; }
+    public int getCompressionLevel() { return mCompressionLevel; }
+
+    /**
+     * Queues a screenshot for writing, waits if {@link #MAX_PENDING} screenshots are queued.
+     * The bitmap must not be recycled before the listener has been called.
+     * @param category  subdirectory to write the screenshot to.
+     * @param name      file name without extension.
+     * @param bitmap    ARGB_8888 bitmap to write.
+     * @param listener  called when the screenshot has been written, may be null.
+     *                  It is not called if this throws.
+     */
+    public void write(final String category, final String name, final Bitmap bitmap,
+                      final Listener listener) throws InterruptedException
+    {
+        mPending.acquire();
+        try
+        {
+            mExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    File file = null;
+                    Throwable failure = null;
+
+                    try
+                    {
+                        file = writeNow(category, name, bitmap);
+                    }
+                    catch (Throwable t)
+                    {
+                        Log.e(TAG, "Cannot write screenshot %s/%s: %s", category, name, t.getMessage());
+                        failure = t;
+                    }
+                    finally
+                    {
+                        mPending.release();
+                    }
+                    if (listener != null)
+                    {
+                        listener.onWritten(file, failure);
+                    }
+                }
+            });
+        }
+        catch (RuntimeException ex)
+        {
+            mPending.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Waits until all queued screenshots are written.
+     */
+    public void flush(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException
+    {
+        if (!mPending.tryAcquire(MAX_PENDING, timeout, unit))
+        {
+            throw new TimeoutException("screenshots still being written after " + unit.toMillis(timeout) + " ms");
+        }
+        mPending.release(MAX_PENDING);
+    }
+
+    /**
+     * Returns a copy of the statistics of a category, null if it has no screenshots.
+     */
+    public Statistics getStatistics(String category)
+    {
+        synchronized (mStatistics)
+        {
+            Statistics stats = mStatistics.get(category);
+            if (stats == null)
+            {
+                return null;
+            }
+            Statistics copy = new Statistics();
+            copy.screenshots = stats.screenshots;
+            copy.failures = stats.failures;
+            copy.bytesWritten = stats.bytesWritten;
+            copy.pixelBytes = stats.pixelBytes;
+            copy.encodeNanos = stats.encodeNanos;
+            return copy;
+        }
+    }
+
+    public void shutdown()
+    {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Writes a screenshot on the calling thread.
+     * @return the file written.
+     */
+    File writeNow(String category, String name, Bitmap bitmap) throws IOException
+    {
+        File dir = new File(mRootDir, category);
+        File file;
+        long start = System.nanoTime();
+        long bytesWritten = -1;
+
+        dir.mkdirs();
+        try
+        {
+            if (mFormat == Format.RAW_RGBA)
+            {
+                file = new File(dir, name + "_" + bitmap.getWidth() + "x" + bitmap.getHeight() + ".rgba");
+                writeRaw(file, bitmap);
+            }
+            else
+            {
+                file = new File(dir, name + ".png");
+                OutputStream stream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+                try
+                {
+                    if (mCompressionLevel == PLATFORM_COMPRESSION)
+                    {
+                        if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, stream))
+                        {
+                            throw new IOException("Cannot encode " + file.getPath());
+                        }
+                    }
+                    else
+                    {
+                        writePng(stream, bitmap, mCompressionLevel);
+                    }
+                }
+                finally
+                {
+                    stream.close();
+                }
+            }
+            bytesWritten = file.length();
+        }
+        finally
+        {
+            long nanos = System.nanoTime() - start;
+            synchronized (mStatistics)
+            {
+                Statistics stats = mStatistics.get(category);
+                if (stats == null)
+                {
+                    stats = new Statistics();
+                    mStatistics.put(category, stats);
+                }
+                if (bytesWritten >= 0)
+                {
+                    stats.screenshots++;
+                    stats.bytesWritten += bytesWritten;
+                    stats.encodeNanos += nanos;
+                    stats.pixelBytes += 4L * bitmap.getWidth() * bitmap.getHeight();
+                }
+                else
+                {
+                    stats.failures++;
+                }
+                mChangedCategories.add(category);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes the statistics of every category with screenshots since the last call.
+     */
+    public void writeStatistics()
+    {
+        List<String> categories;
+
+        synchronized (mStatistics)
+        {
+            categories = new ArrayList<String>(mChangedCategories);
+            mChangedCategories.clear();
+        }
+        for (String category : categories)
+        {
+            writeStatistics(category);
+        }
+    }
+
+    private void writeStatistics(String category)
+    {
+        Statistics stats = getStatistics(category);
+
+        Log.d(TAG, "%s: %s", category, stats);
+        if (stats.screenshots == 0)
+        {
+            return;
+        }
+        try
+        {
+            new SXRPerfResult(category, "screenshotWriter")
+                    .setParameter("format", mFormat.name())
+                    .setParameter("compression", mCompressionLevel)
+                    .setParameter("screenshots", stats.screenshots)
+                    .setMetric("ms_per_screenshot", stats.encodeNanos / (stats.screenshots * 1000000.0))
+                    .setMetric("kbytes_per_screenshot", stats.bytesWritten / (stats.screenshots * 1024.0))
+                    .write();
+        }
+        catch (IOException ex)
+        {
+            Log.e(TAG, "Cannot write screenshot statistics of %s: %s", category, ex.getMessage());
+        }
+    }
+
+    private static void writeRaw(File file, Bitmap bitmap) throws IOException
+    {
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888)
+        {
+            throw new IOException("Only ARGB_8888 screenshots can be written raw");
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            int size = bitmap.getByteCount();
+
+            raf.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            bitmap.copyPixelsToBuffer(buffer);
+            buffer.force();
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /*
+     * Minimal streaming PNG encoder: 8 bit RGBA, no interlacing, every row
+     * uses the Sub filter, which is cheap and helps zlib a lot on rendered images.
+     * Only one row of pixels is held in memory at a time.
+     */
+    static void writePng(OutputStream stream, Bitmap bitmap, int level) throws IOException
+    {
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        final int[] pixels = new int[width];
+        final byte[] row = new byte[1 + 4 * width];
+        final byte[] header = new byte[13];
+        final ChunkWriter idat = new ChunkWriter(stream, "IDAT");
+        final Deflater deflater = new Deflater(level);
+        final byte[] compressed = new byte[BUFFER_SIZE];
+
+        stream.write(PNG_SIGNATURE);
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;          // bit depth
+        header[9] = 6;          // color type RGBA
+        writeChunk(stream, "IHDR", header, header.length);
+        try
+        {
+            row[0] = 1;         // Sub filter
+            for (int y = 0; y < height; ++y)
+            {
+                bitmap.getPixels(pixels, 0, width, 0, y, width, 1);
+                int prev = 0;
+                for (int x = 0, i = 1; x < width; ++x, i += 4)
+                {
+                    int p = pixels[x];
+                    row[i] = (byte) ((p >> 16) - (prev >> 16));
+                    row[i + 1] = (byte) ((p >> 8) - (prev >> 8));
+                    row[i + 2] = (byte) (p - prev);
+                    row[i + 3] = (byte) ((p >>> 24) - (prev >>> 24));
+                    prev = p;
+                }
+                deflater.setInput(row);
+                while (!deflater.needsInput())
+                {
+                    int n = deflater.deflate(compressed);
+                    idat.write(compressed, 0, n);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished())
+            {
+                int n = deflater.deflate(compressed);
+                idat.write(compressed, 0, n);
+            }
+            idat.flush();
+        }
+        finally
+        {
+            deflater.end();
+        }
+        writeChunk(stream, "IEND", header, 0);
+    }
+
+    private static void writeChunk(OutputStream stream, String type, byte[] data, int length)
+            throws IOException
+    {
+        byte[] bytes = new byte[4];
+        CRC32 crc = new CRC32();
+        byte[] typeBytes = type.getBytes("US-ASCII");
+
+        putInt(bytes, 0, length);
+        stream.write(bytes);
+        stream.write(typeBytes);
+        stream.write(data, 0, length);
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        putInt(bytes, 0, (int) crc.getValue());
+        stream.write(bytes);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value)
+    {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /*
+     * Collects compressed data into chunks of at most BUFFER_SIZE bytes.
+     */
+    private static final class ChunkWriter
+    {
+        private final OutputStream mStream;
+        private final String mType;
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+        private int mLength = 0;
+
+        ChunkWriter(OutputStream stream, String type)
+        {
+            mStream = stream;
+            mType = type;
+        }
+
+        void write(byte[] data, int offset, int length) throws IOException
+        {
+            while (length > 0)
+            {
+                int n = Math.min(length, mBuffer.length - mLength);
+                System.arraycopy(data, offset, mBuffer, mLength, n);
+                mLength += n;
+                offset += n;
+                length -= n;
+                if (mLength == mBuffer.length)
+                {
+                    flush();
+                }
+            }
+        }
+
+        void flush() throws IOException
+        {
+            if (mLength > 0)
+            {
+                writeChunk(mStream, mType, mBuffer, mLength);
+                mLength = 0;
+            }
+        }
+    }
+}
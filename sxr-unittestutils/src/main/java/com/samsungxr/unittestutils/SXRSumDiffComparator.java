@@ -0,0 +1,73 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+/**
+ * Compares images by the sum of the absolute RGB deltas of all pixels,
+ * each channel normalized to [0, 1]. This is the metric the screenshot
+ * tests have always used and the default if a test does not choose one.
+ */
+public class SXRSumDiffComparator implements SXRImageComparator
+{
+    public static final float DEFAULT_MAX_DIFF = 30000.0f;
+    public static final float DEFAULT_NOTICEABLE_DIFF = 2000.0f;
+
+    private final float mMaxDiff;
+    private final float mNoticeableDiff;
+    private final SXRImageDiff mEngine;
+
+    public SXRSumDiffComparator()
+    {
+        this(DEFAULT_MAX_DIFF);
+    }
+
+    /**
+     * @param maxDiff largest difference for which the images still match.
+     */
+    public SXRSumDiffComparator(float maxDiff)
+    {
+        this(maxDiff, SXRImageDiff.getDefault());
+    }
+
+    /**
+     * @param maxDiff largest difference for which the images still match.
+     * @param engine  diff engine to use, null to compare on the calling thread.
+     *                Callers which already compare several images in parallel
+     *                pass null so they do not queue up on the shared engine.
+     */
+    public SXRSumDiffComparator(float maxDiff, SXRImageDiff engine)
+    {
+        mMaxDiff = maxDiff;
+        mNoticeableDiff = Math.min(DEFAULT_NOTICEABLE_DIFF, maxDiff);
+        mEngine = engine;
+    }
+
+    @Override
+    public Result compare(int[] golden, int[] screenshot, int width, int height, int[] diffPixels)
+            throws InterruptedException
+    {
+        float diff;
+
+        if (mEngine != null)
+        {
+            diff = mEngine.compare(golden, screenshot, width, height, diffPixels);
+        }
+        else
+        {
+            diff = SXRImageDiff.toDiff(SXRImageDiff.diffRows(golden, screenshot, diffPixels, width, 0, height));
+        }
+        return new Result("diff", diff, mMaxDiff, diff <= mMaxDiff, diff > mNoticeableDiff);
+    }
+}
@@ -17,7 +17,6 @@ package com.samsungxr.unittestutils;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Color;
 import android.mtp.MtpConstants;
 import android.os.Build;
 import android.os.Environment;
@@ -30,19 +29,18 @@ import com.samsungxr.SXRScene;
 import com.samsungxr.SXRNode;
 import com.samsungxr.SXRScreenshotCallback;
 import com.samsungxr.utility.Log;
-import com.samsungxr.utility.Threads;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
 
 
 /**
@@ -51,19 +49,57 @@ import java.util.concurrent.locks.ReentrantLock;
 public class SXRTestUtils implements SXRMainMonitor {
     private static final String TAG = SXRTestUtils.class.getSimpleName();
     private static final String DEFAULT_DEVICE_TYPE = "S7Edge";
-    public static final String DEVICE_TYPE = GetDeviceType();
     public static final String GITHUB_URL = "https://raw.githubusercontent.com/sxrsdk/sxrsdk-tests/master/";
     private static final String GOLDEN_MASTERS_BASE_URL = GITHUB_URL + "golden_masters/";
+    /**
+     * Local copy of the golden_masters tree, relative to external storage.
+     * Push it with "adb push golden_masters /sdcard/SXRGoldenMasters".
+     */
+    public static final String LOCAL_GOLDEN_MASTERS_DIR = "SXRGoldenMasters";
+    private static final String GOLDEN_MASTERS_CACHE_DIR = "SXRGoldenMastersCache";
+    private static final String RESULTS_DIR = "SXRTests";
+    private static final int MAX_DECODED_GOLDEN_MASTERS = 4;
+
+    private static SXRGoldenMasterStore sGoldenMasterStore = createDefaultGoldenMasterStore();
+    private static final Map<String, GoldenImage> sDecodedGoldenMasters =
+            new LinkedHashMap<String, GoldenImage>(MAX_DECODED_GOLDEN_MASTERS + 1, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, GoldenImage> eldest)
+                {
+                    return size() > MAX_DECODED_GOLDEN_MASTERS;
+                }
+            };
+    private static int sDecodeHits = 0;
+    private static int sDecodeMisses = 0;
+
+    public static final String DEVICE_TYPE = GetDeviceType();
+    /**
+     * @deprecated golden masters are no longer stored per device directory,
+     * read them with {@link #getGoldenMasterStore()}.
+     */
+    @Deprecated
     public static final String GOLDEN_MASTERS_URL = GOLDEN_MASTERS_BASE_URL + DEVICE_TYPE;
 
     protected static final int SCREENSHOT_TEST_TIMEOUT = 80000;
+    private static final int SCREENSHOT_THREADS = 2;
+    private static final int SCREENSHOT_MAX_PENDING = 4;
+    private static SXRScreenshotPipeline sScreenshotPipeline = null;
+    private static final String SCREENSHOT_DIR = "GearVRFTests";
+    private static SXRScreenshotWriter sScreenshotWriter = null;
+    /**
+     * Converted test models, relative to external storage.
+     * scripts/runtest keeps it in sync with a ModelCache directory on the host.
+     */
+    public static final String MODEL_CACHE_DIR = "SXRModelCache";
+    private static SXRModelCache sModelCache = null;
+    private static SXRModelCorpus sModelCorpus = null;
+    private static boolean sModelCorpusRead = false;
 
     private SXRContext sxrContext;
     private final CountDownLatch onInitLatch = new CountDownLatch(1);
     private final CountDownLatch onStepLatch = new CountDownLatch(1);
     private final Object onScreenshotLock;
-    private final Object xFramesLock;
-    private boolean mFramesLockDone = true;
     private final Object onAssetLock;
     private SXRTestableMain testableMain;
     private SXRScene mainScene;
@@ -85,7 +121,6 @@ public class SXRTestUtils implements SXRMainMonitor {
      */
     public SXRTestUtils(SXRTestableActivity testableSXRActivity, OnInitCallback onInitCallback) {
         sxrContext = null;
-        xFramesLock = new Object();
         onScreenshotLock = new Object();
         onAssetLock = new Object();
         this.onInitCallback = onInitCallback;
@@ -102,12 +137,98 @@ public class SXRTestUtils implements SXRMainMonitor {
     }
 
     private static String GetDeviceType() {
-        String TryUrl = GOLDEN_MASTERS_BASE_URL + Build.MODEL;
         try {
-            return new BufferedReader(new InputStreamReader(new URL(TryUrl).openStream())).readLine().trim();
+            byte[] redirect = sGoldenMasterStore.read(Build.MODEL);
+            if (redirect != null) {
+                return new String(redirect, "UTF-8").trim();
+            }
         } catch (Exception ex) {
-            Log.e(TAG,"Golden master redirect not found: " + TryUrl);
-            return DEFAULT_DEVICE_TYPE;
+            Log.e(TAG, "Cannot read golden master redirect for " + Build.MODEL, ex);
+        }
+        Log.e(TAG,"Golden master redirect not found: " + Build.MODEL);
+        return DEFAULT_DEVICE_TYPE;
+    }
+
+    private static SXRGoldenMasterStore createDefaultGoldenMasterStore() {
+        File sdcard = Environment.getExternalStorageDirectory();
+        return new SXRManifestGoldenMasterStore(
+                new SXRGoldenMasterCache(new File(sdcard, GOLDEN_MASTERS_CACHE_DIR),
+                        new SXRDirectoryGoldenMasterStore(new File(sdcard, LOCAL_GOLDEN_MASTERS_DIR)),
+                        new SXRUrlGoldenMasterStore(GOLDEN_MASTERS_BASE_URL)));
+    }
+
+    /**
+     * Replaces the store golden masters are read from. By default golden masters
+     * are resolved through the device manifests of the golden_masters tree and read
+     * through a content-addressed cache on external storage, which is filled
+     * from {@link #LOCAL_GOLDEN_MASTERS_DIR} or else from GitHub.
+     * @param store store to use for all subsequent screenshot comparisons.
+     */
+    public static synchronized void setGoldenMasterStore(SXRGoldenMasterStore store) {
+        if (store == null) {
+            throw new IllegalArgumentException("golden master store cannot be null");
+        }
+        sGoldenMasterStore = store;
+        sDecodedGoldenMasters.clear();
+    }
+
+    public static synchronized SXRGoldenMasterStore getGoldenMasterStore() {
+        return sGoldenMasterStore;
+    }
+
+    /**
+     * Returns a one line summary of golden master cache and decode statistics.
+     */
+    public static synchronized String getGoldenMasterStatistics() {
+        String stats = String.format("golden masters decoded: %d hits, %d misses",
+                                     sDecodeHits, sDecodeMisses);
+        return sGoldenMasterStore.getStatistics() + "; " + stats;
+    }
+
+    /**
+     * Returns the decoded pixels of the golden master for this device.
+     * Images are decoded once per run and shared by every test which uses
+     * identical golden master contents.
+     * @param path path relative to the device directory, e.g. "LightTests/canEnableLight.png".
+     * @return decoded golden master, null if there is none.
+     */
+    static synchronized GoldenImage getGoldenImage(String path) throws IOException {
+        String fullPath = DEVICE_TYPE + "/" + path;
+        SXRGoldenMasterStore.Entry entry = sGoldenMasterStore.lookup(fullPath);
+
+        if (entry == null) {
+            return null;
+        }
+        GoldenImage image = sDecodedGoldenMasters.get(entry.hash);
+        if (image != null) {
+            ++sDecodeHits;
+            return image;
+        }
+        Bitmap bitmap = BitmapFactory.decodeByteArray(entry.data, 0, entry.data.length);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode golden master " + fullPath);
+        }
+        image = new GoldenImage(bitmap.getWidth(), bitmap.getHeight());
+        bitmap.getPixels(image.pixels, 0, image.width, 0, 0, image.width, image.height);
+        bitmap.recycle();
+        sDecodedGoldenMasters.put(entry.hash, image);
+        ++sDecodeMisses;
+        return image;
+    }
+
+    /**
+     * Decoded golden master, pixels are packed ARGB. The pixels are shared
+     * and must not be modified.
+     */
+    static final class GoldenImage {
+        final int width;
+        final int height;
+        final int[] pixels;
+
+        GoldenImage(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.pixels = new int[width * height];
         }
     }
 
@@ -158,6 +279,11 @@ public class SXRTestUtils implements SXRMainMonitor {
         }
     }
 
+    /**
+     * Waits until {@link #onAssetLoaded} is called. Only one load can be
+     * waited for at a time; several completions before the wait count as one.
+     * Use a {@link SXRAssetLoadTracker} to wait for loads in flight concurrently.
+     */
     public void waitForAssetLoad() {
         synchronized (onAssetLock) {
             while(!mAssetIsLoaded) {
@@ -174,26 +300,83 @@ public class SXRTestUtils implements SXRMainMonitor {
         }
     }
 
+    /**
+     * Returns the frame interval recorder of the test activity.
+     */
+    public SXRFrameTimes getFrameTimes() {
+        return testableMain.getFrameTimes();
+    }
+
+    /**
+     * Waits for "frames" frames to be rendered and returns statistics of their frame times.
+     * This is a blocking call.
+     * @param frames number of frame intervals to measure.
+     * @param refreshPeriodNanos display refresh period used to count janky frames.
+     */
+    public SXRFrameStats measureFrames(int frames, long refreshPeriodNanos) {
+        SXRFrameTimes frameTimes = testableMain.getFrameTimes();
+        frameTimes.reset();
+        waitForXFrames(frames + 1);
+        return frameTimes.getStats(refreshPeriodNanos);
+    }
+
+    /**
+     * Returns the directory on external storage where a test category
+     * should keep result files. scripts/runtest collects it after the run.
+     */
+    public static File getResultsDir(String category) {
+        File dir = new File(Environment.getExternalStorageDirectory(), RESULTS_DIR + "/" + category);
+        dir.mkdirs();
+        return dir;
+    }
+
     /**
      * Waits for "frames" number of frames to be rendered before returning. This is a blocking call.
      * @param frames number of frames to wait for
      */
     public void waitForXFrames(int frames) {
-        synchronized (xFramesLock) {
-            mFramesLockDone = false;
-            testableMain.notifyAfterXFrames(frames);
-            while(!mFramesLockDone) {
-                try {
-                    xFramesLock.wait();
-                } catch (InterruptedException e) {
-                    Log.e(TAG,"",e);
-                    Thread.currentThread().interrupt();
-                    return;
-                }
-            }
+        SXRFrameBarrier barrier = testableMain.getFrameBarrier();
+        try {
+            barrier.awaitFrame(barrier.getFrameNumber() + frames);
+        } catch (InterruptedException e) {
+            Log.e(TAG,"",e);
+            Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * Returns the frame counter of the test activity. Any number of threads
+     * can wait on it for different frames at the same time.
+     */
+    public SXRFrameBarrier getFrameBarrier() {
+        return testableMain.getFrameBarrier();
+    }
+
+    /**
+     * Returns the number of frames rendered since the activity started.
+     */
+    public long getFrameNumber() {
+        return testableMain.getFrameBarrier().getFrameNumber();
+    }
+
+    /**
+     * Waits until the given frame has been rendered. This is a blocking call.
+     * @param frameNumber frame number as returned by {@link #getFrameNumber()}.
+     * @return number of the frame which released the caller.
+     */
+    public long awaitFrame(long frameNumber) throws InterruptedException {
+        return testableMain.getFrameBarrier().awaitFrame(frameNumber);
+    }
+
+    /**
+     * Returns a future which completes after "frames" more frames have been rendered.
+     * Unlike {@link #waitForXFrames(int)} this does not block, the test can do
+     * other work and wait on the future later.
+     */
+    public Future<Long> nextFrames(int frames) {
+        return testableMain.getFrameBarrier().nextFrames(frames);
+    }
+
     @Override
     public void onInitCalled(SXRContext context, SXRScene mainScene) {
         this.mainScene = mainScene;
@@ -213,13 +396,6 @@ public class SXRTestUtils implements SXRMainMonitor {
         onStepLatch.countDown();
     }
 
-    public void xFramesRendered() {
-        synchronized (xFramesLock) {
-            mFramesLockDone = true;
-            xFramesLock.notifyAll();
-        }
-    }
-
     public void onAssetLoaded(SXRNode asset) {
         synchronized (onAssetLock) {
             mAssetIsLoaded = true;
@@ -295,182 +471,123 @@ public class SXRTestUtils implements SXRMainMonitor {
         private Waiter mWaiter;
         private String mTestName;
         private String mCategory;
-        private boolean mDoCompare;
+        private SXRImageComparator mComparator;
+        private volatile SXRScreenshotJob mJob;
 
         /**
          * Prepare for a new screen capture.
          * @param category directory to store screenshots in.
          * @param testname the name of the test method.
          * @param waiter instance of the {@link Waiter} class.
-         * @param compare flag used to turnon/off comparison of screenshots.
+         * @param comparator how to compare the screenshot with its golden master,
+         *                   null to only save the screenshot.
          */
-        public void init(String testname, String category, Waiter waiter, boolean compare)
+        public void init(String testname, String category, Waiter waiter, SXRImageComparator comparator)
         {
             mTestName = testname;
             mCategory = category;
             mWaiter = waiter;
-            mDoCompare = compare;
+            mComparator = comparator;
+            mJob = null;
         }
 
-        private void compareWithGolden(final Bitmap screenshot)
+        @Override
+        public void onScreenCaptured(Bitmap bitmap)
         {
-            try
+            synchronized (onScreenshotLock)
             {
-                Bitmap golden = null;
-                String testname = mTestName + ".png";
+                SXRScreenshotJob job = new SXRScreenshotJob(mCategory, mTestName, bitmap, mComparator);
 
-                try
-                {
-                    URL url = new URL(GOLDEN_MASTERS_URL + "/" + mCategory + "/" + testname);
-                    Log.v(TAG, "Fetching golden master " + url.toString());
-                    final InputStream inputStream = url.openStream();
-                    try
-                    {
-                        final BitmapFactory.Options options = new BitmapFactory.Options();
-                        options.inMutable = true;
-                        golden = BitmapFactory.decodeStream(inputStream, null, options);
-                    }
-                    finally
-                    {
-                        inputStream.close();
-                    }
-                }
-                catch (Throwable ex)
-                {
-                    mWaiter.fail(ex);
-                }
-                if (golden != null)
+                job.run();
+                mJob = job;
+                mWaiter.resume();
+            }
+        }
+
+        /**
+         * Waits until the screenshot and its diff image are written and
+         * fails the waiter if it could not be saved or does not match.
+         */
+        void awaitJob() throws TimeoutException
+        {
+            SXRScreenshotJob job = mJob;
+
+            try
+            {
+                if ((job == null) || !job.await(SCREENSHOT_TEST_TIMEOUT, TimeUnit.MILLISECONDS))
                 {
-                    try
-                    {
-                        final float[] diff = {0.0f};
-
-                        final int goldenHeight = golden.getHeight();
-                        final int goldenWidth = golden.getWidth();
-
-                        mWaiter.assertEquals(goldenWidth, screenshot.getWidth());
-                        mWaiter.assertEquals(goldenHeight, screenshot.getHeight());
-
-                        final ReentrantLock lockDiff = new ReentrantLock();
-
-                        try
-                        {
-                            final CountDownLatch cdl = new CountDownLatch(goldenHeight);
-
-                            final int[] goldenPixels = new int[goldenHeight * goldenWidth];
-                            golden.getPixels(goldenPixels, 0, goldenWidth, 0, 0, goldenWidth,
-                                             goldenHeight);
-
-                            final int[] screenshotPixels = new int[goldenHeight * goldenWidth];
-                            screenshot.getPixels(screenshotPixels, 0, goldenWidth, 0, 0,
-                                                 goldenWidth, goldenHeight);
-
-                            for (int y = 0; y < goldenHeight; y++)
-                            {
-                                Threads.spawn(
-                                        new CompareRunnable(goldenWidth, y, goldenPixels, lockDiff,
-                                                            diff, screenshotPixels, cdl));
-                            }
-
-                            cdl.await();
-                            golden.setPixels(goldenPixels, 0, goldenWidth, 0, 0, goldenWidth,
-                                             goldenHeight);
-                            //hints
-                            System.gc();
-                            System.runFinalization();
-                        }
-                        catch (Throwable t)
-                        {
-                            mWaiter.fail(t);
-                        }
-
-                        Log.e(mCategory, "RESULT: %s %s diff = %f", mCategory, mTestName, diff[0]);
-                        if (diff[0] > 2000.0f)
-                        {
-                            writeBitmap(mCategory, "diff_" + testname, golden);
-                        }
-
-                        mWaiter.assertTrue(diff[0] <= 30000.0f);
-                    }
-                    finally
-                    {
-                        golden.recycle();
-                    }
+                    throw new TimeoutException("Screenshot " + mCategory + "/" + mTestName + " not saved");
                 }
             }
-            finally
+            catch (InterruptedException e)
             {
-                screenshot.recycle();
+                Log.e(TAG, "", e);
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (job.getFailure() != null)
+            {
+                mWaiter.fail(job.getFailure());
             }
         }
+    };
 
-        protected void writeBitmap(String dir, String filename, Bitmap bitmap)
-        {
-            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    /**
+     * Hands captured screenshots to the screenshot pipeline.
+     */
+    class AsyncScreenShooter implements SXRScreenshotCallback
+    {
+        private final String mTestName;
+        private final String mCategory;
+        private final SXRImageComparator mComparator;
+        private final CountDownLatch mCaptured = new CountDownLatch(1);
+        private volatile Throwable mFailure = null;
 
-            File sdcard = Environment.getExternalStorageDirectory();
-            dir = sdcard.getAbsolutePath() + "/GearVRFTests/" + dir + "/";
-            File d = new File(dir);
-            d.mkdirs();
+        AsyncScreenShooter(String testname, String category, SXRImageComparator comparator)
+        {
+            mTestName = testname;
+            mCategory = category;
+            mComparator = comparator;
+        }
 
+        @Override
+        public void onScreenCaptured(Bitmap bitmap)
+        {
             try
             {
-                bitmap.compress(Bitmap.CompressFormat.PNG, 100, bytes);
-                FileOutputStream fo = new FileOutputStream(new File(d, filename));
-                try {
-                    bytes.writeTo(fo);
-                } finally {
-                    fo.close();
-                }
+                getScreenshotPipeline().submit(SXRTestUtils.this, new SXRScreenshotJob(mCategory, mTestName, bitmap, mComparator));
             }
-            catch (Throwable ex)
+            catch (Throwable t)
             {
-                ex.printStackTrace();
-                mWaiter.fail(ex);
+                mFailure = t;
+                bitmap.recycle();
             }
             finally
             {
-                try
-                {
-                    bytes.close();
-                }
-                catch (IOException e) { }
+                mCaptured.countDown();
             }
         }
 
-        @Override
-        public void onScreenCaptured(Bitmap bitmap)
+        void awaitCapture() throws TimeoutException
         {
-            synchronized (onScreenshotLock)
+            try
             {
-                String basename = mTestName + ".png";
-
-                try
-                {
-                    writeBitmap(mCategory, basename, bitmap);
-                }
-                catch (Exception e)
+                if (!mCaptured.await(SCREENSHOT_TEST_TIMEOUT, TimeUnit.MILLISECONDS))
                 {
-                    Log.e(mCategory, "Could not save screenshot of %s", mTestName);
-                    mWaiter.fail(e);
+                    throw new TimeoutException("Screenshot " + mCategory + "/" + mTestName + " not captured");
                 }
-                try
-                {
-                    Log.d(mCategory, "Saved screenshot of %s", mTestName);
-                    if (mDoCompare)
-                    {
-                        compareWithGolden(bitmap);
-                    }
-                }
-                catch (Throwable t)
-                {
-                    Log.d(mCategory, "Exception while comparing screenshot for %s", mTestName);
-                    mWaiter.fail(t);
-                }
-                mWaiter.resume();
+            }
+            catch (InterruptedException e)
+            {
+                Log.e(TAG, "", e);
+                Thread.currentThread().interrupt();
+            }
+            if (mFailure != null)
+            {
+                throw new IllegalStateException("Cannot queue screenshot " + mTestName, mFailure);
             }
         }
-    };
+    }
 
     ScreenShooter mScreenShooter = new ScreenShooter();
 
@@ -479,6 +596,9 @@ public class SXRTestUtils implements SXRMainMonitor {
      * assets directory. This method looks for a file named "diff_$testname$.png" in the assets
      * folder for the reference screenshot of the expected result. The captured screenshots are
      * stored in /sdcard/GearVRfTests/$category$/$testname$.png
+     * <p>
+     * Screenshots are compared with {@link SXRImageComparators#getDefault()},
+     * pass a comparator to choose another strategy.
      * @param category directory to store screenshots in.
      * @param testname the name of the test method.
      * @param waiter instance of the {@link Waiter} class.
@@ -488,10 +608,28 @@ public class SXRTestUtils implements SXRMainMonitor {
     public void screenShot(final String category, final String testname, final Waiter waiter,
                            final boolean doCompare) throws TimeoutException
     {
-        mScreenShooter.init(testname, category, waiter, doCompare);
+        screenShot(category, testname, waiter, doCompare ? SXRImageComparators.getDefault() : null);
+    }
+
+    /**
+     * Captures a center screenshot and compares it with a golden screenshot
+     * using the given comparison strategy. Returns once the screenshot is
+     * saved, the waiter fails if it could not be saved or does not match.
+     * @param category directory to store screenshots in.
+     * @param testname the name of the test method.
+     * @param waiter instance of the {@link Waiter} class.
+     * @param comparator how to compare with the golden master, null to skip the comparison.
+     * @throws TimeoutException
+     * @see SXRImageComparators
+     */
+    public void screenShot(final String category, final String testname, final Waiter waiter,
+                           final SXRImageComparator comparator) throws TimeoutException
+    {
+        mScreenShooter.init(testname, category, waiter, comparator);
         waitForSceneRendering();
         sxrContext.captureScreenCenter(mScreenShooter);
         waiter.await(SCREENSHOT_TEST_TIMEOUT);
+        mScreenShooter.awaitJob();
     }
 
     /**
@@ -499,6 +637,9 @@ public class SXRTestUtils implements SXRMainMonitor {
      * assets directory. This method looks for a file named "diff_$testname$.png" in the assets
      * folder for the reference screenshot of the expected result. The captured screenshots are
      * stored in /sdcard/GearVRfTests/$category$/$testname$.png
+     * <p>
+     * Screenshots are compared with {@link SXRImageComparators#getDefault()},
+     * pass a comparator to choose another strategy.
      * @param category directory to store screenshots in.
      * @param testname the name of the test method.
      * @param waiter instance of the {@link Waiter} class.
@@ -508,59 +649,199 @@ public class SXRTestUtils implements SXRMainMonitor {
     public void screenShotRight(final String category, final String testname, final Waiter waiter,
                            final boolean doCompare) throws TimeoutException
     {
-        mScreenShooter.init(testname, category, waiter, doCompare);
+        screenShotRight(category, testname, waiter, doCompare ? SXRImageComparators.getDefault() : null);
+    }
+
+    /**
+     * Captures a right screenshot and compares it with a golden screenshot
+     * using the given comparison strategy.
+     * @param category directory to store screenshots in.
+     * @param testname the name of the test method.
+     * @param waiter instance of the {@link Waiter} class.
+     * @param comparator how to compare with the golden master, null to skip the comparison.
+     * @throws TimeoutException
+     * @see SXRImageComparators
+     */
+    public void screenShotRight(final String category, final String testname, final Waiter waiter,
+                                final SXRImageComparator comparator) throws TimeoutException
+    {
+        mScreenShooter.init(testname, category, waiter, comparator);
         waitForSceneRendering();
         sxrContext.captureScreenRight(mScreenShooter);
         waiter.await(SCREENSHOT_TEST_TIMEOUT);
+        mScreenShooter.awaitJob();
     }
 
-    final static class CompareRunnable implements Runnable {
-        private final int y;
-        private int[] goldenPixels;
-        private ReentrantLock lockDiff;
-        private float[] diff;
-        private int[] screenshotPixels;
-        private CountDownLatch cdl;
-        private final int goldenWidth;
+    /**
+     * Returns the pipeline which saves and compares the screenshots taken with
+     * {@link #screenShotAsync}, it is shared by all tests in the process.
+     */
+    public static synchronized SXRScreenshotPipeline getScreenshotPipeline()
+    {
+        if (sScreenshotPipeline == null)
+        {
+            int numThreads = Math.max(1, Math.min(SCREENSHOT_THREADS,
+                                                  Runtime.getRuntime().availableProcessors() - 1));
+            sScreenshotPipeline = new SXRScreenshotPipeline(numThreads, SCREENSHOT_MAX_PENDING);
+        }
+        return sScreenshotPipeline;
+    }
 
-        CompareRunnable(final int goldenWidth, final int y, final int[] goldenPixels, final ReentrantLock lockDiff, final float[] diff,
-                        final int[] screenshotPixels, final CountDownLatch cdl) {
-            this.y = y;
-            this.goldenPixels = goldenPixels;
-            this.lockDiff = lockDiff;
-            this.diff = diff;
-            this.screenshotPixels = screenshotPixels;
-            this.cdl = cdl;
-            this.goldenWidth = goldenWidth;
+    /**
+     * Returns the writer all screenshots and diff images are saved with.
+     * By default it writes PNG files with the fastest zlib compression into
+     * /sdcard/GearVRFTests on a background thread.
+     */
+    public static synchronized SXRScreenshotWriter getScreenshotWriter()
+    {
+        if (sScreenshotWriter == null)
+        {
+            sScreenshotWriter = new SXRScreenshotWriter(
+                    new File(Environment.getExternalStorageDirectory(), SCREENSHOT_DIR),
+                    SXRScreenshotWriter.Format.PNG, Deflater.BEST_SPEED);
         }
+        return sScreenshotWriter;
+    }
 
-        @Override
-        public void run() {
-            try {
-                for (int x = 0; x < goldenWidth; x++) {
-                    int p1 = goldenPixels[x*goldenWidth + y];
-                    int p2 = screenshotPixels[x*goldenWidth + y];
-                    int r = Math.abs(Color.red(p1) - Color.red(p2));
-                    int g = Math.abs(Color.green(p1) - Color.green(p2));
-                    int b = Math.abs(Color.blue(p1) - Color.blue(p2));
-                    goldenPixels[x*goldenWidth + y] = Color.argb(255, r, g, b);
-
-                    lockDiff.lock();
-                    try {
-                        diff[0] += (float) r / 255.0f + g / 255.0f + b / 255.0f;
-                    } finally {
-                        lockDiff.unlock();
-                    }
+    /**
+     * Writes the statistics of the screenshot writer, if any screenshots were taken.
+     */
+    static synchronized void writeScreenshotStatistics()
+    {
+        if (sScreenshotWriter != null)
+        {
+            sScreenshotWriter.writeStatistics();
+        }
+    }
+
+    /**
+     * Replaces the writer screenshots are saved with, e.g. to dump raw RGBA
+     * files in performance runs. Screenshots still queued on the previous
+     * writer are written by it.
+     * @param writer writer to use for all subsequent screenshots.
+     */
+    public static synchronized void setScreenshotWriter(SXRScreenshotWriter writer)
+    {
+        if (writer == null)
+        {
+            throw new IllegalArgumentException("screenshot writer cannot be null");
+        }
+        if ((sScreenshotWriter != null) && (sScreenshotWriter != writer))
+        {
+            sScreenshotWriter.writeStatistics();
+            sScreenshotWriter.shutdown();
+        }
+        sScreenshotWriter = writer;
+    }
+
+    /**
+     * Returns the cache of converted models in /sdcard/SXRModelCache.
+     * Only for tests which measure loading, models from the cache are not
+     * built by the importer.
+     */
+    public static synchronized SXRModelCache getModelCache()
+    {
+        if (sModelCache == null)
+        {
+            sModelCache = new SXRModelCache(new File(Environment.getExternalStorageDirectory(), MODEL_CACHE_DIR));
+        }
+        return sModelCache;
+    }
+
+    /**
+     * Returns the models of the jassimp/ and x3d/ trees, null if the
+     * manifest cannot be read. It is only read once per process.
+     */
+    public static synchronized SXRModelCorpus getModelCorpus()
+    {
+        if (!sModelCorpusRead)
+        {
+            sModelCorpusRead = true;
+            try
+            {
+                sModelCorpus = SXRModelCorpus.load();
+            }
+            catch (IOException ex)
+            {
+                Log.e(TAG, "Cannot read the model corpus manifest: %s", ex.getMessage());
+            }
+        }
+        return sModelCorpus;
+    }
+
+    /**
+     * Captures a center screenshot and returns as soon as it is captured.
+     * Saving it and comparing it with its golden master happens on the
+     * screenshot pipeline while the test goes on. Call
+     * {@link #awaitScreenshots(Waiter)} before the test ends to collect the results.
+     * <p>
+     * Screenshots are compared with {@link SXRImageComparators#getDefault()},
+     * pass a comparator to choose another strategy.
+     * @param category directory to store screenshots in.
+     * @param testname the name of the screenshot.
+     * @param doCompare flag used to turnon/off comparison of screenshots.
+     * @throws TimeoutException if the screen is not captured in time.
+     */
+    public void screenShotAsync(final String category, final String testname, final boolean doCompare)
+            throws TimeoutException
+    {
+        screenShotAsync(category, testname, doCompare ? SXRImageComparators.getDefault() : null);
+    }
+
+    /**
+     * Captures a center screenshot and returns as soon as it is captured.
+     * @see #screenShotAsync(String, String, boolean)
+     * @param comparator how to compare with the golden master, null to skip the comparison.
+     */
+    public void screenShotAsync(final String category, final String testname,
+                                final SXRImageComparator comparator) throws TimeoutException
+    {
+        AsyncScreenShooter shooter = new AsyncScreenShooter(testname, category, comparator);
+
+        waitForSceneRendering();
+        sxrContext.captureScreenCenter(shooter);
+        shooter.awaitCapture();
+    }
+
+    /**
+     * Waits until all screenshots this instance took with {@link #screenShotAsync}
+     * are saved and compared. Every screenshot which could not be saved or does not match its
+     * golden master is logged, the waiter fails if there was any.
+     * @return the finished screenshots in the order they were taken.
+     */
+    public List<SXRScreenshotJob> awaitScreenshots(Waiter waiter) throws TimeoutException
+    {
+        List<SXRScreenshotJob> jobs;
+        int numFailed = 0;
+        Throwable firstFailure = null;
+
+        try
+        {
+            jobs = getScreenshotPipeline().awaitAll(this, SCREENSHOT_TEST_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Log.e(TAG, "", e);
+            Thread.currentThread().interrupt();
+            return new ArrayList<SXRScreenshotJob>();
+        }
+        for (SXRScreenshotJob job : jobs)
+        {
+            if (job.getFailure() != null)
+            {
+                Log.e(job.getCategory(), "Screenshot %s failed: %s", job.getTestName(), job.getFailure().getMessage());
+                if (firstFailure == null)
+                {
+                    firstFailure = job.getFailure();
                 }
-            } finally {
-                cdl.countDown();
-
-                goldenPixels = null;
-                screenshotPixels = null;
-                lockDiff = null;
-                cdl = null;
-                diff = null;
+                ++numFailed;
             }
         }
+        if (firstFailure != null)
+        {
+            waiter.fail(new AssertionError(numFailed + " of " + jobs.size()
+                                           + " screenshots failed, first: " + firstFailure.getMessage()));
+        }
+        return jobs;
     }
 }
@@ -72,6 +72,7 @@ public class SXRTestableActivity extends SXRActivity {
     @Override
     protected void onDestroy() {
         Log.d(TAG, "OnDestroy called");
+        SXRTestUtils.writeScreenshotStatistics();
         super.onDestroy();
     }
 
@@ -29,15 +29,13 @@ import com.samsungxr.utility.Log;
 class SXRTestableMain extends SXRMain{
 
     private static final String TAG = SXRTestableMain.class.getSimpleName();
-    private static final int WAIT_DISABLED = -1;
     private SXRContext sxrContext;
     private volatile SXRScene mainScene;
     private SXRMainMonitor mainMonitor;
     private boolean sceneRendered = false;
-    private int framesRendered = 0;
-    private final Object waitXFramesLock = new Object();
     private final Object waitForMonitor = new Object();
-    private int waitForXFrames = WAIT_DISABLED;
+    private final SXRFrameBarrier frameBarrier = new SXRFrameBarrier();
+    private final SXRFrameTimes frameTimes = new SXRFrameTimes(SXRFrameTimes.DEFAULT_CAPACITY);
 
     @Override
     public void onInit(SXRContext sxrContext) {
@@ -62,17 +60,9 @@ class SXRTestableMain extends SXRMain{
 
     @Override
     public void onStep() {
+        frameTimes.onFrame(System.nanoTime());
         sceneRendered = true;
-        synchronized (waitXFramesLock) {
-            if (waitForXFrames != WAIT_DISABLED) {
-                framesRendered++;
-                if (framesRendered >= waitForXFrames) {
-                    mainMonitor.xFramesRendered();
-                    waitForXFrames = WAIT_DISABLED;
-                    framesRendered = 0;
-                }
-            }
-        }
+        frameBarrier.onFrame();
         mainMonitor.onSceneRendered();
     }
 
@@ -91,12 +81,12 @@ class SXRTestableMain extends SXRMain{
         return sceneRendered;
     }
 
-    public void notifyAfterXFrames(int frames) {
-        synchronized (waitXFramesLock) {
-            waitForXFrames = frames;
-            framesRendered = 0;
-        }
+    public SXRFrameTimes getFrameTimes() {
+        return frameTimes;
+    }
 
+    public SXRFrameBarrier getFrameBarrier() {
+        return frameBarrier;
     }
 
     public SXRTexture getSplashTexture(SXRContext sxrContext) {
@@ -0,0 +1,93 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.samsungxr.unittestutils;
+
+/**
+ * Compares images tile by tile and fails if any single tile is too different.
+ * <p>
+ * The error of a tile is the mean absolute channel delta of its pixels,
+ * in [0, 255]. The score is the error of the worst tile. Unlike a sum over
+ * the whole image this catches a small object being wrong or missing while
+ * tolerating faint noise spread over the whole screen.
+ */
+public class SXRTileErrorComparator implements SXRImageComparator
+{
+    public static final int DEFAULT_TILE_SIZE = 32;
+    public static final float DEFAULT_MAX_TILE_ERROR = 8.0f;
+
+    private final int mTileSize;
+    private final float mMaxTileError;
+
+    public SXRTileErrorComparator()
+    {
+        this(DEFAULT_TILE_SIZE, DEFAULT_MAX_TILE_ERROR);
+    }
+
+    /**
+     * @param tileSize     width and height of the tiles in pixels.
+     * @param maxTileError largest mean channel error a tile may have, in [0, 255].
+     */
+    public SXRTileErrorComparator(int tileSize, float maxTileError)
+    {
+        if (tileSize < 1)
+        {
+            throw new IllegalArgumentException("tile size must be positive");
+        }
+        mTileSize = tileSize;
+        mMaxTileError = maxTileError;
+    }
+
+    @Override
+    public Result compare(int[] golden, int[] screenshot, int width, int height, int[] diffPixels)
+    {
+        final int n = mTileSize;
+        final int tilesX = (width + n - 1) / n;
+        final long[] tileSums = new long[tilesX];
+        float maxError = 0.0f;
+
+        for (int top = 0; top < height; top += n)
+        {
+            final int bottom = Math.min(top + n, height);
+
+            for (int t = 0; t < tilesX; ++t)
+            {
+                tileSums[t] = 0;
+            }
+            for (int y = top; y < bottom; ++y)
+            {
+                final int row = y * width;
+                for (int t = 0; t < tilesX; ++t)
+                {
+                    final int left = t * n;
+                    tileSums[t] += SXRImageDiff.diffColumns(golden, screenshot, diffPixels,
+                                                            row + left, row + Math.min(left + n, width));
+                }
+            }
+            for (int t = 0; t < tilesX; ++t)
+            {
+                final int left = t * n;
+                final int count = (Math.min(left + n, width) - left) * (bottom - top);
+                final float error = tileSums[t] / (3.0f * count);
+
+                if (error > maxError)
+                {
+                    maxError = error;
+                }
+            }
+        }
+        return new Result("tile error", maxError, mMaxTileError,
+                          maxError <= mMaxTileError, maxError > mMaxTileError / 2);
+    }
+}
@@ -0,0 +1,95 @@
+/* Copyright 2015 Samsung Electronics Co., LTD
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.samsungxr.unittestutils;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Fetches golden masters over HTTP, by default from the sxrsdk-tests
+ * repository on GitHub.
+ */
+public class SXRUrlGoldenMasterStore implements SXRGoldenMasterStore
+{
+    private final String mBaseUrl;
+    private int mReads = 0;
+    private int mNotFound = 0;
+
+    /**
+     * @param baseUrl URL of the golden_masters root, ending with '/'.
+     */
+    public SXRUrlGoldenMasterStore(String baseUrl)
+    {
+        mBaseUrl = baseUrl;
+    }
+
+    @Override
+    public byte[] read(String path) throws IOException
+    {
+        InputStream stream;
+
+        try
+        {
+            stream = new URL(mBaseUrl + path).openStream();
+        }
+        catch (FileNotFoundException ex)
+        {
+            return count(null);
+        }
+        try
+        {
+            return count(SXRGoldenMasterCache.readFully(stream, 0));
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    @Override
+    public Entry lookup(String path) throws IOException
+    {
+        byte[] data = read(path);
+        return (data != null) ? new Entry(SXRDigest.sha256(data), data) : null;
+    }
+
+    private synchronized byte[] count(byte[] data)
+    {
+        if (data != null)
+        {
+            ++mReads;
+        }
+        else
+        {
+            ++mNotFound;
+        }
+        return data;
+    }
+
+    @Override
+    public synchronized String getStatistics()
+    {
+        return String.format("golden masters %s: %d read, %d not found", toString(), mReads, mNotFound);
+    }
+
+    @Override
+    public String toString()
+    {
+        return mBaseUrl;
+    }
+}